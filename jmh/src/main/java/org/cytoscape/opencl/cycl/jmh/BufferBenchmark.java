@@ -0,0 +1,99 @@
+package org.cytoscape.opencl.cycl.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.opencl.cycl.CyCLBuffer;
+import org.cytoscape.opencl.cycl.CyCLDevice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Buffer allocation and synchronous transfers, which include the staging copy on the Java side
+ * as well as the enqueue and finish calls through JNI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark
+{
+  @Param({ "256", "65536", "4194304" })
+  public int elements;
+
+  @Param({ "byte", "int", "long", "float", "double" })
+  public String type;
+
+  private CyCLDevice device;
+  private Class<?> elementType;
+  private Object hostData;
+  private CyCLBuffer buffer;
+
+  @Setup(Level.Trial)
+  public void setUp(DeviceState state)
+  {
+    device = state.device;
+    switch (type)
+    {
+      case "byte": elementType = byte.class; hostData = new byte[elements]; break;
+      case "int": elementType = int.class; hostData = new int[elements]; break;
+      case "long": elementType = long.class; hostData = new long[elements]; break;
+      case "float": elementType = float.class; hostData = new float[elements]; break;
+      case "double": elementType = double.class; hostData = new double[elements]; break;
+      default: throw new IllegalArgumentException("Unknown element type " + type);
+    }
+    buffer = device.createBuffer(elementType, elements);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    buffer.free();
+  }
+
+  @Benchmark
+  public void createAndFree()
+  {
+    device.createBuffer(elementType, elements).free();
+  }
+
+  @Benchmark
+  public void hostToDevice()
+  {
+    switch (type)
+    {
+      case "byte": buffer.setFromHost((byte[])hostData); break;
+      case "int": buffer.setFromHost((int[])hostData); break;
+      case "long": buffer.setFromHost((long[])hostData); break;
+      case "float": buffer.setFromHost((float[])hostData); break;
+      default: buffer.setFromHost((double[])hostData); break;
+    }
+  }
+
+  @Benchmark
+  public Object deviceToHost()
+  {
+    switch (type)
+    {
+      case "byte": buffer.getFromDevice((byte[])hostData); break;
+      case "int": buffer.getFromDevice((int[])hostData); break;
+      case "long": buffer.getFromDevice((long[])hostData); break;
+      case "float": buffer.getFromDevice((float[])hostData); break;
+      default: buffer.getFromDevice((double[])hostData); break;
+    }
+
+    return hostData;
+  }
+}
@@ -0,0 +1,57 @@
+package org.cytoscape.opencl.cycl.jmh;
+
+import java.util.List;
+
+import org.cytoscape.opencl.cycl.CyCLDevice;
+import org.lwjgl.opencl.CL;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/***
+ * Initializes OpenCL once per trial and provides the device all benchmarks run on.
+ * The first device is used unless the system property cycl.benchmark.device names another one;
+ * any part of the device name will do, e. g. -Dcycl.benchmark.device=pthread for PoCL's CPU device.
+ */
+@State(Scope.Benchmark)
+public class DeviceState
+{
+  static final String DEVICE_PROPERTY = "cycl.benchmark.device";
+
+  public CyCLDevice device;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    CL.create();
+    device = selectDevice(CyCLDevice.getAll(""));
+    System.out.println("Benchmarking on " + device.name + " (" + device.platformName + ")");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    device = null;
+    System.gc();
+    System.runFinalization();
+    CL.destroy();
+  }
+
+  static CyCLDevice selectDevice(List<CyCLDevice> devices)
+  {
+    if (devices.isEmpty())
+      throw new IllegalStateException("No OpenCL device found. Is an OpenCL runtime such as PoCL installed?");
+
+    String wanted = System.getProperty(DEVICE_PROPERTY, "");
+    if (wanted.isEmpty())
+      return devices.get(0);
+
+    for (CyCLDevice device : devices)
+      if (device.name.toLowerCase().contains(wanted.toLowerCase()))
+        return device;
+
+    throw new IllegalStateException("No OpenCL device matches " + DEVICE_PROPERTY + "=" + wanted);
+  }
+}
@@ -0,0 +1,69 @@
+package org.cytoscape.opencl.cycl.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.opencl.cycl.CyCLBuffer;
+import org.cytoscape.opencl.cycl.CyCLKernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Launch overhead of CyCLKernel.execute on a single work item, so the time is dominated by
+ * setting the arguments, enqueueing and waiting rather than by the kernel itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark
+{
+  static final String PROGRAM = "LaunchOverhead";
+  static final String[] KERNELS = { "Args1", "Args4", "Args8", "Args16" };
+
+  @Param({ "1", "4", "8", "16" })
+  public int arguments;
+
+  private CyCLKernel kernel;
+  private CyCLBuffer result;
+  private Object[] args;
+  private final long[] dimsGlobal = { 1 };
+
+  @Setup(Level.Trial)
+  public void setUp(DeviceState state)
+  {
+    kernel = state.device.forceAddProgram(PROGRAM, getClass().getResource("/" + PROGRAM + ".cl"), KERNELS, null, true)
+                         .getKernel("Args" + arguments);
+    result = state.device.createBuffer(int.class, 1);
+
+    // The first argument is the output buffer, the rest alternate between scalar types
+    args = new Object[arguments];
+    args[0] = result;
+    for (int a = 1; a < arguments; a++)
+      args[a] = a % 2 == 0 ? (Object)(float)a : (Object)a;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    result.free();
+  }
+
+  @Benchmark
+  public void execute()
+  {
+    kernel.execute(dimsGlobal, null, args);
+  }
+}
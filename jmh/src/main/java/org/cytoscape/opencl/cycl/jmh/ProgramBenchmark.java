@@ -0,0 +1,48 @@
+package org.cytoscape.opencl.cycl.jmh;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.opencl.cycl.CyCLDevice;
+import org.cytoscape.opencl.cycl.CyCLProgram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Program build time, from reading the source to having the kernel objects.
+ * Every invocation replaces the previous build, so this includes destroying the old program.
+ * Some drivers cache binaries internally, in which case only the first build is slow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProgramBenchmark
+{
+  private CyCLDevice device;
+  private URL source;
+
+  @Setup(Level.Trial)
+  public void setUp(DeviceState state)
+  {
+    device = state.device;
+    source = getClass().getResource("/" + KernelBenchmark.PROGRAM + ".cl");
+  }
+
+  @Benchmark
+  public CyCLProgram build()
+  {
+    return device.forceAddProgram(KernelBenchmark.PROGRAM, source, KernelBenchmark.KERNELS, null, true);
+  }
+}
@@ -0,0 +1,115 @@
+package org.cytoscape.opencl.cycl.jmh;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.opencl.cycl.CyCLBuffer;
+import org.cytoscape.opencl.cycl.CyCLDevice;
+import org.cytoscape.opencl.cycl.CyCLSort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Radix sort on the device against Arrays.parallelSort, to find the key count from which sorting on the device pays off.
+ * radixSort includes the upload and download, sortResident only the sort of keys that already are on the device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortBenchmark
+{
+  @Param({ "4096", "65536", "1048576", "4194304" })
+  public int elements;
+
+  @Param({ "int", "float" })
+  public String type;
+
+  private int[] intKeys;
+  private float[] floatKeys;
+  private CyCLBuffer buffer;
+
+  @Setup(Level.Trial)
+  public void setUp(DeviceState state)
+  {
+    CyCLDevice device = state.device;
+    Random random = new Random(42);
+    switch (type)
+    {
+      case "int":
+        intKeys = new int[elements];
+        for (int i = 0; i < elements; i++)
+          intKeys[i] = random.nextInt();
+        buffer = device.createBuffer(int.class, elements);
+        break;
+      case "float":
+        floatKeys = new float[elements];
+        for (int i = 0; i < elements; i++)
+          floatKeys[i] = (float)random.nextGaussian();
+        buffer = device.createBuffer(float.class, elements);
+        break;
+      default: throw new IllegalArgumentException("Unknown key type " + type);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    buffer.free();
+  }
+
+  // Sorted keys would make every following iteration sort sorted input
+  private void upload()
+  {
+    if (intKeys != null)
+      buffer.setFromHost(intKeys);
+    else
+      buffer.setFromHost(floatKeys);
+  }
+
+  @Benchmark
+  public Object radixSort()
+  {
+    upload();
+    CyCLSort.sort(buffer, elements);
+    if (intKeys != null)
+    {
+      int[] sorted = new int[elements];
+      buffer.getFromDevice(sorted);
+      return sorted;
+    }
+
+    float[] sorted = new float[elements];
+    buffer.getFromDevice(sorted);
+    return sorted;
+  }
+
+  @Benchmark
+  public Object parallelSort()
+  {
+    if (intKeys != null)
+    {
+      int[] sorted = intKeys.clone();
+      Arrays.parallelSort(sorted);
+      return sorted;
+    }
+
+    float[] sorted = floatKeys.clone();
+    Arrays.parallelSort(sorted);
+    return sorted;
+  }
+}
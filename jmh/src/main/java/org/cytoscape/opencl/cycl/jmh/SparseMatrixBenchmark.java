@@ -0,0 +1,151 @@
+package org.cytoscape.opencl.cycl.jmh;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.opencl.cycl.CyCLBuffer;
+import org.cytoscape.opencl.cycl.CyCLDevice;
+import org.cytoscape.opencl.cycl.CyCLSparseMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Sparse matrix-vector products on synthetic power-law networks, the structure of most biological networks,
+ * against the same product in plain Java. The networks are Chung-Lu graphs whose expected degrees follow
+ * a power law with the given exponent; lower exponents mean bigger hubs. The vectors stay on the device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparseMatrixBenchmark
+{
+  @Param({ "16384", "262144" })
+  public int nodes;
+
+  @Param({ "8", "32" })
+  public int averageDegree;
+
+  @Param({ "2.1", "2.7" })
+  public double exponent;
+
+  @Param({ "auto", "csr" })
+  public String format;
+
+  @Param({ "1", "8" })
+  public int vectors;
+
+  private CyCLSparseMatrix matrix;
+  private CyCLBuffer x, y;
+  private int[] rowOffsets, columns;
+  private float[] values, hostX, hostY;
+
+  @Setup(Level.Trial)
+  public void setUp(DeviceState state)
+  {
+    CyCLDevice device = state.device;
+    Random random = new Random(42);
+
+    // Chung-Lu: endpoints are drawn proportionally to the expected degree (i + 1)^(-1 / (exponent - 1))
+    double[] cumulative = new double[nodes];
+    double total = 0.0;
+    for (int i = 0; i < nodes; i++)
+    {
+      total += Math.pow(i + 1, -1.0 / (exponent - 1.0));
+      cumulative[i] = total;
+    }
+
+    // Both directions of every undirected edge
+    int edges = (int)((long)nodes * averageDegree / 2);
+    int[] sources = new int[2 * edges];
+    int[] targets = new int[2 * edges];
+    float[] weights = new float[2 * edges];
+    for (int e = 0; e < edges; e++)
+    {
+      int s = drawNode(cumulative, total, random);
+      int t = drawNode(cumulative, total, random);
+      float weight = random.nextFloat();
+      sources[2 * e] = s;
+      targets[2 * e] = t;
+      sources[2 * e + 1] = t;
+      targets[2 * e + 1] = s;
+      weights[2 * e] = weights[2 * e + 1] = weight;
+    }
+
+    matrix = CyCLSparseMatrix.fromEdges(device, nodes, nodes, sources, targets, weights,
+                                        format.equals("csr") ? CyCLSparseMatrix.Format.CSR : null);
+    System.out.println("Matrix format " + matrix.getFormat() + ", longest row " + matrix.getMaxRowLength());
+
+    hostX = new float[nodes * vectors];
+    for (int i = 0; i < hostX.length; i++)
+      hostX[i] = random.nextFloat();
+    hostY = new float[nodes * vectors];
+    x = device.createBuffer(hostX);
+    y = device.createBuffer(float.class, nodes * vectors);
+
+    // CSR on the host for the Java baseline
+    rowOffsets = new int[nodes + 1];
+    for (int s : sources)
+      rowOffsets[s + 1]++;
+    for (int i = 0; i < nodes; i++)
+      rowOffsets[i + 1] += rowOffsets[i];
+    int[] next = Arrays.copyOf(rowOffsets, nodes);
+    columns = new int[sources.length];
+    values = new float[sources.length];
+    for (int e = 0; e < sources.length; e++)
+    {
+      int k = next[sources[e]]++;
+      columns[k] = targets[e];
+      values[k] = weights[e];
+    }
+  }
+
+  private static int drawNode(double[] cumulative, double total, Random random)
+  {
+    int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+    return Math.min(cumulative.length - 1, index < 0 ? -index - 1 : index);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    matrix.free();
+    x.free();
+    y.free();
+  }
+
+  @Benchmark
+  public void deviceMultiply()
+  {
+    matrix.multiply(x, y, vectors);
+  }
+
+  @Benchmark
+  public Object hostMultiply()
+  {
+    for (int r = 0; r < nodes; r++)
+      for (int v = 0; v < vectors; v++)
+      {
+        float sum = 0.0f;
+        for (int k = rowOffsets[r]; k < rowOffsets[r + 1]; k++)
+          sum += values[k] * hostX[columns[k] * vectors + v];
+        hostY[r * vectors + v] = sum;
+      }
+
+    return hostY;
+  }
+}
@@ -0,0 +1,52 @@
+package org.cytoscape.opencl.cycl.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cytoscape.opencl.cycl.CyCLDevice;
+import org.lwjgl.opencl.CL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Device enumeration and initialization as done when Cytoscape starts, including the benchmark
+ * that ranks devices, since no score store is used here. Every fork measures a cold start first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 3)
+@Fork(3)
+public class StartupBenchmark
+{
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    CL.create();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    System.gc();
+    System.runFinalization();
+    CL.destroy();
+  }
+
+  @Benchmark
+  public List<CyCLDevice> getAll()
+  {
+    return CyCLDevice.getAll("");
+  }
+}
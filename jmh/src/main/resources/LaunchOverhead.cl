@@ -0,0 +1,23 @@
+// Kernels that do next to nothing, so launching them measures the host-side overhead of CyCLKernel.execute
+
+__kernel void Args1(__global int* result)
+{
+	result[0] = 1;
+}
+
+__kernel void Args4(__global int* result, int a1, float a2, int a3)
+{
+	result[0] = a1 + (int)a2 + a3;
+}
+
+__kernel void Args8(__global int* result, int a1, float a2, int a3, float a4, int a5, float a6, int a7)
+{
+	result[0] = a1 + (int)a2 + a3 + (int)a4 + a5 + (int)a6 + a7;
+}
+
+__kernel void Args16(__global int* result, int a1, float a2, int a3, float a4, int a5, float a6, int a7,
+                     float a8, int a9, float a10, int a11, float a12, int a13, float a14, int a15)
+{
+	result[0] = a1 + (int)a2 + a3 + (int)a4 + a5 + (int)a6 + a7
+	          + (int)a8 + a9 + (int)a10 + a11 + (int)a12 + a13 + (int)a14 + a15;
+}
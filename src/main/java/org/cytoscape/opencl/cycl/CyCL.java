@@ -4,6 +4,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.cytoscape.application.CyApplicationConfiguration;
 import org.cytoscape.property.CyProperty;
@@ -20,17 +21,37 @@ public class CyCL
 {
 	public static Object initSync = new Object();
 	public static Object sync = new Object();
-	private static List<CyCLDevice> devices = new ArrayList<>();
+	// Copy-on-write, so devices can be removed without initSync, e. g. when a kernel times out while initialize() holds it
+	private static List<CyCLDevice> devices = new CopyOnWriteArrayList<>();
 	private static boolean isInitialized = false;
 
+	// Seconds a device context may stay unused before it and its programs are released; unset or 0 keeps contexts (default)
+	static final String CONTEXT_IDLE_TIMEOUT = "opencl.context.idleTimeout";
+	// If true, devices on the same platform share one context and can exchange buffers without host round-trips
+	static final String CONTEXT_SHARED = "opencl.context.shared";
+	// Seconds a kernel may run before its device is quarantined; 0 disables the watchdog
+	static final String KERNEL_TIMEOUT = "opencl.kernel.timeout";
+	// If true (default), the Java device is offered when no OpenCL device is available
+	static final String JAVA_FALLBACK = "opencl.javaFallback";
+	// If true, the Java device is also listed next to the OpenCL devices, ranked by its benchmark score like them; off by default
+	static final String JAVA_DEVICE = "opencl.javaDevice";
+
 	public CyCL()
 	{
 	}
 
+	/**
+	 * Gets all available devices, the preferred or best one first.
+	 * If opencl.javaDevice is set, the Java device of CyCLJavaBackend.getDefault() is listed by its benchmark score as well;
+	 * it only runs kernels that have a registered Java implementation, see CyCLDevice.getBackend().
+	 * If OpenCL could not be initialized, it is the only device.
+	 * 
+	 * @return Available devices
+	 */
 	public static List<CyCLDevice> getDevices()
 	{
 		if (devices == null)
-			devices = new ArrayList<>();
+			devices = new CopyOnWriteArrayList<>();
 
 		return devices;
 	}
@@ -53,12 +74,18 @@ public class CyCL
 			File configDir = applicationConfig.getConfigurationDirectoryLocation();
 			String dummyPath = configDir.getAbsolutePath() + File.separator + "disable-opencl.dummy";
 
+			boolean javaFallback = !"false".equalsIgnoreCase(propertyService.getProperties().getProperty(JAVA_FALLBACK, "true").trim());
+			boolean javaDevice = Boolean.parseBoolean(propertyService.getProperties().getProperty(JAVA_DEVICE, "false").trim());
+			CyCLDeviceProfileStore profileStore = new CyCLDeviceProfileStore(new File(configDir, CyCLDeviceProfileStore.FILE_NAME));
+
 			File dummy = new File(dummyPath);
 			if (dummy.exists())
 			{
 				System.out.println("OpenCL was not initialized because it crashed on the previous attempt.");
 				System.out.println("If you think it works now, remove disable-opencl.dummy manually from Cytoscape's configuration directory.");
 				System.out.println("For more information on how to troubleshoot OpenCL, please refer to http://manual.cytoscape.org/en/stable/Cytoscape_and_OpenCL_GPU.html.");
+				if (javaFallback)
+					addJavaDevice(profileStore, "");
 			}
 			else
 			{
@@ -76,7 +103,43 @@ public class CyCL
 					if (preferredDevice == null)
 						preferredDevice = "";
 
-					devices = CyCLDevice.getAll(preferredDevice);
+					// Benchmark results are reused until the driver changes, or the user asks for a new benchmark
+					boolean rerunBenchmark = Boolean.parseBoolean(globalProps.getProperty(CyCLSettingsTask.OPENCL_RERUN_BENCHMARK));
+					if (rerunBenchmark)
+						globalProps.setProperty(CyCLSettingsTask.OPENCL_RERUN_BENCHMARK, "false");
+
+					String idleTimeout = globalProps.getProperty(CONTEXT_IDLE_TIMEOUT);
+					if (idleTimeout != null)
+					{
+						try
+						{
+							CyCLDevice.setContextIdleTimeout(Long.parseLong(idleTimeout.trim()) * 1000);
+						}
+						catch (NumberFormatException e)
+						{
+							System.out.println("Ignoring invalid " + CONTEXT_IDLE_TIMEOUT + " value: " + idleTimeout);
+						}
+					}
+
+					String kernelTimeout = globalProps.getProperty(KERNEL_TIMEOUT);
+					if (kernelTimeout != null)
+					{
+						try
+						{
+							CyCLKernel.setTimeout(Long.parseLong(kernelTimeout.trim()) * 1000);
+						}
+						catch (NumberFormatException e)
+						{
+							System.out.println("Ignoring invalid " + KERNEL_TIMEOUT + " value: " + kernelTimeout);
+						}
+					}
+
+					CyCLContext.setSharedContexts(Boolean.parseBoolean(globalProps.getProperty(CONTEXT_SHARED)));
+
+					devices = new CopyOnWriteArrayList<>(CyCLDevice.getAll(preferredDevice, profileStore, rerunBenchmark));
+					CyCLDeviceMetrics.registerAll(devices);
+					if (javaDevice && !devices.isEmpty())
+						addJavaDevice(profileStore, preferredDevice);
 
 					if (!dummy.delete())
 					{
@@ -85,11 +148,17 @@ public class CyCL
 					}
 
 					if (devices == null || devices.size() == 0)
+					{
+						if (javaFallback)
+							addJavaDevice(profileStore, preferredDevice);
 						return false;
+					}
 				}
 				catch (Throwable e)
 				{
 					e.printStackTrace();
+					if (javaFallback)
+						addJavaDevice(profileStore, "");
 					return false;
 				}
 			}
@@ -100,6 +169,130 @@ public class CyCL
 		}
 	}
 
+	/**
+	 * Makes the multicore Java device available. It goes first if it is the preferred device, and otherwise before the first device
+	 * with a worse benchmark score, leaving a preferred OpenCL device in front. As a fallback it spares applications their own serial code path.
+	 * 
+	 * @param profileStore Persisted benchmark results, so the Java device is benchmarked only once per Java version
+	 * @param preferredDevice Name of the preferred device; empty if there is none
+	 */
+	private static void addJavaDevice(CyCLDeviceProfileStore profileStore, String preferredDevice)
+	{
+		try
+		{
+			if (devices == null)
+				devices = new CopyOnWriteArrayList<>();
+			for (CyCLDevice device : devices)
+				if (device.getBackend() != null)
+					return;
+
+			boolean fallback = devices.isEmpty();
+			CyCLDevice device = CyCLDevice.forBackend(CyCLJavaBackend.getDefault(), profileStore);
+			profileStore.save();
+			int index = 0;
+			if (!device.name.equals(preferredDevice))
+			{
+				if (!devices.isEmpty() && devices.get(0).name.equals(preferredDevice))
+					index = 1;
+				while (index < devices.size() && devices.get(index).benchmarkScore <= device.benchmarkScore)
+					index++;
+			}
+			devices.add(index, device);
+			CyCLDeviceMetrics.registerAll(devices);
+
+			if (fallback)
+				System.out.println("No OpenCL device available, using " + device.name + " instead.");
+		}
+		catch (Throwable e)
+		{
+			System.out.println("Could not create the Java device.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the number of OpenCL contexts currently held by all devices.
+	 * Contexts are created when a device is first used and released after being idle.
+	 * 
+	 * @return Number of live contexts
+	 */
+	public static int getLiveContextCount()
+	{
+		return CyCLContext.getLiveContextCount();
+	}
+
+	/**
+	 * Gets all devices ordered by one metric of their performance profiles, best first.
+	 * Devices whose profile hasn't been measured yet are benchmarked first.
+	 * 
+	 * @param metric Metric that limits the intended workload, e. g. FP32_THROUGHPUT for compute-bound kernels
+	 * @return Ranked devices
+	 */
+	public static List<CyCLDevice> getDevicesRankedBy(CyCLDeviceProfile.Metric metric)
+	{
+		return CyCLDeviceProfile.rank(getDevices(), metric);
+	}
+
+	/**
+	 * Selects the device that is predicted to finish a workload first.
+	 * Unlike the order of getDevices(), which reflects the user's preference and the overall benchmark score,
+	 * this accounts for transfer costs, e. g. a small network may run faster on a CPU device than on a GPU.
+	 * 
+	 * @param workload Description of the workload
+	 * @return Device with the lowest predicted time, or null if no device supports the workload
+	 */
+	public static CyCLDevice selectDevice(CyCLWorkload workload)
+	{
+		CyCLDevice best = null;
+		double bestTime = Double.POSITIVE_INFINITY;
+		for (CyCLDevice device : getDevices())
+		{
+			if (!workload.isSupportedBy(device))
+				continue;
+
+			// The first supported device is taken even if its prediction isn't comparable, so a supported device is always found
+			double time = workload.predictTime(device);
+			if (best == null || time < bestTime)
+			{
+				best = device;
+				bestTime = time;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Removes a device from the list of available devices, e. g. after it has been quarantined, and unregisters its metrics.
+	 * Doesn't take initSync, since devices can be quarantined on threads that initialize() waits for.
+	 * 
+	 * @param device Device to remove
+	 */
+	static void removeDevice(CyCLDevice device)
+	{
+		List<CyCLDevice> current = devices;
+		if (current != null)
+			current.remove(device);
+		CyCLDeviceMetrics.unregister(device);
+	}
+
+	/**
+	 * Takes a snapshot of the metrics of all available devices.
+	 * 
+	 * @return One snapshot per device, in the order of getDevices()
+	 */
+	public static List<CyCLDeviceMetrics.Snapshot> getMetricsSnapshot()
+	{
+		List<CyCLDeviceMetrics.Snapshot> snapshots = new ArrayList<>();
+		synchronized (initSync)
+		{
+			for (CyCLDevice device : getDevices())
+				snapshots.add(device.getMetrics().snapshot());
+		}
+
+		return snapshots;
+	}
+
 	public static void makePreferred(String name)
 	{
 		synchronized (initSync)
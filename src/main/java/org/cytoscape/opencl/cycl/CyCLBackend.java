@@ -0,0 +1,69 @@
+package org.cytoscape.opencl.cycl;
+
+/***
+ * Service provider interface for running CyCL programs without OpenCL.
+ * A backend is presented to applications as a virtual CyCLDevice (see CyCLDevice.forBackend), so code written
+ * against CyCLDevice, CyCLBuffer and CyCLKernel runs on it unchanged, as long as the backend implements
+ * every kernel the code uses under the same name as in the OpenCL program.
+ *
+ * Buffers of a backend device live in host memory: the staging buffer returned by CyCLBuffer.getBuffer()
+ * is the device memory, so transfers are plain copies and kernels read and write it directly.
+ * All commands complete before they return; events returned by asynchronous methods are already complete.
+ */
+public interface CyCLBackend
+{
+  /***
+   * Gets the name of the virtual device.
+   *
+   * @return Device name
+   */
+  String getName();
+
+  /***
+   * Gets the vendor of the virtual device.
+   *
+   * @return Vendor name
+   */
+  String getVendor();
+
+  /***
+   * Gets the number of kernel invocations that can run in parallel.
+   *
+   * @return Number of compute units, usually the number of threads
+   */
+  int getComputeUnits();
+
+  /***
+   * Gets the largest amount of memory a single buffer may occupy.
+   *
+   * @return Size in bytes
+   */
+  long getMaxBufferSize();
+
+  /***
+   * Determines if kernels with double precision arguments are supported.
+   *
+   * @return True if double precision is supported
+   */
+  boolean supportsDouble();
+
+  /***
+   * Determines if the backend implements a kernel.
+   *
+   * @param name Kernel name, as in the OpenCL program
+   * @return True if the kernel can be executed
+   */
+  boolean hasKernel(String name);
+
+  /***
+   * Runs a kernel over a global range and returns once all work items have finished.
+   * Arguments are passed as given to CyCLKernel.execute: buffers as CyCLBuffer, scalars boxed,
+   * and local memory as CyCLLocalSize. Local work sizes don't apply, since work items can't synchronize.
+   *
+   * @param name Kernel name
+   * @param dimsGlobal Global work size
+   * @param globalOffset Global work offset; can be null
+   * @param args Kernel arguments
+   */
+  void execute(String name, long[] dimsGlobal, long[] globalOffset, Object[] args);
+}
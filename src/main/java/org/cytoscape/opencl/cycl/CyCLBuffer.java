@@ -4,6 +4,7 @@ import java.nio.*;
 
 import org.lwjgl.opencl.*;
 import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
 
 import static org.lwjgl.opencl.CL11.*;
 import static org.lwjgl.system.MemoryUtil.*;
@@ -22,6 +23,8 @@ public class CyCLBuffer
   private long memObject;
   private ByteBuffer buffer;
   private boolean finalized;
+  // True on backend devices, whose device memory is the staging buffer itself
+  private boolean hostMemory;
 
   /***
    * Allocates [sizeof(type) * elements] bytes in device memory without copying any host data
@@ -35,6 +38,7 @@ public class CyCLBuffer
     this.context = context;
     this.type = type;
     this.elements = elements;
+    hostMemory = context.getDevice().getBackend() != null;
 
     // Create the buffer
     buffer = BufferUtils.createByteBuffer(sizeInBytes());
@@ -194,6 +198,36 @@ public class CyCLBuffer
       return 1;
   }
   
+  /***
+   * Gets the element type the buffer was created with.
+   * 
+   * @return Element type
+   */
+  public Class<?> getType()
+  {
+    return type;
+  }
+
+  /***
+   * Gets the number of elements in the buffer.
+   * 
+   * @return Number of elements
+   */
+  public int getElements()
+  {
+    return elements;
+  }
+
+  /***
+   * Gets the context the buffer was allocated in.
+   * 
+   * @return Context of the device that created the buffer
+   */
+  CyCLContext getContext()
+  {
+    return context;
+  }
+
   /***
    * Returns the overall buffer size in bytes.
    * 
@@ -213,10 +247,16 @@ public class CyCLBuffer
    */
   public void setFromHost(byte[] data, int length, int offset)
   {
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_char;
     buffer.put(data);
     buffer.rewind();
-    CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null);
-    CL10.clFinish(context.getQueue());
+    if (!hostMemory)
+    {
+      CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null);
+      CL10.clFinish(context.getQueue());
+    }
+    endTransfer(start, true, bytes);
   }
 
   /***
@@ -228,10 +268,15 @@ public class CyCLBuffer
    */
   public void setFromHost(short[] data, int length, int offset)
   {
+    long start = beginSynchronous();
     buffer.asShortBuffer().put(data);
     buffer.rewind();
-    CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, data, null, null);
-    CL10.clFinish(context.getQueue());
+    if (!hostMemory)
+    {
+      CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, data, null, null);
+      CL10.clFinish(context.getQueue());
+    }
+    endTransfer(start, true, (long)data.length * Sizeof.cl_short);
   }
 
   /***
@@ -243,10 +288,16 @@ public class CyCLBuffer
    */
   public void setFromHost(int[] data, int length, int offset)
   {
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_int;
     buffer.asIntBuffer().put(data);
     buffer.rewind();
-    CyCLUtils.checkCLError(clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null));
-    clFinish(context.getQueue());
+    if (!hostMemory)
+    {
+      CyCLUtils.checkCLError(clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null));
+      clFinish(context.getQueue());
+    }
+    endTransfer(start, true, bytes);
   }
 
   /***
@@ -258,10 +309,16 @@ public class CyCLBuffer
    */
   public void setFromHost(long[] data, int length, int offset)
   {
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_long;
     buffer.asLongBuffer().put(data);
     buffer.rewind();
-    CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null);
-    CL10.clFinish(context.getQueue());
+    if (!hostMemory)
+    {
+      CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null);
+      CL10.clFinish(context.getQueue());
+    }
+    endTransfer(start, true, bytes);
   }
 
   /***
@@ -273,10 +330,15 @@ public class CyCLBuffer
    */
   public void setFromHost(float[] data, int length, int offset)
   {
+    long start = beginSynchronous();
     buffer.asFloatBuffer().put(data);
     buffer.rewind();
-    CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, data, null, null);
-    CL10.clFinish(context.getQueue());
+    if (!hostMemory)
+    {
+      CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, data, null, null);
+      CL10.clFinish(context.getQueue());
+    }
+    endTransfer(start, true, (long)data.length * Sizeof.cl_float);
   }
 
   /***
@@ -288,10 +350,15 @@ public class CyCLBuffer
    */
   public void setFromHost(double[] data, int length, int offset)
   {
+    long start = beginSynchronous();
     buffer.asDoubleBuffer().put(data);
     buffer.rewind();
-    CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, data, null, null);
-    CL10.clFinish(context.getQueue());
+    if (!hostMemory)
+    {
+      CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, (long)offset, data, null, null);
+      CL10.clFinish(context.getQueue());
+    }
+    endTransfer(start, true, (long)data.length * Sizeof.cl_double);
   }
 
   /***
@@ -354,8 +421,243 @@ public class CyCLBuffer
     setFromHost(data, sizeInBytes(), 0);
   }
   
+  /***
+   * Starts copying data from host to device memory on the device's host-to-device transfer queue, and returns immediately.
+   * The data is staged in the buffer's host memory, which must not be changed until the returned event has completed.
+   * 
+   * @param data Data to be copied
+   * @param waitFor Events that have to complete before the transfer starts
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHostAsync(byte[] data, CyCLEvent... waitFor)
+  {
+    buffer.put(data);
+    buffer.rewind();
+    return enqueueWrite(context.getQueue(CyCLContext.QueueType.HOST_TO_DEVICE), waitFor);
+  }
+
+  /***
+   * Starts copying data from host to device memory on the device's host-to-device transfer queue, and returns immediately.
+   * The data is staged in the buffer's host memory, which must not be changed until the returned event has completed.
+   * 
+   * @param data Data to be copied
+   * @param waitFor Events that have to complete before the transfer starts
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHostAsync(short[] data, CyCLEvent... waitFor)
+  {
+    buffer.asShortBuffer().put(data);
+    buffer.rewind();
+    return enqueueWrite(context.getQueue(CyCLContext.QueueType.HOST_TO_DEVICE), waitFor);
+  }
+
+  /***
+   * Starts copying data from host to device memory on the device's host-to-device transfer queue, and returns immediately.
+   * The data is staged in the buffer's host memory, which must not be changed until the returned event has completed.
+   * 
+   * @param data Data to be copied
+   * @param waitFor Events that have to complete before the transfer starts
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHostAsync(int[] data, CyCLEvent... waitFor)
+  {
+    buffer.asIntBuffer().put(data);
+    buffer.rewind();
+    return enqueueWrite(context.getQueue(CyCLContext.QueueType.HOST_TO_DEVICE), waitFor);
+  }
+
+  /***
+   * Starts copying data from host to device memory on the device's host-to-device transfer queue, and returns immediately.
+   * The data is staged in the buffer's host memory, which must not be changed until the returned event has completed.
+   * 
+   * @param data Data to be copied
+   * @param waitFor Events that have to complete before the transfer starts
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHostAsync(long[] data, CyCLEvent... waitFor)
+  {
+    buffer.asLongBuffer().put(data);
+    buffer.rewind();
+    return enqueueWrite(context.getQueue(CyCLContext.QueueType.HOST_TO_DEVICE), waitFor);
+  }
+
+  /***
+   * Starts copying data from host to device memory on the device's host-to-device transfer queue, and returns immediately.
+   * The data is staged in the buffer's host memory, which must not be changed until the returned event has completed.
+   * 
+   * @param data Data to be copied
+   * @param waitFor Events that have to complete before the transfer starts
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHostAsync(float[] data, CyCLEvent... waitFor)
+  {
+    buffer.asFloatBuffer().put(data);
+    buffer.rewind();
+    return enqueueWrite(context.getQueue(CyCLContext.QueueType.HOST_TO_DEVICE), waitFor);
+  }
+
+  /***
+   * Starts copying data from host to device memory on the device's host-to-device transfer queue, and returns immediately.
+   * The data is staged in the buffer's host memory, which must not be changed until the returned event has completed.
+   * 
+   * @param data Data to be copied
+   * @param waitFor Events that have to complete before the transfer starts
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHostAsync(double[] data, CyCLEvent... waitFor)
+  {
+    buffer.asDoubleBuffer().put(data);
+    buffer.rewind();
+    return enqueueWrite(context.getQueue(CyCLContext.QueueType.HOST_TO_DEVICE), waitFor);
+  }
+
+  /***
+   * Starts copying the whole buffer from device to host memory on the device's device-to-host transfer queue,
+   * and returns immediately. Once the returned event has completed, the data is available through getBuffer().
+   * 
+   * @param waitFor Events that have to complete before the transfer starts
+   * @return Event that completes once the data is in host memory
+   */
+  public CyCLEvent getFromDeviceAsync(CyCLEvent... waitFor)
+  {
+    return enqueueRead(context.getQueue(CyCLContext.QueueType.DEVICE_TO_HOST), waitFor);
+  }
+
+  /***
+   * Enqueues a non-blocking upload of the whole staging buffer.
+   */
+  CyCLEvent enqueueWrite(long queue, CyCLEvent... waitFor)
+  {
+    if (hostMemory)
+    {
+      metrics().onHostToDevice(sizeInBytes());
+      return CyCLEvent.completed();
+    }
+
+    PointerBuffer event = BufferUtils.createPointerBuffer(1);
+    long start = System.nanoTime();
+    context.getDevice().markContextUsed();
+    CyCLUtils.checkCLError(clEnqueueWriteBuffer(queue, memObject, false, 0, buffer, CyCLEvent.toWaitList(waitFor), event), "clEnqueueWriteBuffer");
+    clFlush(queue);
+    metrics().onHostToDevice(sizeInBytes());
+    CyCLTrace.record(CyCLTrace.CATEGORY_TRANSFER, "Host to device (async)", context.getDevice(), start, System.nanoTime(), sizeInBytes(), event.get(0));
+
+    return new CyCLEvent(event.get(0), metrics());
+  }
+
+  /***
+   * Enqueues a non-blocking download of the whole buffer into the staging buffer.
+   */
+  CyCLEvent enqueueRead(long queue, CyCLEvent... waitFor)
+  {
+    if (hostMemory)
+    {
+      metrics().onDeviceToHost(sizeInBytes());
+      return CyCLEvent.completed();
+    }
+
+    PointerBuffer event = BufferUtils.createPointerBuffer(1);
+    long start = System.nanoTime();
+    context.getDevice().markContextUsed();
+    CyCLUtils.checkCLError(clEnqueueReadBuffer(queue, memObject, false, 0, buffer, CyCLEvent.toWaitList(waitFor), event), "clEnqueueReadBuffer");
+    clFlush(queue);
+    metrics().onDeviceToHost(sizeInBytes());
+    CyCLTrace.record(CyCLTrace.CATEGORY_TRANSFER, "Device to host (async)", context.getDevice(), start, System.nanoTime(), sizeInBytes(), event.get(0));
+
+    return new CyCLEvent(event.get(0), metrics());
+  }
+
+  /***
+   * Enqueues a device-side copy from another buffer in the same context.
+   */
+  CyCLEvent enqueueCopyFrom(long queue, CyCLBuffer src, long bytes, long offsetSrc, long offsetDst, CyCLEvent... waitFor)
+  {
+    if (!sharesContextWith(src))
+      throw new CyCLException("Device-side copies require both buffers to be in the same context");
+    if (hostMemory)
+    {
+      copyHostMemory(src, bytes, offsetSrc, offsetDst);
+      return CyCLEvent.completed();
+    }
+
+    PointerBuffer event = BufferUtils.createPointerBuffer(1);
+    long start = System.nanoTime();
+    context.getDevice().markContextUsed();
+    CyCLUtils.checkCLError(clEnqueueCopyBuffer(queue, src.getMemObject(), memObject, offsetSrc, offsetDst, bytes, CyCLEvent.toWaitList(waitFor), event), "clEnqueueCopyBuffer");
+    clFlush(queue);
+    metrics().onDeviceToDevice(bytes);
+    CyCLTrace.record(CyCLTrace.CATEGORY_TRANSFER, "Device to device (async)", context.getDevice(), start, System.nanoTime(), bytes, event.get(0));
+
+    return new CyCLEvent(event.get(0), metrics());
+  }
+
+  /***
+   * Copies part of the staging buffer to the same location in device memory.
+   * 
+   * @param offset Offset in bytes from the start of the buffer
+   * @param bytes Number of bytes to be copied
+   */
+  public void setRegionFromStaging(long offset, long bytes)
+  {
+    long start = beginSynchronous();
+    ByteBuffer region = getStagingRegion(offset, bytes);
+    if (!hostMemory)
+      CyCLUtils.checkCLError(clEnqueueWriteBuffer(context.getQueue(), memObject, true, offset, region, null, null), "clEnqueueWriteBuffer");
+    endTransfer(start, true, bytes);
+  }
+
+  /***
+   * Copies part of the device memory to the same location in the staging buffer.
+   * The data is then available through getBuffer().
+   * 
+   * @param offset Offset in bytes from the start of the buffer
+   * @param bytes Number of bytes to be copied
+   */
+  public void getRegionToStaging(long offset, long bytes)
+  {
+    long start = beginSynchronous();
+    ByteBuffer region = getStagingRegion(offset, bytes);
+    if (!hostMemory)
+      CyCLUtils.checkCLError(clEnqueueReadBuffer(context.getQueue(), memObject, true, offset, region, null, null), "clEnqueueReadBuffer");
+    endTransfer(start, false, bytes);
+  }
+
+  private ByteBuffer getStagingRegion(long offset, long bytes)
+  {
+    if (offset < 0 || bytes < 0 || offset + bytes > sizeInBytes())
+      throw new CyCLException("Region [" + offset + ", " + (offset + bytes) + ") is outside of buffer with " + sizeInBytes() + " bytes");
+
+    ByteBuffer region = buffer.duplicate();
+    region.limit((int)(offset + bytes));
+    region.position((int)offset);
+    return region;
+  }
+
+  /***
+   * Copies data into the host staging buffer without transferring it.
+   */
+  void stage(Object data)
+  {
+    if (data instanceof byte[])
+      buffer.put((byte[])data);
+    else if (data instanceof short[])
+      buffer.asShortBuffer().put((short[])data);
+    else if (data instanceof int[])
+      buffer.asIntBuffer().put((int[])data);
+    else if (data instanceof long[])
+      buffer.asLongBuffer().put((long[])data);
+    else if (data instanceof float[])
+      buffer.asFloatBuffer().put((float[])data);
+    else if (data instanceof double[])
+      buffer.asDoubleBuffer().put((double[])data);
+    else
+      throw new CyCLException("Unsupported host data type " + data.getClass());
+    buffer.rewind();
+  }
+
   /***
    * Copies data from another device buffer to this one.
+   * If both buffers share a native context, the copy stays on the device; otherwise it goes through host memory.
    * 
    * @param src Device buffer with the source data
    * @param bytes Amount of bytes to be copied
@@ -364,7 +666,70 @@ public class CyCLBuffer
    */
   public void setFromDevice(CyCLBuffer src, long bytes, long offsetSrc, long offsetDst)
   {
-    CL10.clEnqueueCopyBuffer(context.getQueue(), src.getMemObject(), memObject, offsetSrc, offsetDst, bytes, null, null);
+    context.getDevice().markContextUsed();
+    if (hostMemory && src.hostMemory)
+    {
+      copyHostMemory(src, bytes, offsetSrc, offsetDst);
+    }
+    else if (hostMemory || src.hostMemory)
+    {
+      // One side is plain host memory, so a single transfer on the native side suffices
+      if (hostMemory)
+        src.getRegionToStaging(offsetSrc, bytes);
+      copyHostMemory(src, bytes, offsetSrc, offsetDst);
+      if (src.hostMemory)
+        setRegionFromStaging(offsetDst, bytes);
+    }
+    else if (sharesContextWith(src))
+    {
+      // The source may belong to another device of a shared context, whose queue isn't ordered with ours
+      if (src.context != context)
+        CL10.clFinish(src.context.getQueue());
+      CyCLUtils.checkCLError(CL10.clEnqueueCopyBuffer(context.getQueue(), src.getMemObject(), memObject, offsetSrc, offsetDst, bytes, null, null), "clEnqueueCopyBuffer");
+      metrics().onDeviceToDevice(bytes);
+    }
+    else
+    {
+      // Different native contexts can't see each other's memory, so the data has to go through the host
+      ByteBuffer bounce = BufferUtils.createByteBuffer((int)bytes);
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(src.context.getQueue(), src.getMemObject(), true, offsetSrc, bounce, null, null), "clEnqueueReadBuffer");
+      CyCLUtils.checkCLError(CL10.clEnqueueWriteBuffer(context.getQueue(), memObject, true, offsetDst, bounce, null, null), "clEnqueueWriteBuffer");
+      src.metrics().onDeviceToHost(bytes);
+      metrics().onHostToDevice(bytes);
+    }
+  }
+
+  private void copyHostMemory(CyCLBuffer src, long bytes, long offsetSrc, long offsetDst)
+  {
+    ByteBuffer from = src.getStagingRegion(offsetSrc, bytes);
+    ByteBuffer to = getStagingRegion(offsetDst, bytes);
+    to.put(from);
+    metrics().onDeviceToDevice(bytes);
+  }
+
+  /***
+   * Determines if the buffer belongs to a backend device, whose device memory is the staging buffer.
+   *
+   * @return True if the buffer lives in host memory
+   */
+  boolean isHostMemory()
+  {
+    return hostMemory;
+  }
+
+  /***
+   * Determines if another buffer lives in the same native context, i. e. if it can be copied
+   * to this one on the device, or be passed to kernels of this buffer's device.
+   * 
+   * @param other Other buffer
+   * @return True if both buffers share a native context
+   */
+  public boolean sharesContextWith(CyCLBuffer other)
+  {
+    if (hostMemory || other.hostMemory)
+      return hostMemory && other.hostMemory;
+
+    return other.context.getContext() == context.getContext();
   }
 
   /***
@@ -378,7 +743,10 @@ public class CyCLBuffer
   }
 
   public void getFromDevice(long offset) {
-    CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, offset, buffer, null, null), "clEnqueueReadBuffer");
+    long start = beginSynchronous();
+    if (!hostMemory)
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, offset, buffer, null, null), "clEnqueueReadBuffer");
+    endTransfer(start, false, sizeInBytes());
   }
   
   /***
@@ -390,8 +758,12 @@ public class CyCLBuffer
    */
   public void getFromDevice(byte[] data, int length, int offset)
   {
-    CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null), "clEnqueueReadBuffer");
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_char;
+    if (!hostMemory)
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null), "clEnqueueReadBuffer");
     buffer.get(data);
+    endTransfer(start, false, bytes);
   }
 
   /***
@@ -403,8 +775,12 @@ public class CyCLBuffer
    */
   public void getFromDevice(short[] data, int length, int offset)
   {
-    CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null), "clEnqueueReadBuffer");
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_short;
+    if (!hostMemory)
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null), "clEnqueueReadBuffer");
     buffer.asShortBuffer().get(data);
+    endTransfer(start, false, bytes);
   }
 
   /***
@@ -416,8 +792,12 @@ public class CyCLBuffer
    */
   public void getFromDevice(int[] data, int length, int offset)
   {
-    CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null), "clEnqueueReadBuffer");
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_int;
+    if (!hostMemory)
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null), "clEnqueueReadBuffer");
     buffer.asIntBuffer().get(data);
+    endTransfer(start, false, bytes);
   }
 
   /***
@@ -429,8 +809,12 @@ public class CyCLBuffer
    */
   public void getFromDevice(long[] data, int length, int offset)
   {
-    CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null), "clEnqueueReadBuffer");
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_long;
+    if (!hostMemory)
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null), "clEnqueueReadBuffer");
     buffer.asLongBuffer().get(data);
+    endTransfer(start, false, bytes);
   }
 
   /***
@@ -442,8 +826,12 @@ public class CyCLBuffer
    */
   public void getFromDevice(float[] data, int length, int offset)
   {
-    CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null), "clEnqueueReadBuffer");
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_float;
+    if (!hostMemory)
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null), "clEnqueueReadBuffer");
     buffer.asFloatBuffer().get(data);
+    endTransfer(start, false, bytes);
   }
 
   /***
@@ -455,8 +843,12 @@ public class CyCLBuffer
    */
   public void getFromDevice(double[] data, int length, int offset)
   {
-    CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, buffer, null, null), "clEnqueueReadBuffer");
+    long start = beginSynchronous();
+    long bytes = (long)data.length * Sizeof.cl_double;
+    if (!hostMemory)
+      CyCLUtils.checkCLError(CL10.clEnqueueReadBuffer(context.getQueue(), memObject, true, (long)offset, getStagingRegion(0, bytes), null, null), "clEnqueueReadBuffer");
     buffer.asDoubleBuffer().get(data);
+    endTransfer(start, false, bytes);
   }
 
   /***
@@ -520,6 +912,13 @@ public class CyCLBuffer
   }
 
   public void createClBuffer(int bits) {
+    if (hostMemory)
+    {
+      // The staging buffer already holds the data
+      context.onBufferCreated(sizeInBytes());
+      return;
+    }
+
     // Queue it
     IntBuffer errorBuffer = BufferUtils.createIntBuffer(1);
     if ((bits & CL_MEM_READ_ONLY) != 0) {
@@ -529,8 +928,36 @@ public class CyCLBuffer
       memObject = CL10.clCreateBuffer(context.getContext(), bits, buffer, errorBuffer);
       CyCLUtils.checkCLError(errorBuffer.get(0), "clCreateBuffer");
     }
+    context.onBufferCreated(sizeInBytes());
+    if ((bits & CL_MEM_COPY_HOST_PTR) != 0)
+      metrics().onHostToDevice(sizeInBytes());
   }
   
+  private CyCLDeviceMetrics metrics()
+  {
+    return context.getDevice().getMetrics();
+  }
+
+  private long beginSynchronous()
+  {
+    metrics().onCommandEnqueued();
+    context.getDevice().markContextUsed();
+    return System.nanoTime();
+  }
+
+  private void endTransfer(long start, boolean toDevice, long bytes)
+  {
+    CyCLDeviceMetrics metrics = metrics();
+    metrics.onSynchronousCommand(start);
+    metrics.onCommandFinished();
+    if (toDevice)
+      metrics.onHostToDevice(bytes);
+    else
+      metrics.onDeviceToHost(bytes);
+
+    CyCLTrace.record(CyCLTrace.CATEGORY_TRANSFER, toDevice ? "Host to device" : "Device to host", context.getDevice(), start, System.nanoTime(), bytes, 0);
+  }
+
   /***
    * Gets the underlying memory object.
    * 
@@ -575,7 +1002,9 @@ public class CyCLBuffer
       if(finalized)
         return;
       
-      CyCLUtils.checkCLError(CL10.clReleaseMemObject(memObject));
+      if (!hostMemory)
+        CyCLUtils.checkCLError(CL10.clReleaseMemObject(memObject));
+      context.onBufferReleased(sizeInBytes());
       
       finalized = true;
       super.finalize();
@@ -0,0 +1,210 @@
+package org.cytoscape.opencl.cycl;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opencl.CL12;
+
+import static org.lwjgl.opencl.CL10.*;
+
+/***
+ * Moves or replicates buffers between devices using the fastest path available, and keeps track of
+ * which device holds the current copy of every buffer it has handled.
+ *
+ * If both devices share a native context (see CyCLContext.setSharedContexts), a move keeps the buffer
+ * and only migrates its memory to the target device with clEnqueueMigrateMemObjects, and a replica is
+ * copied on the device. Otherwise the data goes through two pinned host buffers in chunks, so reading
+ * the next chunk from the source device overlaps with writing the previous one to the target device.
+ * Buffers of backend devices live in host memory, so they only ever need a single transfer.
+ */
+public class CyCLBufferMigrator
+{
+  private static final long CHUNK_BYTES = 4 << 20;
+
+  // Buffers are only weakly referenced, so freed buffers don't linger here
+  private final Map<CyCLBuffer, CyCLDevice> residency = Collections.synchronizedMap(new WeakHashMap<>());
+
+  /***
+   * Moves a buffer to another device. The returned buffer must be used instead of the source from now on.
+   * In a shared context this is the source buffer itself, otherwise a new buffer on the target device,
+   * and the source buffer is freed.
+   *
+   * @param src Buffer to move
+   * @param target Device that should hold the data
+   * @return Buffer holding the data on the target device
+   */
+  public CyCLBuffer move(CyCLBuffer src, CyCLDevice target)
+  {
+    CyCLDevice source = getResidentDevice(src);
+    if (source == target)
+      return src;
+
+    CyCLContext targetContext = target.getContext();
+    if (src.isHostMemory() && target.getBackend() != null)
+    {
+      // Backend devices all work in host memory, there is nothing to move
+      residency.put(src, target);
+      return src;
+    }
+    if (!src.isHostMemory() && target.getBackend() == null && targetContext.getContext() == src.getContext().getContext())
+    {
+      finishQueues(src, source);
+      if (target.getCapabilities().OpenCL12)
+      {
+        PointerBuffer memObjects = BufferUtils.createPointerBuffer(1);
+        memObjects.put(0, src.getMemObject());
+        CyCLUtils.checkCLError(CL12.clEnqueueMigrateMemObjects(targetContext.getQueue(), memObjects, 0, null, null), "clEnqueueMigrateMemObjects");
+        clFinish(targetContext.getQueue());
+      }
+      // Without OpenCL 1.2 the runtime migrates the memory implicitly on first use
+
+      residency.put(src, target);
+      return src;
+    }
+
+    CyCLBuffer dst = src.isHostMemory() || target.getBackend() != null ? replicate(src, target) : copyThroughHost(src, source, target);
+    src.free();
+    residency.remove(src);
+    return dst;
+  }
+
+  /***
+   * Creates a copy of a buffer on another device. The source buffer remains valid.
+   *
+   * @param src Buffer to replicate
+   * @param target Device that should receive a copy
+   * @return New buffer on the target device
+   */
+  public CyCLBuffer replicate(CyCLBuffer src, CyCLDevice target)
+  {
+    CyCLDevice source = getResidentDevice(src);
+    CyCLContext targetContext = target.getContext();
+
+    if (src.isHostMemory() || target.getBackend() != null)
+    {
+      // At most one side has native memory, so a single transfer does it
+      CyCLBuffer dst = target.createBuffer(src.getType(), src.getElements(), CL_MEM_READ_WRITE);
+      dst.setFromDevice(src);
+
+      residency.put(dst, target);
+      return dst;
+    }
+
+    if (targetContext.getContext() == src.getContext().getContext())
+    {
+      finishQueues(src, source);
+      CyCLBuffer dst = target.createBuffer(src.getType(), src.getElements(), CL_MEM_READ_WRITE);
+      CyCLUtils.checkCLError(clEnqueueCopyBuffer(targetContext.getQueue(), src.getMemObject(), dst.getMemObject(), 0, 0, src.sizeInBytes(), null, null), "clEnqueueCopyBuffer");
+      clFinish(targetContext.getQueue());
+
+      residency.put(dst, target);
+      return dst;
+    }
+
+    return copyThroughHost(src, source, target);
+  }
+
+  /***
+   * Gets the device holding the current copy of a buffer.
+   *
+   * @param buffer Buffer
+   * @return Device the buffer was last moved to, or the device that created it
+   */
+  public CyCLDevice getResidentDevice(CyCLBuffer buffer)
+  {
+    CyCLDevice device = residency.get(buffer);
+    return device != null ? device : buffer.getContext().getDevice();
+  }
+
+  /***
+   * Makes sure no command on the source device still writes to the buffer.
+   */
+  private static void finishQueues(CyCLBuffer src, CyCLDevice source)
+  {
+    src.getContext().finishAll();
+    if (source.getContext() != src.getContext())
+      source.getContext().finishAll();
+  }
+
+  private CyCLBuffer copyThroughHost(CyCLBuffer src, CyCLDevice source, CyCLDevice target)
+  {
+    CyCLContext sourceContext = source.getContext();
+    CyCLContext targetContext = target.getContext();
+    sourceContext.finishAll();
+
+    CyCLBuffer dst = target.createBuffer(src.getType(), src.getElements(), CL_MEM_READ_WRITE);
+
+    long bytes = src.sizeInBytes();
+    long chunkBytes = Math.min(CHUNK_BYTES, Math.max(1, bytes));
+    long readQueue = sourceContext.getQueue(CyCLContext.QueueType.DEVICE_TO_HOST);
+    long writeQueue = targetContext.getQueue(CyCLContext.QueueType.HOST_TO_DEVICE);
+
+    IntBuffer errcode = BufferUtils.createIntBuffer(1);
+    long[] pinnedMem = new long[2];
+    ByteBuffer[] pinned = new ByteBuffer[2];
+    CyCLEvent[] writes = new CyCLEvent[2];
+    try
+    {
+      for (int b = 0; b < 2; b++)
+      {
+        pinnedMem[b] = clCreateBuffer(sourceContext.getContext(), CL_MEM_READ_WRITE | CL_MEM_ALLOC_HOST_PTR, chunkBytes, errcode);
+        CyCLUtils.checkCLError(errcode);
+        pinned[b] = clEnqueueMapBuffer(readQueue, pinnedMem[b], true, CL_MAP_READ | CL_MAP_WRITE, 0, chunkBytes, null, null, errcode, null);
+        CyCLUtils.checkCLError(errcode);
+      }
+
+      int chunk = 0;
+      for (long offset = 0; offset < bytes; offset += chunkBytes, chunk++)
+      {
+        int b = chunk % 2;
+        ByteBuffer staging = pinned[b].duplicate();
+        staging.limit((int)Math.min(chunkBytes, bytes - offset));
+
+        // The pinned buffer may still be read by the write of two chunks ago
+        if (writes[b] != null)
+        {
+          writes[b].waitFor();
+          writes[b].release();
+          writes[b] = null;
+        }
+
+        // Events can't cross contexts, so the read is awaited on the host before the write is issued
+        CyCLUtils.checkCLError(clEnqueueReadBuffer(readQueue, src.getMemObject(), true, offset, staging, null, null), "clEnqueueReadBuffer");
+
+        PointerBuffer event = BufferUtils.createPointerBuffer(1);
+        CyCLUtils.checkCLError(clEnqueueWriteBuffer(writeQueue, dst.getMemObject(), false, offset, staging, null, event), "clEnqueueWriteBuffer");
+        clFlush(writeQueue);
+        writes[b] = new CyCLEvent(event.get(0));
+      }
+
+      CyCLEvent.waitForAll(writes);
+    }
+    catch (RuntimeException e)
+    {
+      dst.free();
+      throw new CyCLException("Could not copy buffer from " + source.name + " to " + target.name, e);
+    }
+    finally
+    {
+      for (int b = 0; b < 2; b++)
+      {
+        if (writes[b] != null)
+          writes[b].release();
+        if (pinned[b] != null)
+          clEnqueueUnmapMemObject(readQueue, pinnedMem[b], pinned[b], null, null);
+      }
+      clFinish(readQueue);
+      for (int b = 0; b < 2; b++)
+        if (pinnedMem[b] != 0)
+          clReleaseMemObject(pinnedMem[b]);
+    }
+
+    residency.put(dst, target);
+    return dst;
+  }
+}
@@ -0,0 +1,68 @@
+package org.cytoscape.opencl.cycl;
+
+import org.lwjgl.opencl.CL10;
+
+/***
+ * Named sets of OpenCL compiler optimization options that can be selected per program.
+ * STRICT keeps the IEEE-compliant defaults, BALANCED allows fused multiply-add and flushes
+ * denormals, FAST additionally enables -cl-fast-relaxed-math.
+ */
+public enum CyCLBuildProfile
+{
+  STRICT,
+  BALANCED,
+  FAST;
+
+  /***
+   * Gets the compiler options this profile translates to on the given device.
+   * Options that would have no effect on the device are left out.
+   *
+   * @param device Device the program will be built for
+   * @return Space-separated build options, possibly empty
+   */
+  public String getBuildOptions(CyCLDevice device)
+  {
+    return getBuildOptions((device.singleFpConfig & CL10.CL_FP_DENORM) != 0);
+  }
+
+  /***
+   * Gets the compiler options this profile translates to.
+   *
+   * @param supportsDenorms True if the device handles single precision denormals, i. e. flushing them is meaningful
+   * @return Space-separated build options, possibly empty
+   */
+  public String getBuildOptions(boolean supportsDenorms)
+  {
+    StringBuilder options = new StringBuilder();
+    switch (this)
+    {
+      case FAST:
+        // Implies -cl-mad-enable, -cl-no-signed-zeros, -cl-unsafe-math-optimizations and -cl-finite-math-only
+        options.append(" -cl-fast-relaxed-math");
+        break;
+      case BALANCED:
+        options.append(" -cl-mad-enable");
+        break;
+      default:
+        return "";
+    }
+
+    if (supportsDenorms)
+      options.append(" -cl-denorms-are-zero");
+
+    return options.toString();
+  }
+
+  /***
+   * Gets the profile that is used when a program is added without specifying one.
+   * This is STRICT on every kind of device, so results don't change for programs that never asked for relaxed math;
+   * GPU programs usually gain from BALANCED, which can be chosen per program or per device with setDefaultBuildProfile.
+   *
+   * @param type Device type
+   * @return Default profile for that kind of device
+   */
+  public static CyCLBuildProfile getDefault(CyCLDevice.DeviceTypes type)
+  {
+    return STRICT;
+  }
+}
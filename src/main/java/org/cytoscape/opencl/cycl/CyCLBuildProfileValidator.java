@@ -0,0 +1,186 @@
+package org.cytoscape.opencl.cycl;
+
+import java.util.HashMap;
+
+/***
+ * Compares the results of a program built with two different optimization profiles,
+ * so that a faster profile can be verified against a reference before it is enabled.
+ */
+public class CyCLBuildProfileValidator
+{
+  /***
+   * Runs the kernels of a freshly built program and returns the values that should be compared.
+   * It is called once per profile and must produce its output in the same order each time.
+   */
+  public interface Workload
+  {
+    float[] run(CyCLProgram program);
+  }
+
+  /***
+   * Outcome of a comparison between a reference and a candidate profile.
+   */
+  public static class Result
+  {
+    public final CyCLBuildProfile reference;
+    public final CyCLBuildProfile candidate;
+    public final double maxAbsoluteError;
+    public final double maxRelativeError;
+    public final int worstIndex;
+    public final int mismatches;
+    public final long referenceTime;
+    public final long candidateTime;
+
+    Result(CyCLBuildProfile reference, CyCLBuildProfile candidate, double maxAbsoluteError, double maxRelativeError,
+           int worstIndex, int mismatches, long referenceTime, long candidateTime)
+    {
+      this.reference = reference;
+      this.candidate = candidate;
+      this.maxAbsoluteError = maxAbsoluteError;
+      this.maxRelativeError = maxRelativeError;
+      this.worstIndex = worstIndex;
+      this.mismatches = mismatches;
+      this.referenceTime = referenceTime;
+      this.candidateTime = candidateTime;
+    }
+
+    /***
+     * Determines if all values were within tolerance.
+     *
+     * @return True if the candidate profile can be used in place of the reference
+     */
+    public boolean passed()
+    {
+      return mismatches == 0;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("%s vs %s: %s, %d mismatches, max abs error %g, max rel error %g at %d, time %.3f ms vs %.3f ms",
+                           candidate, reference, passed() ? "passed" : "failed", mismatches,
+                           maxAbsoluteError, maxRelativeError, worstIndex, referenceTime * 1e-6, candidateTime * 1e-6);
+    }
+  }
+
+  private final CyCLDevice device;
+  private final String[] sources;
+  private final String[] kernelNames;
+  private final HashMap<String, String> defines;
+
+  /***
+   * @param device Device the programs will be built and executed on
+   * @param sources Program sources
+   * @param kernelNames Kernels to create, as used in the program
+   * @param defines Dictionary of definitions to be injected as "#define key value"; can be null
+   */
+  public CyCLBuildProfileValidator(CyCLDevice device, String[] sources, String[] kernelNames, HashMap<String, String> defines)
+  {
+    this.device = device;
+    this.sources = sources;
+    this.kernelNames = kernelNames;
+    this.defines = defines;
+  }
+
+  /***
+   * Builds the program with both profiles, runs the workload on each and compares the outputs element-wise.
+   * A value passes if |candidate - reference| <= absTolerance + relTolerance * |reference|.
+   *
+   * @param reference Profile that produces the trusted result, usually STRICT
+   * @param candidate Profile under test
+   * @param workload Executes the kernels and returns their output
+   * @param absTolerance Absolute tolerance
+   * @param relTolerance Tolerance relative to the reference value
+   * @return Comparison result
+   */
+  public Result compare(CyCLBuildProfile reference, CyCLBuildProfile candidate, Workload workload, double absTolerance, double relTolerance)
+  {
+    long[] times = new long[2];
+    float[] expected = runWithProfile(reference, workload, times, 0);
+    float[] actual = runWithProfile(candidate, workload, times, 1);
+
+    if (expected.length != actual.length)
+      throw new CyCLException("Workload returned " + expected.length + " values for " + reference + " but " + actual.length + " for " + candidate);
+
+    double maxAbs = 0.0, maxRel = 0.0;
+    int worst = -1, mismatches = 0;
+    for (int i = 0; i < expected.length; i++)
+    {
+      double e = expected[i], a = actual[i];
+      if (Double.isNaN(e) || Double.isNaN(a))
+      {
+        if (Double.isNaN(e) != Double.isNaN(a))
+          mismatches++;
+        continue;
+      }
+
+      double abs = e == a ? 0.0 : Math.abs(a - e);
+      double rel = abs / Math.max(Math.abs(e), Double.MIN_NORMAL);
+      if (abs > absTolerance + relTolerance * Math.abs(e))
+        mismatches++;
+      if (abs > maxAbs)
+      {
+        maxAbs = abs;
+        worst = i;
+      }
+      maxRel = Math.max(maxRel, rel);
+    }
+
+    return new Result(reference, candidate, maxAbs, maxRel, worst, mismatches, times[0], times[1]);
+  }
+
+  /***
+   * Compares every faster profile against STRICT and returns the fastest one whose results are within tolerance.
+   *
+   * @param workload Executes the kernels and returns their output
+   * @param absTolerance Absolute tolerance
+   * @param relTolerance Tolerance relative to the reference value
+   * @return The fastest profile that passed, STRICT if none did
+   */
+  public CyCLBuildProfile findFastestValid(Workload workload, double absTolerance, double relTolerance)
+  {
+    CyCLBuildProfile best = CyCLBuildProfile.STRICT;
+    long bestTime = Long.MAX_VALUE;
+    for (CyCLBuildProfile candidate : CyCLBuildProfile.values())
+    {
+      if (candidate == CyCLBuildProfile.STRICT)
+        continue;
+
+      Result result = compare(CyCLBuildProfile.STRICT, candidate, workload, absTolerance, relTolerance);
+      if (bestTime == Long.MAX_VALUE)
+        bestTime = result.referenceTime;
+      if (result.passed() && result.candidateTime < bestTime)
+      {
+        best = candidate;
+        bestTime = result.candidateTime;
+      }
+    }
+
+    return best;
+  }
+
+  private float[] runWithProfile(CyCLBuildProfile profile, Workload workload, long[] times, int slot)
+  {
+    HashMap<String, String> alldefines = device.getDeviceSpecificDefines();
+    if (defines != null)
+      alldefines.putAll(defines);
+
+    CyCLProgram program = new CyCLProgram(device.getContext(), device, sources, kernelNames, alldefines, profile, true);
+    try
+    {
+      // Warm up, so lazy driver work does not end up in the timing
+      workload.run(program);
+
+      long timeStart = System.nanoTime();
+      float[] result = workload.run(program);
+      device.finishQueue();
+      times[slot] = System.nanoTime() - timeStart;
+
+      return result;
+    }
+    finally
+    {
+      program.finalize();
+    }
+  }
+}
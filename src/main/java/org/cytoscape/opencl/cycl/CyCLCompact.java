@@ -0,0 +1,273 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.WeakHashMap;
+
+/***
+ * Stream compaction: packs the elements of a buffer that pass a filter to the front of an output buffer,
+ * e. g. the selected nodes, the edges above a weight threshold, or the active vertices of a frontier,
+ * so later kernels can be launched over only those elements without reading the buffer back.
+ *
+ * The filter is either an int mask buffer, where non-zero elements are kept, or an OpenCL C expression in x,
+ * the element, such as "x >= 0.5f". Kept elements are flagged, the flags are scanned into output positions with CyCLScan,
+ * and the elements are scattered to them in their original order. Programs are built on first use and cached
+ * per device, element type and predicate. Only the MAX_PREDICATE_PROGRAMS most recently used predicate programs
+ * of a device are kept, so predicates should be constant strings rather than contain changing values.
+ * Buffers of backend devices already live in host memory and are compacted there; those devices only support masks.
+ */
+public class CyCLCompact
+{
+  private static final String[] KERNEL_NAMES = { "MaskToFlags", "Scatter", "ScatterIndices" };
+  private static final String[] PREDICATE_KERNEL_NAMES = { "MaskToFlags", "Scatter", "ScatterIndices", "PredicateFlags" };
+
+  // Predicate programs kept per device; less recently used ones are released
+  static final int MAX_PREDICATE_PROGRAMS = 16;
+
+  private static String programText;
+  // Per device, the names of its predicate programs, least recently used first, with the number of compactions running them
+  private static final WeakHashMap<CyCLDevice, LinkedHashMap<String, Integer>> predicatePrograms = new WeakHashMap<>();
+
+  private CyCLCompact()
+  {
+  }
+
+  /***
+   * Packs the elements whose mask is non-zero to the front of the output.
+   *
+   * @param input Buffer of int, long, float or double
+   * @param mask Int buffer with a non-zero value for every element to keep
+   * @param output Buffer of the same type on the same device with room for the kept elements; must not be the input
+   * @param n Number of elements
+   * @return Number of kept elements, i. e. the number of valid elements in the output
+   */
+  public static int compact(CyCLBuffer input, CyCLBuffer mask, CyCLBuffer output, int n)
+  {
+    checkArguments(input, mask, output, n);
+    return compact(input, mask, null, output, n);
+  }
+
+  /***
+   * Packs the elements for which a predicate holds to the front of the output.
+   *
+   * @param input Buffer of int, long, float or double
+   * @param predicate OpenCL C expression in x, the element, e. g. "x > 0" or "fabs(x) >= 1e-3f"
+   * @param output Buffer of the same type on the same device with room for the kept elements; must not be the input
+   * @param n Number of elements
+   * @return Number of kept elements, i. e. the number of valid elements in the output
+   */
+  public static int compact(CyCLBuffer input, String predicate, CyCLBuffer output, int n)
+  {
+    if (predicate == null || predicate.trim().isEmpty())
+      throw new CyCLException("Compaction predicate must not be empty");
+    checkArguments(input, null, output, n);
+    if (input.getContext().getDevice().getBackend() != null)
+      throw new CyCLException("Predicates are OpenCL C and need an OpenCL device; compact with a mask on " + input.getContext().getDevice().name);
+
+    return compact(input, null, predicate, output, n);
+  }
+
+  /***
+   * Writes the indices of all non-zero mask elements in ascending order to the output, e. g. to turn a frontier
+   * flag per vertex into a vertex list.
+   *
+   * @param mask Int buffer
+   * @param output Int buffer on the same device with room for the indices
+   * @param n Number of mask elements
+   * @return Number of indices written
+   */
+  public static int indices(CyCLBuffer mask, CyCLBuffer output, int n)
+  {
+    checkArguments(mask, mask, output, n);
+    return compact(null, mask, null, output, n);
+  }
+
+  private static void checkArguments(CyCLBuffer input, CyCLBuffer mask, CyCLBuffer output, int n)
+  {
+    Class<?> type = input.getType();
+    if (type != int.class && type != long.class && type != float.class && type != double.class)
+      throw new CyCLException("Cannot compact buffers of " + type);
+    if (output.getType() != (mask == input ? int.class : type))
+      throw new CyCLException("Compaction output must have the same type as the input");
+    if (output == input)
+      throw new CyCLException("Compaction cannot write to its input");
+    if (mask != null && mask.getType() != int.class)
+      throw new CyCLException("Compaction masks must be ints");
+    if (n > input.getElements() || (mask != null && n > mask.getElements()))
+      throw new CyCLException("Cannot compact " + n + " elements of buffers with fewer");
+  }
+
+  /***
+   * @param input Elements to pack, or null to pack the indices of the flagged elements
+   */
+  private static int compact(CyCLBuffer input, CyCLBuffer mask, String predicate, CyCLBuffer output, int n)
+  {
+    if (n <= 0)
+      return 0;
+
+    CyCLBuffer source = input != null ? input : mask;
+    CyCLDevice device = source.getContext().getDevice();
+    if (device.getBackend() != null)
+      return compactHostMemory(input, mask, output, n);
+
+    String name = "CyCLCompact " + source.getType().getName() + (predicate != null ? " " + predicate : "");
+    CyCLProgram program = getProgram(device, name, source.getType(), predicate);
+    CyCLBuffer flags = null;
+    CyCLBuffer positions = null;
+    try {
+      flags = device.createBuffer(int.class, n);
+      long[] dims = new long[] { n };
+      if (predicate != null)
+        program.getKernel("PredicateFlags").execute(dims, null, input, n, flags);
+      else
+        program.getKernel("MaskToFlags").execute(dims, null, mask, n, flags);
+
+      positions = device.createBuffer(int.class, n);
+      int count = CyCLScan.exclusive(flags, positions, n).intValue();
+      if (count > output.getElements())
+        throw new CyCLException("Compaction output holds " + output.getElements() + " elements, but " + count + " are kept");
+
+      if (input != null)
+        program.getKernel("Scatter").execute(dims, null, input, flags, positions, n, output);
+      else
+        program.getKernel("ScatterIndices").execute(dims, null, flags, positions, n, output);
+
+      return count;
+    } finally {
+      if (flags != null)
+        flags.free();
+      if (positions != null)
+        positions.free();
+      if (predicate != null)
+        releasePredicateProgram(device, name);
+    }
+  }
+
+  /***
+   * Gets the program, building it if needed. Predicate programs are marked as used until releasePredicateProgram,
+   * and the least recently used ones beyond MAX_PREDICATE_PROGRAMS that are not in use are released.
+   */
+  private static CyCLProgram getProgram(CyCLDevice device, String name, Class<?> type, String predicate)
+  {
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("T", type.getName());
+    if (type == double.class)
+      defines.put("CYCL_FP64", null);
+
+    synchronized (device)
+    {
+      if (predicate == null)
+        return device.addProgram(name, CyCLCompact.class.getResource("/Compact.cl"), KERNEL_NAMES, defines, true);
+
+      // The predicate goes into the source, build options cannot hold arbitrary expressions
+      String[] sources = new String[] { "#define PREDICATE(x) (" + predicate + ")\n", getProgramText() };
+      CyCLProgram program = device.addProgram(name, sources, PREDICATE_KERNEL_NAMES, defines, true);
+
+      LinkedHashMap<String, Integer> used;
+      synchronized (predicatePrograms)
+      {
+        used = predicatePrograms.computeIfAbsent(device, d -> new LinkedHashMap<>(16, 0.75f, true));
+      }
+      used.merge(name, 1, Integer::sum);
+      Iterator<Map.Entry<String, Integer>> entries = used.entrySet().iterator();
+      while (used.size() > MAX_PREDICATE_PROGRAMS && entries.hasNext())
+      {
+        Map.Entry<String, Integer> entry = entries.next();
+        if (entry.getValue() == 0)
+        {
+          entries.remove();
+          device.removeProgram(entry.getKey());
+        }
+      }
+
+      return program;
+    }
+  }
+
+  private static void releasePredicateProgram(CyCLDevice device, String name)
+  {
+    synchronized (device)
+    {
+      LinkedHashMap<String, Integer> used;
+      synchronized (predicatePrograms)
+      {
+        used = predicatePrograms.get(device);
+      }
+      if (used != null)
+        used.computeIfPresent(name, (key, users) -> users - 1);
+    }
+  }
+
+  /***
+   * Gets the number of predicate programs currently kept for a device.
+   */
+  static int getPredicateProgramCount(CyCLDevice device)
+  {
+    synchronized (device)
+    {
+      synchronized (predicatePrograms)
+      {
+        LinkedHashMap<String, Integer> used = predicatePrograms.get(device);
+        return used == null ? 0 : used.size();
+      }
+    }
+  }
+
+  private static synchronized String getProgramText()
+  {
+    if (programText == null)
+    {
+      try (InputStream stream = CyCLCompact.class.getResource("/Compact.cl").openStream();
+           Scanner scanner = new Scanner(stream, "UTF-8")) {
+        programText = scanner.useDelimiter("\\Z").next();
+      } catch (IOException e) {
+        throw new CyCLException("Could not read Compact.cl", e);
+      }
+    }
+
+    return programText;
+  }
+
+  /***
+   * Compacts buffers whose memory is the host staging buffer, as on backend devices.
+   */
+  private static int compactHostMemory(CyCLBuffer input, CyCLBuffer mask, CyCLBuffer output, int n)
+  {
+    ByteBuffer flags = hostMemory(mask), out = hostMemory(output);
+    ByteBuffer in = input == null ? null : hostMemory(input);
+    int size = output.elementSize();
+    int capacity = output.getElements();
+
+    int count = 0;
+    for (int i = 0; i < n; i++)
+      if (flags.getInt(i * Sizeof.cl_int) != 0)
+        count++;
+    if (count > capacity)
+      throw new CyCLException("Compaction output holds " + capacity + " elements, but " + count + " are kept");
+
+    count = 0;
+    for (int i = 0; i < n; i++)
+    {
+      if (flags.getInt(i * Sizeof.cl_int) == 0)
+        continue;
+
+      if (in == null)
+        out.putInt(count * size, i);
+      else if (size == 4)
+        out.putInt(count * size, in.getInt(i * size));
+      else
+        out.putLong(count * size, in.getLong(i * size));
+      count++;
+    }
+
+    return count;
+  }
+}
@@ -3,6 +3,7 @@ package org.cytoscape.opencl.cycl;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lwjgl.*;
 import org.lwjgl.opencl.*;
@@ -13,36 +14,164 @@ import static org.lwjgl.opencl.CL11.*;
 import static org.lwjgl.system.MemoryStack.*;
 import static org.lwjgl.system.MemoryUtil.*;
 
+/***
+ * Holds the OpenCL context of a device and its set of command queues.
+ * If shared contexts are enabled, the native context covers all devices of the platform and
+ * each device's CyCLContext only owns that device's queues.
+ * The default queue returned by getQueue() is used for all synchronous operations and kernel launches.
+ * Additional compute queues and dedicated host-to-device and device-to-host transfer queues are created
+ * on first use, so uploads for the next batch can overlap with the current kernel.
+ * Commands on different queues are not ordered relative to each other; use CyCLEvents to synchronize them.
+ * On devices that support it, an out-of-order queue can be requested as well; commands enqueued there are
+ * best issued through a CyCLDependencyTracker, which derives the necessary event wait lists.
+ * Devices of a CyCLBackend have a context without native context or queues, whose handles are all NULL.
+ */
 public class CyCLContext 
 {
+  public enum QueueType
+  {
+    COMPUTE,
+    HOST_TO_DEVICE,
+    DEVICE_TO_HOST,
+    OUT_OF_ORDER
+  }
+
+  private static final AtomicInteger liveContexts = new AtomicInteger();
+  private static volatile boolean sharedContexts = false;
+
   private Boolean finalized = false;
+  private final AtomicInteger liveBuffers = new AtomicInteger();
   // private MemoryStack stack;
   
   // private CLContext context;
   // private CLCommandQueue queue;
   private long context;
   private long queue = -1;
+  private final CyCLDevice device;
+  private final CyCLPlatform platform;
+  // True if the native context is shared with the other devices of the platform
+  private final boolean shared;
+  // Index 0 is the default queue
+  private final List<Long> computeQueues = new ArrayList<>();
+  private long hostToDeviceQueue = NULL;
+  private long deviceToHostQueue = NULL;
+  private long outOfOrderQueue = NULL;
   
   public CyCLContext(CyCLPlatform platform, CyCLDevice device)
   {
-    CLContextCallback contextCB = null;
-    try (MemoryStack stack = stackPush()) {
-      IntBuffer errcode_ret = stack.callocInt(1);
-      contextCB = CLContextCallback.create((errinfo, private_info, cb, user_data) -> {
-        System.err.println("[LWJGL] cl_context_callback");
-        System.err.println("\tInfo: " + memUTF8(errinfo));
-      });
-      PointerBuffer ctxProps = platform.getContextProps();
-      // System.out.println("contextProps limit = "+ctxProps.limit());
-      // System.out.println("Terminator = "+(ctxProps.get(ctxProps.limit() - 1) == NULL));
-      context = clCreateContext(ctxProps, device.getDevice(), contextCB, NULL, errcode_ret);
-      CyCLUtils.checkCLError(errcode_ret);
+    this.device = device;
+    this.platform = platform;
 
-      queue = clCreateCommandQueue(context, device.getDevice(), NULL, errcode_ret);
-      CyCLUtils.checkCLError(errcode_ret);
-    } finally {
-      contextCB.free();
+    long sharedContext = sharedContexts ? platform.retainSharedContext(device.getDevice()) : NULL;
+    shared = sharedContext != NULL;
+
+    if (shared)
+    {
+      context = sharedContext;
+    }
+    else
+    {
+      CLContextCallback contextCB = null;
+      try (MemoryStack stack = stackPush()) {
+        IntBuffer errcode_ret = stack.callocInt(1);
+        contextCB = CLContextCallback.create((errinfo, private_info, cb, user_data) -> {
+          System.err.println("[LWJGL] cl_context_callback");
+          System.err.println("\tInfo: " + memUTF8(errinfo));
+        });
+        PointerBuffer ctxProps = platform.getContextProps();
+        // System.out.println("contextProps limit = "+ctxProps.limit());
+        // System.out.println("Terminator = "+(ctxProps.get(ctxProps.limit() - 1) == NULL));
+        context = clCreateContext(ctxProps, device.getDevice(), contextCB, NULL, errcode_ret);
+        CyCLUtils.checkCLError(errcode_ret);
+      } finally {
+        contextCB.free();
+      }
     }
+
+    queue = createQueue(NULL);
+    computeQueues.add(queue);
+
+    liveContexts.incrementAndGet();
+  }
+
+  /***
+   * Creates the context of a backend device, which has no native resources.
+   *
+   * @param device Backend device
+   */
+  CyCLContext(CyCLDevice device)
+  {
+    this.device = device;
+    this.platform = null;
+    shared = false;
+    context = NULL;
+    queue = NULL;
+
+    liveContexts.incrementAndGet();
+  }
+
+  /***
+   * Gets the number of contexts that have been created and not released yet, across all devices.
+   *
+   * @return Number of live contexts
+   */
+  public static int getLiveContextCount()
+  {
+    return liveContexts.get();
+  }
+
+  /***
+   * Sets whether devices on the same platform share one native context, so buffers can be used by
+   * and copied between them without going through host memory. Each device still has its own queues.
+   * Only affects contexts created afterwards.
+   *
+   * @param enabled True to share contexts per platform
+   */
+  public static void setSharedContexts(boolean enabled)
+  {
+    sharedContexts = enabled;
+  }
+
+  /***
+   * Determines if contexts are shared per platform.
+   *
+   * @return True if contexts are shared
+   */
+  public static boolean isSharedContexts()
+  {
+    return sharedContexts;
+  }
+
+  /***
+   * Determines if this context's native context is shared with other devices of the same platform.
+   *
+   * @return True if the native context is shared
+   */
+  public boolean isShared()
+  {
+    return shared;
+  }
+
+  /***
+   * Gets the number of device buffers allocated in this context that have not been freed yet.
+   *
+   * @return Number of live buffers
+   */
+  public int getLiveBufferCount()
+  {
+    return liveBuffers.get();
+  }
+
+  void onBufferCreated(long bytes)
+  {
+    liveBuffers.incrementAndGet();
+    device.getMetrics().onBufferAllocated(bytes);
+  }
+
+  void onBufferReleased(long bytes)
+  {
+    liveBuffers.decrementAndGet();
+    device.getMetrics().onBufferReleased(bytes);
   }
   
   public long getContext()
@@ -54,14 +183,114 @@ public class CyCLContext
   {
     return queue;
   }
+
+  /***
+   * Gets the device this context was created for.
+   *
+   * @return Device
+   */
+  public CyCLDevice getDevice()
+  {
+    return device;
+  }
+
+  /***
+   * Gets a queue of the given type, creating it on first use.
+   *
+   * @param type Queue type; COMPUTE returns the default queue. OUT_OF_ORDER falls back
+   *             to a separate in-order queue if the device doesn't support out-of-order execution.
+   * @return LWJGL command queue
+   */
+  public synchronized long getQueue(QueueType type)
+  {
+    if (context == NULL)
+      return NULL;
+
+    switch (type)
+    {
+      case HOST_TO_DEVICE:
+        if (hostToDeviceQueue == NULL)
+          hostToDeviceQueue = createQueue(NULL);
+        return hostToDeviceQueue;
+      case DEVICE_TO_HOST:
+        if (deviceToHostQueue == NULL)
+          deviceToHostQueue = createQueue(NULL);
+        return deviceToHostQueue;
+      case OUT_OF_ORDER:
+        if (outOfOrderQueue == NULL)
+          outOfOrderQueue = createQueue(device.supportsOutOfOrderExecution() ? CL_QUEUE_OUT_OF_ORDER_EXEC_MODE_ENABLE : NULL);
+        return outOfOrderQueue;
+      default:
+        return queue;
+    }
+  }
+
+  /***
+   * Gets one of the device's compute queues, creating it on first use.
+   * Kernels launched on different compute queues may run concurrently on devices that support it.
+   *
+   * @param index Queue index; 0 is the default queue
+   * @return LWJGL command queue
+   */
+  public synchronized long getComputeQueue(int index)
+  {
+    if (context == NULL)
+      return NULL;
+
+    while (computeQueues.size() <= index)
+      computeQueues.add(createQueue(NULL));
+
+    return computeQueues.get(index);
+  }
+
+  /***
+   * Pauses the calling thread until all commands in all of the context's queues have finished.
+   */
+  public synchronized void finishAll()
+  {
+    long start = System.nanoTime();
+    for (long computeQueue : computeQueues)
+      CL10.clFinish(computeQueue);
+    if (hostToDeviceQueue != NULL)
+      CL10.clFinish(hostToDeviceQueue);
+    if (deviceToHostQueue != NULL)
+      CL10.clFinish(deviceToHostQueue);
+    if (outOfOrderQueue != NULL)
+      CL10.clFinish(outOfOrderQueue);
+    CyCLTrace.record(CyCLTrace.CATEGORY_WAIT, "Finish", device, start, System.nanoTime(), 0, 0);
+  }
+
+  private long createQueue(long properties)
+  {
+    try (MemoryStack stack = stackPush()) {
+      IntBuffer errcode_ret = stack.callocInt(1);
+      // Device timestamps for the trace are only available from profiling queues
+      if (CyCLTrace.isEnabled())
+        properties |= CL_QUEUE_PROFILING_ENABLE;
+      long newQueue = clCreateCommandQueue(context, device.getDevice(), properties, errcode_ret);
+      CyCLUtils.checkCLError(errcode_ret);
+      return newQueue;
+    }
+  }
   
   @Override
   protected void finalize() throws Throwable {
     if(finalized)
       return;
     
-    CL10.clReleaseCommandQueue(queue);
-    CL10.clReleaseContext(context);
+    for (long computeQueue : computeQueues)
+      CL10.clReleaseCommandQueue(computeQueue);
+    if (hostToDeviceQueue != NULL)
+      CL10.clReleaseCommandQueue(hostToDeviceQueue);
+    if (deviceToHostQueue != NULL)
+      CL10.clReleaseCommandQueue(deviceToHostQueue);
+    if (outOfOrderQueue != NULL)
+      CL10.clReleaseCommandQueue(outOfOrderQueue);
+    if (context != NULL)
+      CL10.clReleaseContext(context);
+    if (shared)
+      platform.releaseSharedContext();
+    liveContexts.decrementAndGet();
     
     finalized = true;    
     super.finalize();
@@ -0,0 +1,235 @@
+package org.cytoscape.opencl.cycl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/***
+ * Issues transfers and kernel launches on a device's out-of-order queue and works out their
+ * event wait lists from the CyCLBuffers each command reads and writes.
+ * A command waits for the last writer of every buffer it touches, and a command that writes a buffer
+ * additionally waits for all readers since that write. Everything else may run concurrently,
+ * e. g. two kernels that compute repulsion and attraction into separate buffers.
+ *
+ * Events returned by the tracker are owned by it and remain valid until finish() is called.
+ * A tracker is bound to one device; all buffers and kernels passed to it must belong to that device.
+ */
+public class CyCLDependencyTracker
+{
+  private static class BufferState
+  {
+    CyCLEvent lastWrite;
+    List<CyCLEvent> readsSinceWrite = new ArrayList<>();
+    // Last transfer that used the buffer's host staging memory
+    CyCLEvent lastStaging;
+  }
+
+  private final long queue;
+  private final Map<CyCLBuffer, BufferState> states = new IdentityHashMap<>();
+  private final List<CyCLEvent> events = new ArrayList<>();
+
+  CyCLDependencyTracker(CyCLContext context)
+  {
+    this.queue = context.getQueue(CyCLContext.QueueType.OUT_OF_ORDER);
+  }
+
+  /***
+   * Launches a kernel once all commands it depends on have finished.
+   * Buffer arguments are treated as read-only if the kernel declares them const, and as written otherwise;
+   * see CyCLKernel.setArgReadOnly to override this.
+   *
+   * @param kernel Kernel to launch
+   * @param dimsGlobal Global work size
+   * @param dimsLocal Local work size; can be null
+   * @param globalOffset Global work offset; can be null
+   * @param args Kernel arguments
+   * @return Event that completes once the kernel has finished
+   */
+  public synchronized CyCLEvent execute(CyCLKernel kernel, long[] dimsGlobal, long[] dimsLocal, long[] globalOffset, Object... args)
+  {
+    List<CyCLBuffer> reads = new ArrayList<>();
+    List<CyCLBuffer> writes = new ArrayList<>();
+    for (int i = 0; i < args.length; i++)
+    {
+      if (!(args[i] instanceof CyCLBuffer))
+        continue;
+
+      if (kernel.isArgReadOnly(i))
+        reads.add((CyCLBuffer)args[i]);
+      else
+        writes.add((CyCLBuffer)args[i]);
+    }
+
+    CyCLEvent event = kernel.enqueueOn(queue, dimsGlobal, dimsLocal, globalOffset, getWaitList(reads, writes), args);
+    return record(event, reads, writes);
+  }
+
+  /***
+   * Copies host data into a buffer once all commands that use the buffer have finished.
+   *
+   * @param buffer Destination buffer
+   * @param data Data to be copied
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHost(CyCLBuffer buffer, byte[] data) { return write(buffer, data); }
+
+  /***
+   * Copies host data into a buffer once all commands that use the buffer have finished.
+   *
+   * @param buffer Destination buffer
+   * @param data Data to be copied
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHost(CyCLBuffer buffer, short[] data) { return write(buffer, data); }
+
+  /***
+   * Copies host data into a buffer once all commands that use the buffer have finished.
+   *
+   * @param buffer Destination buffer
+   * @param data Data to be copied
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHost(CyCLBuffer buffer, int[] data) { return write(buffer, data); }
+
+  /***
+   * Copies host data into a buffer once all commands that use the buffer have finished.
+   *
+   * @param buffer Destination buffer
+   * @param data Data to be copied
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHost(CyCLBuffer buffer, long[] data) { return write(buffer, data); }
+
+  /***
+   * Copies host data into a buffer once all commands that use the buffer have finished.
+   *
+   * @param buffer Destination buffer
+   * @param data Data to be copied
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHost(CyCLBuffer buffer, float[] data) { return write(buffer, data); }
+
+  /***
+   * Copies host data into a buffer once all commands that use the buffer have finished.
+   *
+   * @param buffer Destination buffer
+   * @param data Data to be copied
+   * @return Event that completes once the data is in device memory
+   */
+  public CyCLEvent setFromHost(CyCLBuffer buffer, double[] data) { return write(buffer, data); }
+
+  /***
+   * Copies the whole buffer into its host staging memory once its last writer has finished.
+   * Once the returned event has completed, the data is available through getBuffer().
+   *
+   * @param buffer Buffer to read
+   * @return Event that completes once the data is in host memory
+   */
+  public synchronized CyCLEvent getFromDevice(CyCLBuffer buffer)
+  {
+    List<CyCLBuffer> reads = List.of(buffer);
+    List<CyCLBuffer> writes = List.of();
+
+    waitForStaging(buffer);
+    CyCLEvent event = buffer.enqueueRead(queue, getWaitList(reads, writes));
+    getState(buffer).lastStaging = event;
+
+    return record(event, reads, writes);
+  }
+
+  /***
+   * Copies one buffer into another once the source's last writer and all users of the destination have finished.
+   *
+   * @param dst Destination buffer
+   * @param src Source buffer
+   * @return Event that completes once the copy has finished
+   */
+  public synchronized CyCLEvent copy(CyCLBuffer dst, CyCLBuffer src)
+  {
+    List<CyCLBuffer> reads = List.of(src);
+    List<CyCLBuffer> writes = List.of(dst);
+
+    CyCLEvent event = dst.enqueueCopyFrom(queue, src, Math.min(src.sizeInBytes(), dst.sizeInBytes()), 0, 0, getWaitList(reads, writes));
+    return record(event, reads, writes);
+  }
+
+  /***
+   * Pauses the calling thread until all commands issued through the tracker have finished,
+   * then releases their events and forgets all dependencies.
+   */
+  public synchronized void finish()
+  {
+    CyCLEvent.waitForAll(events.toArray(new CyCLEvent[0]));
+    for (CyCLEvent event : events)
+      event.release();
+    events.clear();
+    states.clear();
+  }
+
+  private synchronized CyCLEvent write(CyCLBuffer buffer, Object data)
+  {
+    List<CyCLBuffer> reads = List.of();
+    List<CyCLBuffer> writes = List.of(buffer);
+
+    // The previous transfer may still be reading from or writing to the staging memory
+    waitForStaging(buffer);
+    buffer.stage(data);
+    CyCLEvent event = buffer.enqueueWrite(queue, getWaitList(reads, writes));
+    getState(buffer).lastStaging = event;
+
+    return record(event, reads, writes);
+  }
+
+  private void waitForStaging(CyCLBuffer buffer)
+  {
+    BufferState state = states.get(buffer);
+    if (state != null && state.lastStaging != null)
+      state.lastStaging.waitFor();
+  }
+
+  private CyCLEvent[] getWaitList(List<CyCLBuffer> reads, List<CyCLBuffer> writes)
+  {
+    Set<CyCLEvent> waitFor = new LinkedHashSet<>();
+    for (CyCLBuffer buffer : reads)
+    {
+      BufferState state = states.get(buffer);
+      if (state != null && state.lastWrite != null)
+        waitFor.add(state.lastWrite);
+    }
+    for (CyCLBuffer buffer : writes)
+    {
+      BufferState state = states.get(buffer);
+      if (state == null)
+        continue;
+      if (state.lastWrite != null)
+        waitFor.add(state.lastWrite);
+      waitFor.addAll(state.readsSinceWrite);
+    }
+
+    return waitFor.toArray(new CyCLEvent[0]);
+  }
+
+  private CyCLEvent record(CyCLEvent event, List<CyCLBuffer> reads, List<CyCLBuffer> writes)
+  {
+    events.add(event);
+    for (CyCLBuffer buffer : reads)
+      if (!writes.contains(buffer))
+        getState(buffer).readsSinceWrite.add(event);
+    for (CyCLBuffer buffer : writes)
+    {
+      BufferState state = getState(buffer);
+      state.lastWrite = event;
+      state.readsSinceWrite.clear();
+    }
+
+    return event;
+  }
+
+  private BufferState getState(CyCLBuffer buffer)
+  {
+    return states.computeIfAbsent(buffer, b -> new BufferState());
+  }
+}
@@ -19,6 +19,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /***
  * Represents functionality associated with a single OpenCL device.
@@ -46,6 +55,7 @@ public class CyCLDevice
   public final String name;
   public final String vendor;
   public final String version;
+  public final String driverVersion;
   public final DeviceTypes type;
   public final int computeUnits;
   public final long workItemDimensions;
@@ -72,11 +82,25 @@ public class CyCLDevice
   public final int prefWidthFloat;
   public final int prefWidthDouble;
 
-  private final CyCLContext context;
+  // Bit field of CL_FP_* flags describing single precision support
+  public final long singleFpConfig;
+  // Bit field of supported CL_QUEUE_* properties
+  public final long queueProperties;
+
+  // Created on first use; released again, together with the programs built for it, after being idle for contextIdleTimeout if it is set
+  private CyCLContext context;
+  // Last time the context was requested, or a kernel or transfer ran on it
+  private volatile long contextLastUsed;
+  // Guarded by the device's monitor, since the context reaper clears it
   private final HashMap<String, CyCLProgram> programs;
+  private CyCLBuildProfile defaultBuildProfile;
 
   private final long device;
   private final CyCLPlatform devicePlatform;
+  // Runs kernels instead of OpenCL for virtual devices; null for OpenCL devices
+  private final CyCLBackend backend;
+  // OpenCL version and extensions supported by the device
+  private final CLCapabilities capabilities;
 
   public final long bestBlockSize;
   public final long bestWarpSize;
@@ -84,25 +108,51 @@ public class CyCLDevice
   // Logarithmic scale, lower is better
   public final double benchmarkScore;
 
+  // Identifies device and driver in the persisted profile store
+  private final String profileKey;
+  private final CyCLDeviceProfileStore profileStore;
+  private final boolean ignoreStoredProfile;
+  // Numeric device properties are stored as e. g. "info.102c", so later starts with the same driver skip the queries
+  private static final String DEVICE_INFO_PREFIX = "info.";
+  // Measured on first use, see getDeviceProfile()
+  private CyCLDeviceProfile deviceProfile;
+  // Live counters of memory use, transfers and launches
+  private final CyCLDeviceMetrics metrics;
+  // Set once the device has misbehaved, e. g. a kernel didn't finish in time; null while the device is healthy
+  private volatile String quarantineReason;
+  // True while performBenchmark runs; quarantines during the benchmark aren't persisted
+  private volatile boolean benchmarking;
+
+  private static final long CONTEXT_REAPER_PERIOD = 10000;
+  // Off by default, since programs and kernels that applications keep are released with the context
+  private static volatile long contextIdleTimeout = 0;
+  private static final Set<CyCLDevice> devicesWithContext = ConcurrentHashMap.newKeySet();
+  private static ScheduledExecutorService contextReaper;
+
   /***
-   * Initializes a context for the device, acquires all property values and runs a benchmark.
+   * Acquires all property values and runs a benchmark, unless a benchmark result
+   * for this device and driver version has been stored before. Stored numeric properties are reused as well.
+   * The device's context is only created once it is needed.
    *
    * @param device LWJGL device ID
    * @param platform LWJGL platform ID
+   * @param doBenchmark True if the benchmark should run when no stored result is available
+   * @param store Persisted benchmark results; can be null
+   * @param forceBenchmark True if stored results should be ignored and replaced
    */
-  private CyCLDevice(long device, CyCLPlatform platform, boolean doBenchmark)
+  private CyCLDevice(long device, CyCLPlatform platform, boolean doBenchmark, CyCLDeviceProfileStore store, boolean forceBenchmark)
   {
     finalized = false;
 
     this.device = device;
     devicePlatform = platform;
+    backend = null;
 
     // Thread.dumpStack();
 
     // Obtain information about the platform the device belongs to
     platformName = devicePlatform.getPlatformInfoStringUTF8(CL10.CL_PLATFORM_NAME);
     System.out.println("Platform: "+platformName);
-    context = new CyCLContext(platform, this);
     programs = new HashMap<>();
 
     // Obtain information about the platform the device belongs to
@@ -111,10 +161,14 @@ public class CyCLDevice
       //platformName = platformName.substring(0, platformName.indexOf(" "));
 
     // Obtain information about the device
-    CLCapabilities caps = CL.createDeviceCapabilities(device, devicePlatform.getCapabilities());
+    capabilities = CL.createDeviceCapabilities(device, devicePlatform.getCapabilities());
     vendor = getDeviceInfoStringUTF8(CL_DEVICE_VENDOR);
     version = getDeviceInfoStringUTF8(CL_DEVICE_VERSION);
     name = version + " " + getDeviceInfoStringUTF8(CL_DEVICE_NAME);
+    driverVersion = getDeviceInfoStringUTF8(CL10.CL_DRIVER_VERSION);
+    profileKey = queryProfileKey(device);
+    profileStore = store;
+    ignoreStoredProfile = forceBenchmark;
 
     // Device type can be in theory a combination of multiple enum values, GPU is probably the most important indicator
     long longType = getDeviceInfoLong(CL10.CL_DEVICE_TYPE);
@@ -152,6 +206,11 @@ public class CyCLDevice
     prefWidthLong = getDeviceInfoInt(CL10.CL_DEVICE_PREFERRED_VECTOR_WIDTH_LONG);
     prefWidthFloat = getDeviceInfoInt(CL10.CL_DEVICE_PREFERRED_VECTOR_WIDTH_FLOAT);
     prefWidthDouble = getDeviceInfoInt(CL10.CL_DEVICE_PREFERRED_VECTOR_WIDTH_DOUBLE);
+    singleFpConfig = getDeviceInfoLong(CL10.CL_DEVICE_SINGLE_FP_CONFIG);
+    queueProperties = getDeviceInfoLong(CL10.CL_DEVICE_QUEUE_PROPERTIES);
+
+    defaultBuildProfile = CyCLBuildProfile.getDefault(type);
+    metrics = new CyCLDeviceMetrics(name, globalMemSize);
 
     System.out.println("Device: "+name);
 
@@ -209,10 +268,18 @@ public class CyCLDevice
     }
 
 
-    // Run the benchmark
-    if (doBenchmark)
+    // Run the benchmark, unless this device and driver have been benchmarked before
+    Double storedScore = (store == null || forceBenchmark) ? null : store.getBenchmarkScore(profileKey);
+    if (storedScore != null)
+    {
+      System.out.println("Using stored benchmark score for "+name);
+      benchmarkScore = storedScore;
+    }
+    else if (doBenchmark)
     {
       benchmarkScore = performBenchmark(false /*do not use offsets*/);
+      if (store != null)
+        store.putBenchmarkScore(profileKey, benchmarkScore);
     }
     else
     {
@@ -220,6 +287,211 @@ public class CyCLDevice
     }
   }
 
+  /***
+   * Describes a backend as a device. Its benchmark runs right away, unless a result has been stored before,
+   * so the score is comparable with OpenCL devices.
+   *
+   * @param backend Backend that executes the device's kernels
+   * @param store Persisted benchmark results; can be null
+   */
+  private CyCLDevice(CyCLBackend backend, CyCLDeviceProfileStore store)
+  {
+    finalized = false;
+
+    this.device = NULL;
+    this.backend = backend;
+    devicePlatform = null;
+    capabilities = null;
+    programs = new HashMap<>();
+
+    platformName = "Java";
+    name = backend.getName();
+    vendor = backend.getVendor();
+    version = "Java " + System.getProperty("java.version", "");
+    driverVersion = System.getProperty("java.vm.version", "");
+    profileKey = CyCLDeviceProfileStore.getKey(name, vendor, driverVersion);
+    profileStore = store;
+    ignoreStoredProfile = false;
+
+    type = DeviceTypes.CPU;
+    computeUnits = backend.getComputeUnits();
+    workItemDimensions = 3;
+    maxWorkItemSizes = new long[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+    // Work items can't synchronize, so there are neither work groups nor local memory to speak of
+    maxWorkGroupSize = 1;
+    clockFrequency = 0;
+    addressBits = 64;
+    maxMallocSize = backend.getMaxBufferSize();
+    globalMemSize = Runtime.getRuntime().maxMemory();
+    supportsECC = false;
+    localMemType = "global";
+    localMemSize = 0;
+    maxConstBufferSize = maxMallocSize;
+    supportsImages = false;
+    maxReadImageArgs = 0;
+    maxWriteImageArgs = 0;
+    image2DMaxSize = new long[] { 0, 0 };
+    image3DMaxSize = new long[] { 0, 0, 0 };
+
+    prefWidthChar = 1;
+    prefWidthShort = 1;
+    prefWidthInt = 1;
+    prefWidthLong = 1;
+    prefWidthFloat = 1;
+    prefWidthDouble = backend.supportsDouble() ? 1 : 0;
+    // Java arithmetic is IEEE 754 with denormals
+    singleFpConfig = CL10.CL_FP_DENORM | CL10.CL_FP_INF_NAN | CL10.CL_FP_ROUND_TO_NEAREST;
+    queueProperties = 0;
+
+    defaultBuildProfile = CyCLBuildProfile.getDefault(type);
+    metrics = new CyCLDeviceMetrics(name, globalMemSize);
+    bestBlockSize = 1;
+    bestWarpSize = 1;
+
+    System.out.println("Device: "+name);
+    Double storedScore = store == null ? null : store.getBenchmarkScore(profileKey);
+    if (storedScore != null)
+    {
+      System.out.println("Using stored benchmark score for "+name);
+      benchmarkScore = storedScore;
+    }
+    else
+    {
+      benchmarkScore = performBenchmark(false);
+      if (store != null)
+        store.putBenchmarkScore(profileKey, benchmarkScore);
+    }
+  }
+
+  /***
+   * Creates a virtual device that runs kernels on a backend instead of OpenCL.
+   * It has the same API as OpenCL devices, but only supports kernels the backend implements.
+   *
+   * @param backend Backend, e. g. CyCLJavaBackend.getDefault()
+   * @return New device
+   */
+  public static CyCLDevice forBackend(CyCLBackend backend)
+  {
+    return new CyCLDevice(backend, null);
+  }
+
+  /***
+   * Creates a virtual device whose benchmark results are persisted like those of OpenCL devices.
+   *
+   * @param backend Backend
+   * @param store Persisted benchmark results; can be null
+   * @return New device
+   */
+  static CyCLDevice forBackend(CyCLBackend backend, CyCLDeviceProfileStore store)
+  {
+    return new CyCLDevice(backend, store);
+  }
+
+  /***
+   * Gets the backend that runs this device's kernels.
+   *
+   * @return Backend, or null if this is an OpenCL device
+   */
+  public CyCLBackend getBackend()
+  {
+    return backend;
+  }
+
+  /***
+   * Gets the detailed performance profile of this device.
+   * The micro-benchmark suite runs on the first call, unless a profile for this device and driver
+   * has been stored before; the result is stored for later sessions.
+   *
+   * @return Device profile
+   */
+  public synchronized CyCLDeviceProfile getDeviceProfile()
+  {
+    if (deviceProfile != null)
+      return deviceProfile;
+
+    if (profileStore != null && !ignoreStoredProfile)
+      deviceProfile = CyCLDeviceProfile.load(profileStore, profileKey);
+
+    if (deviceProfile == null)
+    {
+      deviceProfile = CyCLDeviceBenchmark.run(this);
+      if (profileStore != null)
+      {
+        deviceProfile.store(profileStore, profileKey);
+        profileStore.save();
+      }
+    }
+
+    return deviceProfile;
+  }
+
+  /***
+   * Gets the live memory, transfer and utilization counters of this device.
+   *
+   * @return Device metrics
+   */
+  public CyCLDeviceMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /***
+   * Determines if the device has been quarantined after misbehaving.
+   * Quarantined devices are removed from CyCL.getDevices() and refuse to run kernels.
+   *
+   * @return True if the device is quarantined
+   */
+  public boolean isQuarantined()
+  {
+    return quarantineReason != null;
+  }
+
+  /***
+   * Gets the reason the device has been quarantined.
+   *
+   * @return Reason, or null if the device is healthy
+   */
+  public String getQuarantineReason()
+  {
+    return quarantineReason;
+  }
+
+  /***
+   * Takes the device out of service, so new work goes to the next device in CyCL.getDevices().
+   * The quarantine is persisted, and the device is skipped on later starts until the benchmark is re-run.
+   * Quarantines during the benchmark only apply to this session: the benchmark runs during initialization,
+   * which leaves out quarantined devices, and a device that is merely slow shouldn't be excluded for good.
+   *
+   * @param reason Description of what went wrong
+   */
+  void quarantine(String reason)
+  {
+    synchronized (this)
+    {
+      if (quarantineReason != null)
+        return;
+      quarantineReason = reason;
+    }
+
+    System.out.println("Quarantining OpenCL device " + name + ": " + reason);
+    if (profileStore != null && !benchmarking)
+    {
+      profileStore.put(profileKey, CyCLDeviceProfileStore.QUARANTINED, reason);
+      profileStore.save();
+    }
+    CyCL.removeDevice(this);
+  }
+
+  /***
+   * Gets the key identifying this device and its driver version in the persisted profile store.
+   *
+   * @return Profile key
+   */
+  String getProfileKey()
+  {
+    return profileKey;
+  }
+
   /**
    * Runs a simple benchmark on the device. If there is a problem, a {@link CyCLException} is thrown, otherwise
    * it returns the benchmark score.
@@ -227,6 +499,19 @@ public class CyCLDevice
    * @return the benchmark value. The lower, the better.
    */
   public double performBenchmark(boolean useOffsets)
+  {
+    benchmarking = true;
+    try
+    {
+      return runBenchmark(useOffsets);
+    }
+    finally
+    {
+      benchmarking = false;
+    }
+  }
+
+  private double runBenchmark(boolean useOffsets)
   {
     String sumProgramSource =
       "__kernel void BenchmarkKernel(__global const int* a, __global const int* b, __global int* c, int const size) {\n"
@@ -236,6 +521,7 @@ public class CyCLDevice
           + "  }\n" 
           + "}";
 
+    CyCLContext context = getContext();
     CyCLProgram program = null;
     try {
       program = new CyCLProgram(context, this, getClass().getResource("/Benchmark.cl"), new String[] { "BenchmarkKernel" }, null, false);
@@ -246,8 +532,6 @@ public class CyCLDevice
     }
 
     try {
-      IntBuffer errorBuffer = BufferUtils.createIntBuffer(1);
-
       int n = 1 << 13;
       int[] a = new int[n];
       int[] b = new int[n];
@@ -264,14 +548,9 @@ public class CyCLDevice
       CyCLBuffer bufferC = createReadBuffer(c);
 
       List<Double> logTimes = new ArrayList<>();
-      try ( MemoryStack stack = stackPush() ) {
+      try {
 
-        int argIndex = 0;
         CyCLKernel cyKernel = program.getKernel("BenchmarkKernel");
-        long kernel = cyKernel.getKernel();
-
-        String kernelName = cyKernel.getKernelInfoStringUTF8(CL10.CL_KERNEL_FUNCTION_NAME);
-        int kernelArgs = cyKernel.getKernelInfoInt(CL10.CL_KERNEL_NUM_ARGS);
 
         // Warm up
         cyKernel.execute(new long[] { n }, null,
@@ -281,7 +560,7 @@ public class CyCLDevice
                            n);
 
         bufferC.getFromDevice(c);
-        clFinish(context.getQueue());
+        context.finishAll();
 
         // Benchmark
         for (int i = 0; i < 4; i++)
@@ -308,7 +587,7 @@ public class CyCLDevice
           }
 
 
-          CL10.clFinish(context.getQueue());
+          context.finishAll();
 
           long timeStop = System.nanoTime();
           logTimes.add(Math.log((double)(timeStop - timeStart) * 1e-9));
@@ -360,6 +639,16 @@ public class CyCLDevice
       return device;
     }
 
+    /***
+     * Gets the OpenCL version and extensions supported by the device.
+     *
+     * @return LWJGL capabilities
+     */
+    CLCapabilities getCapabilities()
+    {
+      return capabilities;
+    }
+
     /***
      * Gets the underlying LWJGL platform ID.
      *
@@ -370,6 +659,23 @@ public class CyCLDevice
       return devicePlatform;
     }
 
+    /***
+     * Determines if this device and another one share a native context, see CyCLContext.setSharedContexts.
+     * Buffers of devices that share a context can be passed to each other's kernels and copied on the device.
+     * Creates the contexts of both devices if they don't exist yet.
+     *
+     * @param other Other device
+     * @return True if both devices use the same native context
+     */
+    public boolean sharesContextWith(CyCLDevice other)
+    {
+      // Backend devices all work in host memory
+      if (backend != null || other.backend != null)
+        return backend != null && other.backend != null;
+
+      return getContext().getContext() == other.getContext().getContext();
+    }
+
     /***
      * Suggests an optimal block (work item) size for the given global item count.
      *
@@ -387,7 +693,7 @@ public class CyCLDevice
      * @param name Program name
      * @return True if the program has been compiled, false otherwise
      */
-    public Boolean hasProgram(String name)
+    public synchronized Boolean hasProgram(String name)
     {
       return programs.containsKey(name);
     }
@@ -398,7 +704,7 @@ public class CyCLDevice
      * @param name Program name
      * @return The program if it is found, null otherwise
      */
-    public CyCLProgram getProgram(String name)
+    public synchronized CyCLProgram getProgram(String name)
     {
       if (!hasProgram(name))
         return null;
@@ -406,6 +712,31 @@ public class CyCLDevice
         return programs.get(name);
     }
 
+    /***
+     * Releases a compiled program and forgets it; addProgram builds it again if it is needed later.
+     * None of its kernels may still be running.
+     *
+     * @param name Program name
+     * @return True if the program had been compiled, false otherwise
+     */
+    public synchronized boolean removeProgram(String name)
+    {
+      CyCLProgram program = programs.remove(name);
+      if (program == null)
+        return false;
+
+      try
+      {
+        program.finalize();
+      }
+      catch (Throwable e)
+      {
+        System.out.println("Could not release program " + name + ": " + e.getMessage());
+      }
+
+      return true;
+    }
+
     /***
      * Compiles a program and its kernels, and stores it for further use.
      *
@@ -416,6 +747,21 @@ public class CyCLDevice
      * @return The program if it has been successfully compiled
      */
     public CyCLProgram addProgram(String name, String[] programSources, String[] kernelNames, HashMap<String, String> defines, boolean silentCompilation)
+    {
+      return addProgram(name, programSources, kernelNames, defines, null, silentCompilation);
+    }
+
+    /***
+     * Compiles a program and its kernels with the given optimization profile, and stores it for further use.
+     *
+     * @param name Program name
+     * @param programSources Strings containing the individual files comprising the program
+     * @param kernelNames An array of kernel names, as used in the program
+     * @param defines Dictionary of definitions to be injected as "#define key value"; can be null
+     * @param profile Optimization profile; null means the device's default profile
+     * @return The program if it has been successfully compiled
+     */
+    public synchronized CyCLProgram addProgram(String name, String[] programSources, String[] kernelNames, HashMap<String, String> defines, CyCLBuildProfile profile, boolean silentCompilation)
     {
       if (hasProgram(name))
         return getProgram(name);
@@ -425,7 +771,7 @@ public class CyCLDevice
         alldefines.putAll(defines);
 
       CyCLProgram added;
-    added = new CyCLProgram(context, this, programSources, kernelNames, alldefines, silentCompilation);
+    added = new CyCLProgram(getContext(), this, programSources, kernelNames, alldefines, profile == null ? defaultBuildProfile : profile, silentCompilation);
 
       programs.put(name, added);
 
@@ -457,6 +803,21 @@ public class CyCLDevice
      * @return The program if it has been successfully compiled
      */
     public CyCLProgram addProgram(String name, URL resourcePath, String[] kernelNames, HashMap<String, String> defines, boolean silentCompilation)
+    {
+      return addProgram(name, resourcePath, kernelNames, defines, null, silentCompilation);
+    }
+
+    /***
+     * Compiles a program and its kernels with the given optimization profile, and stores it for further use.
+     *
+     * @param name Program name
+     * @param resourcePath Path to the resource with the program's text
+     * @param kernelNames An array of kernel names, as used in the program
+     * @param defines Dictionary of definitions to be injected as "#define key value"; can be null
+     * @param profile Optimization profile; null means the device's default profile
+     * @return The program if it has been successfully compiled
+     */
+    public synchronized CyCLProgram addProgram(String name, URL resourcePath, String[] kernelNames, HashMap<String, String> defines, CyCLBuildProfile profile, boolean silentCompilation)
     {
       if (hasProgram(name))
         return getProgram(name);
@@ -469,7 +830,7 @@ public class CyCLDevice
         programTextScanner.close();
           programTextStream.close();
 
-          return addProgram(name, new String[]{programText}, kernelNames, defines, silentCompilation);
+          return addProgram(name, new String[]{programText}, kernelNames, defines, profile, silentCompilation);
     }
     catch (IOException ex)
     {
@@ -488,6 +849,22 @@ public class CyCLDevice
      * @return The program if it has been successfully compiled
      */
     public CyCLProgram forceAddProgram(String name, URL resourcePath, String[] kernelNames, HashMap<String, String> defines, boolean silentCompilation)
+    {
+      return forceAddProgram(name, resourcePath, kernelNames, defines, null, silentCompilation);
+    }
+
+    /***
+     * Compiles a program and its kernels with the given optimization profile, and stores it,
+     * possibly replacing (and destroying) an old instance.
+     *
+     * @param name Program name
+     * @param resourcePath Path to the resource with the program's text
+     * @param kernelNames An array of kernel names, as used in the program
+     * @param defines Dictionary of definitions to be injected as "#define key value"; can be null
+     * @param profile Optimization profile; null means the device's default profile
+     * @return The program if it has been successfully compiled
+     */
+    public synchronized CyCLProgram forceAddProgram(String name, URL resourcePath, String[] kernelNames, HashMap<String, String> defines, CyCLBuildProfile profile, boolean silentCompilation)
     {
       if (hasProgram(name))
       {
@@ -507,7 +884,7 @@ public class CyCLDevice
       CyCLProgram added;
       try
       {
-        added = new CyCLProgram(context, this, resourcePath, kernelNames, alldefines, silentCompilation);
+        added = new CyCLProgram(getContext(), this, resourcePath, kernelNames, alldefines, profile == null ? defaultBuildProfile : profile, silentCompilation);
       }
       catch (Exception e)
       {
@@ -537,11 +914,189 @@ public class CyCLDevice
     }
 
     /***
-     * Pauses the calling thread until all items in the device's command queue have been finished.
+     * Determines if command queues on this device can execute commands out of order.
+     *
+     * @return True if CL_QUEUE_OUT_OF_ORDER_EXEC_MODE_ENABLE is supported
+     */
+    public boolean supportsOutOfOrderExecution()
+    {
+      return (queueProperties & CL10.CL_QUEUE_OUT_OF_ORDER_EXEC_MODE_ENABLE) != 0;
+    }
+
+    /***
+     * Creates a tracker for issuing commands on this device's out-of-order queue.
+     * Independent commands may then run concurrently, while commands that share buffers are ordered automatically.
+     *
+     * @return New dependency tracker
+     */
+    public CyCLDependencyTracker createDependencyTracker()
+    {
+      return new CyCLDependencyTracker(getContext());
+    }
+
+    /***
+     * Gets the optimization profile used for programs that are added without specifying one.
+     *
+     * @return Default build profile
+     */
+    public CyCLBuildProfile getDefaultBuildProfile()
+    {
+      return defaultBuildProfile;
+    }
+
+    /***
+     * Sets the optimization profile used for programs that are added without specifying one.
+     * Programs that have already been compiled are not affected.
+     *
+     * @param profile New default build profile
+     */
+    public void setDefaultBuildProfile(CyCLBuildProfile profile)
+    {
+      defaultBuildProfile = profile;
+    }
+
+    /***
+     * Gets the context (and command queue) of this device, creating it if it doesn't exist yet.
+     *
+     * @return Device context
+     */
+    synchronized CyCLContext getContext()
+    {
+      if (context == null)
+      {
+        context = backend != null ? new CyCLContext(this) : new CyCLContext(devicePlatform, this);
+        devicesWithContext.add(this);
+        startContextReaper();
+      }
+      contextLastUsed = System.currentTimeMillis();
+
+      return context;
+    }
+
+    /***
+     * Determines if the device currently holds a context.
+     *
+     * @return True if a context has been created and not released yet
+     */
+    public synchronized boolean hasContext()
+    {
+      return context != null;
+    }
+
+    /***
+     * Records that the device's context is in use, so the reaper doesn't consider it idle.
+     */
+    void markContextUsed()
+    {
+      contextLastUsed = System.currentTimeMillis();
+    }
+
+    /***
+     * Releases the device's context if it has been idle for longer than the timeout and no allocated buffers depend on it.
+     * Its compiled programs are released as well; addProgram builds them again once they are needed,
+     * while their kernels throw a CyCLException if they are still launched.
+     *
+     * @param now Current time in milliseconds
+     * @param timeout Idle timeout in milliseconds
+     * @return True if the context was released
+     */
+    boolean releaseIdleContext(long now, long timeout)
+    {
+      CyCLContext current;
+      synchronized (this)
+      {
+        current = context;
+      }
+      if (current == null)
+        return true;
+
+      // Launches hold the context's lock and take the device's when they quarantine it, so the locks are taken in that order.
+      // Holding the context's lock also keeps kernels from being released while they are launched.
+      synchronized (current)
+      {
+        synchronized (this)
+        {
+          if (context != current)
+            return true;
+          if (now - contextLastUsed < timeout || context.getLiveBufferCount() > 0)
+            return false;
+
+          try
+          {
+            for (CyCLProgram program : programs.values())
+              program.finalize();
+            programs.clear();
+            context.finalize();
+          }
+          catch (Throwable e)
+          {
+            System.out.println("Could not release idle context of " + name + ": " + e.getMessage());
+          }
+          context = null;
+          devicesWithContext.remove(this);
+
+          return true;
+        }
+      }
+    }
+
+    /***
+     * Sets how long a device's context may remain unused before it and its programs are released; off by default.
+     * Contexts that still have buffers are never released. With a timeout, programs should be looked up with addProgram
+     * when they are needed rather than kept across idle periods, since kernels of released programs throw a CyCLException.
+     *
+     * @param timeout Idle timeout in milliseconds; 0 or less keeps contexts alive indefinitely
+     */
+    public static void setContextIdleTimeout(long timeout)
+    {
+      contextIdleTimeout = timeout;
+    }
+
+    /***
+     * Gets how long a device's context may remain unused before it is released.
+     *
+     * @return Idle timeout in milliseconds
+     */
+    public static long getContextIdleTimeout()
+    {
+      return contextIdleTimeout;
+    }
+
+    private static synchronized void startContextReaper()
+    {
+      if (contextReaper != null)
+        return;
+
+      contextReaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CyCL context reaper");
+        thread.setDaemon(true);
+        return thread;
+      });
+      contextReaper.scheduleWithFixedDelay(() -> {
+        long timeout = contextIdleTimeout;
+        if (timeout <= 0)
+          return;
+
+        long now = System.currentTimeMillis();
+        for (CyCLDevice device : devicesWithContext)
+          device.releaseIdleContext(now, timeout);
+      }, CONTEXT_REAPER_PERIOD, CONTEXT_REAPER_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * Pauses the calling thread until all items in the device's command queues have been finished.
      */
     public void finishQueue()
     {
-      CL10.clFinish(context.getQueue());
+      CyCLContext context;
+      synchronized (this)
+      {
+        context = this.context;
+      }
+
+      // Nothing can be queued on a context that doesn't exist
+      if (context != null)
+        context.finishAll();
     }
 
     /***
@@ -553,7 +1108,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(Class<?> type, int elements)
     {
-      return new CyCLBuffer(context, type, elements, CL10.CL_MEM_READ_ONLY);
+      return new CyCLBuffer(getContext(), type, elements, CL10.CL_MEM_READ_ONLY);
     }
 
     /***
@@ -565,7 +1120,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(Class<?> type, int elements, int bits)
     {
-      return new CyCLBuffer(context, type, elements, bits);
+      return new CyCLBuffer(getContext(), type, elements, bits);
     }
 
     /***
@@ -604,7 +1159,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(byte[] data, int bits)
     {
-      return new CyCLBuffer(context, data, bits);
+      return new CyCLBuffer(getContext(), data, bits);
     }
 
     /***
@@ -643,7 +1198,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(short[] data, int bits)
     {
-      return new CyCLBuffer(context, data, bits);
+      return new CyCLBuffer(getContext(), data, bits);
     }
 
     /***
@@ -681,7 +1236,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(int[] data, int bits)
     {
-      return new CyCLBuffer(context, data, bits);
+      return new CyCLBuffer(getContext(), data, bits);
     }
 
     /***
@@ -720,7 +1275,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(long[] data, int bits)
     {
-      return new CyCLBuffer(context, data, bits);
+      return new CyCLBuffer(getContext(), data, bits);
     }
 
     /***
@@ -759,7 +1314,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(float[] data, int bits)
     {
-      return new CyCLBuffer(context, data, bits);
+      return new CyCLBuffer(getContext(), data, bits);
     }
 
     /***
@@ -798,7 +1353,7 @@ public class CyCLDevice
      */
     public CyCLBuffer createBuffer(double[] data, int bits)
     {
-      return new CyCLBuffer(context, data, bits);
+      return new CyCLBuffer(getContext(), data, bits);
     }
 
   /*
@@ -846,6 +1401,8 @@ public class CyCLDevice
       if(context != null)
       {
         context.finalize();
+        context = null;
+        devicesWithContext.remove(this);
       }
 
       finalized = true;
@@ -865,40 +1422,113 @@ public class CyCLDevice
    * @return List of all initialized devices
    */
     public static List<CyCLDevice> getAll(final String preferredDevice)
+    {
+      return getAll(preferredDevice, null, false);
+    }
+
+  /***
+   * Initializes all devices present in the system and returns them as a list.
+   * Benchmark results are taken from the store when available, and newly measured ones are added to it.
+   *
+   * @param preferredDevice Name of the device that should come first; empty if there is none
+   * @param store Persisted benchmark results; can be null
+   * @param forceBenchmark True if all devices should be benchmarked again, ignoring stored results
+   * @return List of all initialized devices
+   */
+    static List<CyCLDevice> getAll(final String preferredDevice, CyCLDeviceProfileStore store, boolean forceBenchmark)
     {
       List<CyCLDevice> devices = new ArrayList<>();
       Exception savedException = null;
 
+        // Enumerate all devices first, so they can be initialized concurrently but listed in a fixed order
+        List<CyCLPlatform> platforms = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
         System.out.println("Got "+CyCLPlatform.getPlatforms().size()+" platforms");
         for(CyCLPlatform platform : CyCLPlatform.getPlatforms())
         {
           try {
-            long[] ids = platform.getDevices(CL10.CL_DEVICE_TYPE_ALL);
-            if (ids == null)
+            long[] platformIds = platform.getDevices(CL10.CL_DEVICE_TYPE_ALL);
+            if (platformIds == null)
               continue; // No devices for this platform
                         //
-            System.out.println("Got "+ids.length+" devices");
+            System.out.println("Got "+platformIds.length+" devices");
 
-            for(long id : ids)
+            for(long id : platformIds)
             {
-              try
+              // Devices that hung or crashed before are left alone, unless the user asked for a new benchmark
+              if (store != null)
               {
-                CyCLDevice newDevice = new CyCLDevice(id, platform, preferredDevice.equals("")); // Benchmark only if there is no preferred device.
-                devices.add(newDevice);
-              }
-              catch (Exception e1)
-              {
-                // We may have a device that is mis-behaving, but we should still keep on trying
-                savedException = e1;
-                e1.printStackTrace();
-                throw new CyCLException(e1);
+                String key = queryProfileKey(id);
+                if (forceBenchmark)
+                {
+                  store.remove(key, CyCLDeviceProfileStore.QUARANTINED);
+                }
+                else if (store.get(key, CyCLDeviceProfileStore.QUARANTINED) != null)
+                {
+                  System.out.println("Skipping quarantined device " + key + ": " + store.get(key, CyCLDeviceProfileStore.QUARANTINED));
+                  System.out.println("Re-run the benchmark in the OpenCL settings to use it again.");
+                  continue;
+                }
               }
+
+              platforms.add(platform);
+              ids.add(id);
             }
           } catch (Exception e) {
             e.printStackTrace();
           }
         }
 
+        if (ids.isEmpty())
+          return devices;
+
+        // Each device creates its context, queries its properties and runs its benchmark on its own thread
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(ids.size(), runnable -> {
+          Thread thread = new Thread(runnable, "CyCL device init " + threadCount.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+
+        try
+        {
+          List<Future<CyCLDevice>> futures = new ArrayList<>();
+          for (int i = 0; i < ids.size(); i++)
+          {
+            final CyCLPlatform platform = platforms.get(i);
+            final long id = ids.get(i);
+            futures.add(executor.submit(() -> new CyCLDevice(id, platform, preferredDevice.equals(""), store, forceBenchmark))); // Benchmark only if there is no preferred device.
+          }
+
+          for (Future<CyCLDevice> future : futures)
+          {
+            try
+            {
+              // Devices can be quarantined while they are benchmarked; CyCL doesn't list them yet, so they are left out here
+              CyCLDevice device = future.get();
+              if (device.isQuarantined())
+                System.out.println("Leaving out OpenCL device " + device.name + ": " + device.getQuarantineReason());
+              else
+                devices.add(device);
+            }
+            catch (ExecutionException e)
+            {
+              // We may have a device that is mis-behaving, but we should still keep the others
+              savedException = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+              savedException.printStackTrace();
+            }
+            catch (InterruptedException e)
+            {
+              Thread.currentThread().interrupt();
+              throw new CyCLException("Interrupted while initializing OpenCL devices", e);
+            }
+          }
+        }
+        finally
+        {
+          executor.shutdown();
+        }
+
         if (devices.size() == 0 && savedException != null) {
           savedException.printStackTrace();
           throw new CyCLException(savedException);
@@ -917,21 +1547,34 @@ public class CyCLDevice
       }
       devices.sort(new DeviceComparator());
 
+      if (store != null)
+        store.save();
+
       return devices;
     }
 
     int getDeviceInfoInt(int param_name) {
+        long[] stored = getStoredDeviceInfo(param_name, 1);
+        if (stored != null)
+            return (int)stored[0];
+
         try (MemoryStack stack = stackPush()) {
             IntBuffer pl = stack.mallocInt(1);
             CyCLUtils.checkCLError(clGetDeviceInfo(this.device, param_name, pl, null));
+            putStoredDeviceInfo(param_name, new long[] { pl.get(0) });
             return pl.get(0);
         }
     }
 
     long getDeviceInfoLong(int param_name) {
+        long[] stored = getStoredDeviceInfo(param_name, 1);
+        if (stored != null)
+            return stored[0];
+
         try (MemoryStack stack = stackPush()) {
             LongBuffer pl = stack.mallocLong(1);
             CyCLUtils.checkCLError(clGetDeviceInfo(this.device, param_name, pl, null));
+            putStoredDeviceInfo(param_name, new long[] { pl.get(0) });
             return pl.get(0);
         }
     }
@@ -945,6 +1588,10 @@ public class CyCLDevice
     }
 
     long[] getDeviceInfoLongArray(int param_name) {
+        long[] stored = getStoredDeviceInfo(param_name, -1);
+        if (stored != null)
+            return stored;
+
         try (MemoryStack stack = stackPush()) {
             PointerBuffer pp = stack.mallocPointer(1);
             CyCLUtils.checkCLError(clGetDeviceInfo(this.device, param_name, (ByteBuffer)null, pp));
@@ -955,20 +1602,79 @@ public class CyCLDevice
             CyCLUtils.checkCLError(clGetDeviceInfo(this.device, param_name, buffer, null));
             long[] ret = new long[size];
             buffer.get(ret);
+            putStoredDeviceInfo(param_name, ret);
             return ret;
         }
     }
 
+    /***
+     * Gets a numeric device property stored by an earlier start with the same device and driver,
+     * so it doesn't have to be queried again.
+     *
+     * @param param_name OpenCL device info parameter
+     * @param length Expected number of values, or -1 for any
+     * @return Stored values, or null if there are none or they should be queried again
+     */
+    private long[] getStoredDeviceInfo(int param_name, int length) {
+        if (profileStore == null || ignoreStoredProfile)
+            return null;
+
+        String value = profileStore.get(profileKey, DEVICE_INFO_PREFIX + Integer.toHexString(param_name));
+        if (value == null || value.isEmpty())
+            return null;
+
+        try {
+            String[] parts = value.split(",");
+            if (length >= 0 && parts.length != length)
+                return null;
+
+            long[] values = new long[parts.length];
+            for (int i = 0; i < parts.length; i++)
+                values[i] = Long.parseLong(parts[i]);
+            return values;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void putStoredDeviceInfo(int param_name, long[] values) {
+        if (profileStore == null)
+            return;
+
+        StringBuilder value = new StringBuilder();
+        for (long v : values)
+            value.append(value.length() > 0 ? "," : "").append(v);
+        profileStore.put(profileKey, DEVICE_INFO_PREFIX + Integer.toHexString(param_name), value.toString());
+    }
+
     String getDeviceInfoStringUTF8(int param_name) {
+        return getDeviceInfoStringUTF8(this.device, param_name);
+    }
+
+    static String getDeviceInfoStringUTF8(long device, int param_name) {
         try (MemoryStack stack = stackPush()) {
             PointerBuffer pp = stack.mallocPointer(1);
-            CyCLUtils.checkCLError(clGetDeviceInfo(this.device, param_name, (ByteBuffer)null, pp));
+            CyCLUtils.checkCLError(clGetDeviceInfo(device, param_name, (ByteBuffer)null, pp));
             int bytes = (int)pp.get(0);
 
             ByteBuffer buffer = stack.malloc(bytes);
-            CyCLUtils.checkCLError(clGetDeviceInfo(this.device, param_name, buffer, null));
+            CyCLUtils.checkCLError(clGetDeviceInfo(device, param_name, buffer, null));
 
             return memUTF8(buffer, bytes - 1);
         }
     }
+
+    /***
+     * Builds the profile store key of a device without initializing it.
+     *
+     * @param device LWJGL device ID
+     * @return Profile key
+     */
+    static String queryProfileKey(long device) {
+        String name = getDeviceInfoStringUTF8(device, CL_DEVICE_VERSION) + " " + getDeviceInfoStringUTF8(device, CL_DEVICE_NAME);
+        return CyCLDeviceProfileStore.getKey(name,
+                                             getDeviceInfoStringUTF8(device, CL_DEVICE_VENDOR),
+                                             getDeviceInfoStringUTF8(device, CL10.CL_DRIVER_VERSION));
+    }
 }
@@ -0,0 +1,261 @@
+package org.cytoscape.opencl.cycl;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+
+import static org.lwjgl.opencl.CL10.*;
+
+/***
+ * Runs the micro-benchmarks in BenchmarkSuite.cl and the transfer measurements that make up a CyCLDeviceProfile.
+ * Every measurement is repeated and the best result is kept, to filter out interference from other processes.
+ * A measurement that fails, e. g. because pinned memory can't be allocated, is reported as 0 rather than failing the whole profile.
+ * Backend devices run their own implementations of the same kernels, and have no local memory bandwidth.
+ */
+class CyCLDeviceBenchmark
+{
+  private static final int REPEATS = 5;
+  private static final int LAUNCH_REPEATS = 100;
+  private static final long MAX_TRANSFER_BYTES = 32 << 20;
+  private static final int COMPUTE_ITERATIONS = 512;
+  // 4 chains of 4 multiply-adds, counted as 2 operations each
+  private static final int OPS_PER_ITERATION = 32;
+  private static final int LOCAL_ITERATIONS = 1024;
+  private static final int LOCAL_READS_PER_ITERATION = 4;
+
+  private final CyCLDevice device;
+  private final CyCLContext context;
+  private final double[] values = new double[CyCLDeviceProfile.Metric.values().length];
+
+  private CyCLDeviceBenchmark(CyCLDevice device)
+  {
+    this.device = device;
+    this.context = device.getContext();
+  }
+
+  /***
+   * Measures all metrics of a device. This can take a few seconds.
+   *
+   * @param device Device to benchmark
+   * @return Measured profile
+   */
+  static CyCLDeviceProfile run(CyCLDevice device)
+  {
+    return new CyCLDeviceBenchmark(device).run();
+  }
+
+  private CyCLDeviceProfile run()
+  {
+    boolean fp64 = device.prefWidthDouble > 0;
+    // Backend devices have no local memory, and their memory is the host's
+    boolean backend = device.getBackend() != null;
+    HashMap<String, String> defines = new HashMap<>();
+    if (fp64)
+      defines.put("CYCL_FP64", null);
+
+    List<String> kernelNames = new ArrayList<>(Arrays.asList("EmptyKernel", "Fp32Throughput", "IntThroughput"));
+    if (fp64)
+      kernelNames.add("Fp64Throughput");
+    if (!backend)
+      kernelNames.add("LocalMemoryBandwidth");
+
+    CyCLProgram program;
+    try {
+      program = new CyCLProgram(context, device, getClass().getResource("/BenchmarkSuite.cl"), kernelNames.toArray(new String[0]), defines, true);
+    }
+    catch (Exception e) {
+      throw new CyCLException("Could not build benchmark suite.", e);
+    }
+
+    try {
+      long transferBytes = Math.min(MAX_TRANSFER_BYTES, device.maxMallocSize / 4);
+      if (backend)
+        measureHostTransfers(transferBytes);
+      else
+        measureTransfers(transferBytes);
+      measure(CyCLDeviceProfile.Metric.LAUNCH_LATENCY, () -> measureLaunchLatency(program.getKernel("EmptyKernel")));
+      measure(CyCLDeviceProfile.Metric.FP32_THROUGHPUT, () -> measureThroughput(program.getKernel("Fp32Throughput"), float.class, 0.5f));
+      if (fp64)
+        measure(CyCLDeviceProfile.Metric.FP64_THROUGHPUT, () -> measureThroughput(program.getKernel("Fp64Throughput"), double.class, 0.5));
+      measure(CyCLDeviceProfile.Metric.INT_THROUGHPUT, () -> measureThroughput(program.getKernel("IntThroughput"), int.class, 1));
+      if (!backend)
+        measure(CyCLDeviceProfile.Metric.LOCAL_MEMORY_BANDWIDTH, () -> measureLocalMemoryBandwidth(program.getKernel("LocalMemoryBandwidth")));
+    } finally {
+      program.finalize();
+    }
+
+    CyCLDeviceProfile profile = new CyCLDeviceProfile(values);
+    System.out.println("Device profile for " + device.name + ": " + profile);
+    return profile;
+  }
+
+  private interface Measurement
+  {
+    double run();
+  }
+
+  private void measure(CyCLDeviceProfile.Metric metric, Measurement measurement)
+  {
+    try {
+      values[metric.ordinal()] = measurement.run();
+    }
+    catch (Exception e) {
+      System.out.println("Could not measure " + metric + " on " + device.name + ": " + e.getMessage());
+      values[metric.ordinal()] = 0.0;
+    }
+  }
+
+  private void measureTransfers(long bytes)
+  {
+    long queue = context.getQueue();
+    IntBuffer errcode = BufferUtils.createIntBuffer(1);
+
+    long deviceMem = clCreateBuffer(context.getContext(), CL_MEM_READ_WRITE, bytes, errcode);
+    CyCLUtils.checkCLError(errcode);
+    try {
+      ByteBuffer pageable = BufferUtils.createByteBuffer((int)bytes);
+      measure(CyCLDeviceProfile.Metric.HOST_TO_DEVICE_BANDWIDTH, () -> measureBandwidth(bytes,
+          () -> CyCLUtils.checkCLError(clEnqueueWriteBuffer(queue, deviceMem, true, 0, pageable, null, null), "clEnqueueWriteBuffer")));
+      measure(CyCLDeviceProfile.Metric.DEVICE_TO_HOST_BANDWIDTH, () -> measureBandwidth(bytes,
+          () -> CyCLUtils.checkCLError(clEnqueueReadBuffer(queue, deviceMem, true, 0, pageable, null, null), "clEnqueueReadBuffer")));
+
+      // Pinned host memory is obtained the portable way: allocate a host-accessible buffer and map it
+      long pinnedMem = clCreateBuffer(context.getContext(), CL_MEM_READ_WRITE | CL_MEM_ALLOC_HOST_PTR, bytes, errcode);
+      CyCLUtils.checkCLError(errcode);
+      try {
+        ByteBuffer pinned = clEnqueueMapBuffer(queue, pinnedMem, true, CL_MAP_READ | CL_MAP_WRITE, 0, bytes, null, null, errcode, null);
+        CyCLUtils.checkCLError(errcode);
+        try {
+          measure(CyCLDeviceProfile.Metric.HOST_TO_DEVICE_PINNED_BANDWIDTH, () -> measureBandwidth(bytes,
+              () -> CyCLUtils.checkCLError(clEnqueueWriteBuffer(queue, deviceMem, true, 0, pinned, null, null), "clEnqueueWriteBuffer")));
+          measure(CyCLDeviceProfile.Metric.DEVICE_TO_HOST_PINNED_BANDWIDTH, () -> measureBandwidth(bytes,
+              () -> CyCLUtils.checkCLError(clEnqueueReadBuffer(queue, deviceMem, true, 0, pinned, null, null), "clEnqueueReadBuffer")));
+        } finally {
+          clEnqueueUnmapMemObject(queue, pinnedMem, pinned, null, null);
+          clFinish(queue);
+        }
+      } finally {
+        clReleaseMemObject(pinnedMem);
+      }
+    }
+    catch (RuntimeException e) {
+      System.out.println("Could not measure pinned transfers on " + device.name + ": " + e.getMessage());
+    }
+    finally {
+      clReleaseMemObject(deviceMem);
+    }
+  }
+
+  /***
+   * Transfers to and from a backend device are copies between Java arrays and the buffer's host memory.
+   * There is no pinned memory, so the pinned bandwidths are the same.
+   */
+  private void measureHostTransfers(long bytes)
+  {
+    CyCLBuffer buffer = device.createBuffer(byte.class, (int)bytes);
+    try {
+      byte[] data = new byte[(int)bytes];
+      measure(CyCLDeviceProfile.Metric.HOST_TO_DEVICE_BANDWIDTH, () -> measureBandwidth(bytes, () -> buffer.setFromHost(data)));
+      measure(CyCLDeviceProfile.Metric.DEVICE_TO_HOST_BANDWIDTH, () -> measureBandwidth(bytes, () -> buffer.getFromDevice(data)));
+      values[CyCLDeviceProfile.Metric.HOST_TO_DEVICE_PINNED_BANDWIDTH.ordinal()] = values[CyCLDeviceProfile.Metric.HOST_TO_DEVICE_BANDWIDTH.ordinal()];
+      values[CyCLDeviceProfile.Metric.DEVICE_TO_HOST_PINNED_BANDWIDTH.ordinal()] = values[CyCLDeviceProfile.Metric.DEVICE_TO_HOST_BANDWIDTH.ordinal()];
+    } finally {
+      buffer.free();
+    }
+  }
+
+  /***
+   * @return Best bandwidth in GB/s
+   */
+  private double measureBandwidth(long bytes, Runnable transfer)
+  {
+    // Warm up, the first transfer may include allocation on the device
+    transfer.run();
+
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < REPEATS; i++)
+    {
+      long timeStart = System.nanoTime();
+      transfer.run();
+      best = Math.min(best, System.nanoTime() - timeStart);
+    }
+
+    return (double)bytes / best;
+  }
+
+  /***
+   * @return Average time per launch in microseconds
+   */
+  private double measureLaunchLatency(CyCLKernel kernel)
+  {
+    CyCLBuffer result = device.createBuffer(int.class, 1, CL_MEM_WRITE_ONLY);
+    try {
+      kernel.execute(new long[] { 1 }, null, result);
+
+      long timeStart = System.nanoTime();
+      for (int i = 0; i < LAUNCH_REPEATS; i++)
+        kernel.execute(new long[] { 1 }, null, result);
+
+      return (System.nanoTime() - timeStart) * 1e-3 / LAUNCH_REPEATS;
+    } finally {
+      result.free();
+    }
+  }
+
+  /***
+   * @return Best throughput in billions of operations per second
+   */
+  private double measureThroughput(CyCLKernel kernel, Class<?> type, Object seed)
+  {
+    long n = Math.max(1, device.computeUnits) * 1024L;
+    CyCLBuffer result = device.createBuffer(type, (int)n, CL_MEM_WRITE_ONLY);
+    try {
+      long best = measureKernel(kernel, new long[] { n }, null, result, seed, COMPUTE_ITERATIONS);
+      return (double)n * COMPUTE_ITERATIONS * OPS_PER_ITERATION / best;
+    } finally {
+      result.free();
+    }
+  }
+
+  /***
+   * @return Best local memory read bandwidth in GB/s
+   */
+  private double measureLocalMemoryBandwidth(CyCLKernel kernel)
+  {
+    long maxLocal = Math.min(256, Math.min(device.maxWorkGroupSize, device.localMemSize / Sizeof.cl_float));
+    long localSize = Long.highestOneBit(Math.max(1, maxLocal));
+    long n = Math.max(1, device.computeUnits) * localSize * 16;
+
+    CyCLBuffer result = device.createBuffer(float.class, (int)n, CL_MEM_WRITE_ONLY);
+    try {
+      long best = measureKernel(kernel, new long[] { n }, new long[] { localSize },
+                                result, new CyCLLocalSize(localSize * Sizeof.cl_float), (int)localSize - 1, LOCAL_ITERATIONS);
+      return (double)n * LOCAL_ITERATIONS * LOCAL_READS_PER_ITERATION * Sizeof.cl_float / best;
+    } finally {
+      result.free();
+    }
+  }
+
+  /***
+   * @return Best execution time in nanoseconds
+   */
+  private long measureKernel(CyCLKernel kernel, long[] dimsGlobal, long[] dimsLocal, Object... args)
+  {
+    kernel.execute(dimsGlobal, dimsLocal, args);
+
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < REPEATS; i++)
+    {
+      long timeStart = System.nanoTime();
+      kernel.execute(dimsGlobal, dimsLocal, args);
+      best = Math.min(best, System.nanoTime() - timeStart);
+    }
+
+    return Math.max(1, best);
+  }
+}
@@ -0,0 +1,321 @@
+package org.cytoscape.opencl.cycl;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/***
+ * Counts memory use, transfers and kernel launches of one device while Cytoscape is running.
+ * All counters are updated lock-free by the buffer and kernel operations, and can be read through
+ * snapshot() or through JMX, where every device is registered as org.cytoscape.opencl.cycl:type=Device,
+ * keyed by its device and driver, until it is removed from CyCL's devices.
+ *
+ * The queue depth counts commands that have been enqueued but not yet seen to complete, i. e. synchronous
+ * operations in progress and asynchronous ones whose CyCLEvent hasn't been waited for or released yet.
+ * The busy time is the time callers spent waiting for synchronous kernel launches and transfers.
+ */
+public class CyCLDeviceMetrics implements CyCLDeviceMetricsMBean
+{
+  static final String JMX_DOMAIN = "org.cytoscape.opencl.cycl";
+
+  private final String deviceName;
+  private final long globalMemSize;
+
+  private final AtomicLong liveBuffers = new AtomicLong();
+  private final AtomicLong liveBytes = new AtomicLong();
+  private final AtomicLong peakBytes = new AtomicLong();
+  private final AtomicLong bytesHostToDevice = new AtomicLong();
+  private final AtomicLong bytesDeviceToHost = new AtomicLong();
+  private final AtomicLong bytesDeviceToDevice = new AtomicLong();
+  private final AtomicLong kernelLaunches = new AtomicLong();
+  private final AtomicLong queueDepth = new AtomicLong();
+  private final AtomicLong busyNanos = new AtomicLong();
+  // Name under which the metrics are registered with JMX; null while they aren't
+  private ObjectName objectName;
+
+  /***
+   * Immutable copy of all counters at one point in time.
+   */
+  public static class Snapshot
+  {
+    public final String deviceName;
+    public final long timestamp;
+    public final long globalMemSize;
+    public final long liveBuffers;
+    public final long liveBytes;
+    public final long peakBytes;
+    public final long bytesHostToDevice;
+    public final long bytesDeviceToHost;
+    public final long bytesDeviceToDevice;
+    public final long kernelLaunches;
+    public final long queueDepth;
+    public final long busyNanos;
+
+    Snapshot(CyCLDeviceMetrics metrics)
+    {
+      deviceName = metrics.deviceName;
+      timestamp = System.currentTimeMillis();
+      globalMemSize = metrics.globalMemSize;
+      liveBuffers = metrics.liveBuffers.get();
+      liveBytes = metrics.liveBytes.get();
+      peakBytes = metrics.peakBytes.get();
+      bytesHostToDevice = metrics.bytesHostToDevice.get();
+      bytesDeviceToHost = metrics.bytesDeviceToHost.get();
+      bytesDeviceToDevice = metrics.bytesDeviceToDevice.get();
+      kernelLaunches = metrics.kernelLaunches.get();
+      queueDepth = metrics.queueDepth.get();
+      busyNanos = metrics.busyNanos.get();
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("%s: %d buffers, %d of %d bytes (peak %d), transferred %d to device, %d to host, %d on device, "
+                           + "%d kernel launches, queue depth %d, busy %.1f ms",
+                           deviceName, liveBuffers, liveBytes, globalMemSize, peakBytes,
+                           bytesHostToDevice, bytesDeviceToHost, bytesDeviceToDevice,
+                           kernelLaunches, queueDepth, busyNanos * 1e-6);
+    }
+  }
+
+  CyCLDeviceMetrics(String deviceName, long globalMemSize)
+  {
+    this.deviceName = deviceName;
+    this.globalMemSize = globalMemSize;
+  }
+
+  /***
+   * Takes a consistent-enough copy of all counters; individual counters may be updated while it is taken.
+   *
+   * @return Snapshot
+   */
+  public Snapshot snapshot()
+  {
+    return new Snapshot(this);
+  }
+
+  void onBufferAllocated(long bytes)
+  {
+    liveBuffers.incrementAndGet();
+    long live = liveBytes.addAndGet(bytes);
+    peakBytes.accumulateAndGet(live, Math::max);
+  }
+
+  void onBufferReleased(long bytes)
+  {
+    liveBuffers.decrementAndGet();
+    liveBytes.addAndGet(-bytes);
+  }
+
+  void onHostToDevice(long bytes)
+  {
+    bytesHostToDevice.addAndGet(bytes);
+  }
+
+  void onDeviceToHost(long bytes)
+  {
+    bytesDeviceToHost.addAndGet(bytes);
+  }
+
+  void onDeviceToDevice(long bytes)
+  {
+    bytesDeviceToDevice.addAndGet(bytes);
+  }
+
+  void onKernelLaunched()
+  {
+    kernelLaunches.incrementAndGet();
+  }
+
+  void onCommandEnqueued()
+  {
+    queueDepth.incrementAndGet();
+  }
+
+  void onCommandFinished()
+  {
+    queueDepth.decrementAndGet();
+  }
+
+  /***
+   * Accounts for a synchronous command that started at the given System.nanoTime() and has just finished.
+   */
+  void onSynchronousCommand(long startNanos)
+  {
+    busyNanos.addAndGet(System.nanoTime() - startNanos);
+  }
+
+  @Override
+  public String getDeviceName()
+  {
+    return deviceName;
+  }
+
+  @Override
+  public long getGlobalMemSize()
+  {
+    return globalMemSize;
+  }
+
+  @Override
+  public long getLiveBuffers()
+  {
+    return liveBuffers.get();
+  }
+
+  @Override
+  public long getLiveBytes()
+  {
+    return liveBytes.get();
+  }
+
+  @Override
+  public long getPeakBytes()
+  {
+    return peakBytes.get();
+  }
+
+  @Override
+  public double getMemoryUtilization()
+  {
+    return globalMemSize > 0 ? (double)liveBytes.get() / globalMemSize : 0.0;
+  }
+
+  @Override
+  public long getBytesHostToDevice()
+  {
+    return bytesHostToDevice.get();
+  }
+
+  @Override
+  public long getBytesDeviceToHost()
+  {
+    return bytesDeviceToHost.get();
+  }
+
+  @Override
+  public long getBytesDeviceToDevice()
+  {
+    return bytesDeviceToDevice.get();
+  }
+
+  @Override
+  public long getKernelLaunches()
+  {
+    return kernelLaunches.get();
+  }
+
+  @Override
+  public long getQueueDepth()
+  {
+    return queueDepth.get();
+  }
+
+  @Override
+  public long getBusyTimeMillis()
+  {
+    return busyNanos.get() / 1000000;
+  }
+
+  /***
+   * Resets the cumulative counters. Live buffers, live bytes and queue depth describe the current state and are kept;
+   * the peak is reset to the current number of live bytes.
+   */
+  @Override
+  public void reset()
+  {
+    peakBytes.set(liveBytes.get());
+    bytesHostToDevice.set(0);
+    bytesDeviceToHost.set(0);
+    bytesDeviceToDevice.set(0);
+    kernelLaunches.set(0);
+    busyNanos.set(0);
+  }
+
+  /***
+   * Registers the metrics of all devices with the platform MBean server.
+   * Failures are logged, since metrics must never keep OpenCL from working.
+   *
+   * @param devices Devices to register
+   */
+  static void registerAll(List<CyCLDevice> devices)
+  {
+    for (CyCLDevice device : devices)
+      register(device);
+  }
+
+  /***
+   * Registers a device's metrics under a name derived from its profile key, so the name doesn't change
+   * when other devices come and go. Identical devices share a key and are numbered by an instance property.
+   * Devices that are already registered keep their name.
+   *
+   * @param device Device to register
+   */
+  static void register(CyCLDevice device)
+  {
+    CyCLDeviceMetrics metrics = device.getMetrics();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    synchronized (CyCLDeviceMetrics.class)
+    {
+      if (metrics.objectName != null)
+        return;
+
+      try
+      {
+        String base = JMX_DOMAIN + ":type=Device,key=" + ObjectName.quote(device.getProfileKey()) + ",name=" + ObjectName.quote(device.name);
+        ObjectName name = new ObjectName(base);
+        for (int instance = 2; server.isRegistered(name); instance++)
+          name = new ObjectName(base + ",instance=" + instance);
+
+        server.registerMBean(metrics, name);
+        metrics.objectName = name;
+      }
+      catch (JMException e)
+      {
+        System.out.println("Could not register metrics for " + device.name + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /***
+   * Removes a device's metrics from the platform MBean server, e. g. once the device has been quarantined.
+   *
+   * @param device Device to unregister
+   */
+  static void unregister(CyCLDevice device)
+  {
+    CyCLDeviceMetrics metrics = device.getMetrics();
+    synchronized (CyCLDeviceMetrics.class)
+    {
+      if (metrics.objectName == null)
+        return;
+
+      try
+      {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metrics.objectName);
+      }
+      catch (JMException e)
+      {
+        System.out.println("Could not unregister metrics for " + device.name + ": " + e.getMessage());
+      }
+      metrics.objectName = null;
+    }
+  }
+
+  /***
+   * Gets the name under which the metrics are registered with JMX.
+   *
+   * @return Object name, or null if the metrics aren't registered
+   */
+  ObjectName getObjectName()
+  {
+    synchronized (CyCLDeviceMetrics.class)
+    {
+      return objectName;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package org.cytoscape.opencl.cycl;
+
+/***
+ * JMX view of a device's CyCLDeviceMetrics, e. g. for inspection in JConsole or VisualVM.
+ */
+public interface CyCLDeviceMetricsMBean
+{
+  String getDeviceName();
+
+  long getGlobalMemSize();
+
+  long getLiveBuffers();
+
+  long getLiveBytes();
+
+  long getPeakBytes();
+
+  double getMemoryUtilization();
+
+  long getBytesHostToDevice();
+
+  long getBytesDeviceToHost();
+
+  long getBytesDeviceToDevice();
+
+  long getKernelLaunches();
+
+  long getQueueDepth();
+
+  long getBusyTimeMillis();
+
+  void reset();
+}
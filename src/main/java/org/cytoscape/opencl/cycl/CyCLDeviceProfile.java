@@ -0,0 +1,177 @@
+package org.cytoscape.opencl.cycl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/***
+ * Results of the device micro-benchmark suite, measured by CyCLDeviceBenchmark.
+ * Unlike CyCLDevice.benchmarkScore, which condenses everything into one number, the profile
+ * keeps transfer, launch and compute performance apart, so devices can be ranked by whatever
+ * limits a particular workload.
+ */
+public class CyCLDeviceProfile
+{
+  public enum Metric
+  {
+    HOST_TO_DEVICE_BANDWIDTH("hostToDeviceBandwidth", true),
+    HOST_TO_DEVICE_PINNED_BANDWIDTH("hostToDevicePinnedBandwidth", true),
+    DEVICE_TO_HOST_BANDWIDTH("deviceToHostBandwidth", true),
+    DEVICE_TO_HOST_PINNED_BANDWIDTH("deviceToHostPinnedBandwidth", true),
+    LAUNCH_LATENCY("launchLatency", false),
+    FP32_THROUGHPUT("fp32Throughput", true),
+    FP64_THROUGHPUT("fp64Throughput", true),
+    INT_THROUGHPUT("intThroughput", true),
+    LOCAL_MEMORY_BANDWIDTH("localMemoryBandwidth", true);
+
+    final String key;
+    final boolean higherIsBetter;
+
+    Metric(String key, boolean higherIsBetter)
+    {
+      this.key = key;
+      this.higherIsBetter = higherIsBetter;
+    }
+
+    /***
+     * Determines if larger values of this metric mean better performance.
+     *
+     * @return False for latencies, true for bandwidths and throughputs
+     */
+    public boolean isHigherBetter()
+    {
+      return higherIsBetter;
+    }
+  }
+
+  private static final String STORE_PREFIX = "profile.";
+
+  // Transfer bandwidths in GB/s, for regular (pageable) and pinned host memory
+  public final double hostToDeviceBandwidth;
+  public final double hostToDevicePinnedBandwidth;
+  public final double deviceToHostBandwidth;
+  public final double deviceToHostPinnedBandwidth;
+
+  // Time from enqueueing an empty kernel until it has finished, in microseconds
+  public final double launchLatency;
+
+  // Arithmetic throughput in billions of operations per second; fp64Throughput is 0 without double precision support
+  public final double fp32Throughput;
+  public final double fp64Throughput;
+  public final double intThroughput;
+
+  // Local memory read bandwidth in GB/s
+  public final double localMemoryBandwidth;
+
+  CyCLDeviceProfile(double[] values)
+  {
+    hostToDeviceBandwidth = values[Metric.HOST_TO_DEVICE_BANDWIDTH.ordinal()];
+    hostToDevicePinnedBandwidth = values[Metric.HOST_TO_DEVICE_PINNED_BANDWIDTH.ordinal()];
+    deviceToHostBandwidth = values[Metric.DEVICE_TO_HOST_BANDWIDTH.ordinal()];
+    deviceToHostPinnedBandwidth = values[Metric.DEVICE_TO_HOST_PINNED_BANDWIDTH.ordinal()];
+    launchLatency = values[Metric.LAUNCH_LATENCY.ordinal()];
+    fp32Throughput = values[Metric.FP32_THROUGHPUT.ordinal()];
+    fp64Throughput = values[Metric.FP64_THROUGHPUT.ordinal()];
+    intThroughput = values[Metric.INT_THROUGHPUT.ordinal()];
+    localMemoryBandwidth = values[Metric.LOCAL_MEMORY_BANDWIDTH.ordinal()];
+  }
+
+  /***
+   * Gets the measured value of a metric.
+   *
+   * @param metric Metric
+   * @return Value in the metric's unit
+   */
+  public double get(Metric metric)
+  {
+    switch (metric)
+    {
+      case HOST_TO_DEVICE_BANDWIDTH: return hostToDeviceBandwidth;
+      case HOST_TO_DEVICE_PINNED_BANDWIDTH: return hostToDevicePinnedBandwidth;
+      case DEVICE_TO_HOST_BANDWIDTH: return deviceToHostBandwidth;
+      case DEVICE_TO_HOST_PINNED_BANDWIDTH: return deviceToHostPinnedBandwidth;
+      case LAUNCH_LATENCY: return launchLatency;
+      case FP32_THROUGHPUT: return fp32Throughput;
+      case FP64_THROUGHPUT: return fp64Throughput;
+      case INT_THROUGHPUT: return intThroughput;
+      case LOCAL_MEMORY_BANDWIDTH: return localMemoryBandwidth;
+      default: throw new IllegalArgumentException("Unknown metric " + metric);
+    }
+  }
+
+  /***
+   * Gets a metric as a score where higher is always better, e. g. to weight work distribution.
+   *
+   * @param metric Metric
+   * @return Metric value, or its inverse for latencies; 0 if the value is not available
+   */
+  public double getScore(Metric metric)
+  {
+    double value = get(metric);
+    if (value <= 0.0)
+      return 0.0;
+
+    return metric.higherIsBetter ? value : 1.0 / value;
+  }
+
+  /***
+   * Sorts devices from best to worst according to one metric of their profiles.
+   * Devices are benchmarked first if their profile hasn't been measured yet.
+   *
+   * @param devices Devices to rank
+   * @param metric Metric to rank by
+   * @return New list, best device first
+   */
+  public static List<CyCLDevice> rank(List<CyCLDevice> devices, Metric metric)
+  {
+    List<CyCLDevice> ranked = new ArrayList<>(devices);
+    ranked.sort(Comparator.comparingDouble((CyCLDevice device) -> device.getDeviceProfile().getScore(metric)).reversed());
+    return ranked;
+  }
+
+  /***
+   * Writes the profile to the store under the device's key.
+   */
+  void store(CyCLDeviceProfileStore store, String key)
+  {
+    for (Metric metric : Metric.values())
+      store.put(key, STORE_PREFIX + metric.key, Double.toString(get(metric)));
+  }
+
+  /***
+   * Reads a profile from the store.
+   *
+   * @return Stored profile, or null if none or only part of it has been stored
+   */
+  static CyCLDeviceProfile load(CyCLDeviceProfileStore store, String key)
+  {
+    double[] values = new double[Metric.values().length];
+    for (Metric metric : Metric.values())
+    {
+      String value = store.get(key, STORE_PREFIX + metric.key);
+      if (value == null)
+        return null;
+
+      try
+      {
+        values[metric.ordinal()] = Double.parseDouble(value);
+      }
+      catch (NumberFormatException e)
+      {
+        return null;
+      }
+    }
+
+    return new CyCLDeviceProfile(values);
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("H2D %.2f GB/s (pinned %.2f), D2H %.2f GB/s (pinned %.2f), launch %.1f us, "
+                         + "fp32 %.1f GFLOPS, fp64 %.1f GFLOPS, int %.1f GIOPS, local memory %.1f GB/s",
+                         hostToDeviceBandwidth, hostToDevicePinnedBandwidth,
+                         deviceToHostBandwidth, deviceToHostPinnedBandwidth,
+                         launchLatency, fp32Throughput, fp64Throughput, intThroughput, localMemoryBandwidth);
+  }
+}
@@ -0,0 +1,166 @@
+package org.cytoscape.opencl.cycl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/***
+ * Persists benchmark results and queried device properties between Cytoscape sessions,
+ * so devices don't have to be benchmarked on every start.
+ * Entries are keyed by device name, vendor and driver version; a driver update therefore
+ * invalidates the stored values automatically. Properties are named key.field, and keys never contain a dot,
+ * so everything up to the first dot identifies the device exactly.
+ */
+class CyCLDeviceProfileStore
+{
+  static final String FILE_NAME = "opencl-devices.props";
+
+  static final String BENCHMARK_SCORE = "benchmarkScore";
+  // Reason a device was quarantined; quarantined devices are skipped on startup
+  static final String QUARANTINED = "quarantined";
+
+  private final File file;
+  private final Properties properties = new Properties();
+  private boolean modified = false;
+
+  /***
+   * Loads the store from the given file, or starts empty if it doesn't exist or can't be read.
+   *
+   * @param file Location of the store
+   */
+  CyCLDeviceProfileStore(File file)
+  {
+    this.file = file;
+
+    if (file != null && file.exists())
+    {
+      try (InputStream stream = new FileInputStream(file))
+      {
+        properties.load(stream);
+      }
+      catch (IOException e)
+      {
+        System.out.println("Could not read OpenCL device profiles from " + file + ": " + e.getMessage());
+        properties.clear();
+      }
+    }
+  }
+
+  /***
+   * Builds the key identifying a device and driver combination.
+   * Dots, e. g. in version numbers, become dashes and all other special characters underscores.
+   *
+   * @param name Device name
+   * @param vendor Device vendor
+   * @param driverVersion Driver version
+   * @return Key usable as a property prefix
+   */
+  static String getKey(String name, String vendor, String driverVersion)
+  {
+    return (name + "_" + vendor + "_" + driverVersion).replaceAll("[^A-Za-z0-9.]+", "_").replace('.', '-');
+  }
+
+  synchronized boolean contains(String key)
+  {
+    return properties.containsKey(key + "." + BENCHMARK_SCORE);
+  }
+
+  synchronized Double getBenchmarkScore(String key)
+  {
+    String value = properties.getProperty(key + "." + BENCHMARK_SCORE);
+    if (value == null)
+      return null;
+
+    try
+    {
+      return Double.valueOf(value);
+    }
+    catch (NumberFormatException e)
+    {
+      return null;
+    }
+  }
+
+  synchronized void putBenchmarkScore(String key, double score)
+  {
+    put(key, BENCHMARK_SCORE, Double.toString(score));
+  }
+
+  synchronized String get(String key, String field)
+  {
+    return properties.getProperty(key + "." + field);
+  }
+
+  synchronized void put(String key, String field, String value)
+  {
+    String old = properties.getProperty(key + "." + field);
+    if (value.equals(old))
+      return;
+
+    properties.setProperty(key + "." + field, value);
+    modified = true;
+  }
+
+  /***
+   * Removes a single stored value.
+   *
+   * @param key Device key
+   * @param field Name of the value
+   */
+  synchronized void remove(String key, String field)
+  {
+    modified |= properties.remove(key + "." + field) != null;
+  }
+
+  /***
+   * Removes all stored values for a device.
+   *
+   * @param key Device key
+   */
+  synchronized void remove(String key)
+  {
+    modified |= properties.keySet().removeIf(k -> key.equals(getKeyOf((String)k)));
+  }
+
+  /***
+   * Gets the device key of a property name.
+   */
+  private static String getKeyOf(String property)
+  {
+    int separator = property.indexOf('.');
+    return separator < 0 ? property : property.substring(0, separator);
+  }
+
+  /***
+   * Removes all stored values, forcing every device to be benchmarked again.
+   */
+  synchronized void clear()
+  {
+    if (!properties.isEmpty())
+      modified = true;
+    properties.clear();
+  }
+
+  /***
+   * Writes the store back to disk if anything has changed since it was loaded.
+   */
+  synchronized void save()
+  {
+    if (!modified || file == null)
+      return;
+
+    try (OutputStream stream = new FileOutputStream(file))
+    {
+      properties.store(stream, "CyCL device benchmark results and capabilities");
+      modified = false;
+    }
+    catch (IOException e)
+    {
+      System.out.println("Could not write OpenCL device profiles to " + file + ": " + e.getMessage());
+    }
+  }
+}
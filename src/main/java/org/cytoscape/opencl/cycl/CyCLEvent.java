@@ -0,0 +1,282 @@
+package org.cytoscape.opencl.cycl;
+
+import java.nio.IntBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.opencl.CLEventCallback;
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.opencl.CL10.*;
+import static org.lwjgl.opencl.CL11.*;
+import static org.lwjgl.system.MemoryStack.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+/***
+ * Wraps an OpenCL event returned by an asynchronous transfer or kernel launch.
+ * Events are used to order commands across the compute and transfer queues of a device.
+ * Devices of a CyCLBackend complete every command immediately and return events without a native handle.
+ */
+public class CyCLEvent
+{
+  private boolean finalized = false;
+  private final long event;
+  // Device whose queue depth includes this command until it is seen to complete; null if not counted
+  private CyCLDeviceMetrics metrics;
+
+  // A single native completion callback serves all timed waits, each registered under the ID passed as user data,
+  // so no callback has to be freed while the driver might still call it
+  private static final Map<Long, CompletionWaiter> waiters = new ConcurrentHashMap<>();
+  private static final AtomicLong nextWaiterId = new AtomicLong(1);
+  private static CLEventCallback completionCallback;
+
+  private static final class CompletionWaiter
+  {
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile int status;
+  }
+
+  CyCLEvent(long event)
+  {
+    this.event = event;
+  }
+
+  /***
+   * Creates an event for a command that has already finished.
+   */
+  static CyCLEvent completed()
+  {
+    return new CyCLEvent(NULL);
+  }
+
+  CyCLEvent(long event, CyCLDeviceMetrics metrics)
+  {
+    this.event = event;
+    this.metrics = metrics;
+    metrics.onCommandEnqueued();
+  }
+
+  private void onCompleted()
+  {
+    CyCLDeviceMetrics counted;
+    synchronized (this)
+    {
+      counted = metrics;
+      metrics = null;
+    }
+    if (counted != null)
+      counted.onCommandFinished();
+  }
+
+  /***
+   * Gets the underlying LWJGL event.
+   *
+   * @return LWJGL event handle
+   */
+  public long getEvent()
+  {
+    return event;
+  }
+
+  /***
+   * Pauses the calling thread until the command associated with the event has finished.
+   */
+  public void waitFor()
+  {
+    if (event == NULL)
+      return;
+
+    CyCLUtils.checkCLError(clWaitForEvents(event), "clWaitForEvents");
+    onCompleted();
+  }
+
+  /***
+   * Pauses the calling thread until the command associated with the event has finished or the timeout has passed.
+   * Unlike waitFor(), a command that never finishes can't block the caller forever. The thread blocks until
+   * the driver reports completion, only falling back to polling the event status if that can't be registered.
+   *
+   * @param timeoutMillis Maximum time to wait in milliseconds
+   * @return True if the command has finished, false if the timeout has passed first
+   */
+  public boolean waitFor(long timeoutMillis)
+  {
+    if (event == NULL)
+    {
+      onCompleted();
+      return true;
+    }
+
+    long id = nextWaiterId.getAndIncrement();
+    CompletionWaiter waiter = new CompletionWaiter();
+    waiters.put(id, waiter);
+    if (clSetEventCallback(event, CL_COMPLETE, getCompletionCallback(), id) != CL_SUCCESS)
+    {
+      waiters.remove(id);
+      return pollFor(timeoutMillis);
+    }
+
+    try
+    {
+      if (!waiter.done.await(timeoutMillis, TimeUnit.MILLISECONDS))
+      {
+        waiters.remove(id);
+        return false;
+      }
+    }
+    catch (InterruptedException e)
+    {
+      waiters.remove(id);
+      Thread.currentThread().interrupt();
+      throw new CyCLException("Interrupted while waiting for a command", e);
+    }
+
+    if (waiter.status < 0)
+      throw new CyCLException("Command failed with error " + waiter.status);
+    onCompleted();
+    return true;
+  }
+
+  private static synchronized CLEventCallback getCompletionCallback()
+  {
+    // Called from a driver thread, so it only hands the status to the waiting thread
+    if (completionCallback == null)
+      completionCallback = CLEventCallback.create((event, status, userData) -> {
+        CompletionWaiter waiter = waiters.remove(userData);
+        if (waiter != null)
+        {
+          waiter.status = status;
+          waiter.done.countDown();
+        }
+      });
+
+    return completionCallback;
+  }
+
+  /***
+   * Waits by polling the event status, for drivers that don't accept completion callbacks.
+   */
+  private boolean pollFor(long timeoutMillis)
+  {
+    long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+    // Start polling quickly for short kernels and back off for long ones
+    long pause = 10000;
+    while (true)
+    {
+      int status = getStatus();
+      if (status == CL_COMPLETE)
+      {
+        onCompleted();
+        return true;
+      }
+      if (status < 0)
+        throw new CyCLException("Command failed with error " + status);
+      if (System.nanoTime() - deadline >= 0)
+        return false;
+
+      LockSupport.parkNanos(pause);
+      pause = Math.min(pause * 2, 1000000);
+    }
+  }
+
+  /***
+   * Determines if the command associated with the event has finished.
+   *
+   * @return True if the command is complete
+   */
+  public boolean isComplete()
+  {
+    if (getStatus() != CL_COMPLETE)
+      return false;
+
+    onCompleted();
+    return true;
+  }
+
+  /***
+   * Gets the execution status of the associated command.
+   *
+   * @return One of CL_QUEUED, CL_SUBMITTED, CL_RUNNING, CL_COMPLETE, or a negative error code
+   */
+  public int getStatus()
+  {
+    if (event == NULL)
+      return CL_COMPLETE;
+
+    try (MemoryStack stack = stackPush()) {
+      IntBuffer status = stack.mallocInt(1);
+      CyCLUtils.checkCLError(clGetEventInfo(event, CL_EVENT_COMMAND_EXECUTION_STATUS, status, null), "clGetEventInfo");
+      return status.get(0);
+    }
+  }
+
+  /***
+   * Pauses the calling thread until all given events have finished.
+   *
+   * @param events Events to wait for; null entries are ignored
+   */
+  public static void waitForAll(CyCLEvent... events)
+  {
+    PointerBuffer waitList = toWaitList(events);
+    if (waitList == null)
+      return;
+
+    CyCLUtils.checkCLError(clWaitForEvents(waitList), "clWaitForEvents");
+    for (CyCLEvent event : events)
+      if (event != null)
+        event.onCompleted();
+  }
+
+  /***
+   * Builds an OpenCL event wait list.
+   *
+   * @param events Events to wait for; null entries are ignored
+   * @return Wait list, or null if there is nothing to wait for
+   */
+  static PointerBuffer toWaitList(CyCLEvent... events)
+  {
+    if (events == null)
+      return null;
+
+    int count = 0;
+    for (CyCLEvent event : events)
+      if (event != null && event.getEvent() != NULL)
+        count++;
+    if (count == 0)
+      return null;
+
+    PointerBuffer waitList = BufferUtils.createPointerBuffer(count);
+    int i = 0;
+    for (CyCLEvent event : events)
+      if (event != null && event.getEvent() != NULL)
+        waitList.put(i++, event.getEvent());
+
+    return waitList;
+  }
+
+  /***
+   * Releases the event. The command itself is not affected.
+   */
+  public void release()
+  {
+    this.finalize();
+  }
+
+  @Override
+  protected synchronized void finalize()
+  {
+    if (finalized)
+      return;
+
+    // The command is no longer observable, so it stops counting towards the queue depth
+    onCompleted();
+    if (event != NULL)
+      clReleaseEvent(event);
+    finalized = true;
+  }
+}
@@ -0,0 +1,479 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/***
+ * Force-directed layout of a network whose node positions and edges are in buffers on one device.
+ * Each step computes the repulsion between all nodes with the Barnes-Hut approximation, adds the attraction along
+ * the edges, and moves every node along its force by at most the current temperature, which then cools down.
+ * The forces are those of Fruchterman and Reingold: nodes repel each other with L^2 / d, edges attract with w * d^2 / L,
+ * where L is the spring length. Positions stay on the device between steps.
+ *
+ * The quadtree is rebuilt on the device in every step: the nodes are sorted by the Morton code of their leaf with CyCLSort,
+ * which makes every leaf a range of sorted nodes, and the cells' masses and centers of mass are summed up level by level.
+ * The tree is complete, with enough levels for about two leaves per node, up to 10. Theta trades accuracy for speed:
+ * a cell acts as a single node if its size is below theta times its distance, so 0 computes all pairs exactly.
+ * The cells containing a node itself are always opened, so a node never repels itself, whatever theta.
+ * The kernels are in ForceLayout.cl. Layouts on backend devices run the same algorithm in host memory.
+ */
+public class CyCLForceLayout
+{
+  private static final String PROGRAM_NAME = "CyCLForceLayout";
+  private static final String[] KERNEL_NAMES = { "Bounds", "MortonCodes", "ClearRanges", "KeyRanges", "LeafCells", "InnerCells",
+                                                 "Repulsion", "EdgeEndpoints", "Attraction", "Integrate" };
+
+  private static final int MAX_DEPTH = 10;
+  // Repulsion stops growing below this fraction of the spring length
+  private static final float MIN_DISTANCE = 0.01f;
+
+  private final CyCLDevice device;
+  private final CyCLBuffer x, y, sources, targets;
+  private final int nodes, edges, depth;
+
+  private float theta = 0.7f;
+  private float springLength = 50.0f;
+  private float temperature = 100.0f;
+  private float cooling = 0.95f;
+
+  // Weights of all ones if none were given
+  private CyCLBuffer weights, ownWeights;
+  private CyCLBuffer bounds, codes, order, cellStart, cellEnd, mass, centerX, centerY, fx, fy;
+  private CyCLBuffer incidentStart, incidentEnd, incident;
+  // Edges incident to every node, for backend devices
+  private int[] hostIncidentStart, hostIncident;
+
+  /***
+   * Prepares the layout of a network. The buffers are used, not copied, and have to stay valid until free() is called.
+   *
+   * @param x X coordinates, float buffer updated by every step
+   * @param y Y coordinates, float buffer updated by every step
+   * @param nodes Number of nodes
+   * @param sources Int buffer with the source node of every edge
+   * @param targets Int buffer with the target node of every edge
+   * @param weights Float buffer with the weight of every edge, or null for all ones
+   * @param edges Number of edges; their nodes must be in [0, nodes), which is checked here by reading them back once
+   */
+  public CyCLForceLayout(CyCLBuffer x, CyCLBuffer y, int nodes, CyCLBuffer sources, CyCLBuffer targets, CyCLBuffer weights, int edges)
+  {
+    if (x.getType() != float.class || y.getType() != float.class || nodes > x.getElements() || nodes > y.getElements())
+      throw new CyCLException("Node positions must be float buffers of at least " + nodes + " elements");
+    if (edges > 0 && (sources.getType() != int.class || targets.getType() != int.class || edges > sources.getElements() || edges > targets.getElements()))
+      throw new CyCLException("Edge ends must be int buffers of at least " + edges + " elements");
+    if (edges > 0 && weights != null && (weights.getType() != float.class || edges > weights.getElements()))
+      throw new CyCLException("Edge weights must be a float buffer of at least " + edges + " elements");
+
+    this.device = x.getContext().getDevice();
+    this.x = x;
+    this.y = y;
+    this.nodes = Math.max(0, nodes);
+    this.sources = sources;
+    this.targets = targets;
+    this.edges = Math.max(0, edges);
+
+    // Out-of-range nodes would make the incidence kernels write outside of their buffers
+    int[] sourceNodes = new int[this.edges], targetNodes = new int[this.edges];
+    if (this.edges > 0)
+    {
+      sources.getFromDevice(sourceNodes, this.edges, 0);
+      targets.getFromDevice(targetNodes, this.edges, 0);
+      for (int e = 0; e < this.edges; e++)
+        for (int node : new int[] { sourceNodes[e], targetNodes[e] })
+          if (node < 0 || node >= this.nodes)
+            throw new CyCLException("Edge " + e + " refers to node " + node + ", but there are only " + this.nodes);
+    }
+
+    int levels = 1;
+    while (levels < MAX_DEPTH && (1L << (2 * levels)) < 2L * this.nodes)
+      levels++;
+    this.depth = levels;
+
+    try {
+      if (this.edges > 0 && weights == null)
+      {
+        float[] ones = new float[this.edges];
+        Arrays.fill(ones, 1.0f);
+        weights = ownWeights = device.createBuffer(ones);
+      }
+      this.weights = weights;
+
+      if (device.getBackend() != null)
+        buildIncidenceHostMemory(sourceNodes, targetNodes);
+      else
+        allocate();
+    } catch (RuntimeException e) {
+      free();
+      throw e;
+    }
+  }
+
+  public float getTheta()
+  {
+    return theta;
+  }
+
+  /***
+   * @param theta Cells smaller than theta times their distance are approximated by their center of mass; 0 is exact
+   */
+  public void setTheta(float theta)
+  {
+    this.theta = theta;
+  }
+
+  public float getSpringLength()
+  {
+    return springLength;
+  }
+
+  /***
+   * @param springLength Distance at which repulsion and attraction along an edge of weight 1 are equal
+   */
+  public void setSpringLength(float springLength)
+  {
+    if (!(springLength > 0.0f))
+      throw new CyCLException("Spring length must be positive");
+    this.springLength = springLength;
+  }
+
+  public float getTemperature()
+  {
+    return temperature;
+  }
+
+  /***
+   * @param temperature How far a node may move in the next step
+   */
+  public void setTemperature(float temperature)
+  {
+    this.temperature = temperature;
+  }
+
+  public float getCooling()
+  {
+    return cooling;
+  }
+
+  /***
+   * @param cooling Factor the temperature is multiplied by after every step
+   */
+  public void setCooling(float cooling)
+  {
+    this.cooling = cooling;
+  }
+
+  /***
+   * Runs a number of steps.
+   */
+  public void run(int iterations)
+  {
+    for (int i = 0; i < iterations; i++)
+      step();
+  }
+
+  /***
+   * Moves every node once along the sum of its forces, then cools down.
+   */
+  public void step()
+  {
+    if (bounds == null && hostIncidentStart == null)
+      throw new CyCLException("Layout has been freed");
+
+    if (nodes > 0)
+    {
+      if (device.getBackend() != null)
+        stepHostMemory();
+      else
+        stepOnDevice();
+    }
+
+    temperature *= cooling;
+  }
+
+  /***
+   * Frees the buffers the layout allocated; the position and edge buffers are left alone.
+   */
+  public void free()
+  {
+    CyCLBuffer[] buffers = { ownWeights, bounds, codes, order, cellStart, cellEnd, mass, centerX, centerY, fx, fy, incidentStart, incidentEnd, incident };
+    for (CyCLBuffer buffer : buffers)
+      if (buffer != null)
+        buffer.free();
+
+    weights = ownWeights = bounds = codes = order = cellStart = cellEnd = mass = centerX = centerY = fx = fy = null;
+    incidentStart = incidentEnd = incident = null;
+    hostIncidentStart = hostIncident = null;
+  }
+
+  private static int levelOffset(int level)
+  {
+    return (int)(((1L << (2 * level)) - 1) / 3);
+  }
+
+  private CyCLProgram getProgram()
+  {
+    synchronized (device)
+    {
+      return device.addProgram(PROGRAM_NAME, CyCLForceLayout.class.getResource("/ForceLayout.cl"), KERNEL_NAMES, null, true);
+    }
+  }
+
+  private void allocate()
+  {
+    int leaves = 1 << (2 * depth);
+    int cells = levelOffset(depth + 1);
+    int size = Math.max(1, nodes);
+
+    bounds = device.createBuffer(float.class, 3);
+    codes = device.createBuffer(int.class, size);
+    order = device.createBuffer(int.class, size);
+    cellStart = device.createBuffer(int.class, leaves);
+    cellEnd = device.createBuffer(int.class, leaves);
+    mass = device.createBuffer(float.class, cells);
+    centerX = device.createBuffer(float.class, cells);
+    centerY = device.createBuffer(float.class, cells);
+    fx = device.createBuffer(float.class, size);
+    fy = device.createBuffer(float.class, size);
+    incidentStart = device.createBuffer(int.class, size);
+    incidentEnd = device.createBuffer(int.class, size);
+
+    // Edges incident to every node: (node, edge) pairs sorted by node
+    CyCLProgram program = getProgram();
+    program.getKernel("ClearRanges").execute(new long[] { size }, null, incidentStart, incidentEnd, size);
+    if (edges == 0)
+      return;
+
+    incident = device.createBuffer(int.class, 2 * edges);
+    CyCLBuffer endpoints = device.createBuffer(int.class, 2 * edges);
+    try {
+      program.getKernel("EdgeEndpoints").execute(new long[] { edges }, null, sources, targets, edges, endpoints, incident);
+      CyCLSort.sort(endpoints, incident, 2 * edges);
+      program.getKernel("KeyRanges").execute(new long[] { 2 * edges }, null, endpoints, 2 * edges, incidentStart, incidentEnd);
+    } finally {
+      endpoints.free();
+    }
+  }
+
+  private void stepOnDevice()
+  {
+    CyCLProgram program = getProgram();
+    long[] dimsNodes = new long[] { nodes };
+    int leaves = 1 << (2 * depth);
+
+    CyCLKernel boundsKernel = program.getKernel("Bounds");
+    int localSize = CyCLReduction.getLocalSize(device, boundsKernel, 4 * Sizeof.cl_float);
+    boundsKernel.execute(new long[] { localSize }, new long[] { localSize }, x, y, nodes, bounds, new CyCLLocalSize((long)localSize * 4 * Sizeof.cl_float));
+
+    program.getKernel("MortonCodes").execute(dimsNodes, null, x, y, nodes, bounds, depth, codes, order);
+    CyCLSort.sort(codes, order, nodes);
+    program.getKernel("ClearRanges").execute(new long[] { leaves }, null, cellStart, cellEnd, leaves);
+    program.getKernel("KeyRanges").execute(dimsNodes, null, codes, nodes, cellStart, cellEnd);
+
+    program.getKernel("LeafCells").execute(new long[] { leaves }, null, cellStart, cellEnd, order, x, y, leaves, levelOffset(depth), mass, centerX, centerY);
+    CyCLKernel innerCells = program.getKernel("InnerCells");
+    for (int level = depth - 1; level >= 0; level--)
+    {
+      int cells = 1 << (2 * level);
+      innerCells.execute(new long[] { cells }, null, cells, levelOffset(level), levelOffset(level + 1), mass, centerX, centerY);
+    }
+
+    float minDistance = MIN_DISTANCE * springLength;
+    program.getKernel("Repulsion").execute(dimsNodes, null, x, y, nodes, bounds, depth, mass, centerX, centerY, cellStart, cellEnd, order,
+                                           theta * theta, springLength * springLength, minDistance * minDistance, fx, fy);
+    if (edges > 0)
+      program.getKernel("Attraction").execute(dimsNodes, null, x, y, nodes, incidentStart, incidentEnd, incident, sources, targets, weights, springLength, fx, fy);
+    program.getKernel("Integrate").execute(dimsNodes, null, x, y, nodes, fx, fy, temperature);
+  }
+
+  private void buildIncidenceHostMemory(int[] sourceNodes, int[] targetNodes)
+  {
+    hostIncidentStart = new int[nodes + 1];
+    for (int e = 0; e < edges; e++)
+    {
+      hostIncidentStart[sourceNodes[e] + 1]++;
+      hostIncidentStart[targetNodes[e] + 1]++;
+    }
+    for (int i = 0; i < nodes; i++)
+      hostIncidentStart[i + 1] += hostIncidentStart[i];
+
+    hostIncident = new int[2 * edges];
+    int[] next = Arrays.copyOf(hostIncidentStart, nodes);
+    for (int e = 0; e < edges; e++)
+    {
+      hostIncident[next[sourceNodes[e]]++] = e;
+      hostIncident[next[targetNodes[e]]++] = e;
+    }
+  }
+
+  /***
+   * One step on buffers whose memory is the host staging buffer, as on backend devices, mirroring the kernels.
+   */
+  private void stepHostMemory()
+  {
+    ByteBuffer xMemory = hostMemory(x), yMemory = hostMemory(y);
+    float[] px = new float[nodes], py = new float[nodes];
+    for (int i = 0; i < nodes; i++)
+    {
+      px[i] = xMemory.getFloat(i * Sizeof.cl_float);
+      py[i] = yMemory.getFloat(i * Sizeof.cl_float);
+    }
+
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < nodes; i++)
+    {
+      minX = Math.min(minX, px[i]);
+      minY = Math.min(minY, py[i]);
+      maxX = Math.max(maxX, px[i]);
+      maxY = Math.max(maxY, py[i]);
+    }
+    float rootSize = Math.max(maxX - minX, maxY - minY);
+    rootSize = rootSize > 0.0f ? rootSize * 1.0001f : 1.0f;
+
+    // Nodes sorted by leaf, packed as (code, node) to sort them in one go
+    int side = 1 << depth;
+    float scale = side / rootSize;
+    long[] sorted = new long[nodes];
+    int[] leaf = new int[nodes];
+    for (int i = 0; i < nodes; i++)
+    {
+      int cx = Math.max(0, Math.min(side - 1, (int)((px[i] - minX) * scale)));
+      int cy = Math.max(0, Math.min(side - 1, (int)((py[i] - minY) * scale)));
+      leaf[i] = spreadBits(cx) | (spreadBits(cy) << 1);
+      sorted[i] = ((long)leaf[i] << 32) | i;
+    }
+    Arrays.sort(sorted);
+
+    int leaves = 1 << (2 * depth);
+    int[] cellStart = new int[leaves], cellEnd = new int[leaves], order = new int[nodes];
+    for (int s = 0; s < nodes; s++)
+    {
+      int code = (int)(sorted[s] >>> 32);
+      order[s] = (int)sorted[s];
+      if (s == 0 || (int)(sorted[s - 1] >>> 32) != code)
+        cellStart[code] = s;
+      cellEnd[code] = s + 1;
+    }
+
+    int cells = levelOffset(depth + 1), leafOffset = levelOffset(depth);
+    float[] mass = new float[cells], centerX = new float[cells], centerY = new float[cells];
+    for (int c = 0; c < leaves; c++)
+    {
+      float sumX = 0.0f, sumY = 0.0f;
+      for (int s = cellStart[c]; s < cellEnd[c]; s++)
+      {
+        sumX += px[order[s]];
+        sumY += py[order[s]];
+      }
+      int count = cellEnd[c] - cellStart[c];
+      mass[leafOffset + c] = count;
+      centerX[leafOffset + c] = count > 0 ? sumX / count : 0.0f;
+      centerY[leafOffset + c] = count > 0 ? sumY / count : 0.0f;
+    }
+    for (int level = depth - 1; level >= 0; level--)
+    {
+      int offset = levelOffset(level), childOffset = levelOffset(level + 1);
+      for (int c = 0; c < 1 << (2 * level); c++)
+      {
+        float m = 0.0f, sumX = 0.0f, sumY = 0.0f;
+        for (int q = 0; q < 4; q++)
+        {
+          int child = childOffset + 4 * c + q;
+          m += mass[child];
+          sumX += mass[child] * centerX[child];
+          sumY += mass[child] * centerY[child];
+        }
+        mass[offset + c] = m;
+        centerX[offset + c] = m > 0.0f ? sumX / m : 0.0f;
+        centerY[offset + c] = m > 0.0f ? sumY / m : 0.0f;
+      }
+    }
+
+    float theta2 = theta * theta, k = springLength * springLength;
+    float minDistance2 = MIN_DISTANCE * springLength * MIN_DISTANCE * springLength;
+    float[] forceX = new float[nodes], forceY = new float[nodes];
+    int[] stack = new int[3 * MAX_DEPTH + 1];
+    for (int i = 0; i < nodes; i++)
+    {
+      float sumX = 0.0f, sumY = 0.0f;
+      int top = 0;
+      stack[top++] = 0;
+      while (top > 0)
+      {
+        int entry = stack[--top];
+        int level = entry >> 24, index = entry & 0xFFFFFF;
+        int cell = levelOffset(level) + index;
+        if (mass[cell] == 0.0f)
+          continue;
+
+        float dx = px[i] - centerX[cell], dy = py[i] - centerY[cell];
+        float d2 = dx * dx + dy * dy;
+        float size = rootSize / (1 << level);
+        boolean own = index == leaf[i] >> (2 * (depth - level));
+        if (!own && size * size < theta2 * d2)
+        {
+          float f = mass[cell] * k / Math.max(d2, minDistance2);
+          sumX += dx * f;
+          sumY += dy * f;
+        }
+        else if (level == depth)
+        {
+          for (int s = cellStart[index]; s < cellEnd[index]; s++)
+          {
+            int j = order[s];
+            if (j == i)
+              continue;
+            float ex = px[i] - px[j], ey = py[i] - py[j];
+            float f = k / Math.max(ex * ex + ey * ey, minDistance2);
+            sumX += ex * f;
+            sumY += ey * f;
+          }
+        }
+        else
+        {
+          for (int q = 0; q < 4; q++)
+            stack[top++] = ((level + 1) << 24) | (4 * index + q);
+        }
+      }
+      forceX[i] = sumX;
+      forceY[i] = sumY;
+    }
+
+    if (edges > 0)
+    {
+      ByteBuffer sourceMemory = hostMemory(sources), targetMemory = hostMemory(targets), weightMemory = hostMemory(weights);
+      for (int i = 0; i < nodes; i++)
+        for (int s = hostIncidentStart[i]; s < hostIncidentStart[i + 1]; s++)
+        {
+          int e = hostIncident[s];
+          int source = sourceMemory.getInt(e * Sizeof.cl_int);
+          int j = source == i ? targetMemory.getInt(e * Sizeof.cl_int) : source;
+          float dx = px[j] - px[i], dy = py[j] - py[i];
+          float f = weightMemory.getFloat(e * Sizeof.cl_float) * (float)Math.sqrt(dx * dx + dy * dy) / springLength;
+          forceX[i] += dx * f;
+          forceY[i] += dy * f;
+        }
+    }
+
+    for (int i = 0; i < nodes; i++)
+    {
+      float length = (float)Math.sqrt(forceX[i] * forceX[i] + forceY[i] * forceY[i]);
+      if (length > 0.0f)
+      {
+        float step = Math.min(length, temperature) / length;
+        xMemory.putFloat(i * Sizeof.cl_float, px[i] + forceX[i] * step);
+        yMemory.putFloat(i * Sizeof.cl_float, py[i] + forceY[i] * step);
+      }
+    }
+  }
+
+  private static int spreadBits(int v)
+  {
+    v &= 0xFFFF;
+    v = (v | (v << 8)) & 0x00FF00FF;
+    v = (v | (v << 4)) & 0x0F0F0F0F;
+    v = (v | (v << 2)) & 0x33333333;
+    v = (v | (v << 1)) & 0x55555555;
+    return v;
+  }
+}
@@ -0,0 +1,209 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/***
+ * Histograms of int, long, float or double buffers, e. g. degree distributions or the bins of a continuous visual mapping.
+ *
+ * count() treats every value as a bin index, which suits degrees and other small non-negative integers;
+ * bin() splits a value range into bins of equal width. Values outside of the bins are not counted.
+ * The counts either go into an int buffer that stays on the device, or come back as an array.
+ *
+ * The kernels in Histogram.cl give every work group a private copy of the histogram in local memory
+ * as long as it fits, and only add the copies to the global histogram at the end. Larger histograms are counted
+ * with atomics on global memory directly. Linear bins are computed in single precision, except for doubles.
+ * Programs are built on first use and cached per device and element type.
+ * Buffers of backend devices already live in host memory and are counted there.
+ */
+public class CyCLHistogram
+{
+  private static final String[] KERNEL_NAMES = { "ClearCounts", "HistogramLocal", "HistogramGlobal" };
+
+  // Work groups per compute unit
+  private static final int GROUPS_PER_COMPUTE_UNIT = 4;
+  // Local histograms use at most this part of the device's local memory, so more work groups fit on a compute unit
+  private static final int LOCAL_MEMORY_SHARE = 2;
+
+  private CyCLHistogram()
+  {
+  }
+
+  /***
+   * Counts how often every value in [0, bins) occurs.
+   *
+   * @param input Buffer of int, long, float or double; floating point values are truncated
+   * @param n Number of elements
+   * @param bins Number of bins
+   * @param histogram Int buffer of at least bins elements on the same device, which receives the counts
+   */
+  public static void count(CyCLBuffer input, int n, int bins, CyCLBuffer histogram)
+  {
+    histogram(input, n, false, 0.0, 0.0, bins, histogram);
+  }
+
+  /***
+   * Counts how often every value in [0, bins) occurs.
+   *
+   * @return The counts
+   * @see #count(CyCLBuffer, int, int, CyCLBuffer)
+   */
+  public static int[] count(CyCLBuffer input, int n, int bins)
+  {
+    return toArray(input, n, false, 0.0, 0.0, bins);
+  }
+
+  /***
+   * Counts the values in [minValue, maxValue] per bin of equal width. The maximum belongs to the last bin.
+   *
+   * @param input Buffer of int, long, float or double
+   * @param n Number of elements
+   * @param minValue Lower end of the first bin
+   * @param maxValue Upper end of the last bin; must be greater than minValue
+   * @param bins Number of bins
+   * @param histogram Int buffer of at least bins elements on the same device, which receives the counts
+   */
+  public static void bin(CyCLBuffer input, int n, double minValue, double maxValue, int bins, CyCLBuffer histogram)
+  {
+    histogram(input, n, true, minValue, maxValue, bins, histogram);
+  }
+
+  /***
+   * Counts the values in [minValue, maxValue] per bin of equal width.
+   *
+   * @return The counts
+   * @see #bin(CyCLBuffer, int, double, double, int, CyCLBuffer)
+   */
+  public static int[] bin(CyCLBuffer input, int n, double minValue, double maxValue, int bins)
+  {
+    return toArray(input, n, true, minValue, maxValue, bins);
+  }
+
+  private static int[] toArray(CyCLBuffer input, int n, boolean linear, double minValue, double maxValue, int bins)
+  {
+    CyCLBuffer histogram = input.getContext().getDevice().createBuffer(int.class, Math.max(1, bins));
+    try {
+      histogram(input, n, linear, minValue, maxValue, bins, histogram);
+      int[] counts = new int[Math.max(1, bins)];
+      histogram.getFromDevice(counts);
+      return bins > 0 ? counts : new int[0];
+    } finally {
+      histogram.free();
+    }
+  }
+
+  private static void histogram(CyCLBuffer input, int n, boolean linear, double minValue, double maxValue, int bins, CyCLBuffer histogram)
+  {
+    Class<?> type = input.getType();
+    if (type != int.class && type != long.class && type != float.class && type != double.class)
+      throw new CyCLException("Cannot count buffers of " + type);
+    if (histogram.getType() != int.class || bins > histogram.getElements())
+      throw new CyCLException("Histogram must be an int buffer of at least " + bins + " elements");
+    if (bins < 0 || n > input.getElements())
+      throw new CyCLException("Cannot count " + n + " elements into " + bins + " bins");
+    if (linear && !(maxValue > minValue))
+      throw new CyCLException("Histogram range [" + minValue + ", " + maxValue + "] is empty");
+    if (bins == 0)
+      return;
+
+    double scale = linear ? bins / (maxValue - minValue) : 0.0;
+    CyCLDevice device = input.getContext().getDevice();
+    if (device.getBackend() != null)
+    {
+      histogramHostMemory(input, Math.max(0, n), linear, minValue, maxValue, scale, bins, histogram);
+      return;
+    }
+
+    if (type == double.class && device.prefWidthDouble == 0)
+      throw new CyCLException(device.name + " does not support double precision");
+
+    CyCLProgram program = getProgram(device, type);
+    program.getKernel("ClearCounts").execute(new long[] { bins }, null, histogram, bins);
+    if (n <= 0)
+      return;
+
+    Object min, max, binScale;
+    if (type == double.class)
+    {
+      min = minValue;
+      max = maxValue;
+      binScale = scale;
+    }
+    else
+    {
+      min = (float)minValue;
+      max = (float)maxValue;
+      binScale = (float)scale;
+    }
+
+    CyCLKernel local = program.getKernel("HistogramLocal");
+    int localSize = CyCLReduction.getLocalSize(device, local, 1);
+    long groups = Math.max(1, device.computeUnits) * (long)GROUPS_PER_COMPUTE_UNIT;
+    groups = Math.min(groups, (n + (long)localSize - 1) / localSize);
+    long[] dimsGlobal = new long[] { groups * localSize };
+
+    if ((long)bins * Sizeof.cl_int <= device.localMemSize / LOCAL_MEMORY_SHARE)
+      local.execute(dimsGlobal, new long[] { localSize }, input, n, linear ? 1 : 0, min, max, binScale, histogram, bins,
+                    new CyCLLocalSize((long)bins * Sizeof.cl_int));
+    else
+      program.getKernel("HistogramGlobal").execute(dimsGlobal, null, input, n, linear ? 1 : 0, min, max, binScale, histogram, bins);
+  }
+
+  private static CyCLProgram getProgram(CyCLDevice device, Class<?> type)
+  {
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("T", type.getName());
+    if (type == double.class)
+      defines.put("CYCL_FP64", null);
+
+    synchronized (device)
+    {
+      return device.addProgram("CyCLHistogram " + type.getName(), CyCLHistogram.class.getResource("/Histogram.cl"), KERNEL_NAMES, defines, true);
+    }
+  }
+
+  /***
+   * Counts buffers whose memory is the host staging buffer, as on backend devices, with the same binning.
+   */
+  private static void histogramHostMemory(CyCLBuffer input, int n, boolean linear, double minValue, double maxValue, double scale, int bins, CyCLBuffer histogram)
+  {
+    Class<?> type = input.getType();
+    ByteBuffer in = hostMemory(input);
+    ByteBuffer out = hostMemory(histogram);
+    int size = input.elementSize();
+    boolean singlePrecision = type != double.class;
+
+    int[] counts = new int[bins];
+    for (int i = 0; i < n; i++)
+    {
+      double value;
+      if (type == int.class)
+        value = in.getInt(i * size);
+      else if (type == long.class)
+        value = in.getLong(i * size);
+      else if (type == float.class)
+        value = in.getFloat(i * size);
+      else
+        value = in.getDouble(i * size);
+
+      int bin;
+      if (!linear)
+        bin = value >= 0.0 && value < bins ? (int)value : -1;
+      else if (singlePrecision)
+      {
+        float x = (float)value;
+        bin = x >= (float)minValue && x <= (float)maxValue ? Math.min((int)((x - (float)minValue) * (float)scale), bins - 1) : -1;
+      }
+      else
+        bin = value >= minValue && value <= maxValue ? Math.min((int)((value - minValue) * scale), bins - 1) : -1;
+
+      if (bin >= 0)
+        counts[bin]++;
+    }
+
+    for (int b = 0; b < bins; b++)
+      out.putInt(b * Sizeof.cl_int, counts[b]);
+  }
+}
@@ -0,0 +1,345 @@
+package org.cytoscape.opencl.cycl;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/***
+ * Runs registered Java implementations of kernels as data-parallel loops on a ForkJoinPool.
+ * It provides the Java device listed by CyCL.getDevices(), which is the only device if OpenCL is unavailable,
+ * and allows testing CyCL-based algorithms without native drivers.
+ *
+ * Kernels are registered under the names of their OpenCL counterparts, e. g.
+ * <pre>
+ * CyCLJavaBackend.getDefault().registerKernel("Scale", (start, end, args) -> {
+ *   FloatBuffer values = CyCLJavaBackend.asFloats(args[0]);
+ *   float factor = (Float)args[1];
+ *   for (int i = (int)start; i < end; i++)
+ *     values.put(i, values.get(i) * factor);
+ * });
+ * </pre>
+ * The kernels used to benchmark devices are built in.
+ */
+public class CyCLJavaBackend implements CyCLBackend
+{
+  // Ranges smaller than this are not split further, a task costs about as much as a few hundred simple work items
+  private static final long MIN_CHUNK = 256;
+  // Ranges are split into more chunks than threads, so threads that finish early can steal work
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private static CyCLJavaBackend defaultBackend;
+
+  private final String name;
+  private final ForkJoinPool pool;
+  private final Map<String, CyCLJavaKernel> kernels = new ConcurrentHashMap<>();
+
+  /***
+   * Creates a backend with one thread per available processor.
+   */
+  public CyCLJavaBackend()
+  {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /***
+   * Creates a backend with the given number of threads.
+   *
+   * @param parallelism Number of threads
+   */
+  public CyCLJavaBackend(int parallelism)
+  {
+    this("Java ForkJoin", parallelism);
+  }
+
+  protected CyCLJavaBackend(String name, int parallelism)
+  {
+    this.name = name;
+    pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+      thread.setName("CyCL " + name + " " + thread.getPoolIndex());
+      thread.setDaemon(true);
+      return thread;
+    }, null, false);
+
+    registerBuiltInKernels();
+  }
+
+  /***
+   * Gets the backend shared by all users of CyCL, which also provides the Java device of CyCL.getDevices().
+   * It is a CyCLVectorBackend, so it implements the kernels of CyCLPrimitives as well.
+   *
+   * @return Default backend
+   */
+  public static synchronized CyCLJavaBackend getDefault()
+  {
+    if (defaultBackend == null)
+      defaultBackend = new CyCLVectorBackend();
+
+    return defaultBackend;
+  }
+
+  /***
+   * Registers the Java implementation of a kernel, replacing any previous one with the same name.
+   *
+   * @param name Kernel name, as in the OpenCL program
+   * @param kernel Implementation
+   */
+  public void registerKernel(String name, CyCLJavaKernel kernel)
+  {
+    kernels.put(name, kernel);
+  }
+
+  /***
+   * Removes the Java implementation of a kernel. Programs that have already been created keep working.
+   *
+   * @param name Kernel name
+   */
+  public void unregisterKernel(String name)
+  {
+    kernels.remove(name);
+  }
+
+  @Override
+  public String getName()
+  {
+    return name + " (" + pool.getParallelism() + " threads)";
+  }
+
+  @Override
+  public String getVendor()
+  {
+    return System.getProperty("java.vm.vendor", "Java");
+  }
+
+  @Override
+  public int getComputeUnits()
+  {
+    return pool.getParallelism();
+  }
+
+  @Override
+  public long getMaxBufferSize()
+  {
+    // Buffers are ByteBuffers, which are indexed by int
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public boolean supportsDouble()
+  {
+    return true;
+  }
+
+  @Override
+  public boolean hasKernel(String name)
+  {
+    return kernels.containsKey(name);
+  }
+
+  @Override
+  public void execute(String name, long[] dimsGlobal, long[] globalOffset, Object[] args)
+  {
+    CyCLJavaKernel kernel = kernels.get(name);
+    if (kernel == null)
+      throw new CyCLException("Kernel " + name + " is not implemented by " + getName());
+
+    long items = 1;
+    for (long dim : dimsGlobal)
+      items *= dim;
+
+    // With the first dimension varying fastest, an offset in any dimension shifts the whole range of linear IDs
+    long start = 0;
+    if (globalOffset != null)
+    {
+      long stride = 1;
+      for (int i = 0; i < globalOffset.length && i < dimsGlobal.length; i++)
+      {
+        start += globalOffset[i] * stride;
+        stride *= dimsGlobal[i];
+      }
+    }
+
+    if (items <= 0)
+      return;
+
+    long chunk = Math.max(MIN_CHUNK, (items + (long)pool.getParallelism() * CHUNKS_PER_THREAD - 1) / ((long)pool.getParallelism() * CHUNKS_PER_THREAD));
+    if (items <= chunk)
+      kernel.run(start, start + items, args);
+    else
+      pool.invoke(new Range(kernel, start, start + items, chunk, args));
+  }
+
+  private static final class Range extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final CyCLJavaKernel kernel;
+    private final long start, end, chunk;
+    private final Object[] args;
+
+    Range(CyCLJavaKernel kernel, long start, long end, long chunk, Object[] args)
+    {
+      this.kernel = kernel;
+      this.start = start;
+      this.end = end;
+      this.chunk = chunk;
+      this.args = args;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (end - start <= chunk)
+      {
+        kernel.run(start, end, args);
+        return;
+      }
+
+      long middle = start + (end - start) / 2;
+      invokeAll(new Range(kernel, start, middle, chunk, args), new Range(kernel, middle, end, chunk, args));
+    }
+  }
+
+  private static ByteBuffer memory(Object arg)
+  {
+    // Independent of the staging buffer's position, and duplicates don't inherit the byte order
+    ByteBuffer buffer = ((CyCLBuffer)arg).getBuffer();
+    ByteBuffer memory = buffer.duplicate().order(buffer.order());
+    memory.clear();
+    return memory;
+  }
+
+  /***
+   * Gets a buffer argument's memory as ints.
+   *
+   * @param arg CyCLBuffer kernel argument
+   * @return View of the buffer's memory, indexed by element
+   */
+  public static IntBuffer asInts(Object arg)
+  {
+    return memory(arg).asIntBuffer();
+  }
+
+  /***
+   * Gets a buffer argument's memory as longs.
+   *
+   * @param arg CyCLBuffer kernel argument
+   * @return View of the buffer's memory, indexed by element
+   */
+  public static LongBuffer asLongs(Object arg)
+  {
+    return memory(arg).asLongBuffer();
+  }
+
+  /***
+   * Gets a buffer argument's memory as floats.
+   *
+   * @param arg CyCLBuffer kernel argument
+   * @return View of the buffer's memory, indexed by element
+   */
+  public static FloatBuffer asFloats(Object arg)
+  {
+    return memory(arg).asFloatBuffer();
+  }
+
+  /***
+   * Gets a buffer argument's memory as doubles.
+   *
+   * @param arg CyCLBuffer kernel argument
+   * @return View of the buffer's memory, indexed by element
+   */
+  public static DoubleBuffer asDoubles(Object arg)
+  {
+    return memory(arg).asDoubleBuffer();
+  }
+
+  /***
+   * Registers the kernels of Benchmark.cl and BenchmarkSuite.cl, so devices of this backend can be benchmarked like OpenCL devices.
+   */
+  private void registerBuiltInKernels()
+  {
+    registerKernel("BenchmarkKernel", (start, end, args) -> {
+      IntBuffer a = asInts(args[0]), b = asInts(args[1]), c = asInts(args[2]);
+      int n = (Integer)args[3];
+      for (int id = (int)start; id < Math.min(end, n); id++)
+      {
+        int result = 0;
+        for (int i = 0; i < id; i++)
+        {
+          float x = a.get(i), y = b.get(i);
+          float r = Math.max(1e-5f, (float)Math.sqrt(x * x + y * y));
+          x /= r;
+          y /= r;
+          result += (int)Math.min(1.0f, (float)(Math.pow(x, 0.25) + Math.pow(y, 0.25)));
+        }
+        c.put(id, result);
+      }
+    });
+
+    registerKernel("EmptyKernel", (start, end, args) -> { });
+
+    registerKernel("Fp32Throughput", (start, end, args) -> {
+      FloatBuffer result = asFloats(args[0]);
+      float seed = (Float)args[1];
+      int iterations = (Integer)args[2];
+      final float m = 0.9999f, k = 1e-4f;
+      for (long id = start; id < end; id++)
+      {
+        float a = seed + (float)id * 1e-7f, b = a + 0.1f, c = a + 0.2f, d = a + 0.3f;
+        for (int i = 0; i < iterations; i++)
+        {
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+        }
+        result.put((int)id, a + b + c + d);
+      }
+    });
+
+    registerKernel("Fp64Throughput", (start, end, args) -> {
+      DoubleBuffer result = asDoubles(args[0]);
+      double seed = (Double)args[1];
+      int iterations = (Integer)args[2];
+      final double m = 0.9999, k = 1e-4;
+      for (long id = start; id < end; id++)
+      {
+        double a = seed + (double)id * 1e-7, b = a + 0.1, c = a + 0.2, d = a + 0.3;
+        for (int i = 0; i < iterations; i++)
+        {
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+        }
+        result.put((int)id, a + b + c + d);
+      }
+    });
+
+    registerKernel("IntThroughput", (start, end, args) -> {
+      IntBuffer result = asInts(args[0]);
+      int seed = (Integer)args[1];
+      int iterations = (Integer)args[2];
+      final int m = 1664525, k = 1013904223;
+      for (long id = start; id < end; id++)
+      {
+        int a = seed + (int)id, b = a + 1, c = a + 2, d = a + 3;
+        for (int i = 0; i < iterations; i++)
+        {
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+          a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+        }
+        result.put((int)id, a ^ b ^ c ^ d);
+      }
+    });
+  }
+}
@@ -0,0 +1,24 @@
+package org.cytoscape.opencl.cycl;
+
+/***
+ * Java implementation of an OpenCL kernel, registered with CyCLJavaBackend under the kernel's name.
+ * Instead of being called once per work item, it processes a contiguous range of work items,
+ * so the loop over them can be optimized by the JIT compiler.
+ *
+ * Multi-dimensional global ranges are flattened with the first dimension varying fastest, and global offsets included,
+ * i. e. the ID of (x, y) is x + y * width. A range split along its last dimension, as by CyCLMultiDeviceExecutor,
+ * thus keeps the IDs of the whole range. Kernels that need the individual coordinates must receive the width as an argument.
+ */
+@FunctionalInterface
+public interface CyCLJavaKernel
+{
+  /***
+   * Runs the work items with global IDs in [start, end). Different ranges of the same launch run
+   * concurrently on different threads, so work items may only write to their own output locations.
+   *
+   * @param start First global ID, including the launch's global offset
+   * @param end Global ID after the last one
+   * @param args Kernel arguments as passed to CyCLKernel.execute; buffers can be accessed through CyCLBuffer.getBuffer()
+   */
+  void run(long start, long end, Object[] args);
+}
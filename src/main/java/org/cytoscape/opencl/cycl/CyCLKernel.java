@@ -1,6 +1,10 @@
 package org.cytoscape.opencl.cycl;
 
 import java.nio.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.PointerBuffer;
@@ -15,31 +19,273 @@ import static org.lwjgl.system.MemoryUtil.*;
 
 public class CyCLKernel
 {
-  private Boolean finalized = false;
+  // Set once the kernel has been released, e. g. with its program; it must not be launched afterwards
+  private volatile boolean finalized = false;
+
+  // Milliseconds a synchronous launch may take before the device is quarantined; 0 waits forever
+  private static volatile long timeout = 120000;
 
   private long kernel;
+  private final String name;
   private CyCLContext context;
+  // Executes the kernel instead of OpenCL on backend devices; null on OpenCL devices
+  private final CyCLBackend backend;
+  // Whether each argument is only read by the kernel; used to track dependencies between commands
+  private boolean[] readOnlyArgs;
 
   public CyCLKernel(CyCLContext context, CyCLProgram program, String kernelName)
   {
     this.context = context;
+    this.name = kernelName;
+    this.backend = context.getDevice().getBackend();
+
+    if (backend == null)
+    {
+      IntBuffer errorBuffer = BufferUtils.createIntBuffer(1);
+      kernel = clCreateKernel(program.getProgram(), kernelName, errorBuffer);
+      CyCLUtils.checkCLError(errorBuffer.get(0));
+    }
 
-    IntBuffer errorBuffer = BufferUtils.createIntBuffer(1);
-    kernel = clCreateKernel(program.getProgram(), kernelName, errorBuffer);
-    CyCLUtils.checkCLError(errorBuffer.get(0));
+    readOnlyArgs = program.getSources() == null ? new boolean[0] : findReadOnlyArgs(program.getSources(), kernelName);
   }
 
   public long getKernel() { return kernel; }
 
+  /***
+   * Determines if the kernel only reads from the given argument.
+   * By default, pointer arguments declared as const are read-only; all other buffers are assumed to be written.
+   *
+   * @param index Argument index
+   * @return True if the argument is never written by the kernel
+   */
+  public boolean isArgReadOnly(int index)
+  {
+    return index < readOnlyArgs.length && readOnlyArgs[index];
+  }
+
+  /***
+   * Declares whether the kernel writes to a buffer argument, overriding what was derived from the kernel's signature.
+   *
+   * @param index Argument index
+   * @param readOnly True if the kernel never writes to the argument
+   */
+  public void setArgReadOnly(int index, boolean readOnly)
+  {
+    if (index >= readOnlyArgs.length)
+    {
+      boolean[] grown = new boolean[index + 1];
+      System.arraycopy(readOnlyArgs, 0, grown, 0, readOnlyArgs.length);
+      readOnlyArgs = grown;
+    }
+    readOnlyArgs[index] = readOnly;
+  }
+
+  /***
+   * Finds the arguments of a kernel that point to const or __constant data, by parsing its signature in the program source.
+   *
+   * @param sources Program sources
+   * @param kernelName Kernel name
+   * @return For every argument, true if it is read-only; empty if the signature couldn't be found
+   */
+  static boolean[] findReadOnlyArgs(String[] sources, String kernelName)
+  {
+    Pattern signature = Pattern.compile("(?:__kernel|\\bkernel)\\s+void\\s+" + Pattern.quote(kernelName) + "\\s*\\(([^)]*)\\)");
+    for (String source : sources)
+    {
+      // Comments could contain anything, including commas and parentheses
+      String code = source.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("//[^\\n]*", " ");
+      Matcher matcher = signature.matcher(code);
+      if (!matcher.find())
+        continue;
+
+      String[] params = matcher.group(1).split(",");
+      boolean[] readOnly = new boolean[params.length];
+      for (int i = 0; i < params.length; i++)
+      {
+        String param = params[i];
+        int star = param.indexOf('*');
+        if (star < 0)
+        {
+          // Passed by value, can't be written
+          readOnly[i] = true;
+          continue;
+        }
+
+        String pointee = param.substring(0, star);
+        readOnly[i] = pointee.matches("(?s).*\\b(const|__constant|constant)\\b.*");
+      }
+
+      return readOnly;
+    }
+
+    return new boolean[0];
+  }
+
   public void execute(long[] dimsGlobal, long[] dimsLocal, Object... args)
   {
     executeWithOffset(dimsGlobal, dimsLocal, null, args);
   }
 
+  /***
+   * Sets how long a synchronous launch may take. A kernel that exceeds it is assumed to have hung:
+   * its device is quarantined and a CyCLTimeoutException is thrown, so the caller can retry on another device.
+   *
+   * @param millis Timeout in milliseconds; 0 disables the watchdog
+   */
+  public static void setTimeout(long millis)
+  {
+    timeout = millis;
+  }
+
+  /***
+   * Gets how long a synchronous launch may take.
+   *
+   * @return Timeout in milliseconds; 0 if the watchdog is disabled
+   */
+  public static long getTimeout()
+  {
+    return timeout;
+  }
+
   public void executeWithOffset(long[] dimsGlobal, long[] dimsLocal, long globalOffset[], Object... args)
   {
-    synchronized (CyCL.sync)
+    CyCLDevice device = context.getDevice();
+    if (device.isQuarantined())
+      throw new CyCLException("Device " + device.name + " has been quarantined: " + device.getQuarantineReason());
+
+    // Arguments are kernel state, and launches on one device are serialized, but different devices may run concurrently
+    synchronized (context)
     {
+      checkNotReleased();
+      if (backend == null)
+        setArgs(args);
+
+      CyCLDeviceMetrics metrics = device.getMetrics();
+      metrics.onKernelLaunched();
+      metrics.onCommandEnqueued();
+      device.markContextUsed();
+      long start = System.nanoTime();
+      try
+      {
+        if (backend != null)
+        {
+          backend.execute(name, dimsGlobal, globalOffset, args);
+          CyCLTrace.record(CyCLTrace.CATEGORY_KERNEL, name, device, start, System.nanoTime(), 0, 0);
+          return;
+        }
+
+        long queue = context.getQueue();
+        long deadline = timeout;
+        boolean tracing = CyCLTrace.isEnabled();
+        if (deadline <= 0 && !tracing)
+        {
+          enqueue(queue, dimsGlobal, dimsLocal, globalOffset, null, null);
+          clFinish(queue);
+        }
+        else
+        {
+          PointerBuffer event = BufferUtils.createPointerBuffer(1);
+          enqueue(queue, dimsGlobal, dimsLocal, globalOffset, null, event);
+          clFlush(queue);
+          if (tracing)
+            CyCLTrace.record(CyCLTrace.CATEGORY_KERNEL, name, device, start, System.nanoTime(), 0, event.get(0));
+          if (deadline <= 0)
+          {
+            clFinish(queue);
+            clReleaseEvent(event.get(0));
+          }
+          else
+            waitWithDeadline(new CyCLEvent(event.get(0)), deadline);
+        }
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+        throw e;
+      }
+      finally
+      {
+        metrics.onSynchronousCommand(start);
+        metrics.onCommandFinished();
+        device.markContextUsed();
+      }
+    }
+  }
+
+  /***
+   * Fails before a released kernel could reach the driver, e. g. one kept across an idle period of its context.
+   * Launches call it while holding the context's lock, which the context reaper takes before releasing kernels.
+   */
+  private void checkNotReleased()
+  {
+    if (finalized)
+      throw new CyCLException("Kernel " + name + " has been released with its program; get it again with CyCLDevice.addProgram");
+  }
+
+  private void waitWithDeadline(CyCLEvent event, long deadline)
+  {
+    try
+    {
+      if (!event.waitFor(deadline))
+      {
+        // The hung command can't be cancelled, so the device's queue stays blocked for good
+        String reason = "Kernel " + name + " did not finish within " + deadline + " ms";
+        context.getDevice().quarantine(reason);
+        throw new CyCLTimeoutException(reason);
+      }
+    }
+    finally
+    {
+      event.release();
+    }
+  }
+
+  /***
+   * Launches the kernel on one of the device's compute queues and returns immediately.
+   * Use the returned event, or the events of later commands, to find out when it has finished.
+   *
+   * @param computeQueue Index of the compute queue; 0 is the queue used by execute()
+   * @param dimsGlobal Global work size
+   * @param dimsLocal Local work size; can be null
+   * @param globalOffset Global work offset; can be null
+   * @param waitFor Events that have to complete before the kernel starts, e. g. uploads of its input; can be null
+   * @param args Kernel arguments
+   * @return Event that completes once the kernel has finished
+   */
+  public CyCLEvent executeAsync(int computeQueue, long[] dimsGlobal, long[] dimsLocal, long[] globalOffset, CyCLEvent[] waitFor, Object... args)
+  {
+    return enqueueOn(context.getComputeQueue(computeQueue), dimsGlobal, dimsLocal, globalOffset, waitFor, args);
+  }
+
+  CyCLEvent enqueueOn(long queue, long[] dimsGlobal, long[] dimsLocal, long[] globalOffset, CyCLEvent[] waitFor, Object... args)
+  {
+    if (backend != null)
+    {
+      // Backends finish every command right away, so the launch is simply synchronous
+      executeWithOffset(dimsGlobal, dimsLocal, globalOffset, args);
+      return CyCLEvent.completed();
+    }
+
+    PointerBuffer event = BufferUtils.createPointerBuffer(1);
+    long start = System.nanoTime();
+
+    synchronized (context)
+    {
+      checkNotReleased();
+      // Argument values are captured when the kernel is enqueued, so the lock can be released right after
+      setArgs(args);
+      enqueue(queue, dimsGlobal, dimsLocal, globalOffset, CyCLEvent.toWaitList(waitFor), event);
+    }
+    clFlush(queue);
+
+    CyCLDeviceMetrics metrics = context.getDevice().getMetrics();
+    metrics.onKernelLaunched();
+    context.getDevice().markContextUsed();
+    CyCLTrace.record(CyCLTrace.CATEGORY_KERNEL, name, context.getDevice(), start, System.nanoTime(), 0, event.get(0));
+    return new CyCLEvent(event.get(0), metrics);
+  }
+
+  private void setArgs(Object... args)
+  {
       int a = 0;
       for(Object arg : args)
       {
@@ -74,7 +320,10 @@ public class CyCLKernel
             CyCLUtils.checkCLError(clSetKernelArg1d(kernel, a++, (double)arg),"clSetKernelArg1d");
         }
       }
+  }
 
+  private void enqueue(long queue, long[] dimsGlobal, long[] dimsLocal, long globalOffset[], PointerBuffer waitList, PointerBuffer event)
+  {
       PointerBuffer bufferGlobal = BufferUtils.createPointerBuffer(dimsGlobal.length);
       for (int i = 0; i < dimsGlobal.length; i++)
         bufferGlobal.put(i, dimsGlobal[i]);
@@ -101,15 +350,24 @@ public class CyCLKernel
           bufferLocal.put(i, dimsLocal[i]);
       }
 
-      try
-      {
-        CyCLUtils.checkCLError(clEnqueueNDRangeKernel(context.getQueue(), kernel, dimsGlobal.length, bufferGlobalOffset, bufferGlobal, bufferLocal, null, null));
-        clFinish(context.getQueue());
-      }
-      catch (Exception e) {
-        e.printStackTrace();
-        throw e;
-      }
+      CyCLUtils.checkCLError(clEnqueueNDRangeKernel(queue, kernel, dimsGlobal.length, bufferGlobalOffset, bufferGlobal, bufferLocal, waitList, event));
+  }
+
+  /***
+   * Gets the largest work group this kernel can be launched with on its device.
+   * This can be less than the device's maxWorkGroupSize if the kernel needs many registers.
+   *
+   * @return Maximum local work size
+   */
+  public long getMaxWorkGroupSize()
+  {
+    if (backend != null)
+      return context.getDevice().maxWorkGroupSize;
+
+    try (MemoryStack stack = stackPush()) {
+      PointerBuffer pp = stack.mallocPointer(1);
+      CyCLUtils.checkCLError(clGetKernelWorkGroupInfo(kernel, context.getDevice().getDevice(), CL_KERNEL_WORK_GROUP_SIZE, pp, null));
+      return pp.get(0);
     }
   }
 
@@ -151,7 +409,8 @@ public class CyCLKernel
       if(finalized)
         return;
 
-      CyCLUtils.checkCLError(clReleaseKernel(kernel));
+      if (kernel != NULL)
+        CyCLUtils.checkCLError(clReleaseKernel(kernel));
 
       finalized = true;
       super.finalize();
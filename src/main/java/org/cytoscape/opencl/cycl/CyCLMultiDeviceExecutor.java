@@ -0,0 +1,478 @@
+package org.cytoscape.opencl.cycl;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lwjgl.opencl.CL10;
+
+/***
+ * Runs one kernel across several devices by splitting its NDRange in proportion to each device's throughput.
+ * The range is split along its last dimension, i. e. into slices for 1D ranges and into row blocks for 2D ranges.
+ * Each device executes its part with executeWithOffset, so kernels see the same global IDs as in a single-device launch.
+ * After every execution the split is rebalanced based on the time each device actually took.
+ * Device buffers for array arguments are kept between executions and only reallocated if an array's type or length changes;
+ * call shutdown() to free them.
+ */
+public class CyCLMultiDeviceExecutor
+{
+  private enum ArgKind
+  {
+    REPLICATE,
+    CONSTANT,
+    SCATTER,
+    GATHER
+  }
+
+  /***
+   * A host array passed to a multi-device kernel launch.
+   */
+  public static class Arg
+  {
+    final ArgKind kind;
+    final Object data;
+    final int elementsPerItem;
+
+    private Arg(ArgKind kind, Object data, int elementsPerItem)
+    {
+      if (!data.getClass().isArray())
+        throw new CyCLException("Multi-device arguments must be primitive arrays");
+
+      this.kind = kind;
+      this.data = data;
+      this.elementsPerItem = elementsPerItem;
+    }
+
+    /***
+     * Input that every device needs in full, e. g. all node positions for a repulsion kernel.
+     *
+     * @param data Primitive array
+     * @return Argument description
+     */
+    public static Arg replicate(Object data)
+    {
+      return new Arg(ArgKind.REPLICATE, data, 0);
+    }
+
+    /***
+     * Input that every device needs in full and that doesn't change between executions, e. g. a network's edges.
+     * It is only transferred to a device the first time this array is passed, later executions reuse the device's copy.
+     *
+     * @param data Primitive array
+     * @return Argument description
+     */
+    public static Arg constant(Object data)
+    {
+      return new Arg(ArgKind.CONSTANT, data, 0);
+    }
+
+    /***
+     * Input of which each device only reads the elements belonging to its own work items.
+     * Only that part is transferred to each device.
+     *
+     * @param data Primitive array
+     * @param elementsPerItem Number of array elements per work item
+     * @return Argument description
+     */
+    public static Arg scatter(Object data, int elementsPerItem)
+    {
+      return new Arg(ArgKind.SCATTER, data, elementsPerItem);
+    }
+
+    /***
+     * Output of which each device writes the elements belonging to its own work items.
+     * The parts are copied back into the array after execution.
+     *
+     * @param data Primitive array
+     * @param elementsPerItem Number of array elements per work item
+     * @return Argument description
+     */
+    public static Arg gather(Object data, int elementsPerItem)
+    {
+      return new Arg(ArgKind.GATHER, data, elementsPerItem);
+    }
+  }
+
+  // Every device gets at least this share, so devices that fell behind are still measured and can catch up
+  static final double MIN_SHARE = 0.01;
+
+  private final List<CyCLDevice> devices;
+  private final String programName;
+  private final String[] programSources;
+  private final String kernelName;
+  private final HashMap<String, String> defines;
+  private final double[] weights;
+  private final long[] lastTimes;
+  // Set once the weights come from measured times rather than estimates
+  private boolean measured = false;
+  // Per device and argument index: the device buffer, and the array last uploaded to it for constant arguments
+  private final CyCLBuffer[][] argBuffers;
+  private final Object[][] argData;
+  private final ExecutorService executor;
+
+  /***
+   * Compiles the kernel on every device and splits the first execution evenly.
+   * Benchmark scores only rank devices, so the split follows the times measured from then on.
+   *
+   * @param devices Devices to distribute the work over, e. g. CyCL.getDevices()
+   * @param programName Program name, as used by CyCLDevice.addProgram
+   * @param programSources Program sources
+   * @param kernelName Kernel to execute
+   * @param defines Dictionary of definitions to be injected as "#define key value"; can be null
+   */
+  public CyCLMultiDeviceExecutor(List<CyCLDevice> devices, String programName, String[] programSources, String kernelName, HashMap<String, String> defines)
+  {
+    this(devices, programName, programSources, kernelName, defines, null);
+  }
+
+  /***
+   * Compiles the kernel on every device and sets up the initial split from one metric of the devices' profiles,
+   * e. g. FP32_THROUGHPUT for compute-bound kernels or HOST_TO_DEVICE_BANDWIDTH for transfer-bound ones.
+   *
+   * @param devices Devices to distribute the work over, e. g. CyCL.getDevices()
+   * @param programName Program name, as used by CyCLDevice.addProgram
+   * @param programSources Program sources
+   * @param kernelName Kernel to execute
+   * @param defines Dictionary of definitions to be injected as "#define key value"; can be null
+   * @param metric Metric used for the initial split; null to split the first execution evenly
+   */
+  public CyCLMultiDeviceExecutor(List<CyCLDevice> devices, String programName, String[] programSources, String kernelName, HashMap<String, String> defines, CyCLDeviceProfile.Metric metric)
+  {
+    // Backend devices can only take part if they implement the kernel
+    List<CyCLDevice> capable = new ArrayList<>();
+    for (CyCLDevice device : devices)
+      if (device.getBackend() == null || device.getBackend().hasKernel(kernelName))
+        capable.add(device);
+    devices = capable;
+
+    if (devices.isEmpty())
+      throw new CyCLException("No devices to execute on");
+
+    this.devices = devices;
+    this.programName = programName;
+    this.programSources = programSources;
+    this.kernelName = kernelName;
+    this.defines = defines;
+    weights = new double[devices.size()];
+    lastTimes = new long[devices.size()];
+    argBuffers = new CyCLBuffer[devices.size()][];
+    argData = new Object[devices.size()][];
+
+    for (int i = 0; i < devices.size(); i++)
+    {
+      // Compiled right away, so build errors show up here rather than in the first execution
+      getKernel(i);
+      weights[i] = metric != null ? device(i).getDeviceProfile().getScore(metric) : 1.0;
+    }
+    normalize(weights);
+
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(devices.size(), runnable -> {
+      Thread thread = new Thread(runnable, "CyCL multi-device " + threadCount.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /***
+   * Executes the kernel across all devices and waits until every part has finished and all outputs have been gathered.
+   *
+   * @param dimsGlobal Global work size
+   * @param dimsLocal Local work size; can be null. Parts are rounded to multiples of it.
+   * @param args Kernel arguments: Arg descriptions for arrays, CyCLLocalSize, or scalars
+   */
+  public void execute(long[] dimsGlobal, long[] dimsLocal, Object... args)
+  {
+    int splitDim = dimsGlobal.length - 1;
+    long granularity = dimsLocal == null ? 1 : dimsLocal[splitDim];
+    long[] counts = computeSplit(dimsGlobal[splitDim], weights, granularity);
+
+    // Number of work items in one unit along the split dimension, e. g. one row of a 2D range
+    long itemsPerUnit = 1;
+    for (int d = 0; d < splitDim; d++)
+      itemsPerUnit *= dimsGlobal[d];
+
+    List<Future<?>> futures = new ArrayList<>();
+    long start = 0;
+    for (int i = 0; i < devices.size(); i++)
+    {
+      final int deviceIndex = i;
+      final long partStart = start;
+      final long partCount = counts[i];
+      final long partItemsPerUnit = itemsPerUnit;
+      start += counts[i];
+
+      if (partCount == 0)
+      {
+        lastTimes[i] = 0;
+        continue;
+      }
+
+      futures.add(executor.submit(() -> executePart(deviceIndex, dimsGlobal, dimsLocal, splitDim, partStart, partCount, partItemsPerUnit, args)));
+    }
+
+    try
+    {
+      for (Future<?> future : futures)
+        future.get();
+    }
+    catch (ExecutionException e)
+    {
+      throw new CyCLException("Multi-device execution failed", e.getCause());
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new CyCLException("Interrupted during multi-device execution", e);
+    }
+
+    rebalance(counts);
+  }
+
+  /***
+   * Gets the fraction of work each device will receive in the next execution.
+   *
+   * @return Weights in the same order as the devices, summing up to 1
+   */
+  public double[] getWeights()
+  {
+    return weights.clone();
+  }
+
+  /***
+   * Gets the time each device took in the last execution, including transfers.
+   *
+   * @return Times in nanoseconds in the same order as the devices
+   */
+  public long[] getLastTimes()
+  {
+    return lastTimes.clone();
+  }
+
+  /***
+   * Stops the worker threads and frees the device buffers kept for the arguments.
+   * Compiled programs remain stored on the devices.
+   */
+  public void shutdown()
+  {
+    executor.shutdown();
+
+    for (int i = 0; i < devices.size(); i++)
+    {
+      if (argBuffers[i] == null)
+        continue;
+
+      for (CyCLBuffer buffer : argBuffers[i])
+        if (buffer != null)
+          buffer.free();
+      argBuffers[i] = null;
+      argData[i] = null;
+    }
+  }
+
+  private CyCLDevice device(int deviceIndex)
+  {
+    return devices.get(deviceIndex);
+  }
+
+  /***
+   * Looks the kernel up on every use, since a device releases its programs together with an idle context.
+   */
+  private CyCLKernel getKernel(int deviceIndex)
+  {
+    CyCLDevice device = device(deviceIndex);
+    synchronized (device)
+    {
+      return device.addProgram(programName, programSources, new String[] { kernelName }, defines, false).getKernel(kernelName);
+    }
+  }
+
+  private void executePart(int deviceIndex, long[] dimsGlobal, long[] dimsLocal, int splitDim, long partStart, long partCount, long itemsPerUnit, Object[] args)
+  {
+    long timeStart = System.nanoTime();
+
+    Object[] deviceArgs = new Object[args.length];
+    for (int a = 0; a < args.length; a++)
+    {
+      if (!(args[a] instanceof Arg))
+      {
+        deviceArgs[a] = args[a];
+        continue;
+      }
+
+      Arg arg = (Arg)args[a];
+      boolean reused = argData[deviceIndex] != null && argData[deviceIndex].length == args.length && argData[deviceIndex][a] == arg.data;
+      CyCLBuffer buffer = getArgBuffer(deviceIndex, a, args.length, arg.data);
+      if (arg.kind == ArgKind.REPLICATE || (arg.kind == ArgKind.CONSTANT && !reused))
+      {
+        buffer.stage(arg.data);
+        buffer.setRegionFromStaging(0, buffer.sizeInBytes());
+      }
+      else if (arg.kind == ArgKind.SCATTER)
+      {
+        buffer.stage(arg.data);
+        long[] region = getRegion(buffer, arg, partStart, partCount, itemsPerUnit);
+        buffer.setRegionFromStaging(region[0], region[1]);
+      }
+      argData[deviceIndex][a] = arg.kind == ArgKind.CONSTANT ? arg.data : null;
+      deviceArgs[a] = buffer;
+    }
+
+    long[] partGlobal = dimsGlobal.clone();
+    partGlobal[splitDim] = partCount;
+    long[] partOffset = new long[dimsGlobal.length];
+    partOffset[splitDim] = partStart;
+    getKernel(deviceIndex).executeWithOffset(partGlobal, dimsLocal, partOffset, deviceArgs);
+
+    for (int a = 0; a < args.length; a++)
+    {
+      if (!(args[a] instanceof Arg) || ((Arg)args[a]).kind != ArgKind.GATHER)
+        continue;
+
+      Arg arg = (Arg)args[a];
+      CyCLBuffer buffer = (CyCLBuffer)deviceArgs[a];
+      long[] region = getRegion(buffer, arg, partStart, partCount, itemsPerUnit);
+      buffer.getRegionToStaging(region[0], region[1]);
+      copyFromStaging(buffer, arg.data, (int)(region[0] / buffer.elementSize()), (int)(region[1] / buffer.elementSize()));
+    }
+
+    lastTimes[deviceIndex] = System.nanoTime() - timeStart;
+  }
+
+  /***
+   * Gets the device buffer kept for an argument, and replaces it if the array's type or length has changed.
+   * Only the device's own worker thread touches its buffers.
+   */
+  private CyCLBuffer getArgBuffer(int deviceIndex, int index, int argCount, Object data)
+  {
+    CyCLBuffer[] buffers = argBuffers[deviceIndex];
+    if (buffers == null || buffers.length != argCount)
+    {
+      if (buffers != null)
+        for (CyCLBuffer buffer : buffers)
+          if (buffer != null)
+            buffer.free();
+      buffers = argBuffers[deviceIndex] = new CyCLBuffer[argCount];
+      argData[deviceIndex] = new Object[argCount];
+    }
+
+    Class<?> type = data.getClass().getComponentType();
+    int length = Array.getLength(data);
+    CyCLBuffer buffer = buffers[index];
+    if (buffer != null && (buffer.getType() != type || buffer.getElements() != length))
+    {
+      buffer.free();
+      buffer = null;
+      argData[deviceIndex][index] = null;
+    }
+    if (buffer == null)
+      buffer = buffers[index] = device(deviceIndex).createBuffer(type, length, CL10.CL_MEM_READ_WRITE);
+
+    return buffer;
+  }
+
+  /***
+   * Moves the split towards the throughput each device achieved in the last execution.
+   * Devices without a measurement this time, e. g. because their part was empty, keep their share.
+   */
+  private void rebalance(long[] counts)
+  {
+    double[] throughput = new double[weights.length];
+    double measuredWeight = 0.0, measuredThroughput = 0.0;
+    for (int i = 0; i < weights.length; i++)
+    {
+      if (counts[i] == 0 || lastTimes[i] == 0)
+        continue;
+      throughput[i] = (double)counts[i] / lastTimes[i];
+      measuredWeight += weights[i];
+      measuredThroughput += throughput[i];
+    }
+    if (measuredThroughput <= 0.0)
+      return;
+
+    for (int i = 0; i < weights.length; i++)
+    {
+      if (throughput[i] <= 0.0)
+        continue;
+
+      // Measured devices divide their combined share by throughput
+      double share = measuredWeight * throughput[i] / measuredThroughput;
+      // The first measurement replaces the estimates; later ones are smoothed, so one noisy measurement doesn't swing the split
+      weights[i] = measured ? 0.5 * weights[i] + 0.5 * share : share;
+    }
+    measured = true;
+
+    for (int i = 0; i < weights.length; i++)
+      weights[i] = Math.max(weights[i], MIN_SHARE);
+    normalize(weights);
+  }
+
+  /***
+   * Splits a range into parts proportional to the weights, each a multiple of the granularity except for the last one.
+   *
+   * @param n Range size
+   * @param weights Relative weights, one per part
+   * @param granularity Parts are rounded to multiples of this
+   * @return Size of every part, summing up to n
+   */
+  static long[] computeSplit(long n, double[] weights, long granularity)
+  {
+    double sum = 0.0;
+    for (double weight : weights)
+      sum += weight;
+
+    long[] counts = new long[weights.length];
+    long assigned = 0;
+    int last = weights.length - 1;
+    for (int i = 0; i < last; i++)
+    {
+      long count = Math.round(n * weights[i] / sum / granularity) * granularity;
+      count = Math.max(0, Math.min(count, n - assigned));
+      counts[i] = count;
+      assigned += count;
+    }
+    counts[last] = n - assigned;
+
+    return counts;
+  }
+
+  private static void normalize(double[] values)
+  {
+    double sum = 0.0;
+    for (double value : values)
+      sum += value;
+    for (int i = 0; i < values.length; i++)
+      values[i] = sum > 0 ? values[i] / sum : 1.0 / values.length;
+  }
+
+  private static long[] getRegion(CyCLBuffer buffer, Arg arg, long partStart, long partCount, long itemsPerUnit)
+  {
+    long elementSize = buffer.elementSize();
+    return new long[] { partStart * itemsPerUnit * arg.elementsPerItem * elementSize,
+                        partCount * itemsPerUnit * arg.elementsPerItem * elementSize };
+  }
+
+  private static void copyFromStaging(CyCLBuffer buffer, Object data, int offset, int length)
+  {
+    ByteBuffer staging = buffer.getBuffer();
+    if (data instanceof byte[])
+      staging.duplicate().position(offset).get((byte[])data, offset, length);
+    else if (data instanceof short[])
+      staging.asShortBuffer().position(offset).get((short[])data, offset, length);
+    else if (data instanceof int[])
+      staging.asIntBuffer().position(offset).get((int[])data, offset, length);
+    else if (data instanceof long[])
+      staging.asLongBuffer().position(offset).get((long[])data, offset, length);
+    else if (data instanceof float[])
+      staging.asFloatBuffer().position(offset).get((float[])data, offset, length);
+    else if (data instanceof double[])
+      staging.asDoubleBuffer().position(offset).get((double[])data, offset, length);
+  }
+}
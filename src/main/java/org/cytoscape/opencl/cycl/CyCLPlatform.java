@@ -21,10 +21,14 @@ class CyCLPlatform {
   CLCapabilities capabilities = null;
   String name = null;
   MemoryStack stack;
-  PointerBuffer ctxProps = null;
 
   long[] device_ids = null;
 
+  // Native context covering all devices of the platform, shared by their CyCLContexts; see CyCLContext.setSharedContexts
+  private long sharedContext = NULL;
+  private int sharedContextUsers = 0;
+  private boolean sharedContextFailed = false;
+
   public CyCLPlatform(long platform) {
     this.cl_platform_id = platform;
     stack = stackPush();
@@ -33,7 +37,7 @@ class CyCLPlatform {
 
   public String getName() { return name; }
 
-  public CLCapabilities getCapabilities() {
+  public synchronized CLCapabilities getCapabilities() {
     if (capabilities != null) return capabilities;
 
     capabilities = CL.createPlatformCapabilities(cl_platform_id);
@@ -43,7 +47,8 @@ class CyCLPlatform {
   public PointerBuffer getContextProps() {
     // if (ctxProps != null) return ctxProps;
 
-    ctxProps = stack.mallocPointer(3);
+    // Devices may be initialized on different threads, so this can't come from the platform's memory stack
+    PointerBuffer ctxProps = BufferUtils.createPointerBuffer(3);
     ctxProps
       .put(0, CL_CONTEXT_PLATFORM)
       .put(1, cl_platform_id)
@@ -56,6 +61,59 @@ class CyCLPlatform {
 
   }
 
+  /***
+   * Retains the native context shared by all devices of this platform, creating it on first use.
+   * Every successful call must be balanced by releaseSharedContext().
+   *
+   * @param device Device the caller wants to use the context with
+   * @return Native context, or NULL if the device is not covered or the shared context can't be created
+   */
+  synchronized long retainSharedContext(long device) {
+    long[] devices = getDevices(CL10.CL_DEVICE_TYPE_ALL);
+    boolean covered = false;
+    if (devices != null)
+      for (long id : devices)
+        covered |= id == device;
+    if (!covered || sharedContextFailed)
+      return NULL;
+
+    if (sharedContext == NULL) {
+      try (MemoryStack stack = stackPush()) {
+        IntBuffer errcode_ret = stack.callocInt(1);
+        PointerBuffer deviceList = stack.mallocPointer(devices.length);
+        for (int d = 0; d < devices.length; d++)
+          deviceList.put(d, devices[d]);
+
+        // The platform holds the initial reference until the last user is gone
+        long context = clCreateContext(getContextProps(), deviceList, null, NULL, errcode_ret);
+        CyCLUtils.checkCLError(errcode_ret);
+        sharedContext = context;
+      } catch (RuntimeException e) {
+        // A single misbehaving device shouldn't prevent the others from working, they get their own contexts instead
+        System.out.println("Could not create shared context for platform " + name + ": " + e.getMessage());
+        sharedContextFailed = true;
+        return NULL;
+      }
+    }
+
+    CyCLUtils.checkCLError(clRetainContext(sharedContext), "clRetainContext");
+    sharedContextUsers++;
+    return sharedContext;
+  }
+
+  /***
+   * Gives up one use of the shared context. The caller must release its own native reference separately.
+   */
+  synchronized void releaseSharedContext() {
+    if (sharedContextUsers == 0)
+      return;
+
+    if (--sharedContextUsers == 0) {
+      clReleaseContext(sharedContext);
+      sharedContext = NULL;
+    }
+  }
+
   public long[] getDevices(int type) {
     if (device_ids != null)
       return device_ids;
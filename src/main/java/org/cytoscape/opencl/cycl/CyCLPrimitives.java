@@ -0,0 +1,130 @@
+package org.cytoscape.opencl.cycl;
+
+/***
+ * Common data-parallel operations on float buffers, run by the kernels in Primitives.cl.
+ * Every operation runs on the device that owns its buffers; on the Java device (see CyCLVectorBackend)
+ * the same operations run as vectorized Java loops without copying or building anything.
+ * The program is built once per device, on first use.
+ */
+public class CyCLPrimitives
+{
+  static final String PROGRAM_NAME = "CyCLPrimitives";
+  static final String[] KERNEL_NAMES = { "Axpy", "Distance", "PartialSum", "PartialDot", "AccumulateRepulsion" };
+
+  // Elements summed by one work item at least, and the most partial sums read back by the host
+  private static final int MIN_CHUNK = 256;
+  private static final int MAX_PARTIALS = 16384;
+
+  private CyCLPrimitives()
+  {
+  }
+
+  /***
+   * Computes y = a * x + y.
+   *
+   * @param a Scale factor
+   * @param x Input buffer
+   * @param y Input and output buffer, on the same device as x
+   * @param n Number of elements
+   */
+  public static void axpy(float a, CyCLBuffer x, CyCLBuffer y, int n)
+  {
+    getKernel(x, "Axpy").execute(new long[] { n }, null, x, y, a, n);
+  }
+
+  /***
+   * Computes the Euclidean distance between corresponding 2D points, e. g. the lengths of all edges.
+   *
+   * @param x1 X coordinates of the first points
+   * @param y1 Y coordinates of the first points
+   * @param x2 X coordinates of the second points
+   * @param y2 Y coordinates of the second points
+   * @param distance Output buffer
+   * @param n Number of points
+   */
+  public static void distance(CyCLBuffer x1, CyCLBuffer y1, CyCLBuffer x2, CyCLBuffer y2, CyCLBuffer distance, int n)
+  {
+    getKernel(x1, "Distance").execute(new long[] { n }, null, x1, y1, x2, y2, distance, n);
+  }
+
+  /***
+   * Sums the elements of a buffer.
+   *
+   * @param x Input buffer
+   * @param n Number of elements
+   * @return Sum
+   */
+  public static float sum(CyCLBuffer x, int n)
+  {
+    return reduce("PartialSum", x, null, n);
+  }
+
+  /***
+   * Computes the dot product of two buffers.
+   *
+   * @param x First input buffer
+   * @param y Second input buffer, on the same device as x
+   * @param n Number of elements
+   * @return Dot product
+   */
+  public static float dot(CyCLBuffer x, CyCLBuffer y, int n)
+  {
+    return reduce("PartialDot", x, y, n);
+  }
+
+  /***
+   * Adds the repulsion between all pairs of 2D points to their forces, as in force-directed layouts:
+   * f_i += k * sum over j of (p_i - p_j) / max(|p_i - p_j|^2, minDistance^2).
+   *
+   * @param x X coordinates
+   * @param y Y coordinates
+   * @param fx X components of the forces, updated in place
+   * @param fy Y components of the forces, updated in place
+   * @param k Strength of the repulsion
+   * @param minDistance Distance below which the repulsion stops growing, so coincident points don't blow up
+   * @param n Number of points
+   */
+  public static void accumulateRepulsion(CyCLBuffer x, CyCLBuffer y, CyCLBuffer fx, CyCLBuffer fy, float k, float minDistance, int n)
+  {
+    getKernel(x, "AccumulateRepulsion").execute(new long[] { n }, null, x, y, fx, fy, k, minDistance * minDistance, n);
+  }
+
+  private static float reduce(String kernelName, CyCLBuffer x, CyCLBuffer y, int n)
+  {
+    if (n <= 0)
+      return 0.0f;
+
+    int chunk = Math.max(MIN_CHUNK, (int)((n + (long)MAX_PARTIALS - 1) / MAX_PARTIALS));
+    int partials = (n + chunk - 1) / chunk;
+
+    CyCLDevice device = x.getContext().getDevice();
+    CyCLBuffer partialBuffer = device.createBuffer(float.class, partials);
+    try {
+      if (y == null)
+        getKernel(x, kernelName).execute(new long[] { partials }, null, x, partialBuffer, n, partials);
+      else
+        getKernel(x, kernelName).execute(new long[] { partials }, null, x, y, partialBuffer, n, partials);
+
+      float[] result = new float[partials];
+      partialBuffer.getFromDevice(result);
+
+      // Partial sums are added in double precision, so the result doesn't depend much on the chunk size
+      double sum = 0.0;
+      for (float partial : result)
+        sum += partial;
+      return (float)sum;
+    } finally {
+      partialBuffer.free();
+    }
+  }
+
+  private static CyCLKernel getKernel(CyCLBuffer buffer, String name)
+  {
+    CyCLDevice device = buffer.getContext().getDevice();
+    synchronized (device)
+    {
+      CyCLProgram program = device.addProgram(PROGRAM_NAME, CyCLPrimitives.class.getResource("/Primitives.cl"), KERNEL_NAMES, null, true);
+      return program.getKernel(name);
+    }
+  }
+}
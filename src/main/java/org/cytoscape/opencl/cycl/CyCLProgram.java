@@ -29,8 +29,15 @@ public class CyCLProgram
   private long program;
   private Hashtable<String, CyCLKernel> kernels = new Hashtable<String, CyCLKernel>();
   private HashMap<String, String> defines;
+  private CyCLBuildProfile profile;
+  private String[] sources;
 
   public CyCLProgram(CyCLContext context, CyCLDevice device, URL resourcePath, String[] kernelNames, HashMap<String, String> defines, boolean silentCompilation) throws IOException
+  {
+      this(context, device, resourcePath, kernelNames, defines, CyCLBuildProfile.STRICT, silentCompilation);
+  }
+
+  public CyCLProgram(CyCLContext context, CyCLDevice device, URL resourcePath, String[] kernelNames, HashMap<String, String> defines, CyCLBuildProfile profile, boolean silentCompilation) throws IOException
   {
       InputStream programTextStream = resourcePath.openStream();
       Scanner programTextScanner = new Scanner(programTextStream, "UTF-8");
@@ -38,24 +45,37 @@ public class CyCLProgram
       programTextScanner.close();
       programTextStream.close();
 
-      prepareAndBuildProgram(context, device, new String[] {programText}, kernelNames, defines, silentCompilation);
+      prepareAndBuildProgram(context, device, new String[] {programText}, kernelNames, defines, profile, silentCompilation);
   }
 
   public CyCLProgram(CyCLContext context, CyCLDevice device, String source, String[] kernelNames, HashMap<String, String> defines, boolean silentCompilation)
   {
-        prepareAndBuildProgram(context, device, new String[] {source}, kernelNames, defines, silentCompilation);
+        prepareAndBuildProgram(context, device, new String[] {source}, kernelNames, defines, CyCLBuildProfile.STRICT, silentCompilation);
   }
 
   public CyCLProgram(CyCLContext context, CyCLDevice device, String sources[], String[] kernelNames, HashMap<String, String> defines, boolean silentCompilation)
   {
-        prepareAndBuildProgram(context, device, sources, kernelNames, defines, silentCompilation);
+        prepareAndBuildProgram(context, device, sources, kernelNames, defines, CyCLBuildProfile.STRICT, silentCompilation);
   }
 
-  private void prepareAndBuildProgram(CyCLContext context, CyCLDevice device, String[] sources, String[] kernelNames, HashMap<String, String> defines, boolean silentCompilation)
+  public CyCLProgram(CyCLContext context, CyCLDevice device, String sources[], String[] kernelNames, HashMap<String, String> defines, CyCLBuildProfile profile, boolean silentCompilation)
   {
+        prepareAndBuildProgram(context, device, sources, kernelNames, defines, profile, silentCompilation);
+  }
+
+  private void prepareAndBuildProgram(CyCLContext context, CyCLDevice device, String[] sources, String[] kernelNames, HashMap<String, String> defines, CyCLBuildProfile profile, boolean silentCompilation)
+  {
+    if (device.getBackend() != null)
+    {
+      prepareBackendProgram(context, device, sources, kernelNames, defines, profile);
+      return;
+    }
+
     try {
       this.defines = defines;
-      StringBuilder buildOptions = new StringBuilder();
+      this.sources = sources;
+      this.profile = profile == null ? CyCLBuildProfile.STRICT : profile;
+      StringBuilder buildOptions = new StringBuilder(this.profile.getBuildOptions(device));
       if (defines != null)
       {
         for (Entry<String, String> entry : defines.entrySet()) {
@@ -70,6 +90,7 @@ public class CyCLProgram
         }
       }
 
+      long buildStart = System.nanoTime();
       IntBuffer errorBuffer = BufferUtils.createIntBuffer(1);
       //System.out.println("Sources = ["+String.join(",", sources)+"]");
       //System.out.println("Context = "+context.getContext());
@@ -92,6 +113,18 @@ public class CyCLProgram
           latch.countDown();
       }), NULL);
       checkCLError(errcode);
+      // With a callback, the driver may return before the build has finished
+      try
+      {
+        latch.await();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new CyCLException("Interrupted while building the program", e);
+      }
+      buildCallback.free();
+      CyCLTrace.record(CyCLTrace.CATEGORY_BUILD, kernelNames.length > 0 ? "Build " + kernelNames[0] : "Build", device, buildStart, System.nanoTime(), 0, 0);
 
 //      CyCLUtils.checkCLError(CL10.clBuildProgram(program, device.getDevice(), buildOptions.toString(), null, NULL));
 
@@ -113,6 +146,23 @@ public class CyCLProgram
     System.out.println("Program built");
   }
 
+  /***
+   * Backend devices don't compile the source, they provide their own implementation of every kernel.
+   */
+  private void prepareBackendProgram(CyCLContext context, CyCLDevice device, String[] sources, String[] kernelNames, HashMap<String, String> defines, CyCLBuildProfile profile)
+  {
+    this.defines = defines;
+    this.sources = sources;
+    this.profile = profile == null ? CyCLBuildProfile.STRICT : profile;
+
+    for (String kernelName : kernelNames)
+    {
+      if (!device.getBackend().hasKernel(kernelName))
+        throw new CyCLException("Could not create program: kernel " + kernelName + " is not implemented by " + device.name);
+      kernels.put(kernelName, new CyCLKernel(context, this, kernelName));
+    }
+  }
+
   public long getProgram()
   {
     return program;
@@ -120,9 +170,31 @@ public class CyCLProgram
 
   public CyCLKernel getKernel(String name)
   {
+    if (finalized)
+      throw new CyCLException("Program has been released, e. g. with its device's idle context; add it to the device again");
     return kernels.get(name);
   }
 
+  /***
+   * Gets the source code the program was built from.
+   *
+   * @return Program sources
+   */
+  public String[] getSources()
+  {
+    return sources;
+  }
+
+  /***
+   * Gets the optimization profile the program was built with.
+   *
+   * @return Build profile
+   */
+  public CyCLBuildProfile getBuildProfile()
+  {
+    return profile;
+  }
+
   public String getBuildInfoString(CyCLDevice device, int param_name) {
     try (MemoryStack stack = stackPush()) {
       PointerBuffer pp = stack.mallocPointer(1);
@@ -170,7 +242,8 @@ public class CyCLProgram
         entry.getValue().finalize();
       kernels.clear();
 
-      CyCLUtils.checkCLError(CL10.clReleaseProgram(program));
+      if (program != NULL)
+        CyCLUtils.checkCLError(CL10.clReleaseProgram(program));
 
       finalized = true;
       super.finalize();
@@ -0,0 +1,304 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/***
+ * Reduces int, long, float or double buffers to a single value on the device that owns them, e. g. for convergence checks
+ * or bounding boxes. Only the result crosses the bus, instead of the whole buffer being read back with getFromDevice.
+ *
+ * The kernels in Reduction.cl run in two stages: a few work groups per compute unit fold the input into one value each,
+ * then a single work group folds those values. The work group size is the largest power of two that the device,
+ * the kernel and the device's local memory allow. Programs are built on first use and cached per device and element type.
+ * Buffers of backend devices already live in host memory and are reduced in place.
+ */
+public class CyCLReduction
+{
+  private enum Op
+  {
+    SUM("ReduceSum"),
+    MIN("ReduceMin"),
+    MAX("ReduceMax"),
+    ARG_MIN("ReduceArgMin"),
+    ARG_MAX("ReduceArgMax");
+
+    final String kernelName;
+
+    Op(String kernelName)
+    {
+      this.kernelName = kernelName;
+    }
+
+    boolean isArg()
+    {
+      return this == ARG_MIN || this == ARG_MAX;
+    }
+  }
+
+  private static final String[] KERNEL_NAMES = { "ReduceSum", "ReduceMin", "ReduceMax", "ReduceArgMin", "ReduceArgMax" };
+  // Work groups in stage 1 per compute unit, enough to hide memory latency
+  private static final int GROUPS_PER_COMPUTE_UNIT = 4;
+  // Larger work groups only lengthen the tree without adding bandwidth
+  private static final int MAX_LOCAL_SIZE = 256;
+
+  private CyCLReduction()
+  {
+  }
+
+  /***
+   * Sums all elements of a buffer. Integer sums wrap around on overflow, as in OpenCL.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @return Sum, boxed as the buffer's element type
+   */
+  public static Number sum(CyCLBuffer buffer)
+  {
+    return sum(buffer, buffer.getElements());
+  }
+
+  /***
+   * Sums the first n elements of a buffer. Integer sums wrap around on overflow, as in OpenCL.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @param n Number of elements
+   * @return Sum, boxed as the buffer's element type
+   */
+  public static Number sum(CyCLBuffer buffer, int n)
+  {
+    return reduce(Op.SUM, buffer, n);
+  }
+
+  /***
+   * Finds the smallest element of a buffer.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @return Smallest value, boxed as the buffer's element type
+   */
+  public static Number min(CyCLBuffer buffer)
+  {
+    return min(buffer, buffer.getElements());
+  }
+
+  /***
+   * Finds the smallest of the first n elements of a buffer.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @param n Number of elements, at least 1
+   * @return Smallest value, boxed as the buffer's element type
+   */
+  public static Number min(CyCLBuffer buffer, int n)
+  {
+    return reduce(Op.MIN, buffer, n);
+  }
+
+  /***
+   * Finds the largest element of a buffer.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @return Largest value, boxed as the buffer's element type
+   */
+  public static Number max(CyCLBuffer buffer)
+  {
+    return max(buffer, buffer.getElements());
+  }
+
+  /***
+   * Finds the largest of the first n elements of a buffer.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @param n Number of elements, at least 1
+   * @return Largest value, boxed as the buffer's element type
+   */
+  public static Number max(CyCLBuffer buffer, int n)
+  {
+    return reduce(Op.MAX, buffer, n);
+  }
+
+  /***
+   * Finds the position of the smallest of the first n elements of a buffer.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @param n Number of elements
+   * @return Lowest index holding the smallest value, or -1 if n is 0
+   */
+  public static int argMin(CyCLBuffer buffer, int n)
+  {
+    return reduce(Op.ARG_MIN, buffer, n).intValue();
+  }
+
+  /***
+   * Finds the position of the largest of the first n elements of a buffer.
+   *
+   * @param buffer Buffer of int, long, float or double
+   * @param n Number of elements
+   * @return Lowest index holding the largest value, or -1 if n is 0
+   */
+  public static int argMax(CyCLBuffer buffer, int n)
+  {
+    return reduce(Op.ARG_MAX, buffer, n).intValue();
+  }
+
+  private static Number reduce(Op op, CyCLBuffer buffer, int n)
+  {
+    Class<?> type = buffer.getType();
+    if (type != int.class && type != long.class && type != float.class && type != double.class)
+      throw new CyCLException("Cannot reduce buffers of " + type);
+    if (n > buffer.getElements())
+      throw new CyCLException("Cannot reduce " + n + " elements of a buffer with " + buffer.getElements());
+    if (n <= 0)
+    {
+      if (op.isArg())
+        return -1;
+      if (op == Op.SUM)
+        return box(type, 0, 0.0);
+      throw new CyCLException("Cannot find the minimum or maximum of an empty buffer");
+    }
+
+    CyCLDevice device = buffer.getContext().getDevice();
+    if (device.getBackend() != null)
+      return reduceHostMemory(op, buffer, n);
+
+    CyCLKernel kernel = getKernel(device, type, op);
+    int elementSize = buffer.elementSize();
+    int bytesPerItem = elementSize + (op.isArg() ? Sizeof.cl_int : 0);
+    int localSize = getLocalSize(device, kernel, bytesPerItem);
+    int groups = (int)Math.max(1, Math.min(localSize, Math.min((long)device.computeUnits * GROUPS_PER_COMPUTE_UNIT, (n + localSize - 1) / localSize)));
+
+    CyCLLocalSize scratchValues = new CyCLLocalSize((long)localSize * elementSize);
+    CyCLLocalSize scratchIndices = new CyCLLocalSize((long)localSize * Sizeof.cl_int);
+    CyCLBuffer partialValues = device.createBuffer(type, groups);
+    CyCLBuffer partialIndices = op.isArg() ? device.createBuffer(int.class, groups) : null;
+    CyCLBuffer resultValue = groups > 1 ? device.createBuffer(type, 1) : partialValues;
+    CyCLBuffer resultIndex = op.isArg() && groups > 1 ? device.createBuffer(int.class, 1) : partialIndices;
+    try {
+      long[] dimsLocal = new long[] { localSize };
+      if (op.isArg())
+      {
+        kernel.execute(new long[] { (long)groups * localSize }, dimsLocal, buffer, partialIndices, 0, n, partialValues, partialIndices, scratchValues, scratchIndices);
+        if (groups > 1)
+          kernel.execute(dimsLocal, dimsLocal, partialValues, partialIndices, 1, groups, resultValue, resultIndex, scratchValues, scratchIndices);
+
+        int[] index = new int[1];
+        resultIndex.getFromDevice(index);
+        return index[0];
+      }
+
+      kernel.execute(new long[] { (long)groups * localSize }, dimsLocal, buffer, n, partialValues, scratchValues);
+      if (groups > 1)
+        kernel.execute(dimsLocal, dimsLocal, partialValues, groups, resultValue, scratchValues);
+
+      return readFirst(resultValue);
+    } finally {
+      partialValues.free();
+      if (partialIndices != null)
+        partialIndices.free();
+      if (resultValue != partialValues)
+        resultValue.free();
+      if (resultIndex != partialIndices)
+        resultIndex.free();
+    }
+  }
+
+  /***
+   * Gets the kernel for an element type, building the program for that type on first use.
+   */
+  private static CyCLKernel getKernel(CyCLDevice device, Class<?> type, Op op)
+  {
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("T", type.getName());
+    if (type == int.class)
+    {
+      defines.put("T_MIN", "INT_MIN");
+      defines.put("T_MAX", "INT_MAX");
+    }
+    else if (type == long.class)
+    {
+      defines.put("T_MIN", "LONG_MIN");
+      defines.put("T_MAX", "LONG_MAX");
+    }
+    else
+    {
+      defines.put("T_MIN", "-INFINITY");
+      defines.put("T_MAX", "INFINITY");
+      defines.put("T_FLOATING", null);
+      if (type == double.class)
+        defines.put("CYCL_FP64", null);
+    }
+
+    synchronized (device)
+    {
+      CyCLProgram program = device.addProgram("CyCLReduction " + type.getName(), CyCLReduction.class.getResource("/Reduction.cl"), KERNEL_NAMES, defines, true);
+      return program.getKernel(op.kernelName);
+    }
+  }
+
+  /***
+   * Determines the work group size: the largest power of two that fits the device, the kernel and the local memory.
+   */
+  static int getLocalSize(CyCLDevice device, CyCLKernel kernel, int bytesPerItem)
+  {
+    long limit = Math.min(MAX_LOCAL_SIZE, Math.min(device.maxWorkGroupSize, kernel.getMaxWorkGroupSize()));
+    limit = Math.min(limit, device.localMemSize / bytesPerItem);
+
+    return (int)Long.highestOneBit(Math.max(1, limit));
+  }
+
+  /***
+   * Reduces a buffer whose memory is the host staging buffer, as on backend devices.
+   * Integers are accumulated as long and floating point values as double, then narrowed to the element type.
+   */
+  private static Number reduceHostMemory(Op op, CyCLBuffer buffer, int n)
+  {
+    Class<?> type = buffer.getType();
+    ByteBuffer memory = hostMemory(buffer);
+    boolean integral = type == int.class || type == long.class;
+    int elementSize = buffer.elementSize();
+
+    long longResult = 0;
+    double doubleResult = 0.0;
+    int bestIndex = -1;
+    for (int i = 0; i < n; i++)
+    {
+      long longValue = 0;
+      double doubleValue = 0.0;
+      if (type == int.class)
+        longValue = memory.getInt(i * elementSize);
+      else if (type == long.class)
+        longValue = memory.getLong(i * elementSize);
+      else if (type == float.class)
+        doubleValue = memory.getFloat(i * elementSize);
+      else
+        doubleValue = memory.getDouble(i * elementSize);
+
+      if (op == Op.SUM)
+      {
+        longResult += longValue;
+        doubleResult += doubleValue;
+        continue;
+      }
+
+      boolean better;
+      if (bestIndex < 0)
+        better = true;
+      else if (op == Op.MIN || op == Op.ARG_MIN)
+        better = integral ? longValue < longResult : doubleValue < doubleResult;
+      else
+        better = integral ? longValue > longResult : doubleValue > doubleResult;
+
+      if (better)
+      {
+        longResult = longValue;
+        doubleResult = doubleValue;
+        bestIndex = i;
+      }
+    }
+
+    if (op.isArg())
+      return bestIndex;
+
+    return box(type, longResult, doubleResult);
+  }
+
+}
@@ -0,0 +1,273 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/***
+ * Prefix sums over int, long, float or double buffers, e. g. to turn node degrees into CSR offsets or to find the
+ * output positions in stream compaction, without leaving the device.
+ *
+ * The kernels in Scan.cl are work-efficient (Blelloch): each work group scans a tile of twice its size in local memory,
+ * the tile totals are scanned recursively, and the results are added back to the tiles. The work group size is the
+ * largest power of two that the device, the kernels and the device's local memory allow.
+ * Segmented scans restart the sum at every element whose flag is non-zero; flagsFromOffsets creates such flags
+ * from segment start offsets, e. g. CSR row offsets. Programs are built on first use and cached per device and element type.
+ * Buffers of backend devices already live in host memory and are scanned in place.
+ */
+public class CyCLScan
+{
+  private static final String[] KERNEL_NAMES = { "ScanTiles", "AddBlockSums", "SegmentedScanTiles", "SegmentedAddBlockSums", "ClearFlags", "OffsetsToFlags" };
+
+  private CyCLScan()
+  {
+  }
+
+  /***
+   * Computes the exclusive prefix sum: output[i] = input[0] + ... + input[i - 1], and output[0] = 0.
+   *
+   * @param input Buffer of int, long, float or double
+   * @param output Buffer of the same type on the same device; can be the input buffer
+   * @param n Number of elements
+   * @return Sum of all n elements, boxed as the element type
+   */
+  public static Number exclusive(CyCLBuffer input, CyCLBuffer output, int n)
+  {
+    return scan(input, null, output, n, false);
+  }
+
+  /***
+   * Computes the inclusive prefix sum: output[i] = input[0] + ... + input[i].
+   *
+   * @param input Buffer of int, long, float or double
+   * @param output Buffer of the same type on the same device; can be the input buffer
+   * @param n Number of elements
+   * @return Sum of all n elements, boxed as the element type
+   */
+  public static Number inclusive(CyCLBuffer input, CyCLBuffer output, int n)
+  {
+    return scan(input, null, output, n, true);
+  }
+
+  /***
+   * Computes exclusive prefix sums that restart at every segment head, i. e. at every element whose flag is non-zero.
+   * The first element of each segment receives 0.
+   *
+   * @param input Buffer of int, long, float or double
+   * @param flags Int buffer with a non-zero value at the first element of each segment
+   * @param output Buffer of the same type on the same device; can be the input buffer
+   * @param n Number of elements
+   */
+  public static void exclusiveSegmented(CyCLBuffer input, CyCLBuffer flags, CyCLBuffer output, int n)
+  {
+    scan(input, flags, output, n, false);
+  }
+
+  /***
+   * Computes inclusive prefix sums that restart at every segment head, i. e. at every element whose flag is non-zero.
+   *
+   * @param input Buffer of int, long, float or double
+   * @param flags Int buffer with a non-zero value at the first element of each segment
+   * @param output Buffer of the same type on the same device; can be the input buffer
+   * @param n Number of elements
+   */
+  public static void inclusiveSegmented(CyCLBuffer input, CyCLBuffer flags, CyCLBuffer output, int n)
+  {
+    scan(input, flags, output, n, true);
+  }
+
+  /***
+   * Creates segment head flags from the start offsets of the segments.
+   *
+   * @param offsets Int buffer with the index of the first element of every segment, e. g. CSR row offsets
+   * @param segments Number of offsets
+   * @param n Number of elements the flags are for
+   * @return New int buffer of n flags on the offsets' device; the caller has to free it
+   */
+  public static CyCLBuffer flagsFromOffsets(CyCLBuffer offsets, int segments, int n)
+  {
+    CyCLDevice device = offsets.getContext().getDevice();
+    CyCLBuffer flags = device.createBuffer(int.class, Math.max(1, n));
+
+    if (device.getBackend() != null)
+    {
+      ByteBuffer offsetMemory = hostMemory(offsets), flagMemory = hostMemory(flags);
+      for (int i = 0; i < n; i++)
+        flagMemory.putInt(i * Sizeof.cl_int, 0);
+      for (int s = 0; s < segments; s++)
+      {
+        int offset = offsetMemory.getInt(s * Sizeof.cl_int);
+        if (offset >= 0 && offset < n)
+          flagMemory.putInt(offset * Sizeof.cl_int, 1);
+      }
+      return flags;
+    }
+
+    try {
+      CyCLProgram program = getProgram(device, int.class);
+      if (n > 0)
+        program.getKernel("ClearFlags").execute(new long[] { n }, null, flags, n);
+      if (segments > 0)
+        program.getKernel("OffsetsToFlags").execute(new long[] { segments }, null, offsets, segments, flags, n);
+    } catch (RuntimeException e) {
+      flags.free();
+      throw e;
+    }
+
+    return flags;
+  }
+
+  private static Number scan(CyCLBuffer input, CyCLBuffer flags, CyCLBuffer output, int n, boolean inclusive)
+  {
+    Class<?> type = input.getType();
+    if (type != int.class && type != long.class && type != float.class && type != double.class)
+      throw new CyCLException("Cannot scan buffers of " + type);
+    if (output.getType() != type)
+      throw new CyCLException("Scan output must have the same type as the input");
+    if (flags != null && flags.getType() != int.class)
+      throw new CyCLException("Segment flags must be ints");
+    if (n > input.getElements() || n > output.getElements() || (flags != null && n > flags.getElements()))
+      throw new CyCLException("Cannot scan " + n + " elements of buffers with fewer");
+    if (n <= 0)
+      return box(type, 0, 0.0);
+
+    CyCLDevice device = input.getContext().getDevice();
+    if (device.getBackend() != null)
+      return scanHostMemory(input, flags, output, n, inclusive);
+
+    return scanOnDevice(device, type, input, flags, output, n, inclusive);
+  }
+
+  /***
+   * Scans the tiles, then recursively the tile totals, and adds those to the tiles.
+   *
+   * @return Total of all elements for unsegmented scans; null for segmented ones
+   */
+  private static Number scanOnDevice(CyCLDevice device, Class<?> type, CyCLBuffer input, CyCLBuffer flags, CyCLBuffer output, int n, boolean inclusive)
+  {
+    boolean segmented = flags != null;
+    CyCLProgram program = getProgram(device, type);
+    CyCLKernel scanTiles = program.getKernel(segmented ? "SegmentedScanTiles" : "ScanTiles");
+    CyCLKernel addBlockSums = program.getKernel(segmented ? "SegmentedAddBlockSums" : "AddBlockSums");
+
+    // Every work item holds two elements, and their flags in segmented scans
+    int elementSize = input.elementSize();
+    int localSize = CyCLReduction.getLocalSize(device, scanTiles, 2 * (elementSize + (segmented ? Sizeof.cl_int : 0)));
+    while (localSize > 1 && localSize > addBlockSums.getMaxWorkGroupSize())
+      localSize >>= 1;
+    int tileSize = 2 * localSize;
+    int tiles = (int)((n + (long)tileSize - 1) / tileSize);
+
+    long[] dimsGlobal = new long[] { (long)tiles * localSize };
+    long[] dimsLocal = new long[] { localSize };
+    CyCLBuffer blockSums = device.createBuffer(type, tiles);
+    CyCLBuffer blockHeads = segmented ? device.createBuffer(int.class, tiles) : null;
+    try {
+      if (segmented)
+        scanTiles.execute(dimsGlobal, dimsLocal, input, flags, output, n, inclusive ? 1 : 0, blockSums, blockHeads,
+                          new CyCLLocalSize((long)tileSize * elementSize), new CyCLLocalSize((long)tileSize * Sizeof.cl_int));
+      else
+        scanTiles.execute(dimsGlobal, dimsLocal, input, output, n, inclusive ? 1 : 0, blockSums, new CyCLLocalSize((long)tileSize * elementSize));
+
+      if (tiles == 1)
+        return segmented ? null : readFirst(blockSums);
+
+      // Tile totals are scanned inclusively, so tile g adds the entry of tile g - 1
+      Number total = scanOnDevice(device, type, blockSums, blockHeads, blockSums, tiles, true);
+      if (segmented)
+        addBlockSums.execute(dimsGlobal, dimsLocal, output, n, blockSums, blockHeads);
+      else
+        addBlockSums.execute(dimsGlobal, dimsLocal, output, n, blockSums);
+
+      return total;
+    } finally {
+      blockSums.free();
+      if (blockHeads != null)
+        blockHeads.free();
+    }
+  }
+
+  private static CyCLProgram getProgram(CyCLDevice device, Class<?> type)
+  {
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("T", type.getName());
+    if (type == double.class)
+      defines.put("CYCL_FP64", null);
+
+    synchronized (device)
+    {
+      return device.addProgram("CyCLScan " + type.getName(), CyCLScan.class.getResource("/Scan.cl"), KERNEL_NAMES, defines, true);
+    }
+  }
+
+
+  /***
+   * Scans buffers whose memory is the host staging buffer, as on backend devices.
+   * Sums are accumulated in the element type, so results match those of OpenCL devices.
+   */
+  private static Number scanHostMemory(CyCLBuffer input, CyCLBuffer flags, CyCLBuffer output, int n, boolean inclusive)
+  {
+    Class<?> type = input.getType();
+    ByteBuffer in = hostMemory(input), out = hostMemory(output), heads = flags == null ? null : hostMemory(flags);
+    int size = input.elementSize();
+
+    int intSum = 0;
+    long longSum = 0;
+    float floatSum = 0.0f;
+    double doubleSum = 0.0;
+    int intTotal = 0;
+    long longTotal = 0;
+    float floatTotal = 0.0f;
+    double doubleTotal = 0.0;
+    for (int i = 0; i < n; i++)
+    {
+      if (heads != null && heads.getInt(i * Sizeof.cl_int) != 0)
+      {
+        intSum = 0;
+        longSum = 0;
+        floatSum = 0.0f;
+        doubleSum = 0.0;
+      }
+
+      // Read before writing, the output may be the input
+      if (type == int.class)
+      {
+        int value = in.getInt(i * size);
+        out.putInt(i * size, inclusive ? intSum + value : intSum);
+        intSum += value;
+        intTotal += value;
+      }
+      else if (type == long.class)
+      {
+        long value = in.getLong(i * size);
+        out.putLong(i * size, inclusive ? longSum + value : longSum);
+        longSum += value;
+        longTotal += value;
+      }
+      else if (type == float.class)
+      {
+        float value = in.getFloat(i * size);
+        out.putFloat(i * size, inclusive ? floatSum + value : floatSum);
+        floatSum += value;
+        floatTotal += value;
+      }
+      else
+      {
+        double value = in.getDouble(i * size);
+        out.putDouble(i * size, inclusive ? doubleSum + value : doubleSum);
+        doubleSum += value;
+        doubleTotal += value;
+      }
+    }
+
+    if (flags != null)
+      return null;
+    if (type == int.class)
+      return intTotal;
+    if (type == float.class)
+      return floatTotal;
+    return box(type, longTotal, doubleTotal);
+  }
+
+}
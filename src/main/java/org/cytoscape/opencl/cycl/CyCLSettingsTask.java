@@ -25,14 +25,21 @@ public class CyCLSettingsTask extends AbstractTask implements TunableValidator
 	}
 	
 	static final String OPENCL_PREFERREDNAME = "opencl.device.preferred";
+	static final String OPENCL_RERUN_BENCHMARK = "opencl.benchmark.rerun";
 	
-	private static final List<String> KEYS = Arrays.asList(OPENCL_PREFERREDNAME);
+	private static final List<String> KEYS = Arrays.asList(OPENCL_PREFERREDNAME, OPENCL_RERUN_BENCHMARK, CyCL.CONTEXT_SHARED);
 	
   private static final List<String> DEVICE_NAMES = new ArrayList<>();
 
   @Tunable(description="Preferred OpenCL Device")
 	public ListSingleSelection<String> preferredNameList;
 
+	@Tunable(description="Re-run device benchmark and retry quarantined devices on next start")
+	public boolean rerunBenchmark;
+
+	@Tunable(description="Share memory between devices of the same platform (applies on next start)")
+	public boolean sharedContexts;
+
 	private final Map<String, String> oldSettings;
 	private final Properties properties;
 
@@ -62,6 +69,9 @@ public class CyCLSettingsTask extends AbstractTask implements TunableValidator
 			preferredNameList.setSelectedValue(DEVICE_NAMES.get(0));
 		}
 
+		rerunBenchmark = Boolean.parseBoolean(this.properties.getProperty(OPENCL_RERUN_BENCHMARK));
+		sharedContexts = Boolean.parseBoolean(this.properties.getProperty(CyCL.CONTEXT_SHARED));
+
     assignSystemProperties();
 	}
 
@@ -110,6 +120,8 @@ public class CyCLSettingsTask extends AbstractTask implements TunableValidator
 		}
 
 		properties.setProperty(OPENCL_PREFERREDNAME, preferredNameList.getSelectedValue());
+		properties.setProperty(OPENCL_RERUN_BENCHMARK, String.valueOf(rerunBenchmark));
+		properties.setProperty(CyCL.CONTEXT_SHARED, String.valueOf(sharedContexts));
         
     assignSystemProperties();
 	}
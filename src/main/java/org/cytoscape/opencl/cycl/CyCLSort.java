@@ -0,0 +1,245 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/***
+ * Sorts int, long, float or double keys in ascending order on the device that owns them, optionally moving a 32-bit
+ * value (int or float) along with every key, e. g. edge indices when sorting edges by source node.
+ *
+ * The kernels in Sort.cl implement a stable LSD radix sort. Each pass handles one digit: the digits of the keys are counted
+ * per work item, the counts are turned into output positions with CyCLScan, and the keys are scattered to them.
+ * The digit width is the largest one whose per-work-item counters fit into the device's local memory, up to 8 bits,
+ * evened out over the passes a key needs. Floating point keys are ordered like Float.compare, except that NaNs with
+ * the sign bit set come first. Programs are built on first use and cached per device and key type.
+ * Buffers of backend devices already live in host memory and are sorted in place.
+ */
+public class CyCLSort
+{
+  private static final String[] KERNEL_NAMES = { "EncodeKeys", "DecodeKeys", "Histogram", "Scatter", "ScatterPairs" };
+
+  private static final int MAX_DIGIT_BITS = 8;
+  private static final int MIN_DIGIT_BITS = 4;
+  private static final int MAX_LOCAL_SIZE = 64;
+  // Work groups per compute unit
+  private static final int GROUPS_PER_COMPUTE_UNIT = 4;
+  // Keys per work item at least, so the histograms stay small compared to the keys
+  private static final int MIN_ITEMS_PER_THREAD = 16;
+
+  private CyCLSort()
+  {
+  }
+
+  /***
+   * Sorts the first n keys of a buffer in place.
+   *
+   * @param keys Buffer of int, long, float or double
+   * @param n Number of keys
+   */
+  public static void sort(CyCLBuffer keys, int n)
+  {
+    sort(keys, null, n);
+  }
+
+  /***
+   * Sorts the first n keys of a buffer in place, and rearranges the values the same way.
+   * Keys that are equal keep the order of their values.
+   *
+   * @param keys Buffer of int, long, float or double
+   * @param values Buffer of int or float on the same device, or null to sort only the keys
+   * @param n Number of keys
+   */
+  public static void sort(CyCLBuffer keys, CyCLBuffer values, int n)
+  {
+    Class<?> type = keys.getType();
+    if (type != int.class && type != long.class && type != float.class && type != double.class)
+      throw new CyCLException("Cannot sort keys of " + type);
+    if (values != null && values.elementSize() != Sizeof.cl_int)
+      throw new CyCLException("Sort values must be 32-bit, e. g. int indices");
+    if (n > keys.getElements() || (values != null && n > values.getElements()))
+      throw new CyCLException("Cannot sort " + n + " elements of buffers with fewer");
+    if (n <= 1)
+      return;
+
+    CyCLDevice device = keys.getContext().getDevice();
+    if (device.getBackend() != null)
+      sortHostMemory(keys, values, n);
+    else
+      sortOnDevice(device, keys, values, n);
+  }
+
+  private static void sortOnDevice(CyCLDevice device, CyCLBuffer keys, CyCLBuffer values, int n)
+  {
+    CyCLProgram program = getProgram(device, keys.getType());
+    CyCLKernel histogram = program.getKernel("Histogram");
+    CyCLKernel scatter = program.getKernel(values != null ? "ScatterPairs" : "Scatter");
+
+    int keyBits = keys.elementSize() * 8;
+    long localLimit = Math.min(MAX_LOCAL_SIZE, Math.min(device.maxWorkGroupSize, Math.min(histogram.getMaxWorkGroupSize(), scatter.getMaxWorkGroupSize())));
+    int localSize = (int)Long.highestOneBit(Math.max(1, localLimit));
+
+    // Widest digit whose counters fit into local memory, then spread evenly over the passes it takes
+    int maxBits = MAX_DIGIT_BITS;
+    while (maxBits > MIN_DIGIT_BITS && ((long)localSize << maxBits) * Sizeof.cl_int > device.localMemSize)
+      maxBits--;
+    while (localSize > 1 && ((long)localSize << maxBits) * Sizeof.cl_int > device.localMemSize)
+      localSize >>= 1;
+    int passes = (keyBits + maxBits - 1) / maxBits;
+    int bits = (keyBits + passes - 1) / passes;
+    int radix = 1 << bits;
+
+    long maxThreads = (long)Math.max(1, device.computeUnits) * GROUPS_PER_COMPUTE_UNIT * localSize;
+    int itemsPerThread = (int)Math.max(MIN_ITEMS_PER_THREAD, (n + maxThreads - 1) / maxThreads);
+    long threads = (n + (long)itemsPerThread - 1) / itemsPerThread;
+    threads = (threads + localSize - 1) / localSize * localSize;
+    if (threads * radix > Integer.MAX_VALUE)
+      throw new CyCLException("Too many keys to sort: " + n);
+
+    long[] dimsGlobal = new long[] { threads };
+    long[] dimsLocal = new long[] { localSize };
+    CyCLLocalSize counters = new CyCLLocalSize((long)localSize * radix * Sizeof.cl_int);
+
+    CyCLBuffer tempKeys = null, tempValues = null, offsets = null;
+    program.getKernel("EncodeKeys").execute(new long[] { n }, null, keys, n);
+    try {
+      tempKeys = device.createBuffer(keys.getType(), n);
+      tempValues = values != null ? device.createBuffer(values.getType(), n) : null;
+      offsets = device.createBuffer(int.class, (int)(threads * radix));
+
+      CyCLBuffer keysIn = keys, keysOut = tempKeys, valuesIn = values, valuesOut = tempValues;
+      for (int pass = 0; pass < passes; pass++)
+      {
+        int shift = pass * bits;
+        histogram.execute(dimsGlobal, dimsLocal, keysIn, n, itemsPerThread, shift, bits, offsets, counters);
+        CyCLScan.exclusive(offsets, offsets, (int)(threads * radix));
+        if (values != null)
+          scatter.execute(dimsGlobal, dimsLocal, keysIn, keysOut, valuesIn, valuesOut, n, itemsPerThread, shift, bits, offsets, counters);
+        else
+          scatter.execute(dimsGlobal, dimsLocal, keysIn, keysOut, n, itemsPerThread, shift, bits, offsets, counters);
+
+        CyCLBuffer swap = keysIn;
+        keysIn = keysOut;
+        keysOut = swap;
+        swap = valuesIn;
+        valuesIn = valuesOut;
+        valuesOut = swap;
+      }
+
+      // After an odd number of passes the result is in the temporary buffers
+      if (keysIn != keys)
+      {
+        keys.setFromDevice(keysIn, (long)n * keys.elementSize(), 0, 0);
+        if (values != null)
+          values.setFromDevice(valuesIn, (long)n * values.elementSize(), 0, 0);
+      }
+    } finally {
+      program.getKernel("DecodeKeys").execute(new long[] { n }, null, keys, n);
+      if (tempKeys != null)
+        tempKeys.free();
+      if (tempValues != null)
+        tempValues.free();
+      if (offsets != null)
+        offsets.free();
+    }
+  }
+
+  private static CyCLProgram getProgram(CyCLDevice device, Class<?> type)
+  {
+    boolean wide = type == long.class || type == double.class;
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("K", wide ? "ulong" : "uint");
+    defines.put("KEY_BITS", wide ? "64" : "32");
+    if (type == float.class || type == double.class)
+      defines.put("CYCL_FLOAT_KEYS", null);
+
+    synchronized (device)
+    {
+      return device.addProgram("CyCLSort " + type.getName(), CyCLSort.class.getResource("/Sort.cl"), KERNEL_NAMES, defines, true);
+    }
+  }
+
+  /***
+   * Sorts buffers whose memory is the host staging buffer, as on backend devices, with the same encoding and byte-wise passes.
+   */
+  private static void sortHostMemory(CyCLBuffer keys, CyCLBuffer values, int n)
+  {
+    Class<?> type = keys.getType();
+    ByteBuffer keyMemory = hostMemory(keys);
+    ByteBuffer valueMemory = values == null ? null : hostMemory(values);
+    int size = keys.elementSize();
+
+    long[] encoded = new long[n];
+    int[] payload = values == null ? null : new int[n];
+    for (int i = 0; i < n; i++)
+    {
+      encoded[i] = encode(type, size == 4 ? keyMemory.getInt(i * size) : keyMemory.getLong(i * size));
+      if (payload != null)
+        payload[i] = valueMemory.getInt(i * Sizeof.cl_int);
+    }
+
+    long[] encodedOut = new long[n];
+    int[] payloadOut = payload == null ? null : new int[n];
+    int[] counts = new int[257];
+    for (int shift = 0; shift < size * 8; shift += 8)
+    {
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < n; i++)
+        counts[(int)((encoded[i] >>> shift) & 0xFF) + 1]++;
+      for (int d = 0; d < 256; d++)
+        counts[d + 1] += counts[d];
+      for (int i = 0; i < n; i++)
+      {
+        int position = counts[(int)((encoded[i] >>> shift) & 0xFF)]++;
+        encodedOut[position] = encoded[i];
+        if (payload != null)
+          payloadOut[position] = payload[i];
+      }
+
+      long[] swap = encoded;
+      encoded = encodedOut;
+      encodedOut = swap;
+      int[] swapPayload = payload;
+      payload = payloadOut;
+      payloadOut = swapPayload;
+    }
+
+    for (int i = 0; i < n; i++)
+    {
+      long key = decode(type, encoded[i]);
+      if (size == 4)
+        keyMemory.putInt(i * size, (int)key);
+      else
+        keyMemory.putLong(i * size, key);
+      if (payload != null)
+        valueMemory.putInt(i * Sizeof.cl_int, payload[i]);
+    }
+  }
+
+  /***
+   * Maps the raw bits of a key to an unsigned value with the same order, as EncodeKeys does.
+   */
+  static long encode(Class<?> type, long bits)
+  {
+    if (type == int.class)
+      return (bits ^ 0x80000000L) & 0xFFFFFFFFL;
+    if (type == float.class)
+      return ((int)bits < 0 ? ~bits : bits | 0x80000000L) & 0xFFFFFFFFL;
+    if (type == long.class)
+      return bits ^ Long.MIN_VALUE;
+    return bits < 0 ? ~bits : bits | Long.MIN_VALUE;
+  }
+
+  static long decode(Class<?> type, long encoded)
+  {
+    if (type == int.class)
+      return (int)(encoded ^ 0x80000000L);
+    if (type == float.class)
+      return (int)((encoded & 0x80000000L) != 0 ? encoded & 0x7FFFFFFFL : ~encoded);
+    if (type == long.class)
+      return encoded ^ Long.MIN_VALUE;
+    return encoded < 0 ? encoded & Long.MAX_VALUE : ~encoded;
+  }
+}
@@ -0,0 +1,354 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/***
+ * Sparse float matrix on a device, for network propagation such as diffusion, PageRank or label propagation,
+ * which repeat y = A x with A derived from the network's edges.
+ *
+ * The matrix is stored as CSR (compressed rows) or, if the rows are of similar length, as ELL, which pads all rows
+ * to the longest one and lets neighboring work items read neighboring memory. CSR products bin the rows by length:
+ * short rows are multiplied by one work item each, and long rows by a team of work items each, up to the device's warp size,
+ * so the few long rows of hub nodes do not serialize a warp even when rows are short on average. The kernels are in SparseMatrix.cl.
+ * Matrices on backend devices are always CSR and multiplied in host memory.
+ */
+public class CyCLSparseMatrix
+{
+  public enum Format
+  {
+    CSR,
+    ELL
+  }
+
+  private static final String PROGRAM_NAME = "CyCLSparseMatrix";
+  private static final String[] KERNEL_NAMES = { "CsrSpmvScalar", "CsrSpmvVector", "EllSpmv", "CsrSpmm", "EllSpmm" };
+
+  // ELL is chosen if its padded size is at most this multiple of the non-zeros, i. e. padding adds at most 50 %
+  private static final double ELL_MAX_FILL = 1.5;
+  // Rows shorter than this are multiplied by one work item each, longer ones by a team
+  static final int VECTOR_MIN_ROW_LENGTH = 4;
+
+  private final CyCLDevice device;
+  private final Format format;
+  private final int rows, columns, nonZeros, maxRowLength;
+  // CSR products on OpenCL devices: the first shortRows entries of rowList are short rows, the rest long rows,
+  // which are multiplied by teams of lanes work items
+  private int shortRows;
+  private int lanes = 1;
+
+  // CSR: rowOffsets, columns, values, rowList. ELL: columns and values, padded to maxRowLength.
+  private CyCLBuffer rowOffsetBuffer, columnBuffer, valueBuffer, rowListBuffer;
+
+  private CyCLSparseMatrix(CyCLDevice device, Format format, int rows, int columns, int nonZeros, int maxRowLength)
+  {
+    this.device = device;
+    this.format = format;
+    this.rows = rows;
+    this.columns = columns;
+    this.nonZeros = nonZeros;
+    this.maxRowLength = maxRowLength;
+  }
+
+  /***
+   * Lists the rows shorter than VECTOR_MIN_ROW_LENGTH first and then the longer ones, each in ascending order.
+   *
+   * @param rowOffsets CSR row offsets
+   * @param rows Number of rows
+   * @return Row list, and the number of short rows as its last element
+   */
+  static int[] binRows(int[] rowOffsets, int rows)
+  {
+    int[] rowList = new int[rows + 1];
+    int shortRows = 0;
+    for (int r = 0; r < rows; r++)
+      if (rowOffsets[r + 1] - rowOffsets[r] < VECTOR_MIN_ROW_LENGTH)
+        rowList[shortRows++] = r;
+    int next = shortRows;
+    for (int r = 0; r < rows; r++)
+      if (rowOffsets[r + 1] - rowOffsets[r] >= VECTOR_MIN_ROW_LENGTH)
+        rowList[next++] = r;
+    rowList[rows] = shortRows;
+
+    return rowList;
+  }
+
+  /***
+   * Chooses the team size for long rows: the smallest power of two that covers their mean length, up to the warp size.
+   *
+   * @param meanLongRowLength Mean length of the rows multiplied by teams
+   * @param warpSize Device's warp size
+   * @return Work items per long row
+   */
+  static int chooseLanes(double meanLongRowLength, long warpSize)
+  {
+    int lanes = 1;
+    while (lanes < meanLongRowLength && lanes * 2 <= Math.max(1, warpSize))
+      lanes <<= 1;
+
+    return lanes;
+  }
+
+  /***
+   * Creates a matrix from its entries, e. g. from a network's edges with A[source][target] = weight.
+   * Undirected networks need both directions of every edge. Entries at the same position add up.
+   * The format is ELL if padding the rows costs little, CSR otherwise.
+   *
+   * @param device Device that will hold the matrix
+   * @param rows Number of rows
+   * @param columns Number of columns
+   * @param rowIndices Row of every entry
+   * @param columnIndices Column of every entry
+   * @param values Value of every entry, or null for all ones
+   */
+  public static CyCLSparseMatrix fromEdges(CyCLDevice device, int rows, int columns, int[] rowIndices, int[] columnIndices, float[] values)
+  {
+    return fromEdges(device, rows, columns, rowIndices, columnIndices, values, null);
+  }
+
+  /***
+   * Creates a matrix from its entries in the given format.
+   *
+   * @param format Storage format, or null to choose one from the row lengths; backend devices always use CSR
+   * @see #fromEdges(CyCLDevice, int, int, int[], int[], float[])
+   */
+  public static CyCLSparseMatrix fromEdges(CyCLDevice device, int rows, int columns, int[] rowIndices, int[] columnIndices, float[] values, Format format)
+  {
+    int entries = rowIndices.length;
+    if (rows < 0 || columns < 0)
+      throw new CyCLException("Matrix dimensions must not be negative");
+    if (columnIndices.length != entries || (values != null && values.length != entries))
+      throw new CyCLException("Row indices, column indices and values must have the same length");
+
+    // Counting sort by row, which keeps the given order within every row
+    int[] rowOffsets = new int[rows + 1];
+    for (int e = 0; e < entries; e++)
+    {
+      if (rowIndices[e] < 0 || rowIndices[e] >= rows || columnIndices[e] < 0 || columnIndices[e] >= columns)
+        throw new CyCLException("Matrix entry (" + rowIndices[e] + ", " + columnIndices[e] + ") is outside of " + rows + " x " + columns);
+      rowOffsets[rowIndices[e] + 1]++;
+    }
+    int maxRowLength = 0;
+    for (int r = 0; r < rows; r++)
+    {
+      maxRowLength = Math.max(maxRowLength, rowOffsets[r + 1]);
+      rowOffsets[r + 1] += rowOffsets[r];
+    }
+
+    int[] csrColumns = new int[entries];
+    float[] csrValues = new float[entries];
+    int[] next = new int[rows];
+    for (int e = 0; e < entries; e++)
+    {
+      int r = rowIndices[e];
+      int k = rowOffsets[r] + next[r]++;
+      csrColumns[k] = columnIndices[e];
+      csrValues[k] = values == null ? 1.0f : values[e];
+    }
+
+    long padded = (long)rows * maxRowLength;
+    if (device.getBackend() != null)
+      format = Format.CSR;
+    else if (format == null)
+      format = entries > 0 && padded <= ELL_MAX_FILL * entries ? Format.ELL : Format.CSR;
+    if (format == Format.ELL && padded > Integer.MAX_VALUE)
+      throw new CyCLException("Matrix is too large for ELL: " + rows + " rows of up to " + maxRowLength + " entries");
+
+    CyCLSparseMatrix matrix = new CyCLSparseMatrix(device, format, rows, columns, entries, maxRowLength);
+    try {
+      if (format == Format.CSR)
+      {
+        matrix.rowOffsetBuffer = device.createBuffer(rowOffsets);
+        matrix.columnBuffer = device.createBuffer(entries > 0 ? csrColumns : new int[1]);
+        matrix.valueBuffer = device.createBuffer(entries > 0 ? csrValues : new float[1]);
+
+        if (device.getBackend() == null && rows > 0)
+        {
+          int[] rowList = binRows(rowOffsets, rows);
+          matrix.shortRows = rowList[rows];
+          int longRows = rows - matrix.shortRows;
+          if (longRows > 0)
+          {
+            long longEntries = 0;
+            for (int i = matrix.shortRows; i < rows; i++)
+              longEntries += rowOffsets[rowList[i] + 1] - rowOffsets[rowList[i]];
+            matrix.lanes = chooseLanes((double)longEntries / longRows, device.bestWarpSize);
+          }
+          matrix.rowListBuffer = device.createBuffer(rowList);
+        }
+      }
+      else
+      {
+        // Column-major, padding has value 0 and column 0
+        int[] ellColumns = new int[(int)Math.max(1, padded)];
+        float[] ellValues = new float[(int)Math.max(1, padded)];
+        for (int r = 0; r < rows; r++)
+          for (int k = rowOffsets[r]; k < rowOffsets[r + 1]; k++)
+          {
+            int position = (k - rowOffsets[r]) * rows + r;
+            ellColumns[position] = csrColumns[k];
+            ellValues[position] = csrValues[k];
+          }
+        matrix.columnBuffer = device.createBuffer(ellColumns);
+        matrix.valueBuffer = device.createBuffer(ellValues);
+      }
+    } catch (RuntimeException e) {
+      matrix.free();
+      throw e;
+    }
+
+    return matrix;
+  }
+
+  public CyCLDevice getDevice()
+  {
+    return device;
+  }
+
+  public Format getFormat()
+  {
+    return format;
+  }
+
+  public int getRows()
+  {
+    return rows;
+  }
+
+  public int getColumns()
+  {
+    return columns;
+  }
+
+  public int getNonZeros()
+  {
+    return nonZeros;
+  }
+
+  public int getMaxRowLength()
+  {
+    return maxRowLength;
+  }
+
+  /***
+   * Computes y = A x.
+   *
+   * @param x Float buffer of at least as many elements as the matrix has columns
+   * @param y Float buffer of at least as many elements as the matrix has rows; must not be x
+   */
+  public void multiply(CyCLBuffer x, CyCLBuffer y)
+  {
+    multiply(x, y, 1);
+  }
+
+  /***
+   * Computes Y = A X for several vectors at once, e. g. one diffusion per seed set.
+   * The vectors are interleaved: element j of vector v is at index j * vectors + v.
+   *
+   * @param x Float buffer of at least columns * vectors elements
+   * @param y Float buffer of at least rows * vectors elements; must not be x
+   * @param vectors Number of vectors
+   */
+  public void multiply(CyCLBuffer x, CyCLBuffer y, int vectors)
+  {
+    if (valueBuffer == null)
+      throw new CyCLException("Sparse matrix has been freed");
+    if (x.getType() != float.class || y.getType() != float.class)
+      throw new CyCLException("Sparse matrix products need float vectors");
+    if (x == y)
+      throw new CyCLException("Sparse matrix products cannot write to their input");
+    if (vectors < 1 || (long)columns * vectors > x.getElements() || (long)rows * vectors > y.getElements())
+      throw new CyCLException("Vectors are too short for a " + rows + " x " + columns + " matrix");
+    if (rows == 0)
+      return;
+
+    if (device.getBackend() != null)
+    {
+      multiplyHostMemory(x, y, vectors);
+      return;
+    }
+
+    CyCLProgram program = getProgram();
+    if (vectors > 1)
+    {
+      long[] dims = new long[] { (long)rows * vectors };
+      if (format == Format.ELL)
+        program.getKernel("EllSpmm").execute(dims, null, columnBuffer, valueBuffer, maxRowLength, x, y, rows, vectors);
+      else
+        program.getKernel("CsrSpmm").execute(dims, null, rowOffsetBuffer, columnBuffer, valueBuffer, x, y, rows, vectors);
+    }
+    else if (format == Format.ELL)
+    {
+      program.getKernel("EllSpmv").execute(new long[] { rows }, null, columnBuffer, valueBuffer, maxRowLength, x, y, rows);
+    }
+    else
+    {
+      if (shortRows > 0)
+        program.getKernel("CsrSpmvScalar").execute(new long[] { shortRows }, null, rowOffsetBuffer, columnBuffer, valueBuffer, x, y,
+                                                   rowListBuffer, 0, shortRows);
+
+      int longRows = rows - shortRows;
+      if (longRows > 0)
+      {
+        CyCLKernel kernel = program.getKernel("CsrSpmvVector");
+        int localSize = CyCLReduction.getLocalSize(device, kernel, Sizeof.cl_float);
+        int teamSize = Math.min(lanes, localSize);
+        long threads = (long)longRows * teamSize;
+        threads = (threads + localSize - 1) / localSize * localSize;
+        kernel.execute(new long[] { threads }, new long[] { localSize }, rowOffsetBuffer, columnBuffer, valueBuffer, x, y,
+                       rowListBuffer, shortRows, longRows, teamSize, new CyCLLocalSize((long)localSize * Sizeof.cl_float));
+      }
+    }
+  }
+
+  /***
+   * Frees the matrix's device memory.
+   */
+  public void free()
+  {
+    if (rowOffsetBuffer != null)
+      rowOffsetBuffer.free();
+    if (columnBuffer != null)
+      columnBuffer.free();
+    if (valueBuffer != null)
+      valueBuffer.free();
+    if (rowListBuffer != null)
+      rowListBuffer.free();
+    rowOffsetBuffer = columnBuffer = valueBuffer = rowListBuffer = null;
+  }
+
+  private CyCLProgram getProgram()
+  {
+    synchronized (device)
+    {
+      return device.addProgram(PROGRAM_NAME, CyCLSparseMatrix.class.getResource("/SparseMatrix.cl"), KERNEL_NAMES, null, true);
+    }
+  }
+
+  /***
+   * Multiplies CSR matrices whose memory is the host staging buffer, as on backend devices.
+   */
+  private void multiplyHostMemory(CyCLBuffer x, CyCLBuffer y, int vectors)
+  {
+    ByteBuffer offsets = hostMemory(rowOffsetBuffer), cols = hostMemory(columnBuffer), vals = hostMemory(valueBuffer);
+    ByteBuffer in = hostMemory(x), out = hostMemory(y);
+    float[] sums = new float[vectors];
+
+    for (int r = 0; r < rows; r++)
+    {
+      Arrays.fill(sums, 0.0f);
+      int end = offsets.getInt((r + 1) * Sizeof.cl_int);
+      for (int k = offsets.getInt(r * Sizeof.cl_int); k < end; k++)
+      {
+        float value = vals.getFloat(k * Sizeof.cl_float);
+        int column = cols.getInt(k * Sizeof.cl_int);
+        for (int v = 0; v < vectors; v++)
+          sums[v] += value * in.getFloat((column * vectors + v) * Sizeof.cl_float);
+      }
+      for (int v = 0; v < vectors; v++)
+        out.putFloat((r * vectors + v) * Sizeof.cl_float, sums[v]);
+    }
+  }
+}
@@ -0,0 +1,401 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.cytoscape.opencl.cycl.CyCLUtils.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/***
+ * Uniform-grid index over 2D or 3D points in float buffers, for neighbor queries such as overlap removal,
+ * label collision detection or repulsion with a cutoff radius, which then take time proportional to the number of points
+ * and their neighbors instead of all pairs.
+ *
+ * Space is divided into cubic cells of a given size, which should be about the typical query radius. The cells are hashed
+ * into a table with one bucket per point, rounded up to a power of two, so the grid needs no bounds; the points are sorted
+ * by bucket with CyCLSort, and a start and end table gives every bucket's range of sorted points.
+ * After the points have moved, e. g. between layout iterations, rebuild() updates the index in the buffers it already has.
+ * It also measures how many cells the points span, which bounds how far queries search, whatever their radius.
+ * The kernels are in SpatialGrid.cl. Grids on backend devices are built and queried in host memory.
+ */
+public class CyCLSpatialGrid
+{
+  private static final String[] KERNEL_NAMES = { "HashPoints", "ClearRanges", "KeyRanges", "RadiusNeighbors", "NearestNeighbors" };
+
+  /***
+   * Largest number of nearest neighbors per point
+   */
+  public static final int MAX_K = 32;
+
+  private final CyCLDevice device;
+  private final CyCLBuffer x, y, z;
+  private final int n, tableSize;
+  private float cellSize;
+  // Cells between the lowest and highest cell of the points along the widest axis; no query searches farther
+  private int extent;
+  private boolean freed;
+
+  private CyCLBuffer hashes, order, cellStart, cellEnd, unusedZ;
+  // Index of backend devices
+  private int[] hostOrder, hostCellStart, hostCellEnd;
+
+  /***
+   * Builds the index. The position buffers are used, not copied, and have to stay valid until free() is called.
+   *
+   * @param x X coordinates, float buffer
+   * @param y Y coordinates, float buffer
+   * @param z Z coordinates, float buffer, or null for 2D points
+   * @param n Number of points
+   * @param cellSize Edge length of the cells, about the typical query radius
+   */
+  public CyCLSpatialGrid(CyCLBuffer x, CyCLBuffer y, CyCLBuffer z, int n, float cellSize)
+  {
+    if (x.getType() != float.class || y.getType() != float.class || (z != null && z.getType() != float.class))
+      throw new CyCLException("Point coordinates must be float buffers");
+    if (n > x.getElements() || n > y.getElements() || (z != null && n > z.getElements()))
+      throw new CyCLException("Cannot index " + n + " points of buffers with fewer");
+    if (!(cellSize > 0.0f))
+      throw new CyCLException("Cell size must be positive");
+
+    this.device = x.getContext().getDevice();
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.n = Math.max(0, n);
+    this.cellSize = cellSize;
+    this.tableSize = Integer.highestOneBit(Math.max(1, this.n - 1)) << (this.n > 1 ? 1 : 0);
+
+    try {
+      if (device.getBackend() == null)
+      {
+        int size = Math.max(1, this.n);
+        hashes = device.createBuffer(int.class, size);
+        order = device.createBuffer(int.class, size);
+        cellStart = device.createBuffer(int.class, tableSize);
+        cellEnd = device.createBuffer(int.class, tableSize);
+        // Kernels always take a z buffer, 2D ones don't read it
+        if (z == null)
+          unusedZ = device.createBuffer(float.class, 1);
+      }
+      rebuild();
+    } catch (RuntimeException e) {
+      free();
+      throw e;
+    }
+  }
+
+  public float getCellSize()
+  {
+    return cellSize;
+  }
+
+  /***
+   * Changes the cell size and rebuilds the index.
+   */
+  public void setCellSize(float cellSize)
+  {
+    if (!(cellSize > 0.0f))
+      throw new CyCLException("Cell size must be positive");
+    this.cellSize = cellSize;
+    rebuild();
+  }
+
+  public int getPoints()
+  {
+    return n;
+  }
+
+  /***
+   * Updates the index after the points have moved.
+   */
+  public void rebuild()
+  {
+    checkNotFreed();
+    if (device.getBackend() != null)
+    {
+      rebuildHostMemory();
+      return;
+    }
+
+    CyCLProgram program = getProgram();
+    program.getKernel("ClearRanges").execute(new long[] { tableSize }, null, cellStart, cellEnd, tableSize);
+    extent = 0;
+    if (n == 0)
+      return;
+
+    for (CyCLBuffer coordinates : new CyCLBuffer[] { x, y, z })
+      if (coordinates != null)
+        extent = Math.max(extent, cellSpan(CyCLReduction.min(coordinates, n).floatValue(), CyCLReduction.max(coordinates, n).floatValue()));
+
+    long[] dims = new long[] { n };
+    program.getKernel("HashPoints").execute(dims, null, x, y, z != null ? z : unusedZ, n, cellSize, tableSize - 1, hashes, order);
+    CyCLSort.sort(hashes, order, n);
+    program.getKernel("KeyRanges").execute(dims, null, hashes, n, cellStart, cellEnd);
+  }
+
+  /***
+   * Finds the points within a radius of every point, excluding the point itself, in no particular order.
+   *
+   * @param radius Query radius; radii up to the cell size search the fewest cells
+   * @param maxNeighbors Number of neighbors stored per point
+   * @param neighbors Int buffer of n * maxNeighbors elements; the neighbors of point i start at i * maxNeighbors
+   * @param counts Int buffer of n elements, which receives the number of neighbors of every point,
+   *               including those that did not fit into maxNeighbors
+   */
+  public void radiusNeighbors(float radius, int maxNeighbors, CyCLBuffer neighbors, CyCLBuffer counts)
+  {
+    if (!(radius >= 0.0f) || Float.isInfinite(radius) || maxNeighbors < 0)
+      throw new CyCLException("Radius must be finite, and radius and number of neighbors must not be negative");
+    if (neighbors.getType() != int.class || counts.getType() != int.class
+        || (long)n * maxNeighbors > neighbors.getElements() || n > counts.getElements())
+      throw new CyCLException("Neighbor buffers must be int buffers of " + n + " * " + maxNeighbors + " and " + n + " elements");
+    checkNotFreed();
+    if (n == 0)
+      return;
+
+    if (device.getBackend() != null)
+    {
+      radiusNeighborsHostMemory(radius, maxNeighbors, neighbors, counts);
+      return;
+    }
+
+    getProgram().getKernel("RadiusNeighbors").execute(new long[] { n }, null, x, y, z != null ? z : unusedZ, n, cellSize, tableSize - 1,
+                                                      cellStart, cellEnd, order, radius, cellsWithin(radius), maxNeighbors, neighbors, counts);
+  }
+
+  /***
+   * Finds the k nearest points within a maximum radius of every point, excluding the point itself, nearest first.
+   * The search widens ring by ring of cells, so the maximum radius bounds its cost where points are sparse.
+   *
+   * @param k Number of neighbors, at most MAX_K
+   * @param maxRadius Distance beyond which points are not considered
+   * @param neighbors Int buffer of n * k elements; the neighbors of point i start at i * k, missing ones are -1
+   * @param distances Float buffer of n * k elements with the neighbors' distances; missing ones are infinite
+   */
+  public void nearestNeighbors(int k, float maxRadius, CyCLBuffer neighbors, CyCLBuffer distances)
+  {
+    if (k < 1 || k > MAX_K)
+      throw new CyCLException("Number of nearest neighbors must be between 1 and " + MAX_K);
+    if (!(maxRadius >= 0.0f) || Float.isInfinite(maxRadius))
+      throw new CyCLException("Maximum radius must be finite and not negative");
+    if (neighbors.getType() != int.class || distances.getType() != float.class
+        || (long)n * k > neighbors.getElements() || (long)n * k > distances.getElements())
+      throw new CyCLException("Neighbors and distances must be int and float buffers of " + n + " * " + k + " elements");
+    checkNotFreed();
+    if (n == 0)
+      return;
+
+    if (device.getBackend() != null)
+    {
+      nearestNeighborsHostMemory(k, maxRadius, neighbors, distances);
+      return;
+    }
+
+    getProgram().getKernel("NearestNeighbors").execute(new long[] { n }, null, x, y, z != null ? z : unusedZ, n, cellSize, tableSize - 1,
+                                                       cellStart, cellEnd, order, k, maxRadius, cellsWithin(maxRadius), neighbors, distances);
+  }
+
+  /***
+   * Frees the index; the position buffers are left alone.
+   */
+  public void free()
+  {
+    CyCLBuffer[] buffers = { hashes, order, cellStart, cellEnd, unusedZ };
+    for (CyCLBuffer buffer : buffers)
+      if (buffer != null)
+        buffer.free();
+
+    hashes = order = cellStart = cellEnd = unusedZ = null;
+    hostOrder = hostCellStart = hostCellEnd = null;
+    freed = true;
+  }
+
+  private void checkNotFreed()
+  {
+    if (freed)
+      throw new CyCLException("Spatial grid has been freed");
+  }
+
+  private CyCLProgram getProgram()
+  {
+    int dims = z != null ? 3 : 2;
+    HashMap<String, String> defines = new HashMap<>();
+    defines.put("DIMS", Integer.toString(dims));
+
+    synchronized (device)
+    {
+      return device.addProgram("CyCLSpatialGrid " + dims + "D", CyCLSpatialGrid.class.getResource("/SpatialGrid.cl"), KERNEL_NAMES, defines, true);
+    }
+  }
+
+  /***
+   * Gets the number of cells between two coordinates along one axis, saturated rather than overflowing.
+   */
+  private int cellSpan(float min, float max)
+  {
+    return (int)Math.min(Math.floor((double)max / cellSize) - Math.floor((double)min / cellSize), Integer.MAX_VALUE / 2);
+  }
+
+  /***
+   * Gets how many rings of cells around a point a query has to search to cover a distance, at most the points' extent.
+   */
+  private int cellsWithin(float distance)
+  {
+    return (int)Math.min(Math.ceil((double)distance / cellSize), extent);
+  }
+
+  private static int cellOf(float v, float cellSize)
+  {
+    return (int)Math.floor(v / cellSize);
+  }
+
+  private static int cellHash(int cx, int cy, int cz, int mask)
+  {
+    return ((cx * 73856093) ^ (cy * 19349663) ^ (cz * 83492791)) & mask;
+  }
+
+  private static float[] read(CyCLBuffer buffer, int n)
+  {
+    float[] values = new float[n];
+    if (buffer != null)
+    {
+      ByteBuffer memory = hostMemory(buffer);
+      for (int i = 0; i < n; i++)
+        values[i] = memory.getFloat(i * Sizeof.cl_float);
+    }
+    return values;
+  }
+
+  /***
+   * Builds the index in host memory, as on backend devices, with the same hashing.
+   */
+  private void rebuildHostMemory()
+  {
+    float[] px = read(x, n), py = read(y, n), pz = read(z, n);
+    extent = 0;
+    for (float[] coordinates : z != null ? new float[][] { px, py, pz } : new float[][] { px, py })
+    {
+      float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+      for (float v : coordinates)
+      {
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+      }
+      if (n > 0)
+        extent = Math.max(extent, cellSpan(min, max));
+    }
+
+    long[] sorted = new long[n];
+    for (int i = 0; i < n; i++)
+      sorted[i] = ((long)cellHash(cellOf(px[i], cellSize), cellOf(py[i], cellSize), cellOf(pz[i], cellSize), tableSize - 1) << 32) | i;
+    Arrays.sort(sorted);
+
+    hostOrder = new int[n];
+    hostCellStart = new int[tableSize];
+    hostCellEnd = new int[tableSize];
+    for (int s = 0; s < n; s++)
+    {
+      int bucket = (int)(sorted[s] >>> 32);
+      hostOrder[s] = (int)sorted[s];
+      if (s == 0 || (int)(sorted[s - 1] >>> 32) != bucket)
+        hostCellStart[bucket] = s;
+      hostCellEnd[bucket] = s + 1;
+    }
+  }
+
+  private void radiusNeighborsHostMemory(float radius, int maxNeighbors, CyCLBuffer neighbors, CyCLBuffer counts)
+  {
+    float[] px = read(x, n), py = read(y, n), pz = read(z, n);
+    ByteBuffer neighborMemory = hostMemory(neighbors), countMemory = hostMemory(counts);
+    int reach = cellsWithin(radius), reachZ = z != null ? reach : 0;
+    float radius2 = radius * radius;
+
+    for (int i = 0; i < n; i++)
+    {
+      int cx = cellOf(px[i], cellSize), cy = cellOf(py[i], cellSize), cz = cellOf(pz[i], cellSize);
+      int count = 0;
+      for (int dz = -reachZ; dz <= reachZ; dz++)
+        for (int dy = -reach; dy <= reach; dy++)
+          for (int dx = -reach; dx <= reach; dx++)
+          {
+            int bucket = cellHash(cx + dx, cy + dy, cz + dz, tableSize - 1);
+            for (int s = hostCellStart[bucket]; s < hostCellEnd[bucket]; s++)
+            {
+              int j = hostOrder[s];
+              if (j == i || cellOf(px[j], cellSize) != cx + dx || cellOf(py[j], cellSize) != cy + dy || cellOf(pz[j], cellSize) != cz + dz)
+                continue;
+
+              float ex = px[j] - px[i], ey = py[j] - py[i], ez = pz[j] - pz[i];
+              if (ex * ex + ey * ey + ez * ez <= radius2)
+              {
+                if (count < maxNeighbors)
+                  neighborMemory.putInt((i * maxNeighbors + count) * Sizeof.cl_int, j);
+                count++;
+              }
+            }
+          }
+      countMemory.putInt(i * Sizeof.cl_int, count);
+    }
+  }
+
+  private void nearestNeighborsHostMemory(int k, float maxRadius, CyCLBuffer neighbors, CyCLBuffer distances)
+  {
+    float[] px = read(x, n), py = read(y, n), pz = read(z, n);
+    ByteBuffer neighborMemory = hostMemory(neighbors), distanceMemory = hostMemory(distances);
+    int rings = cellsWithin(maxRadius);
+    float maxRadius2 = maxRadius * maxRadius;
+    float[] bestDistance2 = new float[k];
+    int[] best = new int[k];
+
+    for (int i = 0; i < n; i++)
+    {
+      int cx = cellOf(px[i], cellSize), cy = cellOf(py[i], cellSize), cz = cellOf(pz[i], cellSize);
+      int found = 0, seen = 0;
+      for (int ring = 0; ring <= rings && seen < n - 1; ring++)
+      {
+        int ringZ = z != null ? ring : 0;
+        for (int dz = -ringZ; dz <= ringZ; dz++)
+          for (int dy = -ring; dy <= ring; dy++)
+            for (int dx = -ring; dx <= ring; dx++)
+            {
+              if (Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz))) != ring)
+                continue;
+
+              int bucket = cellHash(cx + dx, cy + dy, cz + dz, tableSize - 1);
+              for (int s = hostCellStart[bucket]; s < hostCellEnd[bucket]; s++)
+              {
+                int j = hostOrder[s];
+                if (j == i || cellOf(px[j], cellSize) != cx + dx || cellOf(py[j], cellSize) != cy + dy || cellOf(pz[j], cellSize) != cz + dz)
+                  continue;
+
+                seen++;
+                float ex = px[j] - px[i], ey = py[j] - py[i], ez = pz[j] - pz[i];
+                float d2 = ex * ex + ey * ey + ez * ez;
+                if (d2 > maxRadius2 || (found == k && d2 >= bestDistance2[k - 1]))
+                  continue;
+
+                int m = found < k ? found++ : k - 1;
+                while (m > 0 && bestDistance2[m - 1] > d2)
+                {
+                  bestDistance2[m] = bestDistance2[m - 1];
+                  best[m] = best[m - 1];
+                  m--;
+                }
+                bestDistance2[m] = d2;
+                best[m] = j;
+              }
+            }
+
+        float reached = ring * cellSize;
+        if (found == k && bestDistance2[k - 1] <= reached * reached)
+          break;
+      }
+
+      for (int m = 0; m < k; m++)
+      {
+        neighborMemory.putInt((i * k + m) * Sizeof.cl_int, m < found ? best[m] : -1);
+        distanceMemory.putFloat((i * k + m) * Sizeof.cl_float, m < found ? (float)Math.sqrt(bestDistance2[m]) : Float.POSITIVE_INFINITY);
+      }
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package org.cytoscape.opencl.cycl;
+
+/***
+ * Thrown when a command doesn't finish within its deadline. The device it ran on has been quarantined by then.
+ */
+public class CyCLTimeoutException extends CyCLException {
+
+	public CyCLTimeoutException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,336 @@
+package org.cytoscape.opencl.cycl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.opencl.CL10.*;
+import static org.lwjgl.system.MemoryStack.*;
+
+/***
+ * Records a timeline of transfers, kernel launches, program builds and queue waits, and writes it
+ * in the Chrome Trace Event format, which can be opened in Perfetto (ui.perfetto.dev) or chrome://tracing.
+ *
+ * Every record carries host timestamps, the calling thread, the device and the number of bytes moved.
+ * Commands that produce an OpenCL event also get device timestamps, shown on a separate track per device;
+ * this requires profiling queues, which are used by all contexts created while tracing is enabled.
+ * Records go into a fixed-size ring buffer without locking, so the oldest records are overwritten once it is full.
+ */
+public final class CyCLTrace
+{
+  static final String CATEGORY_TRANSFER = "transfer";
+  static final String CATEGORY_KERNEL = "kernel";
+  static final String CATEGORY_BUILD = "build";
+  static final String CATEGORY_WAIT = "wait";
+
+  private static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private static volatile boolean enabled = false;
+  private static volatile Ring ring = null;
+
+  // Identical devices share a profile key, so they are numbered in the order they first appear to get separate tracks
+  private static final Map<CyCLDevice, Integer> deviceInstances = new WeakHashMap<>();
+  private static final Map<String, Integer> instanceCounts = new HashMap<>();
+
+  private static final class Record
+  {
+    final String category;
+    final String name;
+    final String device;
+    // Profile key and instance number, unique per device unlike the name
+    final String track;
+    final int instance;
+    final long threadId;
+    final String threadName;
+    final long hostStart;
+    final long hostEnd;
+    final long bytes;
+    // Retained OpenCL event whose profiling info hasn't been read yet; 0 if there is none
+    private long event;
+    private long deviceQueued, deviceStart, deviceEnd;
+
+    Record(String category, String name, CyCLDevice device, long hostStart, long hostEnd, long bytes, long event)
+    {
+      Thread thread = Thread.currentThread();
+      this.category = category;
+      this.name = name;
+      this.device = device == null ? "" : device.name;
+      this.instance = device == null ? 0 : getInstance(device);
+      this.track = device == null ? "" : device.getProfileKey() + "#" + instance;
+      this.threadId = thread.getId();
+      this.threadName = thread.getName();
+      this.hostStart = hostStart;
+      this.hostEnd = hostEnd;
+      this.bytes = bytes;
+      this.event = event;
+    }
+
+    /***
+     * Gets the name of the record's device track, numbering identical devices after the first.
+     */
+    String getTrackName()
+    {
+      return instance > 1 ? device + " #" + instance : device;
+    }
+
+    /***
+     * Reads the device timestamps once the command has finished, and releases the event.
+     * Commands still in flight keep their event, so they can be resolved by a later write.
+     */
+    synchronized boolean resolveDeviceTimes()
+    {
+      if (event != 0)
+      {
+        try (MemoryStack stack = stackPush()) {
+          IntBuffer status = stack.mallocInt(1);
+          if (clGetEventInfo(event, CL_EVENT_COMMAND_EXECUTION_STATUS, status, null) != CL_SUCCESS || status.get(0) > CL_COMPLETE)
+            return false;
+
+          LongBuffer value = stack.mallocLong(1);
+          if (clGetEventProfilingInfo(event, CL_PROFILING_COMMAND_QUEUED, value, null) == CL_SUCCESS)
+          {
+            deviceQueued = value.get(0);
+            clGetEventProfilingInfo(event, CL_PROFILING_COMMAND_START, value, null);
+            deviceStart = value.get(0);
+            clGetEventProfilingInfo(event, CL_PROFILING_COMMAND_END, value, null);
+            deviceEnd = value.get(0);
+          }
+        }
+        releaseEvent();
+      }
+
+      return deviceEnd > 0;
+    }
+
+    synchronized void releaseEvent()
+    {
+      if (event != 0)
+        clReleaseEvent(event);
+      event = 0;
+    }
+  }
+
+  private static final class Ring
+  {
+    final AtomicReferenceArray<Record> slots;
+    final AtomicLong next = new AtomicLong();
+
+    Ring(int capacity)
+    {
+      slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    void add(Record record)
+    {
+      int slot = (int)(next.getAndIncrement() % slots.length());
+      Record overwritten = slots.getAndSet(slot, record);
+      if (overwritten != null)
+        overwritten.releaseEvent();
+    }
+
+    List<Record> getRecords()
+    {
+      List<Record> records = new ArrayList<>();
+      long end = next.get();
+      long start = Math.max(0, end - slots.length());
+      for (long i = start; i < end; i++)
+      {
+        Record record = slots.get((int)(i % slots.length()));
+        if (record != null)
+          records.add(record);
+      }
+
+      return records;
+    }
+
+    void clear()
+    {
+      for (int i = 0; i < slots.length(); i++)
+      {
+        Record record = slots.getAndSet(i, null);
+        if (record != null)
+          record.releaseEvent();
+      }
+    }
+  }
+
+  private CyCLTrace()
+  {
+  }
+
+  /***
+   * Starts recording with room for the default number of records, discarding any previous recording.
+   */
+  public static void start()
+  {
+    start(DEFAULT_CAPACITY);
+  }
+
+  /***
+   * Starts recording, discarding any previous recording.
+   *
+   * @param capacity Number of records kept before the oldest ones are overwritten
+   */
+  public static synchronized void start(int capacity)
+  {
+    if (ring != null)
+      ring.clear();
+    ring = new Ring(capacity);
+    enabled = true;
+  }
+
+  /***
+   * Stops recording. The records are kept until written or until recording starts again.
+   */
+  public static void stop()
+  {
+    enabled = false;
+  }
+
+  /***
+   * Determines if activity is being recorded.
+   *
+   * @return True while tracing
+   */
+  public static boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /***
+   * Writes the recorded timeline as Chrome Trace Event JSON.
+   *
+   * @param file Output file, usually with a .json extension
+   * @throws IOException If the file can't be written
+   */
+  public static void writeTo(File file) throws IOException
+  {
+    try (Writer writer = new BufferedWriter(new FileWriter(file)))
+    {
+      write(writer);
+    }
+  }
+
+  /***
+   * Writes the recorded timeline as Chrome Trace Event JSON.
+   *
+   * @param writer Output
+   * @throws IOException If the output can't be written
+   */
+  public static synchronized void write(Writer writer) throws IOException
+  {
+    List<Record> records = ring == null ? new ArrayList<>() : ring.getRecords();
+
+    // Host threads share process 1, every device gets its own process for its device-side timeline
+    Map<String, Integer> devicePids = new HashMap<>();
+    Map<Long, String> threads = new HashMap<>();
+
+    writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+    writeMetadata(writer, "process_name", 1, 0, "Host");
+    for (Record record : records)
+    {
+      threads.putIfAbsent(record.threadId, record.threadName);
+
+      writer.write(",\n");
+      writeEvent(writer, record, 1, record.threadId, record.hostStart, record.hostEnd);
+
+      if (record.resolveDeviceTimes())
+      {
+        Integer pid = devicePids.get(record.track);
+        if (pid == null)
+        {
+          pid = devicePids.size() + 2;
+          devicePids.put(record.track, pid);
+          writer.write(",\n");
+          writeMetadata(writer, "process_name", pid, 0, record.getTrackName());
+        }
+
+        // Device clocks have their own origin, so they are aligned to the moment the command was enqueued on the host
+        long offset = record.hostStart - record.deviceQueued;
+        writer.write(",\n");
+        writeEvent(writer, record, pid, 0, record.deviceStart + offset, record.deviceEnd + offset);
+      }
+    }
+    for (Map.Entry<Long, String> thread : threads.entrySet())
+    {
+      writer.write(",\n");
+      writeMetadata(writer, "thread_name", 1, thread.getKey(), thread.getValue());
+    }
+    writer.write("\n]}\n");
+  }
+
+  /***
+   * Adds a record if tracing is enabled.
+   *
+   * @param category One of the CATEGORY_* constants
+   * @param name Name shown on the timeline
+   * @param device Device the command ran on; can be null
+   * @param hostStart System.nanoTime() before the command was issued
+   * @param hostEnd System.nanoTime() after it finished or was enqueued
+   * @param bytes Bytes transferred, or 0
+   * @param event OpenCL event of the command for device timestamps, or 0; it is retained by the trace
+   */
+  static void record(String category, String name, CyCLDevice device, long hostStart, long hostEnd, long bytes, long event)
+  {
+    Ring current = ring;
+    if (!enabled || current == null)
+      return;
+
+    if (event != 0)
+      clRetainEvent(event);
+    current.add(new Record(category, name, device, hostStart, hostEnd, bytes, event));
+  }
+
+  private static int getInstance(CyCLDevice device)
+  {
+    synchronized (deviceInstances)
+    {
+      return deviceInstances.computeIfAbsent(device, d -> instanceCounts.merge(d.getProfileKey(), 1, Integer::sum));
+    }
+  }
+
+  private static void writeEvent(Writer writer, Record record, int pid, long tid, long start, long end) throws IOException
+  {
+    writer.write(String.format(Locale.ROOT,
+                               "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,\"pid\":%d,\"tid\":%d,"
+                               + "\"args\":{\"device\":\"%s\",\"thread\":\"%s\",\"bytes\":%d}}",
+                               escape(record.name), record.category, start * 1e-3, Math.max(0, end - start) * 1e-3, pid, tid,
+                               escape(record.getTrackName()), escape(record.threadName), record.bytes));
+  }
+
+  private static void writeMetadata(Writer writer, String kind, int pid, long tid, String name) throws IOException
+  {
+    writer.write(String.format("{\"name\":\"%s\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                               kind, pid, tid, escape(name)));
+  }
+
+  static String escape(String value)
+  {
+    StringBuilder escaped = new StringBuilder(value.length());
+    for (char c : value.toCharArray())
+    {
+      if (c == '"' || c == '\\')
+        escaped.append('\\').append(c);
+      else if (c < 0x20)
+        escaped.append(String.format("\\u%04x", (int)c));
+      else
+        escaped.append(c);
+    }
+
+    return escaped.toString();
+  }
+}
@@ -25,5 +25,51 @@ final class CyCLUtils {
             throw new RuntimeException(String.format("OpenCL error [%d]", errcode));
         }
     }
-}
 
+    /***
+     * Gets a view of a buffer's host staging memory with the buffer's byte order and its own position,
+     * for the host-memory paths of backend devices, whose device memory is the staging buffer.
+     */
+    static ByteBuffer hostMemory(CyCLBuffer buffer) {
+        return buffer.getBuffer().duplicate().order(buffer.getBuffer().order());
+    }
+
+    /***
+     * Reads the first element of an int, long, float or double buffer back from the device.
+     */
+    static Number readFirst(CyCLBuffer buffer) {
+        Class<?> type = buffer.getType();
+        if (type == int.class) {
+            int[] value = new int[1];
+            buffer.getFromDevice(value);
+            return value[0];
+        }
+        if (type == long.class) {
+            long[] value = new long[1];
+            buffer.getFromDevice(value);
+            return value[0];
+        }
+        if (type == float.class) {
+            float[] value = new float[1];
+            buffer.getFromDevice(value);
+            return value[0];
+        }
+
+        double[] value = new double[1];
+        buffer.getFromDevice(value);
+        return value[0];
+    }
+
+    /***
+     * Boxes a value accumulated as long for integer types or as double for floating point types as the given element type.
+     */
+    static Number box(Class<?> type, long longValue, double doubleValue) {
+        if (type == int.class)
+            return (int)longValue;
+        if (type == long.class)
+            return longValue;
+        if (type == float.class)
+            return (float)doubleValue;
+        return doubleValue;
+    }
+}
@@ -0,0 +1,204 @@
+package org.cytoscape.opencl.cycl;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/***
+ * Java backend with SIMD implementations of the kernels in Primitives.cl (see CyCLPrimitives).
+ * For these lightweight operations it often beats an OpenCL CPU runtime, because there is nothing to copy or build.
+ *
+ * Kernels work on blocks of a few thousand elements: a block is copied from the buffers into arrays in bulk,
+ * processed by plain counted loops over the arrays, and copied back. HotSpot's superword optimization compiles
+ * such loops to SSE/AVX/NEON instructions. Sums keep one accumulator per lane in a small array, which is
+ * what allows them to be vectorized despite the fixed evaluation order of floating point addition in Java.
+ * This relies on the JIT rather than jdk.incubator.vector, which requires a newer Java version and
+ * a command line switch that can't be set from within an app.
+ */
+public class CyCLVectorBackend extends CyCLJavaBackend
+{
+  // Elements per block, small enough for the working set of a kernel to stay in the L1 cache
+  private static final int BLOCK = 2048;
+  // Independent accumulators in reductions, enough to fill a 512-bit register
+  private static final int LANES = 16;
+
+  private static final ThreadLocal<float[][]> scratch = ThreadLocal.withInitial(() -> new float[5][BLOCK]);
+
+  /***
+   * Creates a backend with one thread per available processor.
+   */
+  public CyCLVectorBackend()
+  {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /***
+   * Creates a backend with the given number of threads.
+   *
+   * @param parallelism Number of threads
+   */
+  public CyCLVectorBackend(int parallelism)
+  {
+    super("Java SIMD", parallelism);
+    registerPrimitives();
+  }
+
+  private void registerPrimitives()
+  {
+    registerKernel("Axpy", (start, end, args) -> {
+      FloatBuffer x = asFloats(args[0]), y = asFloats(args[1]);
+      float a = (Float)args[2];
+      int n = (Integer)args[3];
+      float[][] blocks = scratch.get();
+      float[] bx = blocks[0], by = blocks[1];
+
+      for (int offset = (int)start; offset < Math.min(end, n); offset += BLOCK)
+      {
+        int length = (int)Math.min(BLOCK, Math.min(end, n) - offset);
+        read(x, offset, bx, length);
+        read(y, offset, by, length);
+        for (int i = 0; i < length; i++)
+          by[i] = a * bx[i] + by[i];
+        write(y, offset, by, length);
+      }
+    });
+
+    registerKernel("Distance", (start, end, args) -> {
+      FloatBuffer x1 = asFloats(args[0]), y1 = asFloats(args[1]), x2 = asFloats(args[2]), y2 = asFloats(args[3]);
+      FloatBuffer distance = asFloats(args[4]);
+      int n = (Integer)args[5];
+      float[][] blocks = scratch.get();
+      float[] bx1 = blocks[0], by1 = blocks[1], bx2 = blocks[2], by2 = blocks[3], bd = blocks[4];
+
+      for (int offset = (int)start; offset < Math.min(end, n); offset += BLOCK)
+      {
+        int length = (int)Math.min(BLOCK, Math.min(end, n) - offset);
+        read(x1, offset, bx1, length);
+        read(y1, offset, by1, length);
+        read(x2, offset, bx2, length);
+        read(y2, offset, by2, length);
+        for (int i = 0; i < length; i++)
+        {
+          float dx = bx1[i] - bx2[i];
+          float dy = by1[i] - by2[i];
+          bd[i] = (float)Math.sqrt(dx * dx + dy * dy);
+        }
+        write(distance, offset, bd, length);
+      }
+    });
+
+    registerKernel("PartialSum", (start, end, args) -> {
+      FloatBuffer x = asFloats(args[0]), partial = asFloats(args[1]);
+      int n = (Integer)args[2];
+      // Only the total matters, so every work item sums a contiguous chunk rather than strided elements as on GPUs
+      long chunk = (n + (long)(Integer)args[3] - 1) / (Integer)args[3];
+      float[] bx = scratch.get()[0];
+      float[] lanes = new float[LANES];
+
+      for (long p = start; p < end; p++)
+      {
+        Arrays.fill(lanes, 0.0f);
+        int chunkEnd = (int)Math.min(n, (p + 1) * chunk);
+        for (int offset = (int)(p * chunk); offset < chunkEnd; offset += BLOCK)
+        {
+          int length = Math.min(BLOCK, chunkEnd - offset);
+          read(x, offset, bx, length);
+          int i = 0;
+          for (; i + LANES <= length; i += LANES)
+            for (int l = 0; l < LANES; l++)
+              lanes[l] += bx[i + l];
+          for (; i < length; i++)
+            lanes[0] += bx[i];
+        }
+        partial.put((int)p, sumLanes(lanes));
+      }
+    });
+
+    registerKernel("PartialDot", (start, end, args) -> {
+      FloatBuffer x = asFloats(args[0]), y = asFloats(args[1]), partial = asFloats(args[2]);
+      int n = (Integer)args[3];
+      long chunk = (n + (long)(Integer)args[4] - 1) / (Integer)args[4];
+      float[][] blocks = scratch.get();
+      float[] bx = blocks[0], by = blocks[1];
+      float[] lanes = new float[LANES];
+
+      for (long p = start; p < end; p++)
+      {
+        Arrays.fill(lanes, 0.0f);
+        int chunkEnd = (int)Math.min(n, (p + 1) * chunk);
+        for (int offset = (int)(p * chunk); offset < chunkEnd; offset += BLOCK)
+        {
+          int length = Math.min(BLOCK, chunkEnd - offset);
+          read(x, offset, bx, length);
+          read(y, offset, by, length);
+          int i = 0;
+          for (; i + LANES <= length; i += LANES)
+            for (int l = 0; l < LANES; l++)
+              lanes[l] += bx[i + l] * by[i + l];
+          for (; i < length; i++)
+            lanes[0] += bx[i] * by[i];
+        }
+        partial.put((int)p, sumLanes(lanes));
+      }
+    });
+
+    registerKernel("AccumulateRepulsion", (start, end, args) -> {
+      FloatBuffer fx = asFloats(args[2]), fy = asFloats(args[3]);
+      float k = (Float)args[4];
+      float minDistance2 = (Float)args[5];
+      int n = (Integer)args[6];
+
+      // Every node interacts with all others, so the positions are copied once per chunk rather than per block
+      float[] x = new float[n], y = new float[n];
+      asFloats(args[0]).get(x);
+      asFloats(args[1]).get(y);
+      float[] lanesX = new float[LANES], lanesY = new float[LANES];
+
+      for (int i = (int)start; i < Math.min(end, n); i++)
+      {
+        float xi = x[i], yi = y[i];
+        Arrays.fill(lanesX, 0.0f);
+        Arrays.fill(lanesY, 0.0f);
+        int j = 0;
+        for (; j + LANES <= n; j += LANES)
+          for (int l = 0; l < LANES; l++)
+          {
+            float dx = xi - x[j + l];
+            float dy = yi - y[j + l];
+            float scale = k / Math.max(dx * dx + dy * dy, minDistance2);
+            lanesX[l] += dx * scale;
+            lanesY[l] += dy * scale;
+          }
+        for (; j < n; j++)
+        {
+          float dx = xi - x[j];
+          float dy = yi - y[j];
+          float scale = k / Math.max(dx * dx + dy * dy, minDistance2);
+          lanesX[0] += dx * scale;
+          lanesY[0] += dy * scale;
+        }
+        fx.put(i, fx.get(i) + sumLanes(lanesX));
+        fy.put(i, fy.get(i) + sumLanes(lanesY));
+      }
+    });
+  }
+
+  private static void read(FloatBuffer buffer, int offset, float[] block, int length)
+  {
+    buffer.position(offset);
+    buffer.get(block, 0, length);
+  }
+
+  private static void write(FloatBuffer buffer, int offset, float[] block, int length)
+  {
+    buffer.position(offset);
+    buffer.put(block, 0, length);
+  }
+
+  private static float sumLanes(float[] lanes)
+  {
+    float sum = 0.0f;
+    for (float lane : lanes)
+      sum += lane;
+    return sum;
+  }
+}
@@ -0,0 +1,158 @@
+package org.cytoscape.opencl.cycl;
+
+/***
+ * Describes the resource needs of a piece of work, so CyCL.selectDevice can pick the device that will finish it first.
+ * The predicted time is the sum of uploading the input, running all operations, downloading the output,
+ * and the launch overhead of every kernel, each based on the device's measured CyCLDeviceProfile.
+ * Devices that lack a required capability are never selected.
+ * Backend devices, such as the Java device, are only selected if the workload names its kernels and the backend implements all of them.
+ */
+public class CyCLWorkload
+{
+  // Rate assumed for unmeasured bandwidths and throughputs, in GB/s or billions of operations per second: 1 MB/s, far below any device
+  static final double UNMEASURED_RATE = 1e-3;
+
+  private final long bytesIn;
+  private final long bytesOut;
+  private final double operations;
+  private int launches = 1;
+  private boolean needsDouble = false;
+  private long localMemoryBytes = 0;
+  private long largestBufferBytes = 0;
+  private String[] kernelNames = null;
+
+  /***
+   * Describes a workload by its transfers and arithmetic.
+   *
+   * @param bytesIn Bytes copied from host to device
+   * @param bytesOut Bytes copied from device to host
+   * @param operations Estimated number of arithmetic operations, counting a multiply-add as 2
+   */
+  public CyCLWorkload(long bytesIn, long bytesOut, double operations)
+  {
+    this.bytesIn = bytesIn;
+    this.bytesOut = bytesOut;
+    this.operations = operations;
+  }
+
+  /***
+   * Sets the number of kernel launches, each of which adds the device's launch latency. Default is 1.
+   *
+   * @param launches Number of kernel launches
+   * @return This workload
+   */
+  public CyCLWorkload setLaunches(int launches)
+  {
+    this.launches = launches;
+    return this;
+  }
+
+  /***
+   * Marks the operations as double precision, which requires fp64 support and is predicted with fp64 throughput.
+   *
+   * @param needsDouble True if double precision is required
+   * @return This workload
+   */
+  public CyCLWorkload setNeedsDouble(boolean needsDouble)
+  {
+    this.needsDouble = needsDouble;
+    return this;
+  }
+
+  /***
+   * Sets the amount of local memory a work group needs.
+   *
+   * @param bytes Local memory per work group in bytes
+   * @return This workload
+   */
+  public CyCLWorkload setLocalMemory(long bytes)
+  {
+    this.localMemoryBytes = bytes;
+    return this;
+  }
+
+  /***
+   * Sets the size of the largest single buffer the workload allocates.
+   * If not set, the larger of the input and output sizes is assumed.
+   *
+   * @param bytes Size of the largest buffer in bytes
+   * @return This workload
+   */
+  public CyCLWorkload setLargestBuffer(long bytes)
+  {
+    this.largestBufferBytes = bytes;
+    return this;
+  }
+
+  /***
+   * Sets the kernels the workload runs, which makes backend devices implementing all of them eligible.
+   *
+   * @param kernelNames Kernel names, as in the OpenCL program
+   * @return This workload
+   */
+  public CyCLWorkload setKernels(String... kernelNames)
+  {
+    this.kernelNames = kernelNames;
+    return this;
+  }
+
+  /***
+   * Determines if a device has all capabilities this workload requires.
+   *
+   * @param device Device to check
+   * @return True if the workload can run on the device
+   */
+  public boolean isSupportedBy(CyCLDevice device)
+  {
+    if (needsDouble && device.prefWidthDouble == 0)
+      return false;
+    if (localMemoryBytes > device.localMemSize)
+      return false;
+    if (Math.max(largestBufferBytes, Math.max(bytesIn, bytesOut)) > device.maxMallocSize)
+      return false;
+    if (device.getBackend() != null)
+    {
+      if (kernelNames == null)
+        return false;
+      for (String kernelName : kernelNames)
+        if (!device.getBackend().hasKernel(kernelName))
+          return false;
+    }
+
+    return true;
+  }
+
+  /***
+   * Predicts how long the workload takes on a device. The device is benchmarked first if its profile hasn't been measured yet.
+   *
+   * @param device Device to run on
+   * @return Predicted time in seconds, or positive infinity if the device doesn't support the workload
+   */
+  public double predictTime(CyCLDevice device)
+  {
+    if (!isSupportedBy(device))
+      return Double.POSITIVE_INFINITY;
+
+    return predictTime(device.getDeviceProfile());
+  }
+
+  double predictTime(CyCLDeviceProfile profile)
+  {
+    // Bandwidths are in GB/s and throughputs in billions of operations per second, i. e. per nanosecond
+    double nanoseconds = divide(bytesIn, profile.hostToDeviceBandwidth)
+                       + divide(bytesOut, profile.deviceToHostBandwidth)
+                       + divide(operations, needsDouble ? profile.fp64Throughput : profile.fp32Throughput)
+                       + launches * profile.launchLatency * 1e3;
+
+    return nanoseconds * 1e-9;
+  }
+
+  private static double divide(double amount, double rate)
+  {
+    if (amount <= 0)
+      return 0.0;
+
+    // An unmeasured rate makes the device unattractive, not impossible: the penalty stays finite, also when summed up
+    return amount / (rate > 0 ? rate : UNMEASURED_RATE);
+  }
+}
@@ -0,0 +1,81 @@
+#ifdef CYCL_FP64
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Does nothing, used to measure the overhead of a kernel launch
+__kernel void EmptyKernel(__global int* result)
+{
+}
+
+// Each iteration runs 4 independent chains of 4 multiply-adds, i. e. 32 floating point operations per work item.
+// The chains converge towards 1, so values neither overflow nor become denormal.
+__kernel void Fp32Throughput(__global float* result, float seed, int iterations)
+{
+	float a = seed + (float)get_global_id(0) * 1e-7f, b = a + 0.1f, c = a + 0.2f, d = a + 0.3f;
+	const float m = 0.9999f, k = 1e-4f;
+
+	for (int i = 0; i < iterations; i++)
+	{
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+	}
+
+	result[get_global_id(0)] = a + b + c + d;
+}
+
+#ifdef CYCL_FP64
+// Same as Fp32Throughput in double precision
+__kernel void Fp64Throughput(__global double* result, double seed, int iterations)
+{
+	double a = seed + (double)get_global_id(0) * 1e-7, b = a + 0.1, c = a + 0.2, d = a + 0.3;
+	const double m = 0.9999, k = 1e-4;
+
+	for (int i = 0; i < iterations; i++)
+	{
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+		a = mad(a, m, k); b = mad(b, m, k); c = mad(c, m, k); d = mad(d, m, k);
+	}
+
+	result[get_global_id(0)] = a + b + c + d;
+}
+#endif
+
+// Same as Fp32Throughput with 32-bit integers; unsigned, so overflow is defined to wrap around
+__kernel void IntThroughput(__global int* result, int seed, int iterations)
+{
+	uint a = (uint)seed + (uint)get_global_id(0), b = a + 1, c = a + 2, d = a + 3;
+	const uint m = 1664525u, k = 1013904223u;
+
+	for (int i = 0; i < iterations; i++)
+	{
+		a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+		a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+		a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+		a = a * m + k; b = b * m + k; c = c * m + k; d = d * m + k;
+	}
+
+	result[get_global_id(0)] = as_int(a ^ b ^ c ^ d);
+}
+
+// Each iteration reads 4 floats from local memory. mask must be the local size minus one, with the local size a power of 2.
+__kernel void LocalMemoryBandwidth(__global float* result, __local float* scratch, int mask, int iterations)
+{
+	const int lid = get_local_id(0);
+	scratch[lid] = (float)lid;
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	float sum = 0.0f;
+	for (int i = 0; i < iterations; i++)
+	{
+		sum += scratch[(lid + i) & mask];
+		sum += scratch[(lid + i + 1) & mask];
+		sum += scratch[(lid + i + 2) & mask];
+		sum += scratch[(lid + i + 3) & mask];
+	}
+
+	result[get_global_id(0)] = sum;
+}
@@ -0,0 +1,42 @@
+#ifdef CYCL_FP64
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Stream compaction, compiled once per element type T, and per predicate if PREDICATE(x) is defined (see CyCLCompact).
+// Every element gets a 0/1 flag, the flags are scanned into output positions with CyCLScan,
+// and the flagged elements are written to their positions, which keeps them in their original order.
+
+__kernel void MaskToFlags(__global const int* mask, const int n, __global int* flags)
+{
+	const int i = get_global_id(0);
+	if (i < n)
+		flags[i] = mask[i] != 0 ? 1 : 0;
+}
+
+#ifdef PREDICATE
+__kernel void PredicateFlags(__global const T* input, const int n, __global int* flags)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const T x = input[i];
+	flags[i] = (PREDICATE(x)) ? 1 : 0;
+}
+#endif
+
+// positions is the exclusive scan of flags
+__kernel void Scatter(__global const T* input, __global const int* flags, __global const int* positions, const int n,
+                      __global T* output)
+{
+	const int i = get_global_id(0);
+	if (i < n && flags[i])
+		output[positions[i]] = input[i];
+}
+
+__kernel void ScatterIndices(__global const int* flags, __global const int* positions, const int n, __global int* output)
+{
+	const int i = get_global_id(0);
+	if (i < n && flags[i])
+		output[positions[i]] = i;
+}
@@ -0,0 +1,279 @@
+// Barnes-Hut force-directed layout (see CyCLForceLayout), with the force laws of Fruchterman and Reingold:
+// nodes repel each other with k / d, and edges pull their ends together with w * d^2 / L.
+//
+// The quadtree is complete and has a fixed depth: level l consists of 4^l cells, stored from offset (4^l - 1) / 3,
+// and the children of cell c are cells 4c to 4c + 3 of the next level. A leaf's index is the Morton code of
+// the cells a node falls into, so after sorting the nodes by code, every leaf holds a contiguous range of them.
+// Each cell stores its mass, i. e. its number of nodes, and its center of mass.
+//
+// bounds holds the left, top and size of the square that contains all nodes.
+
+#define MAX_DEPTH 10
+#define STACK_SIZE (3 * MAX_DEPTH + 1)
+
+// Single work group
+__kernel void Bounds(__global const float* x, __global const float* y, const int n, __global float* bounds, __local float* scratch)
+{
+	const int lid = get_local_id(0);
+	const int localSize = get_local_size(0);
+	__local float* minX = scratch;
+	__local float* minY = scratch + localSize;
+	__local float* maxX = scratch + 2 * localSize;
+	__local float* maxY = scratch + 3 * localSize;
+
+	minX[lid] = minY[lid] = FLT_MAX;
+	maxX[lid] = maxY[lid] = -FLT_MAX;
+	for (int i = lid; i < n; i += localSize)
+	{
+		minX[lid] = min(minX[lid], x[i]);
+		minY[lid] = min(minY[lid], y[i]);
+		maxX[lid] = max(maxX[lid], x[i]);
+		maxY[lid] = max(maxY[lid], y[i]);
+	}
+
+	for (int s = localSize >> 1; s > 0; s >>= 1)
+	{
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if (lid < s)
+		{
+			minX[lid] = min(minX[lid], minX[lid + s]);
+			minY[lid] = min(minY[lid], minY[lid + s]);
+			maxX[lid] = max(maxX[lid], maxX[lid + s]);
+			maxY[lid] = max(maxY[lid], maxY[lid + s]);
+		}
+	}
+
+	if (lid == 0)
+	{
+		// Slightly larger, so the maximum still falls into the last leaf
+		float size = max(maxX[0] - minX[0], maxY[0] - minY[0]);
+		bounds[0] = minX[0];
+		bounds[1] = minY[0];
+		bounds[2] = size > 0.0f ? size * 1.0001f : 1.0f;
+	}
+}
+
+// Spreads the lower 16 bits of v to the even bits
+inline uint spreadBits(uint v)
+{
+	v &= 0xFFFF;
+	v = (v | (v << 8)) & 0x00FF00FF;
+	v = (v | (v << 4)) & 0x0F0F0F0F;
+	v = (v | (v << 2)) & 0x33333333;
+	v = (v | (v << 1)) & 0x55555555;
+	return v;
+}
+
+// Morton code of the leaf a position falls into
+inline int leafOf(const float x, const float y, __global const float* bounds, const int depth)
+{
+	const int cells = 1 << depth;
+	const float scale = cells / bounds[2];
+	int cx = clamp((int)((x - bounds[0]) * scale), 0, cells - 1);
+	int cy = clamp((int)((y - bounds[1]) * scale), 0, cells - 1);
+	return (int)(spreadBits(cx) | (spreadBits(cy) << 1));
+}
+
+__kernel void MortonCodes(__global const float* x, __global const float* y, const int n, __global const float* bounds,
+                          const int depth, __global int* codes, __global int* order)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	codes[i] = leafOf(x[i], y[i], bounds, depth);
+	order[i] = i;
+}
+
+__kernel void ClearRanges(__global int* start, __global int* end, const int count)
+{
+	const int i = get_global_id(0);
+	if (i < count)
+		start[i] = end[i] = 0;
+}
+
+// Given sorted keys, [start[key], end[key]) becomes the range of positions that hold key
+__kernel void KeyRanges(__global const int* keys, const int n, __global int* start, __global int* end)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const int key = keys[i];
+	if (i == 0 || keys[i - 1] != key)
+		start[key] = i;
+	if (i == n - 1 || keys[i + 1] != key)
+		end[key] = i + 1;
+}
+
+__kernel void LeafCells(__global const int* cellStart, __global const int* cellEnd, __global const int* order,
+                        __global const float* x, __global const float* y, const int leaves, const int leafOffset,
+                        __global float* mass, __global float* centerX, __global float* centerY)
+{
+	const int c = get_global_id(0);
+	if (c >= leaves)
+		return;
+
+	float sumX = 0.0f, sumY = 0.0f;
+	const int start = cellStart[c], end = cellEnd[c];
+	for (int k = start; k < end; k++)
+	{
+		sumX += x[order[k]];
+		sumY += y[order[k]];
+	}
+
+	const int count = end - start;
+	mass[leafOffset + c] = count;
+	centerX[leafOffset + c] = count > 0 ? sumX / count : 0.0f;
+	centerY[leafOffset + c] = count > 0 ? sumY / count : 0.0f;
+}
+
+// Cells of one level, from their children on the level below
+__kernel void InnerCells(const int cells, const int offset, const int childOffset,
+                         __global float* mass, __global float* centerX, __global float* centerY)
+{
+	const int c = get_global_id(0);
+	if (c >= cells)
+		return;
+
+	float m = 0.0f, sumX = 0.0f, sumY = 0.0f;
+	for (int q = 0; q < 4; q++)
+	{
+		const int child = childOffset + 4 * c + q;
+		m += mass[child];
+		sumX += mass[child] * centerX[child];
+		sumY += mass[child] * centerY[child];
+	}
+
+	mass[offset + c] = m;
+	centerX[offset + c] = m > 0.0f ? sumX / m : 0.0f;
+	centerY[offset + c] = m > 0.0f ? sumY / m : 0.0f;
+}
+
+// Sets fx and fy to the repulsion of all other nodes. Cells whose size is below theta times their distance
+// act as a single node of their mass; leaves that are too close are resolved node by node. The cells that contain
+// node i are always opened, since for large theta their center of mass can be far enough for i to repel itself.
+__kernel void Repulsion(__global const float* x, __global const float* y, const int n, __global const float* bounds, const int depth,
+                        __global const float* mass, __global const float* centerX, __global const float* centerY,
+                        __global const int* cellStart, __global const int* cellEnd, __global const int* order,
+                        const float theta2, const float k, const float minDistance2,
+                        __global float* fx, __global float* fy)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const float xi = x[i], yi = y[i];
+	const float rootSize = bounds[2];
+	const int leaf = leafOf(xi, yi, bounds, depth);
+	float sumX = 0.0f, sumY = 0.0f;
+
+	// Entries are the level in the upper 8 bits and the cell index within the level in the lower 24 bits
+	int stack[STACK_SIZE];
+	int top = 0;
+	stack[top++] = 0;
+	while (top > 0)
+	{
+		const int entry = stack[--top];
+		const int level = entry >> 24;
+		const int index = entry & 0xFFFFFF;
+		const int cell = ((1 << (2 * level)) - 1) / 3 + index;
+		const float m = mass[cell];
+		if (m == 0.0f)
+			continue;
+
+		const float dx = xi - centerX[cell];
+		const float dy = yi - centerY[cell];
+		const float d2 = dx * dx + dy * dy;
+		const float size = rootSize / (1 << level);
+		const int own = index == leaf >> (2 * (depth - level));
+		if (!own && size * size < theta2 * d2)
+		{
+			const float scale = m * k / max(d2, minDistance2);
+			sumX += dx * scale;
+			sumY += dy * scale;
+		}
+		else if (level == depth)
+		{
+			const int end = cellEnd[index];
+			for (int s = cellStart[index]; s < end; s++)
+			{
+				const int j = order[s];
+				if (j == i)
+					continue;
+				const float ex = xi - x[j];
+				const float ey = yi - y[j];
+				const float scale = k / max(ex * ex + ey * ey, minDistance2);
+				sumX += ex * scale;
+				sumY += ey * scale;
+			}
+		}
+		else
+		{
+			for (int q = 0; q < 4; q++)
+				stack[top++] = ((level + 1) << 24) | (4 * index + q);
+		}
+	}
+
+	fx[i] = sumX;
+	fy[i] = sumY;
+}
+
+// Edge endpoints as (node, edge) pairs, to be sorted by node
+__kernel void EdgeEndpoints(__global const int* sources, __global const int* targets, const int edges,
+                            __global int* nodes, __global int* edgeIndices)
+{
+	const int e = get_global_id(0);
+	if (e >= edges)
+		return;
+
+	nodes[2 * e] = sources[e];
+	edgeIndices[2 * e] = e;
+	nodes[2 * e + 1] = targets[e];
+	edgeIndices[2 * e + 1] = e;
+}
+
+// Adds the attraction of the edges incident to every node, listed in [incidentStart[i], incidentEnd[i]) of incident
+__kernel void Attraction(__global const float* x, __global const float* y, const int n,
+                         __global const int* incidentStart, __global const int* incidentEnd, __global const int* incident,
+                         __global const int* sources, __global const int* targets, __global const float* weights,
+                         const float springLength, __global float* fx, __global float* fy)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const float xi = x[i], yi = y[i];
+	float sumX = 0.0f, sumY = 0.0f;
+	const int end = incidentEnd[i];
+	for (int k = incidentStart[i]; k < end; k++)
+	{
+		const int e = incident[k];
+		const int j = sources[e] == i ? targets[e] : sources[e];
+		const float dx = x[j] - xi;
+		const float dy = y[j] - yi;
+		const float scale = weights[e] * sqrt(dx * dx + dy * dy) / springLength;
+		sumX += dx * scale;
+		sumY += dy * scale;
+	}
+
+	fx[i] += sumX;
+	fy[i] += sumY;
+}
+
+// Moves every node along its force, by at most the temperature
+__kernel void Integrate(__global float* x, __global float* y, const int n,
+                        __global const float* fx, __global const float* fy, const float temperature)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const float length = sqrt(fx[i] * fx[i] + fy[i] * fy[i]);
+	if (length > 0.0f)
+	{
+		const float step = min(length, temperature) / length;
+		x[i] += fx[i] * step;
+		y[i] += fy[i] * step;
+	}
+}
@@ -0,0 +1,78 @@
+// cl_khr_fp64 is only enabled where the device has it, so the program also builds for int and float elsewhere
+#if defined(CYCL_FP64) && defined(cl_khr_fp64)
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#define S double
+#else
+#define S float
+#endif
+
+// 32-bit atomics are core since OpenCL 1.1; OpenCL 1.0 devices offer them as extensions, named atom_*
+#ifdef cl_khr_global_int32_base_atomics
+#pragma OPENCL EXTENSION cl_khr_global_int32_base_atomics : enable
+#endif
+#ifdef cl_khr_local_int32_base_atomics
+#pragma OPENCL EXTENSION cl_khr_local_int32_base_atomics : enable
+#endif
+#if __OPENCL_VERSION__ < 110
+#define atomic_inc atom_inc
+#define atomic_add atom_add
+#endif
+
+// Histograms, compiled once per element type T (see CyCLHistogram).
+// With linear binning, values in [minValue, maxValue] fall into bins of equal width, the maximum into the last one;
+// otherwise every value is its own bin index. Values outside of the bins, and NaN, are not counted.
+// Both kernels loop over the input with the global size as stride, so few work groups cover any input.
+
+inline int binOf(const T x, const int linear, const S minValue, const S maxValue, const S scale, const int bins)
+{
+	if (!linear)
+		return x >= (T)0 && x < (T)bins ? (int)x : -1;
+
+	const S value = (S)x;
+	if (!(value >= minValue && value <= maxValue))
+		return -1;
+	return min((int)((value - minValue) * scale), bins - 1);
+}
+
+__kernel void ClearCounts(__global int* histogram, const int bins)
+{
+	const int i = get_global_id(0);
+	if (i < bins)
+		histogram[i] = 0;
+}
+
+// Every work group counts into its own copy of the histogram in local memory, then adds it to the global one
+__kernel void HistogramLocal(__global const T* input, const int n, const int linear, const S minValue, const S maxValue, const S scale,
+                             __global int* histogram, const int bins, __local int* counts)
+{
+	const int lid = get_local_id(0);
+	const int localSize = get_local_size(0);
+
+	for (int b = lid; b < bins; b += localSize)
+		counts[b] = 0;
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	for (int i = get_global_id(0); i < n; i += get_global_size(0))
+	{
+		int bin = binOf(input[i], linear, minValue, maxValue, scale, bins);
+		if (bin >= 0)
+			atomic_inc(&counts[bin]);
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	for (int b = lid; b < bins; b += localSize)
+		if (counts[b] != 0)
+			atomic_add(&histogram[b], counts[b]);
+}
+
+// For histograms too large for local memory; with many bins, collisions are rare anyway
+__kernel void HistogramGlobal(__global const T* input, const int n, const int linear, const S minValue, const S maxValue, const S scale,
+                              __global int* histogram, const int bins)
+{
+	for (int i = get_global_id(0); i < n; i += get_global_size(0))
+	{
+		int bin = binOf(input[i], linear, minValue, maxValue, scale, bins);
+		if (bin >= 0)
+			atomic_inc(&histogram[bin]);
+	}
+}
@@ -0,0 +1,76 @@
+// Data-parallel building blocks used by CyCLPrimitives.
+// None of the kernels use local memory or barriers, so CyCLVectorBackend implements them all.
+
+// y = a * x + y
+__kernel void Axpy(__global const float* x, __global float* y, const float a, const int n)
+{
+	const int i = get_global_id(0);
+	if (i < n)
+		y[i] = a * x[i] + y[i];
+}
+
+// Euclidean distance between corresponding 2D points, e. g. the two ends of every edge
+__kernel void Distance(__global const float* x1, __global const float* y1,
+                       __global const float* x2, __global const float* y2,
+                       __global float* distance, const int n)
+{
+	const int i = get_global_id(0);
+	if (i < n)
+	{
+		float dx = x1[i] - x2[i];
+		float dy = y1[i] - y2[i];
+		distance[i] = sqrt(dx * dx + dy * dy);
+	}
+}
+
+// Every one of the partials work items sums every partials-th element of x, starting at its own index,
+// so neighboring work items read neighboring elements. The host adds up the partial sums.
+__kernel void PartialSum(__global const float* x, __global float* partial, const int n, const int partials)
+{
+	const int p = get_global_id(0);
+	if (p >= partials)
+		return;
+
+	float sum = 0.0f;
+	for (int i = p; i < n; i += partials)
+		sum += x[i];
+	partial[p] = sum;
+}
+
+// Same as PartialSum for the elementwise product of x and y
+__kernel void PartialDot(__global const float* x, __global const float* y, __global float* partial, const int n, const int partials)
+{
+	const int p = get_global_id(0);
+	if (p >= partials)
+		return;
+
+	float sum = 0.0f;
+	for (int i = p; i < n; i += partials)
+		sum += x[i] * y[i];
+	partial[p] = sum;
+}
+
+// Adds the repulsion of all other nodes to each node's force: f_i += k * sum_j (p_i - p_j) / max(|p_i - p_j|^2, minDistance2)
+__kernel void AccumulateRepulsion(__global const float* x, __global const float* y,
+                                  __global float* fx, __global float* fy,
+                                  const float k, const float minDistance2, const int n)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const float xi = x[i];
+	const float yi = y[i];
+	float sumX = 0.0f;
+	float sumY = 0.0f;
+	for (int j = 0; j < n; j++)
+	{
+		float dx = xi - x[j];
+		float dy = yi - y[j];
+		float scale = k / max(dx * dx + dy * dy, minDistance2);
+		sumX += dx * scale;
+		sumY += dy * scale;
+	}
+	fx[i] += sumX;
+	fy[i] += sumY;
+}
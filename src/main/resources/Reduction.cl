@@ -0,0 +1,102 @@
+#ifdef CYCL_FP64
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Work-group tree reductions, compiled once per element type T with its limits T_MIN and T_MAX (see CyCLReduction).
+// Stage 1 runs a fixed number of work groups, in which every work item first folds a grid-stride range of the input
+// and the group then combines its values in local memory; each group writes one value. Stage 2 runs the same kernel
+// with a single work group over those values. The local size must be a power of two.
+
+#define ADD(a, b) ((a) + (b))
+
+// The identities of floating point types are infinities, for which only fmin and fmax are defined; min and max are for integers
+#ifdef T_FLOATING
+#define MIN(a, b) fmin(a, b)
+#define MAX(a, b) fmax(a, b)
+#else
+#define MIN(a, b) min(a, b)
+#define MAX(a, b) max(a, b)
+#endif
+
+#define REDUCE_KERNEL(NAME, IDENTITY, COMBINE)                                   \
+__kernel void NAME(__global const T* input, const int n,                          \
+                   __global T* output, __local T* scratch)                        \
+{                                                                                 \
+	const int lid = get_local_id(0);                                              \
+	const int stride = get_global_size(0);                                        \
+	T value = IDENTITY;                                                           \
+	for (int i = get_global_id(0); i < n; i += stride)                            \
+		value = COMBINE(value, input[i]);                                         \
+	scratch[lid] = value;                                                         \
+	barrier(CLK_LOCAL_MEM_FENCE);                                                 \
+	for (int s = get_local_size(0) / 2; s > 0; s >>= 1)                           \
+	{                                                                             \
+		if (lid < s)                                                              \
+			scratch[lid] = COMBINE(scratch[lid], scratch[lid + s]);               \
+		barrier(CLK_LOCAL_MEM_FENCE);                                             \
+	}                                                                             \
+	if (lid == 0)                                                                 \
+		output[get_group_id(0)] = scratch[0];                                     \
+}
+
+REDUCE_KERNEL(ReduceSum, (T)0, ADD)
+REDUCE_KERNEL(ReduceMin, T_MAX, MIN)
+REDUCE_KERNEL(ReduceMax, T_MIN, MAX)
+
+// Finds the position of the smallest or largest value. Ties go to the lower index, so results are deterministic.
+// In stage 1 the index of a value is its position in the input; in stage 2 (useInputIndices != 0) the indices
+// found by stage 1 are passed along with their values.
+#define REDUCE_ARG_KERNEL(NAME, IDENTITY, BETTER)                                 \
+__kernel void NAME(__global const T* input, __global const int* inputIndices,     \
+                   const int useInputIndices, const int n,                        \
+                   __global T* outputValues, __global int* outputIndices,         \
+                   __local T* scratchValues, __local int* scratchIndices)         \
+{                                                                                 \
+	const int lid = get_local_id(0);                                              \
+	const int stride = get_global_size(0);                                        \
+	T value = IDENTITY;                                                           \
+	int index = -1;                                                               \
+	for (int i = get_global_id(0); i < n; i += stride)                            \
+	{                                                                             \
+		T candidate = input[i];                                                   \
+		int candidateIndex = useInputIndices ? inputIndices[i] : i;               \
+		if (candidateIndex >= 0 &&                                                \
+		    (index < 0 || BETTER(candidate, value) ||                             \
+		     (candidate == value && candidateIndex < index)))                     \
+		{                                                                         \
+			value = candidate;                                                    \
+			index = candidateIndex;                                               \
+		}                                                                         \
+	}                                                                             \
+	scratchValues[lid] = value;                                                   \
+	scratchIndices[lid] = index;                                                  \
+	barrier(CLK_LOCAL_MEM_FENCE);                                                 \
+	for (int s = get_local_size(0) / 2; s > 0; s >>= 1)                           \
+	{                                                                             \
+		if (lid < s)                                                              \
+		{                                                                         \
+			T otherValue = scratchValues[lid + s];                                \
+			int otherIndex = scratchIndices[lid + s];                             \
+			if (otherIndex >= 0 &&                                                \
+			    (scratchIndices[lid] < 0 ||                                       \
+			     BETTER(otherValue, scratchValues[lid]) ||                        \
+			     (otherValue == scratchValues[lid] && otherIndex < scratchIndices[lid]))) \
+			{                                                                     \
+				scratchValues[lid] = otherValue;                                  \
+				scratchIndices[lid] = otherIndex;                                 \
+			}                                                                     \
+		}                                                                         \
+		barrier(CLK_LOCAL_MEM_FENCE);                                             \
+	}                                                                             \
+	if (lid == 0)                                                                 \
+	{                                                                             \
+		outputValues[get_group_id(0)] = scratchValues[0];                         \
+		outputIndices[get_group_id(0)] = scratchIndices[0];                       \
+	}                                                                             \
+}
+
+#define LESS(a, b) ((a) < (b))
+#define GREATER(a, b) ((a) > (b))
+
+REDUCE_ARG_KERNEL(ReduceArgMin, T_MAX, LESS)
+REDUCE_ARG_KERNEL(ReduceArgMax, T_MIN, GREATER)
@@ -0,0 +1,199 @@
+#ifdef CYCL_FP64
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// Work-efficient (Blelloch) prefix sums, compiled once per element type T (see CyCLScan).
+// A work group of L items scans a tile of 2L elements in local memory with an up-sweep and a down-sweep, and writes
+// the tile's total to blockSums. The totals are scanned the same way, recursively, and added to the tiles by AddBlockSums.
+// The local size must be a power of two, and input and output may be the same buffer.
+//
+// The segmented variants scan (flag, value) pairs with the operator (f1, v1) + (f2, v2) = (f1 | f2, f2 ? v2 : v1 + v2),
+// so sums restart at every element whose flag is set. Each tile also stores where its first segment starts.
+
+__kernel void ScanTiles(__global const T* input, __global T* output, const int n, const int inclusive,
+                        __global T* blockSums, __local T* tile)
+{
+	const int lid = get_local_id(0);
+	const int tileSize = 2 * get_local_size(0);
+	const int base = get_group_id(0) * tileSize;
+	const int ai = lid, bi = lid + get_local_size(0);
+
+	const T a = base + ai < n ? input[base + ai] : (T)0;
+	const T b = base + bi < n ? input[base + bi] : (T)0;
+	tile[ai] = a;
+	tile[bi] = b;
+
+	// Up-sweep: build partial sums in place
+	int offset = 1;
+	for (int d = tileSize >> 1; d > 0; d >>= 1)
+	{
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if (lid < d)
+		{
+			int left = offset * (2 * lid + 1) - 1;
+			int right = offset * (2 * lid + 2) - 1;
+			tile[right] += tile[left];
+		}
+		offset <<= 1;
+	}
+
+	barrier(CLK_LOCAL_MEM_FENCE);
+	if (lid == 0)
+	{
+		blockSums[get_group_id(0)] = tile[tileSize - 1];
+		tile[tileSize - 1] = (T)0;
+	}
+
+	// Down-sweep: distribute the prefixes
+	for (int d = 1; d < tileSize; d <<= 1)
+	{
+		offset >>= 1;
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if (lid < d)
+		{
+			int left = offset * (2 * lid + 1) - 1;
+			int right = offset * (2 * lid + 2) - 1;
+			T t = tile[left];
+			tile[left] = tile[right];
+			tile[right] += t;
+		}
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	if (base + ai < n)
+		output[base + ai] = inclusive ? tile[ai] + a : tile[ai];
+	if (base + bi < n)
+		output[base + bi] = inclusive ? tile[bi] + b : tile[bi];
+}
+
+// Adds the inclusive scan of all previous tiles' totals to every element of a tile
+__kernel void AddBlockSums(__global T* output, const int n, __global const T* scannedBlockSums)
+{
+	const int group = get_group_id(0);
+	if (group == 0)
+		return;
+
+	const int tileSize = 2 * get_local_size(0);
+	const int base = group * tileSize;
+	const T prefix = scannedBlockSums[group - 1];
+	const int ai = base + get_local_id(0), bi = ai + get_local_size(0);
+
+	if (ai < n)
+		output[ai] += prefix;
+	if (bi < n)
+		output[bi] += prefix;
+}
+
+// Segment heads are elements with a non-zero flag. blockHeads receives 1 + the position of the first head in each tile, or 0.
+__kernel void SegmentedScanTiles(__global const T* input, __global const int* flags, __global T* output,
+                                 const int n, const int inclusive,
+                                 __global T* blockSums, __global int* blockHeads,
+                                 __local T* tile, __local int* tileFlags)
+{
+	const int lid = get_local_id(0);
+	const int tileSize = 2 * get_local_size(0);
+	const int base = get_group_id(0) * tileSize;
+	const int ai = lid, bi = lid + get_local_size(0);
+
+	const T a = base + ai < n ? input[base + ai] : (T)0;
+	const T b = base + bi < n ? input[base + bi] : (T)0;
+	const int fa = base + ai < n && flags[base + ai] != 0;
+	const int fb = base + bi < n && flags[base + bi] != 0;
+	tile[ai] = a;
+	tile[bi] = b;
+	tileFlags[ai] = fa;
+	tileFlags[bi] = fb;
+
+	int offset = 1;
+	for (int d = tileSize >> 1; d > 0; d >>= 1)
+	{
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if (lid < d)
+		{
+			int left = offset * (2 * lid + 1) - 1;
+			int right = offset * (2 * lid + 2) - 1;
+			if (!tileFlags[right])
+				tile[right] += tile[left];
+			tileFlags[right] |= tileFlags[left];
+		}
+		offset <<= 1;
+	}
+
+	barrier(CLK_LOCAL_MEM_FENCE);
+	if (lid == 0)
+	{
+		tile[tileSize - 1] = (T)0;
+		tileFlags[tileSize - 1] = 0;
+	}
+
+	// The right child becomes the parent's prefix combined with the left subtree, in that order
+	for (int d = 1; d < tileSize; d <<= 1)
+	{
+		offset >>= 1;
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if (lid < d)
+		{
+			int left = offset * (2 * lid + 1) - 1;
+			int right = offset * (2 * lid + 2) - 1;
+			T t = tile[left];
+			int tf = tileFlags[left];
+			tile[left] = tile[right];
+			tileFlags[left] = tileFlags[right];
+			tile[right] = tf ? t : tile[right] + t;
+			tileFlags[right] |= tf;
+		}
+	}
+	barrier(CLK_LOCAL_MEM_FENCE);
+
+	// tile and tileFlags now hold the exclusive scan of (flag, value) pairs within the tile
+	if (base + ai < n)
+		output[base + ai] = fa ? (inclusive ? a : (T)0) : (inclusive ? tile[ai] + a : tile[ai]);
+	if (base + bi < n)
+		output[base + bi] = fb ? (inclusive ? b : (T)0) : (inclusive ? tile[bi] + b : tile[bi]);
+
+	if (fa && !tileFlags[ai])
+		blockHeads[get_group_id(0)] = ai + 1;
+	if (fb && !tileFlags[bi])
+		blockHeads[get_group_id(0)] = bi + 1;
+	if (bi == tileSize - 1)
+	{
+		blockSums[get_group_id(0)] = fb ? b : tile[bi] + b;
+		if (!fb && !tileFlags[bi])
+			blockHeads[get_group_id(0)] = 0;
+	}
+}
+
+// Adds the previous tiles' running segment sum to the elements of a tile that come before its first head
+__kernel void SegmentedAddBlockSums(__global T* output, const int n, __global const T* scannedBlockSums, __global const int* blockHeads)
+{
+	const int group = get_group_id(0);
+	if (group == 0)
+		return;
+
+	const int tileSize = 2 * get_local_size(0);
+	const int base = group * tileSize;
+	const T prefix = scannedBlockSums[group - 1];
+	const int head = blockHeads[group];
+	const int end = head == 0 ? tileSize : head - 1;
+	const int ai = get_local_id(0), bi = ai + get_local_size(0);
+
+	if (ai < end && base + ai < n)
+		output[base + ai] += prefix;
+	if (bi < end && base + bi < n)
+		output[base + bi] += prefix;
+}
+
+__kernel void ClearFlags(__global int* flags, const int n)
+{
+	const int i = get_global_id(0);
+	if (i < n)
+		flags[i] = 0;
+}
+
+// Marks the first element of every segment, given the segments' start offsets
+__kernel void OffsetsToFlags(__global const int* offsets, const int segments, __global int* flags, const int n)
+{
+	const int s = get_global_id(0);
+	if (s < segments && offsets[s] >= 0 && offsets[s] < n)
+		flags[offsets[s]] = 1;
+}
@@ -0,0 +1,112 @@
+#ifdef CYCL_FP64
+#pragma OPENCL EXTENSION cl_khr_fp64 : enable
+#endif
+
+// LSD radix sort, compiled once per key type (see CyCLSort). K is uint for 32-bit keys and ulong for 64-bit keys,
+// KEY_BITS its width. CYCL_FLOAT_KEYS marks IEEE floating point keys.
+//
+// Keys are first encoded so their unsigned order is the numeric order, sorted one digit per pass, and decoded.
+// Every work item owns a contiguous range of the input and keeps one counter per digit value in local memory,
+// at counters[digit * local size + local id], so no synchronization is needed. Histogram counts the digits of every range,
+// the counts are scanned into output positions ordered by digit, then by work item, and Scatter writes each range
+// in order, which makes every pass stable.
+
+#define SIGN_BIT ((K)1 << (KEY_BITS - 1))
+
+__kernel void EncodeKeys(__global K* keys, const int n)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	K key = keys[i];
+#ifdef CYCL_FLOAT_KEYS
+	// Negative numbers have all bits inverted so larger magnitudes come first; positive ones only get the sign bit set
+	keys[i] = (key & SIGN_BIT) ? ~key : key | SIGN_BIT;
+#else
+	keys[i] = key ^ SIGN_BIT;
+#endif
+}
+
+__kernel void DecodeKeys(__global K* keys, const int n)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	K key = keys[i];
+#ifdef CYCL_FLOAT_KEYS
+	keys[i] = (key & SIGN_BIT) ? key & ~SIGN_BIT : ~key;
+#else
+	keys[i] = key ^ SIGN_BIT;
+#endif
+}
+
+// histogram[digit * global size + global id] receives the number of keys in the work item's range with that digit
+__kernel void Histogram(__global const K* keys, const int n, const int itemsPerThread, const int shift, const int bits,
+                        __global int* histogram, __local int* counters)
+{
+	const int lid = get_local_id(0);
+	const int localSize = get_local_size(0);
+	const int gid = get_global_id(0);
+	const int radix = 1 << bits;
+	const K mask = (K)(radix - 1);
+
+	for (int d = 0; d < radix; d++)
+		counters[d * localSize + lid] = 0;
+
+	const int start = gid * itemsPerThread;
+	const int end = min(n, start + itemsPerThread);
+	for (int i = start; i < end; i++)
+	{
+		int digit = (int)((keys[i] >> shift) & mask);
+		counters[digit * localSize + lid]++;
+	}
+
+	const int threads = get_global_size(0);
+	for (int d = 0; d < radix; d++)
+		histogram[d * threads + gid] = counters[d * localSize + lid];
+}
+
+// offsets is the exclusive scan of the histogram, i. e. the first output position of every digit in every range
+void scatterRange(__global const K* keysIn, __global K* keysOut, __global const uint* valuesIn, __global uint* valuesOut,
+                  const int n, const int itemsPerThread, const int shift, const int bits,
+                  __global const int* offsets, __local int* counters)
+{
+	const int lid = get_local_id(0);
+	const int localSize = get_local_size(0);
+	const int gid = get_global_id(0);
+	const int threads = get_global_size(0);
+	const int radix = 1 << bits;
+	const K mask = (K)(radix - 1);
+
+	for (int d = 0; d < radix; d++)
+		counters[d * localSize + lid] = offsets[d * threads + gid];
+
+	const int start = gid * itemsPerThread;
+	const int end = min(n, start + itemsPerThread);
+	for (int i = start; i < end; i++)
+	{
+		K key = keysIn[i];
+		int digit = (int)((key >> shift) & mask);
+		int position = counters[digit * localSize + lid]++;
+		keysOut[position] = key;
+		if (valuesIn)
+			valuesOut[position] = valuesIn[i];
+	}
+}
+
+__kernel void Scatter(__global const K* keysIn, __global K* keysOut,
+                      const int n, const int itemsPerThread, const int shift, const int bits,
+                      __global const int* offsets, __local int* counters)
+{
+	scatterRange(keysIn, keysOut, 0, 0, n, itemsPerThread, shift, bits, offsets, counters);
+}
+
+// Same as Scatter, moving a 32-bit value along with every key
+__kernel void ScatterPairs(__global const K* keysIn, __global K* keysOut, __global const uint* valuesIn, __global uint* valuesOut,
+                           const int n, const int itemsPerThread, const int shift, const int bits,
+                           __global const int* offsets, __local int* counters)
+{
+	scatterRange(keysIn, keysOut, valuesIn, valuesOut, n, itemsPerThread, shift, bits, offsets, counters);
+}
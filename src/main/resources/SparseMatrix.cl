@@ -0,0 +1,102 @@
+// Sparse matrix products for CyCLSparseMatrix: y = A x for one dense vector (SpMV),
+// and for several vectors at once (SpMM), stored interleaved, i. e. element j of vector v at [j * vectors + v].
+//
+// CSR stores the entries of row r at [rowOffsets[r], rowOffsets[r + 1]). The SpMV kernels multiply the `count` rows listed
+// in rowList from `first` on, so short and long rows can be multiplied by different kernels. The scalar kernels give each row
+// one work item, which suits short rows; the vector kernel gives each row a team of `lanes` consecutive work items that
+// stride over it and reduce their partial sums in local memory, which keeps long rows from stalling a whole warp.
+// ELL pads every row to the same width and stores the matrix column-major, i. e. entry k of row r at [k * rows + r],
+// so consecutive work items read consecutive memory. Padding entries have value 0 and column 0.
+
+__kernel void CsrSpmvScalar(__global const int* rowOffsets, __global const int* columns, __global const float* values,
+                            __global const float* x, __global float* y,
+                            __global const int* rowList, const int first, const int count)
+{
+	const int i = get_global_id(0);
+	if (i >= count)
+		return;
+
+	const int row = rowList[first + i];
+	float sum = 0.0f;
+	const int end = rowOffsets[row + 1];
+	for (int k = rowOffsets[row]; k < end; k++)
+		sum += values[k] * x[columns[k]];
+	y[row] = sum;
+}
+
+// lanes is a power of two that divides the local size
+__kernel void CsrSpmvVector(__global const int* rowOffsets, __global const int* columns, __global const float* values,
+                            __global const float* x, __global float* y,
+                            __global const int* rowList, const int first, const int count, const int lanes,
+                            __local float* partial)
+{
+	const int lid = get_local_id(0);
+	const int i = get_global_id(0) / lanes;
+	const int lane = get_global_id(0) & (lanes - 1);
+	const int row = i < count ? rowList[first + i] : -1;
+
+	float sum = 0.0f;
+	if (row >= 0)
+	{
+		const int end = rowOffsets[row + 1];
+		for (int k = rowOffsets[row] + lane; k < end; k += lanes)
+			sum += values[k] * x[columns[k]];
+	}
+	partial[lid] = sum;
+
+	// Every work item takes part in the barriers, also those past the last row
+	for (int s = lanes >> 1; s > 0; s >>= 1)
+	{
+		barrier(CLK_LOCAL_MEM_FENCE);
+		if (lane < s)
+			partial[lid] += partial[lid + s];
+	}
+
+	if (lane == 0 && row >= 0)
+		y[row] = partial[lid];
+}
+
+__kernel void EllSpmv(__global const int* columns, __global const float* values, const int width,
+                      __global const float* x, __global float* y, const int rows)
+{
+	const int row = get_global_id(0);
+	if (row >= rows)
+		return;
+
+	float sum = 0.0f;
+	for (int k = 0; k < width; k++)
+		sum += values[k * rows + row] * x[columns[k * rows + row]];
+	y[row] = sum;
+}
+
+// One work item per row and vector, so neighboring work items read neighboring elements of x
+__kernel void CsrSpmm(__global const int* rowOffsets, __global const int* columns, __global const float* values,
+                      __global const float* x, __global float* y, const int rows, const int vectors)
+{
+	const int gid = get_global_id(0);
+	const int row = gid / vectors;
+	const int v = gid - row * vectors;
+	if (row >= rows)
+		return;
+
+	float sum = 0.0f;
+	const int end = rowOffsets[row + 1];
+	for (int k = rowOffsets[row]; k < end; k++)
+		sum += values[k] * x[columns[k] * vectors + v];
+	y[row * vectors + v] = sum;
+}
+
+__kernel void EllSpmm(__global const int* columns, __global const float* values, const int width,
+                      __global const float* x, __global float* y, const int rows, const int vectors)
+{
+	const int gid = get_global_id(0);
+	const int row = gid / vectors;
+	const int v = gid - row * vectors;
+	if (row >= rows)
+		return;
+
+	float sum = 0.0f;
+	for (int k = 0; k < width; k++)
+		sum += values[k * rows + row] * x[columns[k * rows + row] * vectors + v];
+	y[row * vectors + v] = sum;
+}
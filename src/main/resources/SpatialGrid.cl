@@ -0,0 +1,169 @@
+// Uniform-grid spatial index (see CyCLSpatialGrid), compiled once for DIMS 2 and once for DIMS 3.
+// Space is divided into cubic cells, and every cell is hashed into a table of a power of two buckets, so the grid
+// needs no bounds. Points are sorted by bucket, which makes every bucket a range [cellStart, cellEnd) of the sorted order.
+// Different cells can share a bucket, so queries only take points whose own cell is the one they look at,
+// which also visits every point at most once. In 2D, z is not read.
+
+#define K_MAX 32
+
+inline int cellOf(const float v, const float cellSize)
+{
+	return (int)floor(v / cellSize);
+}
+
+inline int cellHash(const int cx, const int cy, const int cz, const int mask)
+{
+	return (int)(((uint)cx * 73856093u) ^ ((uint)cy * 19349663u) ^ ((uint)cz * 83492791u)) & mask;
+}
+
+#if DIMS == 3
+#define POINT_Z(i) z[i]
+#else
+#define POINT_Z(i) 0.0f
+#endif
+
+__kernel void HashPoints(__global const float* x, __global const float* y, __global const float* z, const int n,
+                         const float cellSize, const int mask, __global int* hashes, __global int* order)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	hashes[i] = cellHash(cellOf(x[i], cellSize), cellOf(y[i], cellSize), cellOf(POINT_Z(i), cellSize), mask);
+	order[i] = i;
+}
+
+__kernel void ClearRanges(__global int* start, __global int* end, const int count)
+{
+	const int i = get_global_id(0);
+	if (i < count)
+		start[i] = end[i] = 0;
+}
+
+// Given sorted keys, [start[key], end[key]) becomes the range of positions that hold key
+__kernel void KeyRanges(__global const int* keys, const int n, __global int* start, __global int* end)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const int key = keys[i];
+	if (i == 0 || keys[i - 1] != key)
+		start[key] = i;
+	if (i == n - 1 || keys[i + 1] != key)
+		end[key] = i + 1;
+}
+
+// Lists up to maxNeighbors points within the radius of every point in neighbors[i * maxNeighbors ...],
+// and their total number, which can be larger, in counts[i]. reach is the number of cells the radius covers,
+// at most the points' extent in cells, computed by the host so that no float has to be converted out of int range.
+__kernel void RadiusNeighbors(__global const float* x, __global const float* y, __global const float* z, const int n,
+                              const float cellSize, const int mask,
+                              __global const int* cellStart, __global const int* cellEnd, __global const int* order,
+                              const float radius, const int reach, const int maxNeighbors, __global int* neighbors, __global int* counts)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const float xi = x[i], yi = y[i], zi = POINT_Z(i);
+	const int cx = cellOf(xi, cellSize), cy = cellOf(yi, cellSize), cz = cellOf(zi, cellSize);
+	const int reachZ = DIMS == 3 ? reach : 0;
+	const float radius2 = radius * radius;
+
+	int count = 0;
+	for (int dz = -reachZ; dz <= reachZ; dz++)
+		for (int dy = -reach; dy <= reach; dy++)
+			for (int dx = -reach; dx <= reach; dx++)
+			{
+				const int bucket = cellHash(cx + dx, cy + dy, cz + dz, mask);
+				const int end = cellEnd[bucket];
+				for (int s = cellStart[bucket]; s < end; s++)
+				{
+					const int j = order[s];
+					if (j == i || cellOf(x[j], cellSize) != cx + dx || cellOf(y[j], cellSize) != cy + dy || cellOf(POINT_Z(j), cellSize) != cz + dz)
+						continue;
+
+					const float ex = x[j] - xi, ey = y[j] - yi, ez = POINT_Z(j) - zi;
+					if (ex * ex + ey * ey + ez * ez <= radius2)
+					{
+						if (count < maxNeighbors)
+							neighbors[i * maxNeighbors + count] = j;
+						count++;
+					}
+				}
+			}
+
+	counts[i] = count;
+}
+
+// Finds the k <= K_MAX nearest points within maxRadius of every point, nearest first, searching rings of cells
+// around its own until the k-th nearest is closer than any unsearched cell, all other points have been seen, or the rings
+// cover maxRadius or the points' extent, whichever is less. Missing neighbors are -1 at distance INFINITY.
+__kernel void NearestNeighbors(__global const float* x, __global const float* y, __global const float* z, const int n,
+                               const float cellSize, const int mask,
+                               __global const int* cellStart, __global const int* cellEnd, __global const int* order,
+                               const int k, const float maxRadius, const int rings, __global int* neighbors, __global float* distances)
+{
+	const int i = get_global_id(0);
+	if (i >= n)
+		return;
+
+	const float xi = x[i], yi = y[i], zi = POINT_Z(i);
+	const int cx = cellOf(xi, cellSize), cy = cellOf(yi, cellSize), cz = cellOf(zi, cellSize);
+	const float maxRadius2 = maxRadius * maxRadius;
+
+	float bestDistance2[K_MAX];
+	int best[K_MAX];
+	int found = 0, seen = 0;
+
+	for (int ring = 0; ring <= rings && seen < n - 1; ring++)
+	{
+		const int ringZ = DIMS == 3 ? ring : 0;
+		for (int dz = -ringZ; dz <= ringZ; dz++)
+			for (int dy = -ring; dy <= ring; dy++)
+				for (int dx = -ring; dx <= ring; dx++)
+				{
+					// Only the cells on the ring's surface; the inner ones were searched before
+					if ((int)max(abs(dx), max(abs(dy), abs(dz))) != ring)
+						continue;
+
+					const int bucket = cellHash(cx + dx, cy + dy, cz + dz, mask);
+					const int end = cellEnd[bucket];
+					for (int s = cellStart[bucket]; s < end; s++)
+					{
+						const int j = order[s];
+						if (j == i || cellOf(x[j], cellSize) != cx + dx || cellOf(y[j], cellSize) != cy + dy || cellOf(POINT_Z(j), cellSize) != cz + dz)
+							continue;
+
+						seen++;
+						const float ex = x[j] - xi, ey = y[j] - yi, ez = POINT_Z(j) - zi;
+						const float d2 = ex * ex + ey * ey + ez * ez;
+						if (d2 > maxRadius2 || (found == k && d2 >= bestDistance2[k - 1]))
+							continue;
+
+						// Insertion into the sorted list of the best ones
+						int m = found < k ? found++ : k - 1;
+						while (m > 0 && bestDistance2[m - 1] > d2)
+						{
+							bestDistance2[m] = bestDistance2[m - 1];
+							best[m] = best[m - 1];
+							m--;
+						}
+						bestDistance2[m] = d2;
+						best[m] = j;
+					}
+				}
+
+		// Points in cells beyond this ring are at least ring cell sizes away
+		const float reached = ring * cellSize;
+		if (found == k && bestDistance2[k - 1] <= reached * reached)
+			break;
+	}
+
+	for (int m = 0; m < k; m++)
+	{
+		neighbors[i * k + m] = m < found ? best[m] : -1;
+		distances[i * k + m] = m < found ? sqrt(bestDistance2[m]) : INFINITY;
+	}
+}
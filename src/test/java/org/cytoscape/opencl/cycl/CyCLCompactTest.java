@@ -0,0 +1,61 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLCompactTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	@Test
+	public void testCompactWithMask() throws Exception
+	{
+		CyCLBuffer input = device.createBuffer(new double[] { 0.5, 1.5, 2.5, 3.5, 4.5 });
+		CyCLBuffer mask = device.createBuffer(new int[] { 0, 3, 0, -1, 1 });
+		CyCLBuffer output = device.createBuffer(double.class, 5);
+
+		assertEquals(3, CyCLCompact.compact(input, mask, output, 5));
+		double[] result = new double[3];
+		output.getFromDevice(result);
+		assertArrayEquals(new double[] { 1.5, 3.5, 4.5 }, result, 0.0);
+
+		CyCLBuffer indices = device.createBuffer(int.class, 5);
+		assertEquals(3, CyCLCompact.indices(mask, indices, 5));
+		int[] indexValues = new int[3];
+		indices.getFromDevice(indexValues);
+		assertArrayEquals(new int[] { 1, 3, 4 }, indexValues);
+
+		// Only the first n elements are considered
+		assertEquals(1, CyCLCompact.compact(input, mask, output, 3));
+
+		input.free();
+		mask.free();
+		output.free();
+		indices.free();
+	}
+
+	@Test
+	public void testInvalidArguments() throws Exception
+	{
+		CyCLBuffer input = device.createBuffer(new float[] { 1, 2, 3 });
+		CyCLBuffer mask = device.createBuffer(new int[] { 1, 1, 1 });
+		CyCLBuffer small = device.createBuffer(float.class, 2);
+
+		try {
+			CyCLCompact.compact(input, mask, small, 3);
+			fail("Output too small");
+		} catch (CyCLException e) {
+		}
+
+		try {
+			CyCLCompact.compact(input, "x > 1.0f", small, 3);
+			fail("Predicates need an OpenCL device");
+		} catch (CyCLException e) {
+		}
+
+		input.free();
+		mask.free();
+		small.free();
+	}
+}
@@ -0,0 +1,98 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class CyCLDeviceMetricsTest
+{
+
+	@Test
+	public void testPeakSurvivesRelease() throws Exception
+	{
+		CyCLDeviceMetrics metrics = new CyCLDeviceMetrics("Device", 1000);
+		metrics.onBufferAllocated(300);
+		metrics.onBufferAllocated(200);
+		metrics.onBufferReleased(300);
+
+		CyCLDeviceMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(1, snapshot.liveBuffers);
+		assertEquals(200, snapshot.liveBytes);
+		assertEquals(500, snapshot.peakBytes);
+		assertEquals(0.2, metrics.getMemoryUtilization(), 1e-12);
+	}
+
+	@Test
+	public void testResetKeepsLiveState() throws Exception
+	{
+		CyCLDeviceMetrics metrics = new CyCLDeviceMetrics("Device", 1000);
+		metrics.onBufferAllocated(400);
+		metrics.onHostToDevice(400);
+		metrics.onKernelLaunched();
+		metrics.onCommandEnqueued();
+		metrics.reset();
+
+		assertEquals(400, metrics.getLiveBytes());
+		assertEquals(400, metrics.getPeakBytes());
+		assertEquals(1, metrics.getQueueDepth());
+		assertEquals(0, metrics.getBytesHostToDevice());
+		assertEquals(0, metrics.getKernelLaunches());
+	}
+
+	@Test
+	public void testRegistrationNamesAreStable() throws Exception
+	{
+		CyCLDevice first = CyCLDevice.forBackend(new CyCLJavaBackend(1));
+		CyCLDevice second = CyCLDevice.forBackend(new CyCLJavaBackend(1));
+		try
+		{
+			CyCLDeviceMetrics.registerAll(Arrays.asList(first, second));
+			ObjectName firstName = first.getMetrics().getObjectName();
+			ObjectName secondName = second.getMetrics().getObjectName();
+			assertNotNull(firstName);
+			assertNotNull(secondName);
+			assertFalse(firstName.equals(secondName));
+			assertEquals(first.getProfileKey(), ObjectName.unquote(firstName.getKeyProperty("key")));
+
+			// Registering again in another order, e. g. after a device was removed, keeps the names
+			CyCLDeviceMetrics.registerAll(Arrays.asList(second));
+			assertEquals(secondName, second.getMetrics().getObjectName());
+
+			CyCLDeviceMetrics.unregister(first);
+			assertNull(first.getMetrics().getObjectName());
+			assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(firstName));
+			assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(secondName));
+		}
+		finally
+		{
+			CyCLDeviceMetrics.unregister(first);
+			CyCLDeviceMetrics.unregister(second);
+		}
+	}
+
+	@Test
+	public void testTransfersCountCopiedElements() throws Exception
+	{
+		CyCLDevice device = CyCLDevice.forBackend(new CyCLJavaBackend(1));
+		CyCLBuffer buffer = device.createBuffer(int.class, 10);
+		try
+		{
+			CyCLDeviceMetrics.Snapshot before = device.getMetrics().snapshot();
+			buffer.setFromHost(new int[] { 1, 2, 3 });
+			buffer.getFromDevice(new long[2]);
+
+			CyCLDeviceMetrics.Snapshot after = device.getMetrics().snapshot();
+			assertEquals(3 * Sizeof.cl_int, after.bytesHostToDevice - before.bytesHostToDevice);
+			assertEquals(2 * Sizeof.cl_long, after.bytesDeviceToHost - before.bytesDeviceToHost);
+		}
+		finally
+		{
+			buffer.free();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class CyCLDeviceProfileStoreTest
+{
+
+	@Test
+	public void testScoresSurviveReload() throws Exception
+	{
+		File file = File.createTempFile("cycl-profiles", ".props");
+		file.delete();
+		try
+		{
+			String key = CyCLDeviceProfileStore.getKey("OpenCL 1.2 pthread-cpu", "pocl", "1.8");
+
+			CyCLDeviceProfileStore store = new CyCLDeviceProfileStore(file);
+			assertNull(store.getBenchmarkScore(key));
+			store.putBenchmarkScore(key, 1.75);
+			store.put(key, "computeUnits", "8");
+			store.save();
+
+			CyCLDeviceProfileStore reloaded = new CyCLDeviceProfileStore(file);
+			assertEquals(1.75, reloaded.getBenchmarkScore(key), 0.0);
+			assertEquals("8", reloaded.get(key, "computeUnits"));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDriverUpdateInvalidatesScore() throws Exception
+	{
+		CyCLDeviceProfileStore store = new CyCLDeviceProfileStore(null);
+		store.putBenchmarkScore(CyCLDeviceProfileStore.getKey("GPU", "Vendor", "470.1"), 2.0);
+
+		assertNull(store.getBenchmarkScore(CyCLDeviceProfileStore.getKey("GPU", "Vendor", "470.2")));
+	}
+
+	@Test
+	public void testRemove() throws Exception
+	{
+		CyCLDeviceProfileStore store = new CyCLDeviceProfileStore(null);
+		String key = CyCLDeviceProfileStore.getKey("GPU", "Vendor", "1");
+		store.putBenchmarkScore(key, 2.0);
+		store.put(key, "type", "GPU");
+		store.remove(key);
+
+		assertFalse(store.contains(key));
+		assertNull(store.get(key, "type"));
+	}
+
+	@Test
+	public void testRemoveSingleField() throws Exception
+	{
+		CyCLDeviceProfileStore store = new CyCLDeviceProfileStore(null);
+		String key = CyCLDeviceProfileStore.getKey("GPU", "Vendor", "1");
+		store.putBenchmarkScore(key, 2.0);
+		store.put(key, CyCLDeviceProfileStore.QUARANTINED, "Kernel did not finish");
+		store.remove(key, CyCLDeviceProfileStore.QUARANTINED);
+
+		assertNull(store.get(key, CyCLDeviceProfileStore.QUARANTINED));
+		assertEquals(2.0, store.getBenchmarkScore(key), 0.0);
+	}
+
+	@Test
+	public void testRemoveMatchesKeyExactly() throws Exception
+	{
+		CyCLDeviceProfileStore store = new CyCLDeviceProfileStore(null);
+		String key = CyCLDeviceProfileStore.getKey("GPU", "Vendor", "1");
+		String similar = CyCLDeviceProfileStore.getKey("GPU", "Vendor", "1.v2");
+		store.putBenchmarkScore(key, 2.0);
+		store.putBenchmarkScore(similar, 3.0);
+		store.put(similar, "profile.launchLatency", "5.0");
+		store.remove(key);
+
+		assertFalse(store.contains(key));
+		assertEquals(3.0, store.getBenchmarkScore(similar), 0.0);
+		assertEquals("5.0", store.get(similar, "profile.launchLatency"));
+		assertFalse(similar.contains("."));
+	}
+}
@@ -0,0 +1,41 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLDeviceProfileTest
+{
+
+	private static CyCLDeviceProfile createProfile()
+	{
+		double[] values = new double[CyCLDeviceProfile.Metric.values().length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i + 1;
+		return new CyCLDeviceProfile(values);
+	}
+
+	@Test
+	public void testProfileSurvivesStore() throws Exception
+	{
+		CyCLDeviceProfileStore store = new CyCLDeviceProfileStore(null);
+		String key = CyCLDeviceProfileStore.getKey("GPU", "Vendor", "1");
+		assertNull(CyCLDeviceProfile.load(store, key));
+
+		CyCLDeviceProfile profile = createProfile();
+		profile.store(store, key);
+		CyCLDeviceProfile loaded = CyCLDeviceProfile.load(store, key);
+
+		for (CyCLDeviceProfile.Metric metric : CyCLDeviceProfile.Metric.values())
+			assertEquals(profile.get(metric), loaded.get(metric), 0.0);
+	}
+
+	@Test
+	public void testLatencyScoreIsInverted() throws Exception
+	{
+		CyCLDeviceProfile profile = createProfile();
+
+		assertEquals(1.0 / profile.launchLatency, profile.getScore(CyCLDeviceProfile.Metric.LAUNCH_LATENCY), 1e-12);
+		assertEquals(profile.fp32Throughput, profile.getScore(CyCLDeviceProfile.Metric.FP32_THROUGHPUT), 0.0);
+	}
+}
@@ -0,0 +1,65 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+public class CyCLDeviceTest
+{
+
+	private static CyCLDevice createDevice()
+	{
+		CyCLJavaBackend backend = new CyCLJavaBackend(1);
+		backend.registerKernel("Axpy", (start, end, args) -> {
+			FloatBuffer x = CyCLJavaBackend.asFloats(args[0]);
+			FloatBuffer y = CyCLJavaBackend.asFloats(args[1]);
+			float a = (Float)args[2];
+			for (int i = (int)start; i < end; i++)
+				y.put(i, a * x.get(i) + y.get(i));
+		});
+		return CyCLDevice.forBackend(backend);
+	}
+
+	@Test
+	public void testContextsAreKeptByDefault() throws Exception
+	{
+		assertEquals(0, CyCLDevice.getContextIdleTimeout());
+	}
+
+	@Test
+	public void testIdleContextIsReleasedWithPrograms() throws Exception
+	{
+		CyCLDevice idle = createDevice();
+		CyCLKernel kept = idle.addProgram("Axpy", "", new String[] { "Axpy" }, null, true).getKernel("Axpy");
+		assertTrue(idle.hasContext());
+
+		long timeout = 1000;
+		assertFalse(idle.releaseIdleContext(System.currentTimeMillis(), timeout));
+		assertTrue(idle.releaseIdleContext(System.currentTimeMillis() + timeout, timeout));
+		assertFalse(idle.hasContext());
+		assertFalse(idle.hasProgram("Axpy"));
+
+		// The program is built again once it is needed
+		CyCLBuffer x = idle.createBuffer(new float[] { 1, 2 });
+		CyCLBuffer y = idle.createBuffer(new float[] { 1, 1 });
+		idle.addProgram("Axpy", "", new String[] { "Axpy" }, null, true).getKernel("Axpy").execute(new long[] { 2 }, null, x, y, 3.0f);
+		float[] result = new float[2];
+		y.getFromDevice(result);
+		assertArrayEquals(new float[] { 4, 7 }, result, 0.0f);
+
+		// A kernel kept from before fails instead of reaching released handles
+		try {
+			kept.execute(new long[] { 2 }, null, x, y, 3.0f);
+			fail("Kernel was released with its program");
+		} catch (CyCLException e) {
+		}
+
+		// Live buffers keep the context
+		assertFalse(idle.releaseIdleContext(System.currentTimeMillis() + timeout, timeout));
+		x.free();
+		y.free();
+		assertTrue(idle.releaseIdleContext(System.currentTimeMillis() + timeout, timeout));
+	}
+}
@@ -0,0 +1,138 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CyCLForceLayoutTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	/***
+	 * Moves all nodes once by their full force, and returns the displacements.
+	 */
+	private static float[][] displacements(float[] x, float[] y, float theta)
+	{
+		CyCLBuffer bufferX = device.createBuffer(x.clone());
+		CyCLBuffer bufferY = device.createBuffer(y.clone());
+		CyCLForceLayout layout = new CyCLForceLayout(bufferX, bufferY, x.length, null, null, null, 0);
+		layout.setTheta(theta);
+		layout.setSpringLength(2.0f);
+		layout.setTemperature(Float.MAX_VALUE);
+		layout.step();
+
+		float[][] result = new float[2][x.length];
+		bufferX.getFromDevice(result[0]);
+		bufferY.getFromDevice(result[1]);
+		for (int i = 0; i < x.length; i++)
+		{
+			result[0][i] -= x[i];
+			result[1][i] -= y[i];
+		}
+
+		layout.free();
+		bufferX.free();
+		bufferY.free();
+		return result;
+	}
+
+	@Test
+	public void testRepulsionMatchesAllPairs() throws Exception
+	{
+		Random random = new Random(3);
+		int n = 500;
+		float[] x = new float[n], y = new float[n];
+		for (int i = 0; i < n; i++)
+		{
+			x[i] = random.nextFloat() * 100.0f;
+			y[i] = random.nextFloat() * 100.0f;
+		}
+
+		// All pairs, with strength L^2 = 4 and minimum distance 0.01 L
+		float[] expectedX = new float[n], expectedY = new float[n];
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+			{
+				float dx = x[i] - x[j], dy = y[i] - y[j];
+				float scale = 4.0f / Math.max(dx * dx + dy * dy, 0.0004f);
+				expectedX[i] += dx * scale;
+				expectedY[i] += dy * scale;
+			}
+
+		float[][] exact = displacements(x, y, 0.0f);
+		float[][] approximate = displacements(x, y, 0.7f);
+		double error = 0.0, norm = 0.0;
+		for (int i = 0; i < n; i++)
+		{
+			assertEquals(expectedX[i], exact[0][i], 1e-3f * (1.0f + Math.abs(expectedX[i])));
+			assertEquals(expectedY[i], exact[1][i], 1e-3f * (1.0f + Math.abs(expectedY[i])));
+			error += Math.hypot(approximate[0][i] - expectedX[i], approximate[1][i] - expectedY[i]);
+			norm += Math.hypot(expectedX[i], expectedY[i]);
+		}
+		assertTrue("Barnes-Hut error " + error / norm, error / norm < 0.05);
+	}
+
+	@Test
+	public void testEdgesPullNodesTogether() throws Exception
+	{
+		// Nodes 0 and 1 are connected, node 2 is not
+		CyCLBuffer x = device.createBuffer(new float[] { 0.0f, 100.0f, 50.0f });
+		CyCLBuffer y = device.createBuffer(new float[] { 0.0f, 0.0f, 100.0f });
+		CyCLBuffer sources = device.createBuffer(new int[] { 0 });
+		CyCLBuffer targets = device.createBuffer(new int[] { 1 });
+		CyCLForceLayout layout = new CyCLForceLayout(x, y, 3, sources, targets, null, 1);
+		layout.setSpringLength(10.0f);
+		layout.setTemperature(5.0f);
+		layout.run(20);
+		assertEquals(5.0f * (float)Math.pow(0.95, 20), layout.getTemperature(), 1e-4f);
+
+		float[] positionsX = new float[3], positionsY = new float[3];
+		x.getFromDevice(positionsX);
+		y.getFromDevice(positionsY);
+		float connected = (float)Math.hypot(positionsX[1] - positionsX[0], positionsY[1] - positionsY[0]);
+		assertTrue("Connected nodes are " + connected + " apart", connected < 100.0f);
+
+		layout.free();
+		x.free();
+		y.free();
+		sources.free();
+		targets.free();
+	}
+
+	@Test
+	public void testNodeDoesNotRepelItself() throws Exception
+	{
+		// With a large theta, the root cell passes the far-field test for both nodes; only the other node may push them apart
+		float[] x = { 0.0f, 10.0f }, y = { 0.0f, 0.0f };
+		float[][] exact = displacements(x, y, 0.0f);
+		float[][] approximate = displacements(x, y, 100.0f);
+
+		assertEquals(-0.4f, exact[0][0], 1e-5f);
+		assertArrayEquals(exact[0], approximate[0], 1e-5f);
+		assertArrayEquals(exact[1], approximate[1], 1e-5f);
+	}
+
+	@Test
+	public void testEdgeOutsideOfNodesIsRejected() throws Exception
+	{
+		CyCLBuffer x = device.createBuffer(new float[] { 0.0f, 1.0f });
+		CyCLBuffer y = device.createBuffer(new float[] { 0.0f, 1.0f });
+		CyCLBuffer sources = device.createBuffer(new int[] { 0, 1 });
+		CyCLBuffer targets = device.createBuffer(new int[] { 1, 2 });
+		try {
+			new CyCLForceLayout(x, y, 2, sources, targets, null, 2);
+			fail("Edge 1 ends at node 2 of 2");
+		} catch (CyCLException e) {
+		}
+
+		// Only the first edges count
+		new CyCLForceLayout(x, y, 2, sources, targets, null, 1).free();
+
+		x.free();
+		y.free();
+		sources.free();
+		targets.free();
+	}
+}
@@ -0,0 +1,46 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLHistogramTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	@Test
+	public void testCount() throws Exception
+	{
+		// Degrees; -1 and 7 are outside of the bins
+		CyCLBuffer degrees = device.createBuffer(new int[] { 1, 3, 1, 0, -1, 3, 7, 1 });
+		assertArrayEquals(new int[] { 1, 3, 0, 2 }, CyCLHistogram.count(degrees, 8, 4));
+
+		CyCLBuffer histogram = device.createBuffer(int.class, 4);
+		CyCLHistogram.count(degrees, 3, 4, histogram);
+		int[] counts = new int[4];
+		histogram.getFromDevice(counts);
+		assertArrayEquals(new int[] { 0, 2, 0, 1 }, counts);
+
+		degrees.free();
+		histogram.free();
+	}
+
+	@Test
+	public void testBin() throws Exception
+	{
+		CyCLBuffer values = device.createBuffer(new float[] { 0.0f, 0.24f, 0.25f, 0.6f, 1.0f, -0.1f, 1.1f, Float.NaN });
+		assertArrayEquals(new int[] { 2, 1, 1, 1 }, CyCLHistogram.bin(values, 8, 0.0, 1.0, 4));
+
+		CyCLBuffer doubles = device.createBuffer(new double[] { -5.0, 5.0, 0.0 });
+		assertArrayEquals(new int[] { 1, 2 }, CyCLHistogram.bin(doubles, 3, -5.0, 5.0, 2));
+
+		try {
+			CyCLHistogram.bin(values, 8, 1.0, 1.0, 4);
+			fail("Empty range");
+		} catch (CyCLException e) {
+		}
+
+		values.free();
+		doubles.free();
+	}
+}
@@ -0,0 +1,89 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.nio.FloatBuffer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CyCLJavaBackendTest
+{
+	private static CyCLJavaBackend backend;
+	private static CyCLDevice device;
+
+	@BeforeClass
+	public static void setUp()
+	{
+		backend = new CyCLJavaBackend(2);
+		backend.registerKernel("Axpy", (start, end, args) -> {
+			FloatBuffer x = CyCLJavaBackend.asFloats(args[0]);
+			FloatBuffer y = CyCLJavaBackend.asFloats(args[1]);
+			float a = (Float)args[2];
+			for (int i = (int)start; i < end; i++)
+				y.put(i, a * x.get(i) + y.get(i));
+		});
+		device = CyCLDevice.forBackend(backend);
+	}
+
+	@Test
+	public void testBenchmarkScore() throws Exception
+	{
+		assertTrue(device.benchmarkScore > 0.0);
+		assertSame(backend, device.getBackend());
+	}
+
+	@Test
+	public void testExecute() throws Exception
+	{
+		int n = 100000;
+		float[] x = new float[n], y = new float[n];
+		for (int i = 0; i < n; i++)
+		{
+			x[i] = i;
+			y[i] = 1;
+		}
+
+		CyCLBuffer bufferX = device.createBuffer(x);
+		CyCLBuffer bufferY = device.createBuffer(y);
+		CyCLProgram program = device.addProgram("Axpy", "", new String[] { "Axpy" }, null, true);
+		program.getKernel("Axpy").execute(new long[] { n }, null, bufferX, bufferY, 2.0f);
+
+		// An offset launch only covers the remaining items
+		program.getKernel("Axpy").executeWithOffset(new long[] { 10 }, null, new long[] { n - 10 }, bufferX, bufferY, 1.0f);
+
+		bufferY.getFromDevice(y);
+		assertEquals(1.0f, y[0], 0.0f);
+		assertEquals(2 * 1000 + 1.0f, y[1000], 0.0f);
+		assertEquals(3 * (n - 1) + 1.0f, y[n - 1], 0.0f);
+		assertTrue(device.getMetrics().snapshot().kernelLaunches >= 2);
+
+		bufferX.free();
+		bufferY.free();
+	}
+
+	@Test
+	public void testAsyncAndCopy() throws Exception
+	{
+		CyCLBuffer src = device.createBuffer(new int[] { 1, 2, 3, 4 });
+		CyCLBuffer dst = device.createBuffer(int.class, 4);
+
+		CyCLEvent event = dst.setFromHostAsync(new int[] { 0, 0, 0, 0 });
+		assertTrue(event.isComplete());
+		event.release();
+
+		dst.setFromDevice(src, 8, 4, 0);
+		int[] result = new int[4];
+		dst.getFromDevice(result);
+		assertArrayEquals(new int[] { 2, 3, 0, 0 }, result);
+
+		src.free();
+		dst.free();
+	}
+
+	@Test(expected = CyCLException.class)
+	public void testMissingKernel() throws Exception
+	{
+		device.addProgram("Missing", "", new String[] { "NotImplemented" }, null, true);
+	}
+}
@@ -0,0 +1,34 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLKernelTest
+{
+
+	@Test
+	public void testFindReadOnlyArgs() throws Exception
+	{
+		String source =
+			"// __kernel void Repulsion(__global float* wrong)\n"
+			+ "__kernel void Other(__global float* a) { }\n"
+			+ "__kernel void Repulsion(__global const float* posX, /* const */ __global float* forceX,\n"
+			+ "                        __constant int* offsets, __global float* const out, int n) { }\n";
+
+		boolean[] readOnly = CyCLKernel.findReadOnlyArgs(new String[] { source }, "Repulsion");
+
+		assertEquals(5, readOnly.length);
+		assertTrue(readOnly[0]);
+		assertFalse(readOnly[1]);
+		assertTrue(readOnly[2]);
+		assertFalse(readOnly[3]);
+		assertTrue(readOnly[4]);
+	}
+
+	@Test
+	public void testUnknownKernel() throws Exception
+	{
+		assertEquals(0, CyCLKernel.findReadOnlyArgs(new String[] { "__kernel void A(__global int* x) { }" }, "B").length);
+	}
+}
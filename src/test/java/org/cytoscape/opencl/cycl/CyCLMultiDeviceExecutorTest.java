@@ -0,0 +1,144 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CyCLMultiDeviceExecutorTest
+{
+
+	@Test
+	public void testSplitFollowsWeights() throws Exception
+	{
+		long[] counts = CyCLMultiDeviceExecutor.computeSplit(1000, new double[] { 3.0, 1.0 }, 1);
+
+		assertEquals(750, counts[0]);
+		assertEquals(250, counts[1]);
+	}
+
+	@Test
+	public void testSplitRespectsGranularity() throws Exception
+	{
+		long[] counts = CyCLMultiDeviceExecutor.computeSplit(1000, new double[] { 1.0, 1.0, 1.0 }, 64);
+
+		assertEquals(0, counts[0] % 64);
+		assertEquals(0, counts[1] % 64);
+		assertEquals(1000, counts[0] + counts[1] + counts[2]);
+	}
+
+	@Test
+	public void testSplitNeverExceedsRange() throws Exception
+	{
+		long[] counts = CyCLMultiDeviceExecutor.computeSplit(10, new double[] { 1.0, 1.0 }, 64);
+
+		assertEquals(0, counts[0]);
+		assertEquals(10, counts[1]);
+	}
+
+	@Test
+	public void testExecuteMergesPartsAndRebalances() throws Exception
+	{
+		CyCLDevice fast = CyCLDevice.forBackend(createBackend(0));
+		CyCLDevice slow = CyCLDevice.forBackend(createBackend(5));
+		CyCLMultiDeviceExecutor executor = new CyCLMultiDeviceExecutor(Arrays.asList(fast, slow), "MultiDeviceScale", new String[] { "" }, "Scale", null);
+		try
+		{
+			assertArrayEquals(new double[] { 0.5, 0.5 }, executor.getWeights(), 0.0);
+
+			int n = 20000;
+			float[] input = new float[n], output = new float[n];
+			float[] factor = new float[] { 3.0f };
+			for (int i = 0; i < n; i++)
+				input[i] = i;
+
+			double[] previous = null;
+			for (int run = 0; run < 10; run++)
+			{
+				Arrays.fill(output, 0.0f);
+				executor.execute(new long[] { n }, null, CyCLMultiDeviceExecutor.Arg.scatter(input, 1),
+				                 CyCLMultiDeviceExecutor.Arg.constant(factor), CyCLMultiDeviceExecutor.Arg.gather(output, 1));
+
+				for (int i = 0; i < n; i++)
+					assertEquals(3.0f * i, output[i], 0.0f);
+
+				if (run < 9)
+					previous = executor.getWeights();
+			}
+
+			// Most of the work moves to the fast device and stays there, but the slow one keeps getting some
+			double[] weights = executor.getWeights();
+			assertTrue(weights[0] > 0.75);
+			assertEquals(previous[0], weights[0], 0.1);
+			assertTrue(weights[1] >= CyCLMultiDeviceExecutor.MIN_SHARE / 2);
+			assertTrue(executor.getLastTimes()[1] > 0);
+			assertEquals(1.0, weights[0] + weights[1], 1e-9);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testExecuteSplits2DRanges() throws Exception
+	{
+		CyCLDevice first = CyCLDevice.forBackend(createBackend(0));
+		CyCLDevice second = CyCLDevice.forBackend(createBackend(0));
+		CyCLMultiDeviceExecutor executor = new CyCLMultiDeviceExecutor(Arrays.asList(first, second), "MultiDeviceCoordinates", new String[] { "" }, "Coordinates", null);
+		try
+		{
+			// Every part after the first has an offset in the second dimension
+			int width = 7, height = 50;
+			float[] input = new float[width * height], output = new float[width * height];
+			for (int i = 0; i < input.length; i++)
+				input[i] = 1.0f;
+
+			executor.execute(new long[] { width, height }, null, CyCLMultiDeviceExecutor.Arg.scatter(input, 1),
+			                 CyCLMultiDeviceExecutor.Arg.gather(output, 1), width);
+
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					assertEquals(x + 1000.0f * y + 1.0f, output[y * width + x], 0.0f);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/***
+	 * A backend whose Scale kernel takes about millisPerThousand ms per thousand work items,
+	 * and whose Coordinates kernel writes every work item's coordinates in a 2D range plus its input.
+	 */
+	private static CyCLJavaBackend createBackend(int millisPerThousand)
+	{
+		CyCLJavaBackend backend = new CyCLJavaBackend(1);
+		backend.registerKernel("Scale", (start, end, args) -> {
+			FloatBuffer input = CyCLJavaBackend.asFloats(args[0]);
+			FloatBuffer factor = CyCLJavaBackend.asFloats(args[1]);
+			FloatBuffer output = CyCLJavaBackend.asFloats(args[2]);
+			for (int i = (int)start; i < end; i++)
+				output.put(i, factor.get(0) * input.get(i));
+
+			try
+			{
+				Thread.sleep((end - start) * millisPerThousand / 1000);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+		backend.registerKernel("Coordinates", (start, end, args) -> {
+			FloatBuffer input = CyCLJavaBackend.asFloats(args[0]);
+			FloatBuffer output = CyCLJavaBackend.asFloats(args[1]);
+			int width = (Integer)args[2];
+			for (int i = (int)start; i < end; i++)
+				output.put(i, i % width + 1000.0f * (i / width) + input.get(i));
+		});
+		return backend;
+	}
+}
@@ -0,0 +1,347 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lwjgl.opencl.CL;
+
+/***
+ * Builds and runs the primitives' kernels on an OpenCL device and compares them with the host code of the Java device.
+ * Skipped if no OpenCL device is available, unless the pocl Maven profile requires one.
+ */
+public class CyCLOpenCLPrimitivesTest
+{
+	private static CyCLDevice device;
+	private static CyCLDevice host;
+
+	@BeforeClass
+	public static void setUp()
+	{
+		device = CyCLTestDevices.getOpenCLDevice();
+		host = CyCLTestDevices.getHostDevice();
+	}
+
+	@AfterClass
+	public static void tearDown()
+	{
+		if (device != null)
+			CL.destroy();
+	}
+
+	private static float[] randomFloats(Random random, int n, float scale)
+	{
+		float[] values = new float[n];
+		for (int i = 0; i < n; i++)
+			values[i] = (random.nextFloat() - 0.5f) * scale;
+		return values;
+	}
+
+	private static int[] randomInts(Random random, int n, int bound)
+	{
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++)
+			values[i] = random.nextInt(bound);
+		return values;
+	}
+
+	@Test
+	public void testReduction() throws Exception
+	{
+		Random random = new Random(1);
+		int n = 100003;
+		int[] ints = randomInts(random, n, 1000000);
+		float[] floats = randomFloats(random, n, 100.0f);
+		// Infinities are the identities of floating point min and max, so they must survive them
+		floats[17] = Float.NEGATIVE_INFINITY;
+		floats[n - 5] = Float.POSITIVE_INFINITY;
+
+		long expectedSum = 0;
+		for (int value : ints)
+			expectedSum += value;
+
+		for (CyCLDevice d : new CyCLDevice[] { device, host })
+		{
+			CyCLBuffer intBuffer = d.createBuffer(ints);
+			CyCLBuffer floatBuffer = d.createBuffer(floats);
+
+			assertEquals((int)expectedSum, CyCLReduction.sum(intBuffer).intValue());
+			assertEquals(CyCLReduction.min(intBuffer).intValue(), Arrays.stream(ints).min().getAsInt());
+			assertEquals(CyCLReduction.max(intBuffer).intValue(), Arrays.stream(ints).max().getAsInt());
+
+			assertEquals(Float.NEGATIVE_INFINITY, CyCLReduction.min(floatBuffer).floatValue(), 0.0f);
+			assertEquals(Float.POSITIVE_INFINITY, CyCLReduction.max(floatBuffer).floatValue(), 0.0f);
+			assertEquals(17, CyCLReduction.argMin(floatBuffer, n));
+			assertEquals(n - 5, CyCLReduction.argMax(floatBuffer, n));
+
+			intBuffer.free();
+			floatBuffer.free();
+		}
+
+		float[] finite = floats.clone();
+		finite[17] = finite[n - 5] = 0.0f;
+		CyCLBuffer onDevice = device.createBuffer(finite), onHost = host.createBuffer(finite);
+		assertEquals(CyCLReduction.sum(onHost).floatValue(), CyCLReduction.sum(onDevice).floatValue(), 1e-2f);
+		assertEquals(CyCLReduction.min(onHost).floatValue(), CyCLReduction.min(onDevice).floatValue(), 0.0f);
+		assertEquals(CyCLReduction.max(onHost).floatValue(), CyCLReduction.max(onDevice).floatValue(), 0.0f);
+		onDevice.free();
+		onHost.free();
+	}
+
+	@Test
+	public void testScan() throws Exception
+	{
+		Random random = new Random(2);
+		int n = 70001;
+		int[] input = randomInts(random, n, 100);
+		int[] flags = new int[n];
+		for (int i = 0; i < n; i += 1 + random.nextInt(300))
+			flags[i] = 1;
+
+		int[][] results = new int[4][];
+		Number[] totals = new Number[2];
+		CyCLDevice[] devices = { device, host };
+		for (int k = 0; k < 2; k++)
+		{
+			CyCLBuffer in = devices[k].createBuffer(input);
+			CyCLBuffer flagBuffer = devices[k].createBuffer(flags);
+			CyCLBuffer out = devices[k].createBuffer(int.class, n);
+			totals[k] = CyCLScan.exclusive(in, out, n);
+			results[2 * k] = new int[n];
+			out.getFromDevice(results[2 * k]);
+			CyCLScan.inclusiveSegmented(in, flagBuffer, out, n);
+			results[2 * k + 1] = new int[n];
+			out.getFromDevice(results[2 * k + 1]);
+			in.free();
+			flagBuffer.free();
+			out.free();
+		}
+
+		assertEquals(totals[1].intValue(), totals[0].intValue());
+		assertArrayEquals(results[2], results[0]);
+		assertArrayEquals(results[3], results[1]);
+	}
+
+	@Test
+	public void testSort() throws Exception
+	{
+		Random random = new Random(3);
+		int n = 50000;
+		float[] keys = randomFloats(random, n, 1000.0f);
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++)
+			values[i] = i;
+
+		float[][] sortedKeys = new float[2][n];
+		int[][] sortedValues = new int[2][n];
+		CyCLDevice[] devices = { device, host };
+		for (int k = 0; k < 2; k++)
+		{
+			CyCLBuffer keyBuffer = devices[k].createBuffer(keys);
+			CyCLBuffer valueBuffer = devices[k].createBuffer(values);
+			CyCLSort.sort(keyBuffer, valueBuffer, n);
+			keyBuffer.getFromDevice(sortedKeys[k]);
+			valueBuffer.getFromDevice(sortedValues[k]);
+			keyBuffer.free();
+			valueBuffer.free();
+		}
+
+		assertArrayEquals(sortedKeys[1], sortedKeys[0], 0.0f);
+		// Both sorts are stable, so equal keys keep their order
+		assertArrayEquals(sortedValues[1], sortedValues[0]);
+	}
+
+	@Test
+	public void testCompact() throws Exception
+	{
+		Random random = new Random(4);
+		int n = 60000;
+		float[] input = randomFloats(random, n, 10.0f);
+		int[] mask = randomInts(random, n, 2);
+
+		float[][] byMask = new float[2][n], byPredicate = new float[2][n];
+		int[][] indices = new int[2][n];
+		int[][] counts = new int[2][3];
+		CyCLDevice[] devices = { device, host };
+		for (int k = 0; k < 2; k++)
+		{
+			CyCLBuffer in = devices[k].createBuffer(input);
+			CyCLBuffer maskBuffer = devices[k].createBuffer(mask);
+			CyCLBuffer out = devices[k].createBuffer(float.class, n);
+			CyCLBuffer indexBuffer = devices[k].createBuffer(int.class, n);
+			counts[k][0] = CyCLCompact.compact(in, maskBuffer, out, n);
+			out.getFromDevice(byMask[k]);
+			counts[k][1] = CyCLCompact.compact(in, "x > 1.0f", out, n);
+			out.getFromDevice(byPredicate[k]);
+			counts[k][2] = CyCLCompact.indices(maskBuffer, indexBuffer, n);
+			indexBuffer.getFromDevice(indices[k]);
+			in.free();
+			maskBuffer.free();
+			out.free();
+			indexBuffer.free();
+		}
+
+		assertArrayEquals(counts[1], counts[0]);
+		for (int i = 0; i < counts[1][0]; i++)
+			assertEquals(byMask[1][i], byMask[0][i], 0.0f);
+		for (int i = 0; i < counts[1][1]; i++)
+			assertEquals(byPredicate[1][i], byPredicate[0][i], 0.0f);
+		for (int i = 0; i < counts[1][2]; i++)
+			assertEquals(indices[1][i], indices[0][i]);
+	}
+
+	@Test
+	public void testPredicateProgramsAreBounded() throws Exception
+	{
+		CyCLBuffer input = device.createBuffer(new float[] { 0.5f, 1.5f, 2.5f });
+		CyCLBuffer output = device.createBuffer(float.class, 3);
+		for (int i = 0; i < CyCLCompact.MAX_PREDICATE_PROGRAMS + 4; i++)
+			assertEquals(i < 3 ? 3 - i : 0, CyCLCompact.compact(input, "x > " + i + ".0f", output, 3));
+
+		assertEquals(CyCLCompact.MAX_PREDICATE_PROGRAMS, CyCLCompact.getPredicateProgramCount(device));
+		input.free();
+		output.free();
+	}
+
+	@Test
+	public void testSparseMatrix() throws Exception
+	{
+		Random random = new Random(5);
+		int rows = 3000, columns = 2000, nonZeros = 40000;
+		int[] rowIndices = randomInts(random, nonZeros, rows);
+		int[] columnIndices = randomInts(random, nonZeros, columns);
+		float[] values = randomFloats(random, nonZeros, 2.0f);
+		// A hub row, so both the short and the long row kernels are used
+		for (int i = 0; i < 2000; i++)
+			rowIndices[i] = 7;
+		float[] x = randomFloats(random, columns * 2, 2.0f);
+
+		for (CyCLSparseMatrix.Format format : CyCLSparseMatrix.Format.values())
+		{
+			float[][] y = new float[2][rows * 2];
+			CyCLDevice[] devices = { device, host };
+			for (int k = 0; k < 2; k++)
+			{
+				CyCLSparseMatrix matrix = CyCLSparseMatrix.fromEdges(devices[k], rows, columns, rowIndices, columnIndices, values, format);
+				CyCLBuffer xBuffer = devices[k].createBuffer(x);
+				CyCLBuffer yBuffer = devices[k].createBuffer(float.class, rows * 2);
+				matrix.multiply(xBuffer, yBuffer, 2);
+				yBuffer.getFromDevice(y[k]);
+				matrix.free();
+				xBuffer.free();
+				yBuffer.free();
+			}
+
+			for (int i = 0; i < rows * 2; i++)
+				assertEquals(format + " row " + i, y[1][i], y[0][i], 1e-3f * (1.0f + Math.abs(y[1][i])));
+		}
+	}
+
+	@Test
+	public void testHistogram() throws Exception
+	{
+		Random random = new Random(6);
+		int n = 100000, bins = 300;
+		int[] degrees = randomInts(random, n, bins + 20);
+		float[] values = randomFloats(random, n, 10.0f);
+
+		int[][] counts = new int[2][], binned = new int[2][];
+		CyCLDevice[] devices = { device, host };
+		for (int k = 0; k < 2; k++)
+		{
+			CyCLBuffer degreeBuffer = devices[k].createBuffer(degrees);
+			CyCLBuffer valueBuffer = devices[k].createBuffer(values);
+			counts[k] = CyCLHistogram.count(degreeBuffer, n, bins);
+			binned[k] = CyCLHistogram.bin(valueBuffer, n, -4.0, 4.0, 64);
+			degreeBuffer.free();
+			valueBuffer.free();
+		}
+
+		assertArrayEquals(counts[1], counts[0]);
+		assertArrayEquals(binned[1], binned[0]);
+	}
+
+	@Test
+	public void testForceLayout() throws Exception
+	{
+		Random random = new Random(7);
+		int n = 2000, edges = 4000;
+		float[] x = randomFloats(random, n, 200.0f);
+		float[] y = randomFloats(random, n, 200.0f);
+		int[] sources = randomInts(random, edges, n);
+		int[] targets = randomInts(random, edges, n);
+		float[] weights = new float[edges];
+		for (int i = 0; i < edges; i++)
+			weights[i] = 0.5f + random.nextFloat();
+
+		float[][] resultX = new float[2][n], resultY = new float[2][n];
+		CyCLDevice[] devices = { device, host };
+		for (int k = 0; k < 2; k++)
+		{
+			CyCLBuffer bufferX = devices[k].createBuffer(x);
+			CyCLBuffer bufferY = devices[k].createBuffer(y);
+			CyCLBuffer sourceBuffer = devices[k].createBuffer(sources);
+			CyCLBuffer targetBuffer = devices[k].createBuffer(targets);
+			CyCLBuffer weightBuffer = devices[k].createBuffer(weights);
+			CyCLForceLayout layout = new CyCLForceLayout(bufferX, bufferY, n, sourceBuffer, targetBuffer, weightBuffer, edges);
+			layout.setTheta(0.8f);
+			layout.step();
+			bufferX.getFromDevice(resultX[k]);
+			bufferY.getFromDevice(resultY[k]);
+			layout.free();
+			bufferX.free();
+			bufferY.free();
+			sourceBuffer.free();
+			targetBuffer.free();
+			weightBuffer.free();
+		}
+
+		// Forces are summed in a different order, so positions agree only approximately
+		for (int i = 0; i < n; i++)
+		{
+			assertEquals(resultX[1][i], resultX[0][i], 1e-2f * (1.0f + Math.abs(resultX[1][i] - x[i])));
+			assertEquals(resultY[1][i], resultY[0][i], 1e-2f * (1.0f + Math.abs(resultY[1][i] - y[i])));
+		}
+	}
+
+	@Test
+	public void testSpatialGrid() throws Exception
+	{
+		Random random = new Random(8);
+		int n = 5000, k = 8, maxNeighbors = 16;
+		float[] px = randomFloats(random, n, 100.0f);
+		float[] py = randomFloats(random, n, 100.0f);
+		float[] pz = randomFloats(random, n, 100.0f);
+
+		int[][] counts = new int[2][n];
+		float[][] distances = new float[2][n * k];
+		CyCLDevice[] devices = { device, host };
+		for (int d = 0; d < 2; d++)
+		{
+			CyCLBuffer x = devices[d].createBuffer(px), y = devices[d].createBuffer(py), z = devices[d].createBuffer(pz);
+			CyCLSpatialGrid grid = new CyCLSpatialGrid(x, y, z, n, 5.0f);
+			CyCLBuffer neighbors = devices[d].createBuffer(int.class, n * maxNeighbors);
+			CyCLBuffer countBuffer = devices[d].createBuffer(int.class, n);
+			CyCLBuffer distanceBuffer = devices[d].createBuffer(float.class, n * k);
+			grid.radiusNeighbors(4.0f, maxNeighbors, neighbors, countBuffer);
+			countBuffer.getFromDevice(counts[d]);
+			grid.nearestNeighbors(k, 50.0f, neighbors, distanceBuffer);
+			distanceBuffer.getFromDevice(distances[d]);
+			grid.free();
+			x.free();
+			y.free();
+			z.free();
+			neighbors.free();
+			countBuffer.free();
+			distanceBuffer.free();
+		}
+
+		// Neighbors within the same distance may come in any order, but their counts and distances are the same
+		assertArrayEquals(counts[1], counts[0]);
+		assertArrayEquals(distances[1], distances[0], 1e-4f);
+	}
+}
@@ -0,0 +1,56 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLReductionTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	@Test
+	public void testReduceTypes() throws Exception
+	{
+		CyCLBuffer ints = device.createBuffer(new int[] { 5, -3, 7, -3, 2 });
+		assertEquals(8, CyCLReduction.sum(ints));
+		assertEquals(-3, CyCLReduction.min(ints));
+		assertEquals(7, CyCLReduction.max(ints));
+		// Ties go to the lower index
+		assertEquals(1, CyCLReduction.argMin(ints, 5));
+		assertEquals(2, CyCLReduction.argMax(ints, 5));
+		// Only the first n elements count
+		assertEquals(2, CyCLReduction.sum(ints, 2));
+		ints.free();
+
+		CyCLBuffer longs = device.createBuffer(new long[] { Integer.MAX_VALUE, Integer.MAX_VALUE, -1 });
+		assertEquals(2L * Integer.MAX_VALUE - 1, CyCLReduction.sum(longs));
+		assertEquals(-1L, CyCLReduction.min(longs));
+		longs.free();
+
+		CyCLBuffer floats = device.createBuffer(new float[] { 0.5f, -1.5f, 4.0f });
+		assertEquals(3.0f, CyCLReduction.sum(floats));
+		assertEquals(-1.5f, CyCLReduction.min(floats));
+		assertEquals(4.0f, CyCLReduction.max(floats));
+		floats.free();
+
+		CyCLBuffer doubles = device.createBuffer(new double[] { 1e-3, 2e-3 });
+		assertEquals(3e-3, CyCLReduction.sum(doubles).doubleValue(), 1e-15);
+		assertEquals(1, CyCLReduction.argMax(doubles, 2));
+		doubles.free();
+	}
+
+	@Test
+	public void testEmpty() throws Exception
+	{
+		CyCLBuffer floats = device.createBuffer(new float[] { 1.0f });
+		assertEquals(0.0f, CyCLReduction.sum(floats, 0));
+		assertEquals(-1, CyCLReduction.argMin(floats, 0));
+		floats.free();
+	}
+
+	@Test(expected = CyCLException.class)
+	public void testUnsupportedType() throws Exception
+	{
+		CyCLReduction.sum(device.createBuffer(new byte[] { 1, 2 }));
+	}
+}
@@ -0,0 +1,62 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLScanTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	@Test
+	public void testExclusiveAndInclusive() throws Exception
+	{
+		CyCLBuffer input = device.createBuffer(new int[] { 3, 1, 4, 1, 5 });
+		CyCLBuffer output = device.createBuffer(int.class, 5);
+
+		assertEquals(14, CyCLScan.exclusive(input, output, 5));
+		int[] result = new int[5];
+		output.getFromDevice(result);
+		assertArrayEquals(new int[] { 0, 3, 4, 8, 9 }, result);
+
+		// In place
+		assertEquals(14, CyCLScan.inclusive(input, input, 5));
+		input.getFromDevice(result);
+		assertArrayEquals(new int[] { 3, 4, 8, 9, 14 }, result);
+
+		CyCLBuffer longs = device.createBuffer(new long[] { Integer.MAX_VALUE, Integer.MAX_VALUE });
+		assertEquals(2L * Integer.MAX_VALUE, CyCLScan.inclusive(longs, longs, 2));
+
+		input.free();
+		output.free();
+		longs.free();
+	}
+
+	@Test
+	public void testSegmented() throws Exception
+	{
+		// Segments [0, 2), [2, 5), [5, 6)
+		CyCLBuffer offsets = device.createBuffer(new int[] { 0, 2, 5 });
+		CyCLBuffer flags = CyCLScan.flagsFromOffsets(offsets, 3, 6);
+		int[] flagValues = new int[6];
+		flags.getFromDevice(flagValues);
+		assertArrayEquals(new int[] { 1, 0, 1, 0, 0, 1 }, flagValues);
+
+		CyCLBuffer input = device.createBuffer(new float[] { 1, 2, 3, 4, 5, 6 });
+		CyCLBuffer output = device.createBuffer(float.class, 6);
+		float[] result = new float[6];
+
+		CyCLScan.exclusiveSegmented(input, flags, output, 6);
+		output.getFromDevice(result);
+		assertArrayEquals(new float[] { 0, 1, 0, 3, 7, 0 }, result, 0.0f);
+
+		CyCLScan.inclusiveSegmented(input, flags, output, 6);
+		output.getFromDevice(result);
+		assertArrayEquals(new float[] { 1, 3, 3, 7, 12, 6 }, result, 0.0f);
+
+		offsets.free();
+		flags.free();
+		input.free();
+		output.free();
+	}
+}
@@ -0,0 +1,99 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CyCLSortTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	@Test
+	public void testSortKeys() throws Exception
+	{
+		Random random = new Random(7);
+		int[] ints = new int[1000];
+		float[] floats = new float[1000];
+		for (int i = 0; i < ints.length; i++)
+		{
+			ints[i] = random.nextInt();
+			floats[i] = (float)random.nextGaussian() * 1000.0f;
+		}
+		floats[0] = -0.0f;
+		floats[1] = 0.0f;
+		floats[2] = Float.NEGATIVE_INFINITY;
+
+		CyCLBuffer intBuffer = device.createBuffer(ints);
+		CyCLSort.sort(intBuffer, ints.length);
+		int[] sortedInts = new int[ints.length];
+		intBuffer.getFromDevice(sortedInts);
+		Arrays.sort(ints);
+		assertArrayEquals(ints, sortedInts);
+
+		CyCLBuffer floatBuffer = device.createBuffer(floats);
+		CyCLSort.sort(floatBuffer, floats.length);
+		float[] sortedFloats = new float[floats.length];
+		floatBuffer.getFromDevice(sortedFloats);
+		Arrays.sort(floats);
+		assertArrayEquals(floats, sortedFloats, 0.0f);
+
+		// Only the first n keys are sorted
+		CyCLBuffer longBuffer = device.createBuffer(new long[] { 5, Long.MIN_VALUE, -3, Long.MAX_VALUE, 0 });
+		CyCLSort.sort(longBuffer, 4);
+		long[] sortedLongs = new long[5];
+		longBuffer.getFromDevice(sortedLongs);
+		assertArrayEquals(new long[] { Long.MIN_VALUE, -3, 5, Long.MAX_VALUE, 0 }, sortedLongs);
+
+		intBuffer.free();
+		floatBuffer.free();
+		longBuffer.free();
+	}
+
+	@Test
+	public void testSortPairsIsStable() throws Exception
+	{
+		CyCLBuffer keys = device.createBuffer(new double[] { 2.5, -1.0, 2.5, -7.25, -1.0 });
+		CyCLBuffer values = device.createBuffer(new int[] { 0, 1, 2, 3, 4 });
+		CyCLSort.sort(keys, values, 5);
+
+		double[] sortedKeys = new double[5];
+		int[] sortedValues = new int[5];
+		keys.getFromDevice(sortedKeys);
+		values.getFromDevice(sortedValues);
+		assertArrayEquals(new double[] { -7.25, -1.0, -1.0, 2.5, 2.5 }, sortedKeys, 0.0);
+		assertArrayEquals(new int[] { 3, 1, 4, 0, 2 }, sortedValues);
+
+		keys.free();
+		values.free();
+	}
+
+	@Test
+	public void testEncodingKeepsOrder() throws Exception
+	{
+		float[] floats = { Float.NEGATIVE_INFINITY, -2.0f, -0.0f, 0.0f, Float.MIN_VALUE, 1.5f, Float.POSITIVE_INFINITY };
+		for (int i = 0; i < floats.length; i++)
+		{
+			long bits = Float.floatToRawIntBits(floats[i]);
+			long encoded = CyCLSort.encode(float.class, bits);
+			assertEquals(bits, CyCLSort.decode(float.class, encoded));
+			if (i > 0)
+				assertTrue(Long.compareUnsigned(CyCLSort.encode(float.class, Float.floatToRawIntBits(floats[i - 1])), encoded) < 0);
+		}
+
+		long[] longs = { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE };
+		for (int i = 0; i < longs.length; i++)
+		{
+			long encoded = CyCLSort.encode(long.class, longs[i]);
+			assertEquals(longs[i], CyCLSort.decode(long.class, encoded));
+			if (i > 0)
+				assertTrue(Long.compareUnsigned(CyCLSort.encode(long.class, longs[i - 1]), encoded) < 0);
+		}
+
+		long doubleBits = Double.doubleToRawLongBits(-3.5);
+		assertEquals(doubleBits, CyCLSort.decode(double.class, CyCLSort.encode(double.class, doubleBits)));
+		assertEquals(-5, CyCLSort.decode(int.class, CyCLSort.encode(int.class, -5)));
+	}
+}
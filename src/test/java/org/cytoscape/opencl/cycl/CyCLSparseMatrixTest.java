@@ -0,0 +1,79 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLSparseMatrixTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	@Test
+	public void testMultiply() throws Exception
+	{
+		// | 0 2 0 |
+		// | 1 0 3 |
+		// | 0 0 0 |
+		// | 0 4 0 |, with the last entry given twice
+		int[] rows = { 1, 0, 1, 3, 3 };
+		int[] columns = { 0, 1, 2, 1, 1 };
+		float[] values = { 1, 2, 3, 1, 3 };
+		CyCLSparseMatrix matrix = CyCLSparseMatrix.fromEdges(device, 4, 3, rows, columns, values);
+		assertEquals(CyCLSparseMatrix.Format.CSR, matrix.getFormat());
+		assertEquals(5, matrix.getNonZeros());
+		assertEquals(2, matrix.getMaxRowLength());
+
+		CyCLBuffer x = device.createBuffer(new float[] { 1, 2, 3 });
+		CyCLBuffer y = device.createBuffer(float.class, 4);
+		matrix.multiply(x, y);
+		float[] result = new float[4];
+		y.getFromDevice(result);
+		assertArrayEquals(new float[] { 4, 10, 0, 8 }, result, 0.0f);
+
+		// Two interleaved vectors, the second one all ones
+		CyCLBuffer x2 = device.createBuffer(new float[] { 1, 1, 2, 1, 3, 1 });
+		CyCLBuffer y2 = device.createBuffer(float.class, 8);
+		matrix.multiply(x2, y2, 2);
+		float[] result2 = new float[8];
+		y2.getFromDevice(result2);
+		assertArrayEquals(new float[] { 4, 2, 10, 4, 0, 0, 8, 4 }, result2, 0.0f);
+
+		try {
+			matrix.multiply(y, x);
+			fail("x is shorter than the matrix has columns");
+		} catch (CyCLException e) {
+		}
+
+		matrix.free();
+		x.free();
+		y.free();
+		x2.free();
+		y2.free();
+	}
+
+	@Test
+	public void testHubRowsAreMultipliedByTeams() throws Exception
+	{
+		// 1000 rows of one entry and a hub of 500, which leaves the mean row length below VECTOR_MIN_ROW_LENGTH
+		int[] rowOffsets = new int[1002];
+		for (int r = 0; r < 1001; r++)
+			rowOffsets[r + 1] = rowOffsets[r] + (r == 500 ? 500 : 1);
+		assertTrue(rowOffsets[1001] / 1001.0 < CyCLSparseMatrix.VECTOR_MIN_ROW_LENGTH);
+
+		int[] rowList = CyCLSparseMatrix.binRows(rowOffsets, 1001);
+		assertEquals(1000, rowList[1001]);
+		assertEquals(499, rowList[499]);
+		assertEquals(501, rowList[500]);
+		assertEquals(500, rowList[1000]);
+
+		assertEquals(32, CyCLSparseMatrix.chooseLanes(500.0, 32));
+		assertEquals(8, CyCLSparseMatrix.chooseLanes(5.0, 32));
+		assertEquals(1, CyCLSparseMatrix.chooseLanes(500.0, 1));
+	}
+
+	@Test(expected = CyCLException.class)
+	public void testEntryOutsideMatrix() throws Exception
+	{
+		CyCLSparseMatrix.fromEdges(device, 2, 2, new int[] { 0 }, new int[] { 2 }, null);
+	}
+}
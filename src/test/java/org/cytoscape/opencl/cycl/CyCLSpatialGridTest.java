@@ -0,0 +1,137 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CyCLSpatialGridTest
+{
+	private static final CyCLDevice device = CyCLTestDevices.getHostDevice();
+
+	@Test
+	public void testRadiusNeighbors() throws Exception
+	{
+		// Points 0, 1 and 2 are within 1.5 of each other in a chain, 3 is far away, also with negative coordinates
+		CyCLBuffer x = device.createBuffer(new float[] { -0.5f, 0.5f, 1.5f, 100.0f });
+		CyCLBuffer y = device.createBuffer(new float[] { 0.0f, 0.0f, 0.0f, -100.0f });
+		CyCLSpatialGrid grid = new CyCLSpatialGrid(x, y, null, 4, 1.0f);
+
+		CyCLBuffer neighbors = device.createBuffer(int.class, 4 * 2);
+		CyCLBuffer counts = device.createBuffer(int.class, 4);
+		grid.radiusNeighbors(1.5f, 2, neighbors, counts);
+		int[] countValues = new int[4], neighborValues = new int[8];
+		counts.getFromDevice(countValues);
+		neighbors.getFromDevice(neighborValues);
+		assertArrayEquals(new int[] { 1, 2, 1, 0 }, countValues);
+		assertEquals(1, neighborValues[0]);
+		int[] middle = Arrays.copyOfRange(neighborValues, 2, 4);
+		Arrays.sort(middle);
+		assertArrayEquals(new int[] { 0, 2 }, middle);
+
+		// Move point 3 next to point 0
+		x.setFromHost(new float[] { -0.5f, 0.5f, 1.5f, -0.5f });
+		y.setFromHost(new float[] { 0.0f, 0.0f, 0.0f, 0.25f });
+		grid.rebuild();
+		grid.radiusNeighbors(1.5f, 2, neighbors, counts);
+		counts.getFromDevice(countValues);
+		assertArrayEquals(new int[] { 2, 3, 1, 2 }, countValues);
+
+		grid.free();
+		x.free();
+		y.free();
+		neighbors.free();
+		counts.free();
+	}
+
+	@Test
+	public void testNearestNeighbors() throws Exception
+	{
+		Random random = new Random(11);
+		int n = 300, k = 4;
+		float[] px = new float[n], py = new float[n], pz = new float[n];
+		for (int i = 0; i < n; i++)
+		{
+			px[i] = random.nextFloat() * 20.0f;
+			py[i] = random.nextFloat() * 20.0f;
+			pz[i] = random.nextFloat() * 20.0f;
+		}
+
+		CyCLBuffer x = device.createBuffer(px), y = device.createBuffer(py), z = device.createBuffer(pz);
+		CyCLSpatialGrid grid = new CyCLSpatialGrid(x, y, z, n, 2.0f);
+		CyCLBuffer neighbors = device.createBuffer(int.class, n * k);
+		CyCLBuffer distances = device.createBuffer(float.class, n * k);
+		grid.nearestNeighbors(k, 100.0f, neighbors, distances);
+		float[] distanceValues = new float[n * k];
+		distances.getFromDevice(distanceValues);
+
+		for (int i = 0; i < n; i++)
+		{
+			float[] expected = new float[n - 1];
+			for (int j = 0, m = 0; j < n; j++)
+				if (j != i)
+					expected[m++] = (float)Math.sqrt((px[j] - px[i]) * (px[j] - px[i]) + (py[j] - py[i]) * (py[j] - py[i]) + (pz[j] - pz[i]) * (pz[j] - pz[i]));
+			Arrays.sort(expected);
+			for (int m = 0; m < k; m++)
+				assertEquals(expected[m], distanceValues[i * k + m], 1e-4f);
+		}
+
+		// Nothing within a tiny radius
+		grid.nearestNeighbors(k, 1e-6f, neighbors, distances);
+		int[] neighborValues = new int[n * k];
+		neighbors.getFromDevice(neighborValues);
+		assertEquals(-1, neighborValues[0]);
+
+		grid.free();
+		x.free();
+		y.free();
+		z.free();
+		neighbors.free();
+		distances.free();
+	}
+
+	@Test
+	public void testLargeRadiusStopsAtExtent() throws Exception
+	{
+		// Fewer points than neighbors asked for, so the search can only end at the points' extent
+		CyCLBuffer x = device.createBuffer(new float[] { 0.0f, 3.0f, 40.0f });
+		CyCLBuffer y = device.createBuffer(new float[] { 0.0f, 0.0f, -10.0f });
+		CyCLSpatialGrid grid = new CyCLSpatialGrid(x, y, null, 3, 1.0f);
+		CyCLBuffer neighbors = device.createBuffer(int.class, 3 * 8);
+		CyCLBuffer distances = device.createBuffer(float.class, 3 * 8);
+		CyCLBuffer counts = device.createBuffer(int.class, 3);
+
+		grid.nearestNeighbors(8, 1e30f, neighbors, distances);
+		int[] neighborValues = new int[3 * 8];
+		neighbors.getFromDevice(neighborValues);
+		assertEquals(1, neighborValues[0]);
+		assertEquals(2, neighborValues[1]);
+		assertEquals(-1, neighborValues[2]);
+
+		grid.setCellSize(10.0f);
+		grid.radiusNeighbors(1e30f, 2, neighbors, counts);
+		int[] countValues = new int[3];
+		counts.getFromDevice(countValues);
+		assertArrayEquals(new int[] { 2, 2, 2 }, countValues);
+
+		try {
+			grid.nearestNeighbors(8, Float.POSITIVE_INFINITY, neighbors, distances);
+			fail("Infinite radius");
+		} catch (CyCLException e) {
+		}
+		try {
+			grid.radiusNeighbors(Float.NaN, 2, neighbors, counts);
+			fail("NaN radius");
+		} catch (CyCLException e) {
+		}
+
+		grid.free();
+		x.free();
+		y.free();
+		neighbors.free();
+		distances.free();
+		counts.free();
+	}
+}
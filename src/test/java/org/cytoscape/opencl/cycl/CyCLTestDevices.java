@@ -0,0 +1,66 @@
+package org.cytoscape.opencl.cycl;
+
+import java.util.List;
+
+import org.junit.Assume;
+import org.lwjgl.opencl.CL;
+
+/***
+ * Devices shared by the tests: a Java device that runs the host code of the primitives on any machine,
+ * and the first OpenCL device for the tests that build the kernels themselves.
+ */
+final class CyCLTestDevices
+{
+	// Set by the pocl Maven profile, so CI runners with an OpenCL implementation fail instead of skipping OpenCL tests
+	static final String REQUIRE_OPENCL = "cycl.test.requireOpenCL";
+
+	private static CyCLDevice hostDevice;
+
+	private CyCLTestDevices()
+	{
+	}
+
+	/***
+	 * Gets the Java device, which is created once and shared by all tests.
+	 */
+	static synchronized CyCLDevice getHostDevice()
+	{
+		if (hostDevice == null)
+			hostDevice = CyCLDevice.forBackend(new CyCLJavaBackend(1));
+
+		return hostDevice;
+	}
+
+	/***
+	 * Initializes OpenCL and gets its first device. Without one, the calling test is skipped with the reason,
+	 * or fails if REQUIRE_OPENCL is set.
+	 */
+	static CyCLDevice getOpenCLDevice()
+	{
+		CyCLDevice device = null;
+		Throwable failure = null;
+		try
+		{
+			CL.destroy();
+			CL.create();
+			List<CyCLDevice> devices = CyCLDevice.getAll("");
+			for (CyCLDevice candidate : devices)
+				if (candidate.getBackend() == null)
+				{
+					device = candidate;
+					break;
+				}
+		}
+		catch (Throwable e)
+		{
+			failure = e;
+		}
+
+		String reason = "No OpenCL device available" + (failure == null ? "" : ": " + failure);
+		if (device == null && Boolean.getBoolean(REQUIRE_OPENCL))
+			throw new AssertionError(reason + ", but " + REQUIRE_OPENCL + " is set", failure);
+		Assume.assumeTrue(reason, device != null);
+
+		return device;
+	}
+}
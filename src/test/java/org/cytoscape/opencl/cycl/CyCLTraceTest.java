@@ -0,0 +1,66 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CyCLTraceTest
+{
+
+	@After
+	public void tearDown()
+	{
+		CyCLTrace.stop();
+	}
+
+	@Test
+	public void testHostRecordsAndRingOverwrite() throws Exception
+	{
+		CyCLTrace.start(2);
+		CyCLTrace.record(CyCLTrace.CATEGORY_BUILD, "First", null, 1000, 2000, 0, 0);
+		CyCLTrace.record(CyCLTrace.CATEGORY_TRANSFER, "Second", null, 3000, 4500, 64, 0);
+		CyCLTrace.record(CyCLTrace.CATEGORY_WAIT, "Third \"quoted\"", null, 5000, 6000, 0, 0);
+		CyCLTrace.stop();
+		CyCLTrace.record(CyCLTrace.CATEGORY_WAIT, "Ignored", null, 7000, 8000, 0, 0);
+
+		StringWriter writer = new StringWriter();
+		CyCLTrace.write(writer);
+		String json = writer.toString();
+
+		assertFalse(json.contains("First"));
+		assertFalse(json.contains("Ignored"));
+		assertTrue(json.contains("\"name\":\"Second\",\"cat\":\"transfer\",\"ph\":\"X\",\"ts\":3.000,\"dur\":1.500"));
+		assertTrue(json.contains("\"bytes\":64"));
+		assertTrue(json.contains("Third \\\"quoted\\\""));
+		assertTrue(json.startsWith("{") && json.trim().endsWith("]}"));
+	}
+
+	@Test
+	public void testIdenticalDevicesAreNumbered() throws Exception
+	{
+		CyCLDevice first = CyCLDevice.forBackend(new CyCLJavaBackend(1));
+		CyCLDevice second = CyCLDevice.forBackend(new CyCLJavaBackend(1));
+		assertEquals(first.getProfileKey(), second.getProfileKey());
+
+		CyCLTrace.start(4);
+		CyCLTrace.record(CyCLTrace.CATEGORY_KERNEL, "A", first, 1000, 2000, 0, 0);
+		CyCLTrace.record(CyCLTrace.CATEGORY_KERNEL, "B", second, 3000, 4000, 0, 0);
+		CyCLTrace.record(CyCLTrace.CATEGORY_KERNEL, "C", first, 5000, 6000, 0, 0);
+
+		StringWriter writer = new StringWriter();
+		CyCLTrace.write(writer);
+		String json = writer.toString();
+
+		assertTrue(json.contains("\"name\":\"B\"") && json.contains("\"device\":\"" + CyCLTrace.escape(second.name) + " #2\""));
+		assertFalse(json.contains(" #3"));
+	}
+
+	@Test
+	public void testEscape() throws Exception
+	{
+		assertEquals("a\\\\b\\u000a", CyCLTrace.escape("a\\b\n"));
+	}
+}
@@ -0,0 +1,125 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CyCLVectorBackendTest
+{
+	private static CyCLDevice device;
+
+	@BeforeClass
+	public static void setUp()
+	{
+		device = CyCLDevice.forBackend(new CyCLVectorBackend(2));
+	}
+
+	private static float[] random(Random random, int n)
+	{
+		float[] values = new float[n];
+		for (int i = 0; i < n; i++)
+			values[i] = random.nextFloat() * 2 - 1;
+		return values;
+	}
+
+	@Test
+	public void testAxpyAndDistance() throws Exception
+	{
+		// Not a multiple of the block size or the number of lanes
+		int n = 10007;
+		Random random = new Random(1);
+		float[] x1 = random(random, n), y1 = random(random, n), x2 = random(random, n), y2 = random(random, n);
+
+		CyCLBuffer bx1 = device.createBuffer(x1), by1 = device.createBuffer(y1);
+		CyCLBuffer bx2 = device.createBuffer(x2), by2 = device.createBuffer(y2);
+		CyCLBuffer distance = device.createBuffer(float.class, n);
+
+		CyCLPrimitives.distance(bx1, by1, bx2, by2, distance, n);
+		CyCLPrimitives.axpy(0.5f, bx1, by1, n);
+
+		float[] resultDistance = new float[n], resultY = new float[n];
+		distance.getFromDevice(resultDistance);
+		by1.getFromDevice(resultY);
+		for (int i = 0; i < n; i++)
+		{
+			assertEquals((float)Math.hypot(x1[i] - x2[i], y1[i] - y2[i]), resultDistance[i], 1e-6f);
+			assertEquals(0.5f * x1[i] + y1[i], resultY[i], 0.0f);
+		}
+
+		bx1.free();
+		by1.free();
+		bx2.free();
+		by2.free();
+		distance.free();
+	}
+
+	@Test
+	public void testSumAndDot() throws Exception
+	{
+		int n = 1000003;
+		Random random = new Random(2);
+		float[] x = random(random, n), y = random(random, n);
+
+		double sum = 0.0, dot = 0.0;
+		for (int i = 0; i < n; i++)
+		{
+			sum += x[i];
+			dot += (double)x[i] * y[i];
+		}
+
+		CyCLBuffer bx = device.createBuffer(x), by = device.createBuffer(y);
+		assertEquals(sum, CyCLPrimitives.sum(bx, n), 1e-2);
+		assertEquals(dot, CyCLPrimitives.dot(bx, by, n), 1e-2);
+		assertEquals(0.0f, CyCLPrimitives.sum(bx, 0), 0.0f);
+
+		bx.free();
+		by.free();
+	}
+
+	@Test
+	public void testAccumulateRepulsion() throws Exception
+	{
+		int n = 1001;
+		Random random = new Random(3);
+		float[] x = random(random, n), y = random(random, n);
+		float[] fx = new float[n], fy = new float[n];
+		Arrays.fill(fx, 1.0f);
+
+		CyCLBuffer bx = device.createBuffer(x), by = device.createBuffer(y);
+		CyCLBuffer bfx = device.createBuffer(fx), bfy = device.createBuffer(fy);
+		CyCLPrimitives.accumulateRepulsion(bx, by, bfx, bfy, 0.01f, 0.1f, n);
+		bfx.getFromDevice(fx);
+		bfy.getFromDevice(fy);
+
+		for (int i = 0; i < n; i += 97)
+		{
+			double expectedX = 1.0, expectedY = 0.0;
+			for (int j = 0; j < n; j++)
+			{
+				double dx = x[i] - x[j], dy = y[i] - y[j];
+				double scale = 0.01 / Math.max(dx * dx + dy * dy, 0.01);
+				expectedX += dx * scale;
+				expectedY += dy * scale;
+			}
+			assertEquals(expectedX, fx[i], 1e-3);
+			assertEquals(expectedY, fy[i], 1e-3);
+		}
+
+		bx.free();
+		by.free();
+		bfx.free();
+		bfy.free();
+	}
+
+	@Test
+	public void testWorkloadNeedsImplementedKernels() throws Exception
+	{
+		assertFalse(new CyCLWorkload(1000, 1000, 1000).isSupportedBy(device));
+		assertTrue(new CyCLWorkload(1000, 1000, 1000).setKernels(CyCLPrimitives.KERNEL_NAMES).isSupportedBy(device));
+		assertFalse(new CyCLWorkload(1000, 1000, 1000).setKernels("Axpy", "SomethingElse").isSupportedBy(device));
+	}
+}
@@ -0,0 +1,56 @@
+package org.cytoscape.opencl.cycl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CyCLWorkloadTest
+{
+
+	private static CyCLDeviceProfile createProfile(double bandwidth, double latency, double fp32, double fp64)
+	{
+		double[] values = new double[CyCLDeviceProfile.Metric.values().length];
+		values[CyCLDeviceProfile.Metric.HOST_TO_DEVICE_BANDWIDTH.ordinal()] = bandwidth;
+		values[CyCLDeviceProfile.Metric.DEVICE_TO_HOST_BANDWIDTH.ordinal()] = bandwidth;
+		values[CyCLDeviceProfile.Metric.LAUNCH_LATENCY.ordinal()] = latency;
+		values[CyCLDeviceProfile.Metric.FP32_THROUGHPUT.ordinal()] = fp32;
+		values[CyCLDeviceProfile.Metric.FP64_THROUGHPUT.ordinal()] = fp64;
+		return new CyCLDeviceProfile(values);
+	}
+
+	@Test
+	public void testPredictionAddsTransfersComputeAndLaunches() throws Exception
+	{
+		// 1 GB/s, 10 us launch latency, 1 GFLOPS
+		CyCLDeviceProfile profile = createProfile(1.0, 10.0, 1.0, 0.5);
+		CyCLWorkload workload = new CyCLWorkload(1000000, 500000, 2000000).setLaunches(3);
+
+		assertEquals(1e-3 + 0.5e-3 + 2e-3 + 30e-6, workload.predictTime(profile), 1e-12);
+		assertEquals(1e-3 + 0.5e-3 + 4e-3 + 30e-6, workload.setNeedsDouble(true).predictTime(profile), 1e-12);
+	}
+
+	@Test
+	public void testTransferBoundWorkloadPrefersFastLink() throws Exception
+	{
+		CyCLDeviceProfile cpu = createProfile(10.0, 5.0, 50.0, 25.0);
+		CyCLDeviceProfile gpu = createProfile(1.0, 20.0, 5000.0, 200.0);
+
+		CyCLWorkload small = new CyCLWorkload(10000000, 10000000, 1000000);
+		CyCLWorkload dense = new CyCLWorkload(10000000, 10000000, 1e12);
+
+		assertTrue(small.predictTime(cpu) < small.predictTime(gpu));
+		assertTrue(dense.predictTime(gpu) < dense.predictTime(cpu));
+	}
+
+	@Test
+	public void testUnmeasuredRatesArePenalizedFinitely() throws Exception
+	{
+		CyCLDeviceProfile measured = createProfile(1.0, 10.0, 1.0, 0.5);
+		CyCLDeviceProfile unmeasured = createProfile(0.0, 10.0, 0.0, 0.0);
+		CyCLWorkload workload = new CyCLWorkload(1000000000000L, 1000000000000L, 1e15);
+
+		double time = workload.predictTime(unmeasured);
+		assertFalse(Double.isInfinite(time) || Double.isNaN(time));
+		assertTrue(workload.predictTime(measured) < time);
+	}
+}